@@ -0,0 +1,46 @@
+/*
+ * Filename: BenchmarkMain.java
+ */
+
+package org.quantworm.benchmark;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Runs the kernel benchmarks with the GC profiler (allocation rate per
+ * operation) and writes the results as JSON
+ */
+public class BenchmarkMain {
+
+    /** default file for the results */
+    public static final String RESULTS_JSON = "benchmark-results.json";
+
+    /**
+     * @param args [results file] [regular expression of benchmarks to run]
+     */
+    public static void main(String[] args) throws RunnerException {
+        String resultsFile = args.length > 0 ? args[0] : RESULTS_JSON;
+        String include = args.length > 1 ? args[1] : "org\\.quantworm\\.benchmark\\..*";
+
+        // the 'size' parameter of the results is one of these
+        for (String size : new String[]{SyntheticPlate.PIECE, SyntheticPlate.PLATE,
+            SyntheticPlate.FULL_PLATE}) {
+            System.out.println("# Plate size " + size + ": "
+                    + SyntheticPlate.getWidth(size) + " x " + SyntheticPlate.getHeight(size));
+        }
+
+        Options options = new OptionsBuilder()
+                .include(include)
+                .addProfiler(GCProfiler.class)
+                .resultFormat(ResultFormatType.JSON)
+                .result(resultsFile)
+                .jvmArgsAppend("-Djava.awt.headless=true", "-Xmx4g")
+                .build();
+        new Runner(options).run();
+    }
+}
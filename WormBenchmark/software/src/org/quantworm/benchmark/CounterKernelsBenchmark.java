@@ -0,0 +1,37 @@
+/*
+ * Filename: CounterKernelsBenchmark.java
+ */
+
+package org.quantworm.benchmark;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.quantworm.wormcounter.LineHough;
+
+/**
+ * Kernels of WormCounter
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class CounterKernelsBenchmark {
+
+    private final LineHough lineHough = new LineHough();
+
+    /** whole image; worm pixels (255) vote */
+    @Benchmark
+    public int[][] lineHough(PlateState state) {
+        return lineHough.process(state.binaryArray);
+    }
+}
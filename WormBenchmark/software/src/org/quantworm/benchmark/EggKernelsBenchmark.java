@@ -0,0 +1,39 @@
+/*
+ * Filename: EggKernelsBenchmark.java
+ */
+
+package org.quantworm.benchmark;
+
+import edu.rice.wormlab.eggcounter.CannyEdgeDetector;
+import java.awt.image.BufferedImage;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Kernels of WormEgg
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class EggKernelsBenchmark {
+
+    //One detector per thread, it keeps work buffers between calls
+    private final CannyEdgeDetector cannyEdgeDetector = new CannyEdgeDetector();
+
+    /** thresholds and kernel used by EggCounter */
+    @Benchmark
+    public BufferedImage detectCannyEdges(PlateState state) {
+        return cannyEdgeDetector.detectCannyEdges(state.grayImage, 100, 10, 3, 1);
+    }
+}
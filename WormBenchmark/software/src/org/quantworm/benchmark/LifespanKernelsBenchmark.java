@@ -0,0 +1,110 @@
+/*
+ * Filename: LifespanKernelsBenchmark.java
+ */
+
+package org.quantworm.benchmark;
+
+import edu.rice.wormlab.lifespan.GrayRaster;
+import edu.rice.wormlab.lifespan.ImageRegistration;
+import edu.rice.wormlab.lifespan.ImageShift;
+import edu.rice.wormlab.lifespan.NativeImgProcessing;
+import edu.rice.wormlab.lifespan.SequentialLabeling;
+import edu.rice.wormlab.lifespan.UnionFindLabeling;
+import edu.rice.wormlab.lifespan.imClearBorder;
+import ij.ImagePlus;
+import java.awt.image.BufferedImage;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Kernels of NativeImgProcessing and of the ImageJ-based helpers, as copied
+ * in WormLifespan; the other assays carry the same code.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class LifespanKernelsBenchmark {
+
+    //One processor per thread, it keeps work buffers between calls
+    private final NativeImgProcessing imgProc = new NativeImgProcessing();
+
+    @Benchmark
+    public BufferedImage adaptiveThresholding(PlateState state) {
+        return imgProc.adaptiveThresholding_Core(state.grayArray, 15, 0.2f, 300);
+    }
+
+    @Benchmark
+    public GrayRaster adaptiveThresholdingRaster(PlateState state) {
+        return imgProc.adaptiveThresholding_Core(GrayRaster.wrap(state.grayImage), 15, 0.2f, 300);
+    }
+
+    @Benchmark
+    public BufferedImage regionExtract(PlateState state) {
+        return imgProc.regionExtract_RasterScanning(state.binaryArray, 0);
+    }
+
+    @Benchmark
+    public BufferedImage alignImage(PlateState state) {
+        return imgProc.alignImage(state.shiftedGrayImage, state.grayImage, 10, 10);
+    }
+
+    @Benchmark
+    public ImageShift registration(PlateState state) {
+        return new ImageRegistration(10, 10, true).register(GrayRaster.wrap(state.grayImage),
+                GrayRaster.wrap(state.shiftedGrayImage));
+    }
+
+    @Benchmark
+    public ImageShift registrationWide(PlateState state) {
+        return new ImageRegistration(100, 10, true).register(GrayRaster.wrap(state.grayImage),
+                GrayRaster.wrap(state.shiftedGrayImage));
+    }
+
+    @Benchmark
+    public short[][] floodFill(FreshInputs inputs) {
+        return imgProc.floodFill(inputs.binaryArray, 0, 0, (short) 100, 1);
+    }
+
+    @Benchmark
+    public int sequentialLabeling(PlateState state) {
+        return new SequentialLabeling(state.binaryProcessor).labelRegions().size();
+    }
+
+    @Benchmark
+    public int unionFindLabeling(PlateState state) {
+        return new UnionFindLabeling(state.binaryProcessor, false).getRegions().size();
+    }
+
+    @Benchmark
+    public int unionFindLabelingParallel(PlateState state) {
+        return new UnionFindLabeling(state.binaryProcessor, true).getRegions().size();
+    }
+
+    @Benchmark
+    public ImagePlus clearBorder(FreshInputs inputs) {
+        return imClearBorder.imclearborder(inputs.binaryImage);
+    }
+
+    @Benchmark
+    public int clearBorderThenLabeling(FreshInputs inputs) {
+        imClearBorder.imclearborder(inputs.binaryImage);
+        return new UnionFindLabeling(inputs.binaryImage.getProcessor(), true).getRegions().size();
+    }
+
+    @Benchmark
+    public int unionFindLabelingBorderCleared(FreshInputs inputs) {
+        return new UnionFindLabeling(inputs.binaryImage.getProcessor(), true, true)
+                .getRegions().size();
+    }
+}
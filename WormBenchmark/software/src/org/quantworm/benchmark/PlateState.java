@@ -0,0 +1,50 @@
+/*
+ * Filename: PlateState.java
+ */
+
+package org.quantworm.benchmark;
+
+import ij.process.ByteProcessor;
+import java.awt.image.BufferedImage;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Synthetic plate shared by the benchmarks, in the forms the kernels take.
+ * Built once per trial; kernels must not modify these inputs (those that
+ * work in place get a fresh copy per call, see FreshInputs).
+ */
+@State(Scope.Benchmark)
+public class PlateState {
+
+    /** SyntheticPlate.PIECE, SyntheticPlate.PLATE or SyntheticPlate.FULL_PLATE */
+    @Param({SyntheticPlate.PIECE, SyntheticPlate.PLATE, SyntheticPlate.FULL_PLATE})
+    public String size;
+
+    @Param({"20150427"})
+    public long seed;
+
+    //Shift of the second frame used for alignment
+    static final int SHIFT_X = 3;
+    static final int SHIFT_Y = -2;
+
+    public SyntheticPlate plate;
+    public BufferedImage grayImage;
+    public BufferedImage shiftedGrayImage;
+    public short[][] grayArray;
+    public short[][] binaryArray;
+    public ByteProcessor binaryProcessor;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        plate = SyntheticPlate.create(size, seed);
+        grayImage = plate.toBufferedImage(plate.gray);
+        shiftedGrayImage = plate.toBufferedImage(plate.shiftedGray(SHIFT_X, SHIFT_Y));
+        grayArray = plate.toShortArray(plate.gray);
+        binaryArray = plate.toShortArray(plate.binary);
+        binaryProcessor = plate.toByteProcessor(plate.binary);
+    }
+}
@@ -0,0 +1,244 @@
+/*
+ * Filename: SyntheticPlate.java
+ */
+
+package org.quantworm.benchmark;
+
+import ij.process.ByteProcessor;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferByte;
+import java.util.Random;
+
+/**
+ * Seeded synthetic plate image: a light, slightly uneven background with
+ * sensor noise, dark worm-like blobs (thick random-walk curves) and a few
+ * specks of dirt.
+ * The same size and seed always give the same pixels, so benchmark runs
+ * can be compared with each other. Along with the gray image a binary one
+ * is kept, 255 where a worm was drawn and 0 elsewhere, as input for the
+ * kernels that work on thresholded images.
+ */
+public class SyntheticPlate {
+
+    /** size of one scanner piece */
+    public static final int PIECE_WIDTH = 640;
+    public static final int PIECE_HEIGHT = 480;
+
+    /** pieces of part of an assembled plate */
+    public static final int PLATE_COLUMNS = 4;
+    public static final int PLATE_ROWS = 5;
+
+    /** pieces of a whole assembled plate (6400 x 6240), as laid out by the scanner */
+    public static final int FULL_PLATE_COLUMNS = 10;
+    public static final int FULL_PLATE_ROWS = 13;
+
+    /** size names accepted by create */
+    public static final String PIECE = "piece";
+    public static final String PLATE = "plate";
+    public static final String FULL_PLATE = "fullplate";
+
+    //Worms per million pixels, about what sample plates show
+    private static final int WORMS_PER_MEGAPIXEL = 40;
+    private static final int BACKGROUND_GRAY = 190;
+
+    public final int width;
+    public final int height;
+    /** gray pixels, row-major */
+    public final byte[] gray;
+    /** binary pixels, row-major; 255 for worms, 0 for background */
+    public final byte[] binary;
+
+    /**
+     * Create plate of a named size
+     *
+     * @param size PIECE, PLATE or FULL_PLATE
+     * @param seed random seed
+     * @return the plate
+     */
+    public static SyntheticPlate create(String size, long seed) {
+        return new SyntheticPlate(getWidth(size), getHeight(size), seed);
+    }
+
+    /**
+     * @param size PIECE, PLATE or FULL_PLATE
+     * @return width of plates of that size
+     */
+    public static int getWidth(String size) {
+        return PIECE_WIDTH * getPieces(size)[0];
+    }
+
+    /**
+     * @param size PIECE, PLATE or FULL_PLATE
+     * @return height of plates of that size
+     */
+    public static int getHeight(String size) {
+        return PIECE_HEIGHT * getPieces(size)[1];
+    }
+
+    /**
+     * @return columns and rows of pieces of a named size
+     */
+    private static int[] getPieces(String size) {
+        if (PIECE.equals(size)) {
+            return new int[]{1, 1};
+        }
+        if (PLATE.equals(size)) {
+            return new int[]{PLATE_COLUMNS, PLATE_ROWS};
+        }
+        if (FULL_PLATE.equals(size)) {
+            return new int[]{FULL_PLATE_COLUMNS, FULL_PLATE_ROWS};
+        }
+        throw new IllegalArgumentException("Unknown plate size: " + size);
+    }
+
+    /**
+     * @param width image width
+     * @param height image height
+     * @param seed random seed
+     */
+    public SyntheticPlate(int width, int height, long seed) {
+        if (width < 1 || height < 1) {
+            throw new IllegalArgumentException("Bad plate size: " + width + " x " + height);
+        }
+        this.width = width;
+        this.height = height;
+        gray = new byte[width * height];
+        binary = new byte[width * height];
+
+        Random random = new Random(seed);
+        drawBackground(random);
+        int wormCount = (int) ((long) width * height * WORMS_PER_MEGAPIXEL / 1000000);
+        for (int q = 0; q < wormCount; q++) {
+            drawWorm(random);
+        }
+        for (int q = 0; q < wormCount / 2; q++) {
+            drawDisk(random.nextInt(width), random.nextInt(height),
+                    1 + random.nextInt(2), 120 + random.nextInt(40), false);
+        }
+    }
+
+    /**
+     * Background brightest at the center, with gaussian noise
+     */
+    private void drawBackground(Random random) {
+        double centerX = width / 2.0;
+        double centerY = height / 2.0;
+        double maxDistance2 = centerX * centerX + centerY * centerY;
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                double distance2 = (x - centerX) * (x - centerX) + (y - centerY) * (y - centerY);
+                double value = BACKGROUND_GRAY - 25 * distance2 / maxDistance2
+                        + random.nextGaussian() * 4;
+                gray[x + y * width] = (byte) clamp((int) Math.round(value));
+            }
+        }
+    }
+
+    /**
+     * Worm: disks along a random walk whose heading drifts smoothly
+     */
+    private void drawWorm(Random random) {
+        double x = random.nextInt(width);
+        double y = random.nextInt(height);
+        double heading = random.nextDouble() * 2 * Math.PI;
+        double turn = 0;
+        int length = 50 + random.nextInt(50);
+        int radius = 2 + random.nextInt(2);
+        int wormGray = 60 + random.nextInt(40);
+
+        for (int step = 0; step < length; step++) {
+            drawDisk((int) Math.round(x), (int) Math.round(y), radius, wormGray, true);
+            turn = turn * 0.8 + random.nextGaussian() * 0.08;
+            heading += turn;
+            x += Math.cos(heading);
+            y += Math.sin(heading);
+        }
+    }
+
+    private void drawDisk(int centerX, int centerY, int radius, int diskGray, boolean isWorm) {
+        for (int y = Math.max(0, centerY - radius); y <= Math.min(height - 1, centerY + radius); y++) {
+            for (int x = Math.max(0, centerX - radius); x <= Math.min(width - 1, centerX + radius); x++) {
+                if ((x - centerX) * (x - centerX) + (y - centerY) * (y - centerY) > radius * radius) {
+                    continue;
+                }
+                int index = x + y * width;
+                gray[index] = (byte) Math.min(gray[index] & 0xff, diskGray);
+                if (isWorm == true) {
+                    binary[index] = (byte) 255;
+                }
+            }
+        }
+    }
+
+    private static int clamp(int value) {
+        return Math.max(0, Math.min(255, value));
+    }
+
+    /**
+     * Gray image moved by (dx, dy), the uncovered border filled with the
+     * background gray; a second frame for alignment
+     *
+     * @param dx shift in x
+     * @param dy shift in y
+     * @return shifted gray pixels, row-major
+     */
+    public byte[] shiftedGray(int dx, int dy) {
+        byte[] shifted = new byte[gray.length];
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                int sx = x - dx;
+                int sy = y - dy;
+                if (sx < 0 || sy < 0 || sx >= width || sy >= height) {
+                    shifted[x + y * width] = (byte) BACKGROUND_GRAY;
+                } else {
+                    shifted[x + y * width] = gray[sx + sy * width];
+                }
+            }
+        }
+        return shifted;
+    }
+
+    /**
+     * @param pixels gray or binary pixels of this plate
+     * @return new TYPE_BYTE_GRAY image holding a copy of the pixels
+     */
+    public BufferedImage toBufferedImage(byte[] pixels) {
+        BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_BYTE_GRAY);
+        byte[] data = ((DataBufferByte) image.getRaster().getDataBuffer()).getData();
+        System.arraycopy(pixels, 0, data, 0, pixels.length);
+        return image;
+    }
+
+    /**
+     * @param pixels gray or binary pixels of this plate
+     * @return new gray array, [x][y]
+     */
+    public short[][] toShortArray(byte[] pixels) {
+        short[][] array = new short[width][height];
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                array[x][y] = (short) (pixels[x + y * width] & 0xff);
+            }
+        }
+        return array;
+    }
+
+    /**
+     * @param pixels gray or binary pixels of this plate
+     * @return new processor holding a copy of the pixels
+     */
+    public ByteProcessor toByteProcessor(byte[] pixels) {
+        return new ByteProcessor(width, height, pixels.clone(), null);
+    }
+
+    /**
+     * Copy of a [x][y] array, for kernels that work in place
+     */
+    public static short[][] copy(short[][] array) {
+        short[][] copied = new short[array.length][];
+        for (int x = 0; x < array.length; x++) {
+            copied[x] = array[x].clone();
+        }
+        return copied;
+    }
+}
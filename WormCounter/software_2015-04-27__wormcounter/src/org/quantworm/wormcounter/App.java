@@ -302,8 +302,8 @@ public class App extends JPanel implements ActionListener, ChangeListener {
 			}; // if
 			int returnValue = fileChooser.showOpenDialog(this);
 			if (returnValue == JFileChooser.APPROVE_OPTION) {
-				PlateProcessor plateProcessor = new PlateProcessor( maskFilename );
-				plateProcessor.recursivelyProcessDirectory(fileChooser.getSelectedFile().getAbsolutePath());
+				PlateBatchProcessor batchProcessor = new PlateBatchProcessor( maskFilename );
+				batchProcessor.processDirectory(fileChooser.getSelectedFile().getAbsolutePath());
 				JOptionPane.showMessageDialog(this, "Finished Image Processing.");
 			}; // if
 		  }; // if
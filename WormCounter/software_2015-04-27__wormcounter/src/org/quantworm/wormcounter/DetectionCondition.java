@@ -28,6 +28,16 @@ public class DetectionCondition {
 
     }
 
+    /**
+     * Copy constructor
+     * @param other the condition to copy
+     */
+    public DetectionCondition(DetectionCondition other) {
+        this.presetTitle = other.presetTitle;
+        this.min_WormSize = other.min_WormSize;
+        this.max_WormSize = other.max_WormSize;
+    }
+
     public static String[] get_DetectionConditionPreset_Titles(String fileName) {
         File file = new File(fileName);
         if (file.exists() == false) {
@@ -0,0 +1,323 @@
+/*
+ * Filename: ParticleMeasurer.java
+ */
+
+package org.quantworm.wormcounter;
+
+import java.util.Arrays;
+
+/**
+ * Measures the particles of a binary image in one labeling sweep.
+ * Particle pixels (8-connected) and background pixels (4-connected) are
+ * labeled together with a union-find; a background component that does not
+ * touch the image border is a hole of the particle right above its first
+ * pixel, and a particle inside a hole belongs to the particle around it.
+ * So the outermost particles come out as the Wand would trace them: the
+ * area includes holes and whatever lies in them, the bounding box is that
+ * of the outline, and the first pixel is where a raster scan meets it.
+ * Outermost particles are numbered 0..getParticleCount()-1 in raster order
+ * of their first pixel. There is no cap on the number of particles.
+ * An instance keeps its work arrays, so reusing it for images of the same
+ * size does not allocate again.
+ */
+public class ParticleMeasurer {
+
+    private static final int NONE = -1;
+
+    private int width;
+    private int height;
+
+    //Label map, row-major: index = x + y * width
+    private int[] labelMap = new int[0];
+
+    //Union-find forest over provisional labels, and first pixel of each
+    private int[] parent = new int[1024];
+    private int[] firstPixelOf = new int[1024];
+
+    //Per-component values, index is the final component id
+    private boolean[] isParticle = new boolean[0];
+    private boolean[] touchesBorder = new boolean[0];
+    private int[] enclosing = new int[0];
+    private int[] firstPixel = new int[0];
+    private int[] area = new int[0];
+    private int[] left = new int[0];
+    private int[] right = new int[0];
+    private int[] top = new int[0];
+    private int[] bottom = new int[0];
+
+    //Component ids of the outermost particles, in raster order
+    private int[] particles = new int[0];
+    private int particleCount;
+
+    /**
+     * Measure particles of a binary image
+     *
+     * @param raster the image
+     * @param particleGray gray value of particle pixels (0~255); any other
+     * value is background
+     * @return number of outermost particles
+     */
+    public int measure(GrayRaster raster, int particleGray) {
+        prepare(raster.width, raster.height);
+
+        //First pass: provisional labels, equivalences go into the forest
+        byte[] pixels = raster.pixels;
+        byte particleByte = (byte) particleGray;
+        int nextLabel = 1;
+        for (int y = 0; y < height; y++) {
+            int row = raster.index(0, y);
+            int upperRow = row - raster.stride;
+            for (int x = 0; x < width; x++) {
+                boolean inside = pixels[row + x] == particleByte;
+                int current = 0;
+                if (x > 0 && (pixels[row + x - 1] == particleByte) == inside) {
+                    current = union(current, labelMap[y * width + x - 1]);
+                }
+                if (y > 0) {
+                    int upper = (y - 1) * width + x;
+                    if ((pixels[upperRow + x] == particleByte) == inside) {
+                        current = union(current, labelMap[upper]);
+                    }
+                    //Diagonal neighbours only join particle pixels
+                    if (inside && x > 0 && pixels[upperRow + x - 1] == particleByte) {
+                        current = union(current, labelMap[upper - 1]);
+                    }
+                    if (inside && x < width - 1 && pixels[upperRow + x + 1] == particleByte) {
+                        current = union(current, labelMap[upper + 1]);
+                    }
+                }
+
+                if (current == 0) {
+                    if (nextLabel == parent.length) {
+                        parent = Arrays.copyOf(parent, parent.length * 2);
+                        firstPixelOf = Arrays.copyOf(firstPixelOf, parent.length);
+                    }
+                    parent[nextLabel] = nextLabel;
+                    firstPixelOf[nextLabel] = y * width + x;
+                    current = nextLabel;
+                    nextLabel++;
+                }
+                labelMap[y * width + x] = current;
+            }
+        }
+
+        int componentCount = resolveLabels(nextLabel, raster, particleByte);
+        findOutermostParticles(componentCount);
+        return particleCount;
+    }
+
+    private void prepare(int imageWidth, int imageHeight) {
+        width = imageWidth;
+        height = imageHeight;
+        particleCount = 0;
+
+        int pixelCount = width * height;
+        if (labelMap.length < pixelCount) {
+            labelMap = new int[pixelCount];
+        }
+    }
+
+    /**
+     * Second pass: compact provisional labels to component ids in raster
+     * order of first pixel, and collect the values of every component
+     *
+     * @return number of components
+     */
+    private int resolveLabels(int nextLabel, GrayRaster raster, byte particleByte) {
+        int[] finalLabel = new int[nextLabel];
+        int componentCount = 0;
+        for (int q = 1; q < nextLabel; q++) {
+            if (find(q) == q) {
+                finalLabel[q] = componentCount++;
+            }
+        }
+        for (int q = 1; q < nextLabel; q++) {
+            finalLabel[q] = finalLabel[find(q)];
+        }
+
+        resetComponents(componentCount);
+        for (int q = 1; q < nextLabel; q++) {
+            if (parent[q] == q) {
+                int id = finalLabel[q];
+                firstPixel[id] = firstPixelOf[q];
+                isParticle[id] = raster.pixels[raster.index(firstPixelOf[q] % width,
+                        firstPixelOf[q] / width)] == particleByte;
+            }
+        }
+
+        for (int y = 0; y < height; y++) {
+            int row = y * width;
+            for (int x = 0; x < width; x++) {
+                int id = finalLabel[labelMap[row + x]];
+                labelMap[row + x] = id;
+
+                area[id]++;
+                if (x < left[id]) {
+                    left[id] = x;
+                }
+                if (x > right[id]) {
+                    right[id] = x;
+                }
+                if (y < top[id]) {
+                    top[id] = y;
+                }
+                if (y > bottom[id]) {
+                    bottom[id] = y;
+                }
+                if (x == 0 || y == 0 || x == width - 1 || y == height - 1) {
+                    touchesBorder[id] = true;
+                }
+            }
+        }
+
+        //A particle lies in the background at the left of its first pixel,
+        //a hole lies in the particle above its first pixel
+        for (int id = 0; id < componentCount; id++) {
+            int pixel = firstPixel[id];
+            if (isParticle[id] == true) {
+                enclosing[id] = pixel % width == 0 ? NONE : labelMap[pixel - 1];
+            } else {
+                enclosing[id] = touchesBorder[id] == true ? NONE : labelMap[pixel - width];
+            }
+        }
+        return componentCount;
+    }
+
+    /**
+     * Add every component to the one enclosing it, and keep the particles
+     * enclosed by no other
+     */
+    private void findOutermostParticles(int componentCount) {
+        //Enclosing components start earlier, so they have smaller ids
+        for (int id = componentCount - 1; id >= 0; id--) {
+            int outer = enclosing[id];
+            if (outer != NONE) {
+                area[outer] += area[id];
+            }
+        }
+
+        if (particles.length < componentCount) {
+            particles = new int[componentCount];
+        }
+        for (int id = 0; id < componentCount; id++) {
+            if (isParticle[id] == true
+                    && (enclosing[id] == NONE || enclosing[enclosing[id]] == NONE)) {
+                particles[particleCount++] = id;
+            }
+        }
+    }
+
+    /**
+     * Merge the set of a neighbour label into the current set
+     *
+     * @param current current label, or 0
+     * @param neighbour neighbour label
+     * @return root label of the merged set
+     */
+    private int union(int current, int neighbour) {
+        int rootNeighbour = find(neighbour);
+        if (current == 0) {
+            return rootNeighbour;
+        }
+        int rootCurrent = find(current);
+        if (rootCurrent == rootNeighbour) {
+            return rootCurrent;
+        }
+
+        //Smaller label becomes root so it keeps the first pixel of the set
+        if (rootCurrent < rootNeighbour) {
+            parent[rootNeighbour] = rootCurrent;
+            return rootCurrent;
+        }
+        parent[rootCurrent] = rootNeighbour;
+        return rootNeighbour;
+    }
+
+    /**
+     * Find root label with path halving
+     */
+    private int find(int id) {
+        while (parent[id] != id) {
+            parent[id] = parent[parent[id]];
+            id = parent[id];
+        }
+        return id;
+    }
+
+    private void resetComponents(int size) {
+        if (area.length < size) {
+            isParticle = new boolean[size];
+            touchesBorder = new boolean[size];
+            enclosing = new int[size];
+            firstPixel = new int[size];
+            area = new int[size];
+            left = new int[size];
+            right = new int[size];
+            top = new int[size];
+            bottom = new int[size];
+        }
+        for (int q = 0; q < size; q++) {
+            touchesBorder[q] = false;
+            area[q] = 0;
+            left[q] = Integer.MAX_VALUE;
+            right[q] = -1;
+            top[q] = Integer.MAX_VALUE;
+            bottom[q] = -1;
+        }
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    /**
+     * @return number of outermost particles of the last image
+     */
+    public int getParticleCount() {
+        return particleCount;
+    }
+
+    /**
+     * @param k particle index, 0 ~ getParticleCount() - 1
+     * @return area of the particle, including its holes
+     */
+    public int getArea(int k) {
+        return area[particles[k]];
+    }
+
+    /**
+     * @param k particle index, 0 ~ getParticleCount() - 1
+     * @return x of the first pixel of the particle in raster order
+     */
+    public int getFirstX(int k) {
+        return firstPixel[particles[k]] % width;
+    }
+
+    /**
+     * @param k particle index, 0 ~ getParticleCount() - 1
+     * @return y of the first pixel of the particle in raster order
+     */
+    public int getFirstY(int k) {
+        return firstPixel[particles[k]] / width;
+    }
+
+    public int getLeft(int k) {
+        return left[particles[k]];
+    }
+
+    public int getTop(int k) {
+        return top[particles[k]];
+    }
+
+    public int getBoundsWidth(int k) {
+        return right[particles[k]] - left[particles[k]] + 1;
+    }
+
+    public int getBoundsHeight(int k) {
+        return bottom[particles[k]] - top[particles[k]] + 1;
+    }
+}
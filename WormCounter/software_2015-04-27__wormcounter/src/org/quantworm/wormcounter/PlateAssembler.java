@@ -0,0 +1,421 @@
+/*
+ * Filename: PlateAssembler.java
+ */
+
+package org.quantworm.wormcounter;
+
+import ij.ImagePlus;
+import ij.plugin.filter.BackgroundSubtracter;
+import ij.process.ByteProcessor;
+import ij.process.ColorProcessor;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
+
+/**
+ * Assembles the plate image out of the piece_N.jpeg files of a scanned
+ * folder.
+ * Piece i + columns * (j - 1) goes to column i and row j; tiles are as
+ * large as the pieces, whose size is read from the header of the first
+ * piece. The assembly fails when a piece is of another size, or when the
+ * piece positions of the scanner log are not one piece apart (pieces that
+ * overlap or leave gaps would be mis-tiled). Pieces are decoded on a fork-join pool (or
+ * sequentially) and their rows copied straight into one preallocated
+ * raster, parts falling outside their tile are left out.
+ * Color pieces are turned into gray by ImageJ, so the result is the same
+ * as blitting ImageJ-opened pieces onto a black image.
+ * A missing or unreadable piece makes the assembly fail, unless such pieces
+ * are set to be skipped, in which case their tiles are left black.
+ * Optionally each piece is also background-subtracted (ImageJ rolling ball)
+ * right after it is decoded, on the same worker, into a second raster; so
+ * the original and the background-subtracted plate come out of one decode.
+ * The decode and background time of every piece of the last assembly is kept.
+ */
+public class PlateAssembler {
+
+    private static final ForkJoinPool POOL = new ForkJoinPool();
+
+    //Pixels the distance between pieces told by the log may be off by, from rounding
+    private static final int PIECE_SIZE_TOLERANCE = 1;
+
+    private boolean isParallel;
+    private boolean isSkippingBadPieces;
+    //Rolling ball radius of the background subtraction, 0 when not done
+    private int backgroundRadius;
+
+    //Times of each piece of the last assembly, index is piece number - 1
+    private long[] decodeMillis = new long[0];
+    private long[] backgroundMillis = new long[0];
+    private GrayRaster backgroundSubtracted;
+    private long totalMillis;
+    private String error;
+
+    /**
+     * @param isParallel true to decode pieces on the fork-join pool
+     */
+    public PlateAssembler(boolean isParallel) {
+        this.isParallel = isParallel;
+    }
+
+    public boolean isParallel() {
+        return isParallel;
+    }
+
+    public void setParallel(boolean isParallel) {
+        this.isParallel = isParallel;
+    }
+
+    public boolean isSkippingBadPieces() {
+        return isSkippingBadPieces;
+    }
+
+    /**
+     * @param isSkippingBadPieces true to leave the tiles of missing or
+     * unreadable pieces black instead of failing
+     */
+    public void setSkippingBadPieces(boolean isSkippingBadPieces) {
+        this.isSkippingBadPieces = isSkippingBadPieces;
+    }
+
+    public int getBackgroundRadius() {
+        return backgroundRadius;
+    }
+
+    /**
+     * @param backgroundRadius rolling ball radius for subtracting the
+     * background of every piece; 0 to not subtract
+     */
+    public void setBackgroundRadius(int backgroundRadius) {
+        if (backgroundRadius < 0) {
+            throw new IllegalArgumentException("Negative background radius: " + backgroundRadius);
+        }
+        this.backgroundRadius = backgroundRadius;
+    }
+
+    /**
+     * Get the file of a piece
+     *
+     * @param folder the name of the folder
+     * @param pieceNumber the piece number, starts from 1
+     * @return the piece file
+     */
+    public static File getPieceFile(String folder, int pieceNumber) {
+        return new File(folder + File.separator + "piece_" + pieceNumber + ".jpeg");
+    }
+
+    /**
+     * Assemble pieces of a folder
+     *
+     * @param folder the name of the folder
+     * @param scannerLog the ScannerLog object
+     * @return the assembled raster; null when a piece is missing or cannot
+     * be read and such pieces are not skipped (see getError)
+     */
+    public GrayRaster assemble(String folder, ScannerLog scannerLog) {
+        long time1 = System.currentTimeMillis();
+        error = null;
+
+        final int numberOfColumns = scannerLog.getNumberOfColumns();
+        int numberOfRows = scannerLog.getNumberOfRows();
+        decodeMillis = new long[numberOfColumns * numberOfRows];
+        backgroundMillis = new long[decodeMillis.length];
+        backgroundSubtracted = null;
+        if (decodeMillis.length == 0) {
+            error = "No pieces in the scanner log of " + folder;
+            return null;
+        }
+
+        for (int pieceNumber = 1; pieceNumber <= decodeMillis.length; pieceNumber++) {
+            if (getPieceFile(folder, pieceNumber).exists() == false && isSkippingBadPieces == false) {
+                error = "Missing piece " + getPieceFile(folder, pieceNumber).getAbsolutePath();
+                return null;
+            }
+        }
+
+        int[] pieceSize = readPieceSize(folder, decodeMillis.length);
+        if (pieceSize == null) {
+            pieceSize = new int[]{scannerLog.getPieceWidth(), scannerLog.getPieceHeight()};
+        }
+        final int pieceWidth = pieceSize[0];
+        final int pieceHeight = pieceSize[1];
+        if (scannerLog.isPieceSizeKnown() == true
+                && (Math.abs(scannerLog.getPieceWidth() - pieceWidth) > PIECE_SIZE_TOLERANCE
+                || Math.abs(scannerLog.getPieceHeight() - pieceHeight) > PIECE_SIZE_TOLERANCE)) {
+            error = "Pieces of " + folder + " are " + pieceWidth + " x " + pieceHeight
+                    + " pixels, but the scanner log places them " + scannerLog.getPieceWidth()
+                    + " x " + scannerLog.getPieceHeight() + " pixels apart";
+            return null;
+        }
+
+        final GrayRaster assembled = new GrayRaster(numberOfColumns * pieceWidth,
+                numberOfRows * pieceHeight);
+        GrayRaster subtracted = null;
+        if (backgroundRadius > 0) {
+            subtracted = new GrayRaster(assembled.width, assembled.height);
+        }
+        final List<PieceTask> tasks = new ArrayList<PieceTask>();
+        for (int pieceNumber = 1; pieceNumber <= decodeMillis.length; pieceNumber++) {
+            int x = (pieceNumber - 1) % numberOfColumns * pieceWidth;
+            int y = (pieceNumber - 1) / numberOfColumns * pieceHeight;
+            tasks.add(new PieceTask(getPieceFile(folder, pieceNumber),
+                    assembled.crop(x, y, pieceWidth, pieceHeight),
+                    subtracted == null ? null : subtracted.crop(x, y, pieceWidth, pieceHeight),
+                    backgroundRadius));
+        }
+
+        if (isParallel && tasks.size() > 1) {
+            POOL.invoke(new RecursiveAction() {
+                @Override
+                protected void compute() {
+                    invokeAll(tasks);
+                }
+            });
+        } else {
+            for (PieceTask task : tasks) {
+                task.compute();
+            }
+        }
+
+        for (int q = 0; q < tasks.size(); q++) {
+            PieceTask task = tasks.get(q);
+            decodeMillis[q] = task.millis;
+            backgroundMillis[q] = task.backgroundMillis;
+            if (task.error != null && error == null) {
+                error = task.error;
+            }
+        }
+
+        totalMillis = System.currentTimeMillis() - time1;
+        if (error != null && isSkippingBadPieces == false) {
+            return null;
+        }
+        backgroundSubtracted = subtracted;
+        return assembled;
+    }
+
+    /**
+     * Assemble pieces of a folder into an ImageJ image
+     *
+     * @param folder the name of the folder
+     * @param scannerLog the ScannerLog object
+     * @return the assembled image; null when a piece is missing or cannot
+     * be read and such pieces are not skipped (see getError)
+     */
+    public ImagePlus assembleImage(String folder, ScannerLog scannerLog) {
+        GrayRaster assembled = assemble(folder, scannerLog);
+        if (assembled == null) {
+            return null;
+        }
+        return new ImagePlus("assembled", assembled.toByteProcessor());
+    }
+
+    /**
+     * @return the background-subtracted plate of the last assembly; null if
+     * the background radius is 0 or the assembly failed
+     */
+    public GrayRaster getBackgroundSubtracted() {
+        return backgroundSubtracted;
+    }
+
+    /**
+     * @return the first error of the last assembly; null if none
+     */
+    public String getError() {
+        return error;
+    }
+
+    /**
+     * @return the number of pieces of the last assembly
+     */
+    public int getPieceCount() {
+        return decodeMillis.length;
+    }
+
+    /**
+     * @param pieceNumber the piece number, starts from 1
+     * @return the decode time of the piece in the last assembly, in ms
+     */
+    public long getDecodeMillis(int pieceNumber) {
+        return decodeMillis[pieceNumber - 1];
+    }
+
+    /**
+     * @param pieceNumber the piece number, starts from 1
+     * @return the background subtraction time of the piece in the last
+     * assembly, in ms
+     */
+    public long getBackgroundMillis(int pieceNumber) {
+        return backgroundMillis[pieceNumber - 1];
+    }
+
+    /**
+     * @return the time of the last assembly, in ms
+     */
+    public long getTotalMillis() {
+        return totalMillis;
+    }
+
+    /**
+     * Summary of the last assembly: total time, decode and background time
+     * of the pieces
+     *
+     * @return the timing report
+     */
+    public String getTimingReport() {
+        long[] sorted = Arrays.copyOf(decodeMillis, decodeMillis.length);
+        Arrays.sort(sorted);
+        long sum = 0;
+        for (long each : sorted) {
+            sum += each;
+        }
+        String report = Utilities.format2(totalMillis / 1000.0) + " seconds for assembling image";
+        if (sorted.length > 0) {
+            report += " (" + sorted.length + " pieces, decode ms: total " + sum
+                    + ", median " + sorted[(sorted.length - 1) / 2]
+                    + ", max " + sorted[sorted.length - 1];
+            if (backgroundRadius > 0) {
+                long backgroundSum = 0;
+                for (long each : backgroundMillis) {
+                    backgroundSum += each;
+                }
+                report += "; background ms: total " + backgroundSum;
+            }
+            report += ")";
+        }
+        return report;
+    }
+
+    /**
+     * Decodes one piece into its tile, then subtracts the background of the
+     * tile into the tile of the second raster
+     */
+    private static class PieceTask extends RecursiveAction {
+
+        private final File file;
+        private final GrayRaster tile;
+        private final GrayRaster subtractedTile;
+        private final int backgroundRadius;
+        private long millis;
+        private long backgroundMillis;
+        private String error;
+
+        PieceTask(File file, GrayRaster tile, GrayRaster subtractedTile, int backgroundRadius) {
+            this.file = file;
+            this.tile = tile;
+            this.subtractedTile = subtractedTile;
+            this.backgroundRadius = backgroundRadius;
+        }
+
+        @Override
+        protected void compute() {
+            long time1 = System.currentTimeMillis();
+            GrayRaster piece = null;
+            try {
+                if (file.exists() == false) {
+                    error = "Missing piece " + file.getAbsolutePath();
+                } else {
+                    piece = decode(file);
+                }
+            } catch (IOException e) {
+                error = "Unable to read " + file.getAbsolutePath() + ": " + e;
+            }
+            if (piece == null && error == null) {
+                error = "Unable to read " + file.getAbsolutePath();
+            }
+            if (piece != null && (piece.width != tile.width || piece.height != tile.height)) {
+                error = "Piece " + file.getAbsolutePath() + " is " + piece.width + " x "
+                        + piece.height + " pixels, not " + tile.width + " x " + tile.height;
+            }
+
+            if (piece != null) {
+                int w = Math.min(piece.width, tile.width);
+                int h = Math.min(piece.height, tile.height);
+                for (int y = 0; y < h; y++) {
+                    System.arraycopy(piece.pixels, piece.index(0, y),
+                            tile.pixels, tile.index(0, y), w);
+                }
+            }
+            long time2 = System.currentTimeMillis();
+            millis = time2 - time1;
+
+            if (subtractedTile != null) {
+                ByteProcessor bp = tile.copy().toByteProcessor();
+                new BackgroundSubtracter().subtractBackround(bp, backgroundRadius);
+                GrayRaster subtractedPiece = GrayRaster.wrap(bp);
+                for (int y = 0; y < subtractedTile.height; y++) {
+                    System.arraycopy(subtractedPiece.pixels, subtractedPiece.index(0, y),
+                            subtractedTile.pixels, subtractedTile.index(0, y), subtractedTile.width);
+                }
+                backgroundMillis = System.currentTimeMillis() - time2;
+            }
+        }
+    }
+
+    /**
+     * Read the size of the first piece there is from its header, without
+     * decoding it
+     *
+     * @param folder the name of the folder
+     * @param pieceCount the number of pieces
+     * @return width and height; null when no piece can be read
+     */
+    private static int[] readPieceSize(String folder, int pieceCount) {
+        for (int pieceNumber = 1; pieceNumber <= pieceCount; pieceNumber++) {
+            File file = getPieceFile(folder, pieceNumber);
+            if (file.exists() == false) {
+                continue;
+            }
+            try {
+                ImageInputStream input = ImageIO.createImageInputStream(file);
+                if (input == null) {
+                    continue;
+                }
+                try {
+                    Iterator<ImageReader> readers = ImageIO.getImageReaders(input);
+                    if (readers.hasNext() == false) {
+                        continue;
+                    }
+                    ImageReader reader = readers.next();
+                    try {
+                        reader.setInput(input);
+                        return new int[]{reader.getWidth(0), reader.getHeight(0)};
+                    } finally {
+                        reader.dispose();
+                    }
+                } finally {
+                    input.close();
+                }
+            } catch (IOException e) {
+                // such a piece is reported when it is decoded
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Decode image file into gray raster
+     *
+     * @param file the image file
+     * @return the raster; null if the file is not an image
+     */
+    public static GrayRaster decode(File file) throws IOException {
+        BufferedImage image = ImageIO.read(file);
+        if (image == null) {
+            return null;
+        }
+        if (image.getType() == BufferedImage.TYPE_BYTE_GRAY) {
+            return GrayRaster.wrap(image);
+        }
+        ByteProcessor bp = (ByteProcessor) new ColorProcessor(image).convertToByte(true);
+        return GrayRaster.wrap(bp);
+    }
+}
@@ -0,0 +1,257 @@
+/*
+ * Filename: PlateBatchProcessor.java
+ */
+
+package org.quantworm.wormcounter;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Processes all plate folders under a directory on a fixed number of
+ * worker threads.
+ * Plate folders (those with a valid scanner log) are found first, depth
+ * first with subfolders sorted by name; the mask is loaded once and shared
+ * read-only by the workers, each of which has its own PlateProcessor.
+ * Every plate still gets its own App.RESULT_TXT; in addition one line per
+ * plate is written to SUMMARY_TXT in the top directory, in discovery order
+ * whatever the order the plates finish in, so the output does not depend
+ * on the number of threads.
+ */
+public class PlateBatchProcessor {
+
+	/** name of the summary file written in the top directory */
+	public static final String SUMMARY_TXT = "plates-summary.txt";
+
+	/** rough peak memory needed to process one plate, in bytes */
+	public static final long BYTES_PER_PLATE = 256L * 1024 * 1024;
+
+	private static final String STATUS_OK = "ok";
+
+	private final PlateMask mask;
+	private final DetectionCondition condition;
+	private int threadCount = getDefaultThreadCount();
+
+	/**
+	 * Constructor, uses PlateProcessor.detectionCondition
+	 * @param  maskFileName  the mask file name
+	 */
+	public PlateBatchProcessor( String maskFileName ) {
+		this( PlateMask.load( maskFileName ), PlateProcessor.detectionCondition );
+	}
+
+	/**
+	 * Constructor
+	 * @param  mask  the mask shared by all plates
+	 * @param  condition  the detection condition; a copy is kept
+	 */
+	public PlateBatchProcessor( PlateMask mask, DetectionCondition condition ) {
+		this.mask = mask;
+		this.condition = new DetectionCondition( condition );
+	}
+
+	/**
+	 * Default number of threads: one per processor, but no more than the
+	 * maximum heap can hold plates (BYTES_PER_PLATE each)
+	 * @return  the number of threads, at least 1
+	 */
+	public static int getDefaultThreadCount() {
+		Runtime runtime = Runtime.getRuntime();
+		long byMemory = runtime.maxMemory() / BYTES_PER_PLATE;
+		return (int) Math.max( 1, Math.min( runtime.availableProcessors(), byMemory ) );
+	}
+
+	public int getThreadCount() {
+		return threadCount;
+	}
+
+	public void setThreadCount( int threadCount ) {
+		if( threadCount < 1 ) {
+			throw new IllegalArgumentException( "Thread count must be at least 1: " + threadCount );
+		}; // if
+		this.threadCount = threadCount;
+	}
+
+	/**
+	 * Finds the plate folders of a directory and its subdirectories
+	 * @param  directory  the directory
+	 * @return  absolute paths of the plate folders, parents before children,
+	 * subfolders in name order
+	 */
+	public static List<String> findPlateFolders( String directory ) {
+		List<String> plateFolders = new ArrayList<String>();
+		File dir = new File( directory );
+		if( dir.isDirectory() == true ) {
+			findPlateFolders( dir, plateFolders );
+		}; // if
+		return plateFolders;
+	}
+
+	private static void findPlateFolders( File dir, List<String> plateFolders ) {
+		if( ScannerLog.readLog( dir.getAbsolutePath() ).getErrors() == null ) {
+			plateFolders.add( dir.getAbsolutePath() );
+		}; // if
+
+		File[] files = dir.listFiles();
+		if( files == null ) {
+			return;
+		}; // if
+		Arrays.sort( files );
+		for( File each : files ) {
+			if( each.isDirectory() == true ) {
+				findPlateFolders( each, plateFolders );
+			}; // if
+		}; // for
+	}
+
+	/**
+	 * Processes all plate folders of a directory and its subdirectories,
+	 * and writes SUMMARY_TXT in the directory
+	 * @param  directory  the directory
+	 * @return  the number of plates processed successfully
+	 */
+	public int processDirectory( String directory ) {
+		List<String> plateFolders = findPlateFolders( directory );
+
+		ExecutorService executor = Executors.newFixedThreadPool( threadCount );
+		//each worker thread keeps one processor, which owns its work buffers
+		final ThreadLocal<PlateProcessor> processors = new ThreadLocal<PlateProcessor>() {
+			@Override
+			protected PlateProcessor initialValue() {
+				return new PlateProcessor( mask, condition );
+			}
+		};
+
+		List<Future<String>> futures = new ArrayList<Future<String>>();
+		for( final String folder : plateFolders ) {
+			futures.add( executor.submit( new Callable<String>() {
+				@Override
+				public String call() {
+					return processPlate( processors.get(), folder );
+				}
+			} ) );
+		}; // for
+		executor.shutdown();
+
+		PrintWriter summary = null;
+		try {
+			summary = new PrintWriter( new BufferedWriter( new FileWriter(
+					directory + File.separator + SUMMARY_TXT ) ) );
+			summary.println( "# folder\tstatus\tparticles\tsingle worm area\tcomponents\tworms per component" );
+		}
+		catch( IOException ioe ) {
+			//results files are still written
+			ioe.printStackTrace();
+		}; // try
+
+		//lines are written as soon as all plates before them are done
+		int okCount = 0;
+		for( int i = 0; i < futures.size(); i++ ) {
+			String line = getSummaryLine( plateFolders.get( i ), futures.get( i ) );
+			if( line.indexOf( "\t" + STATUS_OK + "\t" ) > 0 ) {
+				okCount++;
+			}; // if
+			if( summary != null ) {
+				summary.println( line );
+				summary.flush();
+			}; // if
+		}; // for
+		if( summary != null ) {
+			summary.close();
+		}; // if
+		return okCount;
+	}
+
+	/**
+	 * Waits for a plate to finish
+	 * @param  folder  the plate folder
+	 * @param  future  the processing of the plate
+	 * @return  its summary line
+	 */
+	private static String getSummaryLine( String folder, Future<String> future ) {
+		try {
+			return future.get();
+		}
+		catch( InterruptedException ie ) {
+			Thread.currentThread().interrupt();
+			return folder + "\terror: interrupted";
+		}
+		catch( ExecutionException ee ) {
+			return folder + "\terror: " + ee.getCause();
+		}
+	}
+
+	/**
+	 * Processes one plate, writing its App.RESULT_TXT
+	 * @param  processor  the processor of the current thread
+	 * @param  folder  the plate folder
+	 * @return  the summary line of the plate
+	 */
+	private static String processPlate( PlateProcessor processor, String folder ) {
+		PlateProcessor.PlateResult result;
+		try {
+			result = processor.countWorms( folder );
+		}
+		catch( RuntimeException e ) {
+			e.printStackTrace();
+			return folder + "\terror: " + e;
+		}; // try
+		if( result == null ) {
+			return folder + "\tno images";
+		}; // if
+		processor.writeResult( folder, result );
+
+		StringBuilder line = new StringBuilder( folder );
+		line.append( "\t" + STATUS_OK + "\t" ).append( result.particleCount );
+		line.append( "\t" ).append( result.singleWormArea );
+		line.append( "\t" ).append( result.componentCount );
+		int[] wormCounts = result.getWormCountPerComponent();
+		for( int label = 1; label < wormCounts.length; label++ ) {
+			line.append( "\t" ).append( wormCounts[ label ] );
+		}; // for
+		return line.toString();
+	}
+
+	/**
+	 * Runs the batch without user interface
+	 * @param  args  directory [thread count] [mask file] [preset title]
+	 */
+	public static void main( String[] args ) {
+		if( args.length < 1 ) {
+			System.out.println( "Usage: PlateBatchProcessor directory [thread count] [mask file] [preset title]" );
+			return;
+		}; // if
+		int threads = args.length > 1 ? Integer.parseInt( args[ 1 ] ) : getDefaultThreadCount();
+		String maskFileName = args.length > 2 ? args[ 2 ] : App.MASK_DEFAULT;
+
+		if( args.length > 3 ) {
+			DetectionCondition preset = new DetectionCondition().set_DetectionConditionPreset(
+					App.DETECTION_CONDITION_PRESET_FILENAME, args[ 3 ] );
+			if( preset == null ) {
+				System.out.println( "Unable to load preset " + args[ 3 ] + " from "
+						+ App.DETECTION_CONDITION_PRESET_FILENAME );
+				return;
+			}; // if
+			PlateProcessor.detectionCondition = preset;
+		}; // if
+
+		PlateBatchProcessor batch = new PlateBatchProcessor( maskFileName );
+		batch.setThreadCount( threads );
+		long time1 = System.currentTimeMillis();
+		int okCount = batch.processDirectory( args[ 0 ] );
+		long time2 = System.currentTimeMillis();
+		System.out.println( okCount + " plates processed in "
+				+ Utilities.format2( ( time2 - time1 ) / 1000.0 ) + " seconds" );
+	}
+}
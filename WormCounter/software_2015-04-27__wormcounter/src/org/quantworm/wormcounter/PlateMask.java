@@ -0,0 +1,92 @@
+/*
+ * Filename: PlateMask.java
+ */
+
+package org.quantworm.wormcounter;
+
+import ij.ImagePlus;
+import ij.process.ByteProcessor;
+import ij.process.FloodFiller;
+import ij.process.ImageConverter;
+
+/**
+ * Component labels of the mask image; every dark area of the mask is one
+ * component (label 1..nLabel), everything else is 0.
+ * A mask is never modified once loaded, so one instance can be shared by
+ * any number of plate processors, including ones running in parallel.
+ */
+public class PlateMask {
+
+	/** component label of each pixel, [x][y] */
+	final int[][] componentLabel;
+
+	/** number of components */
+	final int nLabel;
+
+	/**
+	 * Constructor
+	 * @param  componentLabel  component label of each pixel, [x][y]
+	 * @param  nLabel  the number of components
+	 */
+	public PlateMask(int[][] componentLabel, int nLabel) {
+		this.componentLabel = componentLabel;
+		this.nLabel = nLabel;
+	}
+
+	/**
+	 * Loads the mask from an image file
+	 * @param  fileName  the mask file name
+	 * @return  the mask
+	 */
+	public static PlateMask load(String fileName) {
+		//load image, convert to 8-bit grayscale
+		ImagePlus imp = new ImagePlus(fileName);
+		ImageConverter imgcvt = new ImageConverter(imp);
+		imgcvt.convertToGray8();
+		ByteProcessor bp = (ByteProcessor) imp.getProcessor();
+
+		//binarize
+		bp.threshold(bp.getAutoThreshold());
+
+		//label each pixel which component it belongs to
+		int[][] componentLabel = new int[bp.getWidth()][bp.getHeight()];
+		int label = 1;
+		FloodFiller ff = new FloodFiller(bp);
+
+		for (int y = 0; y < bp.getHeight(); y++) {
+			for (int x = 0; x < bp.getWidth(); x++) {
+				if (bp.getPixelValue(x, y) != 0) {
+					continue; //skip white pixels
+				}
+
+				bp.setValue(label);
+				ff.fill8(x, y);
+				label++;
+			}
+		}
+
+		//convert the image into an array
+		for (int y = 0; y < bp.getHeight(); y++) {
+			for (int x = 0; x < bp.getWidth(); x++) {
+				if (bp.getPixelValue(x, y) == 255) {
+					componentLabel[x][y] = 0;
+					continue;
+				}
+				componentLabel[x][y] = (int) bp.getPixelValue(x, y);
+			}
+		}
+		return new PlateMask(componentLabel, label - 1);
+	}
+
+	public int getComponentCount() {
+		return nLabel;
+	}
+
+	public int getWidth() {
+		return componentLabel.length;
+	}
+
+	public int getHeight() {
+		return componentLabel[0].length;
+	}
+}
@@ -4,26 +4,18 @@
 
 package org.quantworm.wormcounter;
 
-import ij.IJ;
 import ij.ImagePlus;
 import ij.ImageStack;
-import ij.gui.PolygonRoi;
-import ij.gui.Roi;
-import ij.gui.Wand;
 import ij.io.FileSaver;
 import ij.plugin.MontageMaker;
 import ij.plugin.filter.BackgroundSubtracter;
 import ij.process.ByteProcessor;
-import ij.process.ByteStatistics;
 import ij.process.FloodFiller;
 import ij.process.ImageConverter;
 import ij.process.ImageProcessor;
-import ij.process.ImageStatistics;
-import ij.process.PolygonFiller;
 
 import java.awt.Color;
 import java.awt.Graphics2D;
-import java.awt.Rectangle;
 import java.awt.image.BufferedImage;
 import java.awt.geom.Point2D;
 import java.io.BufferedWriter;
@@ -32,9 +24,7 @@ import java.io.FileWriter;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.LinkedList;
 import java.util.List;
-import java.util.ListIterator;
 
 /** 
  * Assembles the plate image and counts worms 
@@ -47,13 +37,34 @@ public class PlateProcessor {
 	public static DetectionCondition detectionCondition = new DetectionCondition();
    public NativeImgProcessing imgProc = new NativeImgProcessing();
    public LineMath lineMath = new LineMath();
+
+	//Rolling ball radius of the background subtraction of each piece
+	static final int BACKGROUND_RADIUS = 50;
+
+	//Measures the particles of a plate; its buffers are reused across plates
+	private final ParticleMeasurer particleMeasurer = new ParticleMeasurer();
+
+	//Condition used by this processor; taken from detectionCondition when created
+	private final DetectionCondition condition;
 	
 	/**
 	 * Constructor
 	 * @param  maskFileName  the mask file name
 	 */
 	public PlateProcessor( String maskFileName ) { 
-		loadMask( maskFileName );
+		this( PlateMask.load( maskFileName ), detectionCondition );
+	}
+
+
+	/**
+	 * Constructor sharing an already loaded mask
+	 * @param  mask  the mask, which is only read
+	 * @param  condition  the detection condition; a copy is kept
+	 */
+	public PlateProcessor( PlateMask mask, DetectionCondition condition ) {
+		this.componentLabel = mask.componentLabel;
+		this.nLabel = mask.nLabel;
+		this.condition = new DetectionCondition( condition );
 	}
 
 
@@ -111,14 +122,56 @@ public class PlateProcessor {
 	 * otherwise a description of error
 	 */
 	public String avoidanceAssay( String dirName ) {
-		ImagePlus imp;
-                
+		PlateResult result = countWorms( dirName );
+		if( result == null ) {
+			return "no images";
+		}; // if
+		writeResult( dirName, result );
+		return null;
+	}
+
+
+	/**
+	 * Worm counts of one plate
+	 */
+	public static class PlateResult {
+		/** number of particles recorded */
+		public int particleCount;
+		/** median particle area, taken as the area of a single worm */
+		public int singleWormArea;
+		/** number of mask components */
+		public int componentCount;
+		/** particles counted as at least one worm, nWorm set */
+		public List<WormInfo> worms = new ArrayList<WormInfo>();
+
+		/**
+		 * Adds up the worms of each component
+		 * @return  worm count per component, index is the label (0 ~ componentCount)
+		 */
+		public int[] getWormCountPerComponent() {
+			int[] counts = new int[componentCount + 1];
+			for( WormInfo worm : worms ) {
+				if( worm.label >= 0 && worm.label <= componentCount ) {
+					counts[ worm.label ] += worm.nWorm;
+				}; // if
+			}; // for
+			return counts;
+		}
+	}
+
+
+	/**
+	 * Counts worms of a plate, without writing anything but the assembled images
+	 * @param  dirName  the name of the directory containing images
+	 * @return  the counts; null when there are no images
+	 */
+	public PlateResult countWorms( String dirName ) {
 		//load plate image
 		ByteProcessor plate = assembleAndAlignImages(dirName);
 
 		// see whether we can continue
 		if( plate == null ) {
-			return "no images";
+			return null;
 		}; // if
 
 		
@@ -129,100 +182,83 @@ public class PlateProcessor {
 		//match valid area on mask
 		plate=matchMask(plate);
 		
-        //count worms
-		int wormCount=0; 
-		int[] wormArea=new int[1000]; //assume there are fewer than 1000 worms	
-		LinkedList<WormInfo> worms=new LinkedList<WormInfo>();
-    	Wand wand = new Wand(plate);
-		for (int y=0; y<plate.getHeight(); y++) {
-			for (int x=0; x<plate.getWidth(); x++){
-				if (plate.getPixelValue(x, y)!=0) {
-					continue; //skip white pixels
-				}
-			       		
-			   	//mark particle as ROI and get its boundary.
-			    wand.autoOutline(x,y); 
-		        if (wand.npoints==0){
-					  IJ.log("wand error: "+x+" "+y); 
-					  continue;
-					}
-		        Roi roi = new PolygonRoi(wand.xpoints, wand.ypoints, wand.npoints, Roi.TRACED_ROI);
-		        Rectangle r = roi.getBounds();    
-		        plate.setRoi(roi); 
-		        PolygonFiller pf=new PolygonFiller();
-				PolygonRoi proi = (PolygonRoi)roi;
-				pf.setPolygon(proi.getXCoordinates(), proi.getYCoordinates(), proi.getNCoordinates());
-				plate.setMask(pf.getMask(r.width, r.height));
-				ImageProcessor mask0 = plate.getMask();
-						
-				ImageStatistics stats = new ByteStatistics(plate);	
-
-				//if a particle is too small, consider it background
-				if (stats.pixelCount<detectionCondition.min_WormSize) {
-					plate.setValue(255);
-					plate.fill(mask0);
+        //measure particles, holes included
+		List<WormInfo> particles=new ArrayList<WormInfo>();
+		int particleCount = particleMeasurer.measure(GrayRaster.wrap(plate), 0);
+		for (int k=0; k<particleCount; k++) {
+			int area = particleMeasurer.getArea(k);
+			int x = particleMeasurer.getFirstX(k);
+			int y = particleMeasurer.getFirstY(k);
+
+			//if a particle is too small, consider it background
+			if (area<condition.min_WormSize) {
+				continue;
+			}
+
+			//if a particle is too big and close to the edge of the plate, consider it background
+			if (area>condition.max_WormSize){
+				double r2=(plate.getHeight()/2-y)*(plate.getHeight()/2-y)+(plate.getWidth()/2-x)*(plate.getWidth()/2-x);
+				double r_border=plate.getHeight()/2*3/4;
+				if (r2>r_border*r_border) {
 					continue;
-				}		
-					
-				//if a particle is too big and close to the edge of the plate, consider it background
-				if (stats.pixelCount>detectionCondition.max_WormSize){
-					double r2=(plate.getHeight()/2-y)*(plate.getHeight()/2-y)+(plate.getWidth()/2-x)*(plate.getWidth()/2-x);
-					double r_border=plate.getHeight()/2*3/4;
-					if (r2>r_border*r_border) {
-						plate.setValue(255);
-						plate.fill(mask0);
-						continue;
-					}
 				}
-					
-				//record worm particle
-				WormInfo worm=new WormInfo();
-				worm.pX=r.x; 
-				worm.pY=r.y;
-				worm.width=r.width; 
-				worm.height=r.height;
-				worm.area=stats.pixelCount;
-				worm.label=componentLabel[x][y];
-				worms.add(worm);
-		        
-				wormArea[wormCount]=worm.area;
-				wormCount++;
-				
-				//mark off particle
-				plate.setValue(10);
-				plate.fill(mask0);
 			}
+
+			//record worm particle
+			WormInfo worm=new WormInfo();
+			worm.pX=particleMeasurer.getLeft(k);
+			worm.pY=particleMeasurer.getTop(k);
+			worm.width=particleMeasurer.getBoundsWidth(k);
+			worm.height=particleMeasurer.getBoundsHeight(k);
+			worm.area=area;
+			worm.label=componentLabel[x][y];
+			particles.add(worm);
 		}
-		plate.resetRoi();		
-		
-		//find medium area as single worm area
-		int singleWorm;
-		int[] wormArea1=new int[wormCount];
-		for (int i=0; i<wormCount; i++){
-			wormArea1[i]=wormArea[i];
+
+		PlateResult result = new PlateResult();
+		result.particleCount = particles.size();
+		result.componentCount = nLabel;
+
+		//find medium area as single worm area; a plate without particles has none
+		int[] wormArea=new int[particles.size()];
+		for (int i=0; i<wormArea.length; i++){
+			wormArea[i]=particles.get(i).area;
 		}
-		Arrays.sort(wormArea1);
-		singleWorm=wormArea1[(wormCount-1)/2];
-		
-		//print out worm stats
+		Arrays.sort(wormArea);
+		int singleWorm = wormArea.length == 0 ? 0 : wormArea[(wormArea.length-1)/2];
+		result.singleWormArea = singleWorm;
+
+		//number of worms in each particle
+		for (WormInfo worm : particles) {
+			int nWorm=(int)((double)(worm.area)/(double)singleWorm+0.5);
+			if (nWorm<1 && worm.area*3>=singleWorm) {
+				nWorm++;
+			}
+			if (nWorm<1) {
+				continue;
+			}
+			worm.nWorm=nWorm;
+			result.worms.add(worm);
+		}
+		return result;
+	}
+
+
+	/**
+	 * Writes the worm stats of a plate to its App.RESULT_TXT file
+	 * @param  dirName  the name of the directory containing images
+	 * @param  result  the counts
+	 */
+	public void writeResult( String dirName, PlateResult result ) {
 		try{
 			BufferedWriter out=new BufferedWriter(new FileWriter(dirName + File.separator + App.RESULT_TXT ));
-			out.write("# Particle Count:\t"+wormCount+"\n");
-			out.write("# Single Worm Area:\t"+singleWorm+"\n");
-			out.write("# Component Count:\t"+nLabel+"\n");
+			out.write("# Particle Count:\t"+result.particleCount+"\n");
+			out.write("# Single Worm Area:\t"+result.singleWormArea+"\n");
+			out.write("# Component Count:\t"+result.componentCount+"\n");
 			out.write("# pX\tpY\twidth\theight\tnWorm\tarea\tlabel No\n");
 			
-			ListIterator<WormInfo> it=worms.listIterator();
-			while(it.hasNext()){
-				WormInfo worm=(WormInfo)it.next();
-				int nWorm=(int)((double)(worm.area)/(double)singleWorm+0.5);
-				if (nWorm<1 && worm.area*3>=singleWorm) {
-					nWorm++;
-				}
-				if (nWorm<1) {
-					continue;
-				}
-				out.write(worm.pX+"\t"+worm.pY+"\t"+worm.width+"\t"+worm.height+"\t"+nWorm+"\t"+worm.area+"\t"+worm.label+"\n");
+			for (WormInfo worm : result.worms) {
+				out.write(worm.pX+"\t"+worm.pY+"\t"+worm.width+"\t"+worm.height+"\t"+worm.nWorm+"\t"+worm.area+"\t"+worm.label+"\n");
 			}
 			out.close();
 		}
@@ -230,47 +266,12 @@ public class PlateProcessor {
 			e.printStackTrace();
 			System.out.println(e);
 		}
-		return null;
 	} 
     
     public void loadMask(String fileName){
-    	//load image, convert to 8-bit grayscale
-		ImagePlus imp = new ImagePlus(fileName);
-		ImageConverter imgcvt=new ImageConverter(imp);
-		imgcvt.convertToGray8();
-		ByteProcessor bp=(ByteProcessor)imp.getProcessor();
-		
-		//binarize
-		bp.threshold(bp.getAutoThreshold());
-		
-		//label each pixel which component it belongs to
-		this.componentLabel=new int[bp.getWidth()][bp.getHeight()];
-		int label=1;
-		FloodFiller ff=new FloodFiller(bp);
-		
-		for (int y=0; y<bp.getHeight(); y++) {
-			for (int x=0; x<bp.getWidth(); x++){
-				if (bp.getPixelValue(x, y)!=0) {
-					continue; //skip white pixels
-				}
-				
-				bp.setValue(label);
-				ff.fill8(x,y);
-				label++;
-			}
-		}
-		
-		//convert the image into an array
-		for (int y=0; y<bp.getHeight(); y++) {
-			for (int x=0; x<bp.getWidth(); x++){
-				if (bp.getPixelValue(x, y)==255) {
-					componentLabel[x][y]=0;
-					continue; 
-				}
-				componentLabel[x][y]=(int)bp.getPixelValue(x, y);
-			}
-		}
-		this.nLabel=label-1;
+		PlateMask mask = PlateMask.load(fileName);
+		this.componentLabel=mask.componentLabel;
+		this.nLabel=mask.nLabel;
     }
 
 	/**
@@ -289,24 +290,28 @@ public class PlateProcessor {
         if (scannerLog == null) {
             return null;
         }
-        //Assemble original image
-        BufferedImage originalImage = Utilities.assembleImage_CreateNewly(
-                dirName, false, scannerLog).getBufferedImage();
+        //Assemble original image and, piece by piece in the same pass,
+        //the background-subtracted one
+        PlateAssembler assembler = new PlateAssembler(true);
+        assembler.setBackgroundRadius(BACKGROUND_RADIUS);
+        GrayRaster assembled = assembler.assemble(dirName, scannerLog);
         //Do not delete for debugging
-        //BufferedImage originalImage = Utilities.assembleImage_TestUnit(
-        //        dirName, false, scannerLog).getBufferedImage();
-        if (originalImage == null) {
+        //ImagePlus assembled = Utilities.assembleImage_TestUnit(
+        //        dirName, false, scannerLog);
+        if (assembled == null) {
+            System.out.println(assembler.getError());
             return null;
         }
+        System.out.println(assembler.getTimingReport());
+        BufferedImage originalImage = assembled.toBufferedImage();
 
         //Save original image
         imgProc.saveImage(originalImage, "jpeg",
                 dirName + File.separator + "assembled_org.jpeg");
 
 
-        //Conduct background subtraction
-        ByteProcessor plate = do_LocalBackgroundSubtraction(originalImage,
-                640, 480);
+        //Background subtraction was done on each piece
+        ByteProcessor plate = assembler.getBackgroundSubtracted().toByteProcessor();
 
         //Do not delete for debugging                
         //outputImage(plate, dirName + File.separator +
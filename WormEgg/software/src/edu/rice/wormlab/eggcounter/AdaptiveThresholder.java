@@ -0,0 +1,351 @@
+/*
+ * Filename: AdaptiveThresholder.java
+ */
+
+package edu.rice.wormlab.eggcounter;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Adaptive thresholding split into bands of lines, run in parallel on a
+ * fork-join pool or sequentially.
+ * A pixel becomes 255 when its gray value is below (1 - tpercent) times the
+ * average gray of the box centred on it, and below GrayLimit; otherwise 0.
+ * Output is identical to the integral-image version in NativeImgProcessing,
+ * including its first row and column, which that integral image sums as
+ * copies of the corner pixel.
+ * Each band keeps running int column sums over its box window (the halo
+ * lines above and below the band are read again), so no full-size integral
+ * image is built. Box averages are never divided out: for each gray value
+ * the smallest passing average is tabulated once, and compared against
+ * the box sum as an int product.
+ */
+public class AdaptiveThresholder {
+
+    /** default number of lines per band */
+    public static final int DEFAULT_BAND_HEIGHT = 64;
+
+    private static final ForkJoinPool POOL = new ForkJoinPool();
+
+    private static final int NEVER = Integer.MAX_VALUE;
+
+    private boolean isParallel;
+    private int bandHeight = DEFAULT_BAND_HEIGHT;
+
+    /**
+     * @param isParallel true to process bands on the fork-join pool
+     */
+    public AdaptiveThresholder(boolean isParallel) {
+        this.isParallel = isParallel;
+    }
+
+    public boolean isParallel() {
+        return isParallel;
+    }
+
+    public void setParallel(boolean isParallel) {
+        this.isParallel = isParallel;
+    }
+
+    public int getBandHeight() {
+        return bandHeight;
+    }
+
+    public void setBandHeight(int bandHeight) {
+        this.bandHeight = Math.max(1, bandHeight);
+    }
+
+    /**
+     * Threshold gray array
+     *
+     * @param SrcPixels source gray array, [x][y]
+     * @param boxSize box size for processing
+     * @param tpercent t percent value
+     * @param GrayLimit pixels whose gray value is not lower are excluded
+     * @return array of 255 and 0, [x][y]; null if the array has values
+     * outside 0~255 or the box sums could overflow an int, in which case
+     * the caller has to use the integral-image version
+     */
+    public short[][] threshold(final short[][] SrcPixels, int boxSize, float tpercent,
+            int GrayLimit) {
+        for (short[] column : SrcPixels) {
+            for (short gray : column) {
+                if (gray < 0 || gray > 255) {
+                    return null;
+                }
+            }
+        }
+
+        //Box is symmetric, so the columns of the array are processed as lines
+        final short[][] OutPixels = new short[SrcPixels.length][SrcPixels[0].length];
+        LineAccess access = new LineAccess(SrcPixels.length, SrcPixels[0].length) {
+            @Override
+            void read(int line, int[] buffer) {
+                short[] column = SrcPixels[line];
+                for (int q = 0; q < lineLength; q++) {
+                    buffer[q] = column[q];
+                }
+            }
+
+            @Override
+            void write(int line, int[] buffer) {
+                short[] column = OutPixels[line];
+                for (int q = 0; q < lineLength; q++) {
+                    column[q] = (short) buffer[q];
+                }
+            }
+        };
+
+        return run(access, boxSize, tpercent, GrayLimit) ? OutPixels : null;
+    }
+
+    /**
+     * Threshold gray raster
+     *
+     * @param SrcRaster source gray raster
+     * @param boxSize box size for processing
+     * @param tpercent t percent value
+     * @param GrayLimit pixels whose gray value is not lower are excluded
+     * @return new raster of 255 and 0; null if the box sums could overflow
+     * an int
+     */
+    public GrayRaster threshold(final GrayRaster SrcRaster, int boxSize, float tpercent,
+            int GrayLimit) {
+        final GrayRaster OutRaster = new GrayRaster(SrcRaster.width, SrcRaster.height);
+        LineAccess access = new LineAccess(SrcRaster.height, SrcRaster.width) {
+            @Override
+            void read(int line, int[] buffer) {
+                byte[] pixels = SrcRaster.pixels;
+                int row = SrcRaster.index(0, line);
+                for (int q = 0; q < lineLength; q++) {
+                    buffer[q] = pixels[row + q] & 0xff;
+                }
+            }
+
+            @Override
+            void write(int line, int[] buffer) {
+                byte[] pixels = OutRaster.pixels;
+                int row = OutRaster.index(0, line);
+                for (int q = 0; q < lineLength; q++) {
+                    pixels[row + q] = (byte) buffer[q];
+                }
+            }
+        };
+
+        return run(access, boxSize, tpercent, GrayLimit) ? OutRaster : null;
+    }
+
+    /**
+     * Split lines into bands and threshold them
+     *
+     * @return false if the int box sums could overflow, or tpercent makes
+     * the test not monotone in the box average
+     */
+    private boolean run(LineAccess access, int boxSize, float tpercent, int GrayLimit) {
+        int half = (int) ((boxSize - 1) / 2.0);
+        long maxWindowLines = Math.min(2L * half + 1, access.lineCount);
+        if (half < 0 || 255L * maxWindowLines * access.lineLength >= Integer.MAX_VALUE) {
+            return false;
+        }
+        int[] minAvg = build_MinAverageTable(tpercent, GrayLimit);
+        if (minAvg == null) {
+            return false;
+        }
+
+        final List<BandTask> tasks = new ArrayList<BandTask>();
+        for (int first = 0; first < access.lineCount; first += bandHeight) {
+            tasks.add(new BandTask(access, first,
+                    Math.min(first + bandHeight, access.lineCount), half, minAvg));
+        }
+
+        if (isParallel && tasks.size() > 1) {
+            POOL.invoke(new RecursiveAction() {
+                @Override
+                protected void compute() {
+                    invokeAll(tasks);
+                }
+            });
+        } else {
+            for (BandTask task : tasks) {
+                task.compute();
+            }
+        }
+        return true;
+    }
+
+    /**
+     * For every gray value, the smallest (integer) box average for which the
+     * pixel passes, or NEVER
+     *
+     * @return table, or null if the test is not monotone in the average
+     */
+    private static int[] build_MinAverageTable(float tpercent, int GrayLimit) {
+        float rPercentValue = (float) (1 - tpercent);
+        int[] minAvg = new int[256];
+
+        for (int gray = 0; gray <= 255; gray++) {
+            minAvg[gray] = NEVER;
+            if (gray >= GrayLimit) {
+                continue;
+            }
+            for (int avg = 0; avg <= 255; avg++) {
+                if (gray < avg * rPercentValue) {
+                    minAvg[gray] = avg;
+                    break;
+                }
+            }
+        }
+
+        //The test has to be monotone in the average for the table to hold
+        for (int gray = 0; gray <= 255; gray++) {
+            for (int avg = 0; avg <= 255; avg++) {
+                boolean isPass = gray < avg * rPercentValue && gray < GrayLimit;
+                if (isPass != (minAvg[gray] != NEVER && avg >= minAvg[gray])) {
+                    return null;
+                }
+            }
+        }
+        return minAvg;
+    }
+
+    /**
+     * Lines of an image; a line is a row of a raster or a column of an
+     * [x][y] array
+     */
+    private abstract static class LineAccess {
+
+        final int lineCount;
+        final int lineLength;
+
+        LineAccess(int lineCount, int lineLength) {
+            this.lineCount = lineCount;
+            this.lineLength = lineLength;
+        }
+
+        abstract void read(int line, int[] buffer);
+
+        abstract void write(int line, int[] buffer);
+    }
+
+    /**
+     * Thresholds lines [firstLine, endLine)
+     */
+    private static class BandTask extends RecursiveAction {
+
+        private final LineAccess access;
+        private final int firstLine;
+        private final int endLine;
+        private final int half;
+        private final int[] minAvg;
+
+        BandTask(LineAccess access, int firstLine, int endLine, int half, int[] minAvg) {
+            this.access = access;
+            this.firstLine = firstLine;
+            this.endLine = endLine;
+            this.half = half;
+            this.minAvg = minAvg;
+        }
+
+        @Override
+        protected void compute() {
+            int lineCount = access.lineCount;
+            int length = access.lineLength;
+            int[] columnSum = new int[length];
+            int[] prefix = new int[length + 1];
+            int[] lineBuffer = new int[length];
+            int[] current = new int[length];
+            int[] output = new int[length];
+            int[] need = new int[256];
+
+            access.read(0, lineBuffer);
+            int corner = lineBuffer[0];
+
+            //Window of the first line of the band, including halo lines
+            for (int line = Math.max(firstLine - half, 0);
+                    line <= Math.min(firstLine + half, lineCount - 1); line++) {
+                addLine(line, lineBuffer, columnSum, corner, 1);
+            }
+
+            for (int line = firstLine; line < endLine; line++) {
+                if (line > firstLine) {
+                    if (line + half < lineCount) {
+                        addLine(line + half, lineBuffer, columnSum, corner, 1);
+                    }
+                    if (line - half - 1 >= 0) {
+                        addLine(line - half - 1, lineBuffer, columnSum, corner, -1);
+                    }
+                }
+
+                prefix[0] = 0;
+                for (int q = 0; q < length; q++) {
+                    prefix[q + 1] = prefix[q] + columnSum[q];
+                }
+
+                int boxLines = Math.min(line + half, lineCount - 1)
+                        - Math.max(line - half, 0) + 1;
+                access.read(line, current);
+
+                //Box sums near both ends of the line cover fewer pixels
+                int interiorFirst = Math.min(half, length);
+                int interiorEnd = Math.max(length - half, interiorFirst);
+                for (int q = 0; q < interiorFirst; q++) {
+                    output[q] = evaluate(q, length, boxLines, prefix, current);
+                }
+                for (int q = interiorEnd; q < length; q++) {
+                    output[q] = evaluate(q, length, boxLines, prefix, current);
+                }
+
+                //Interior: fixed box area, so the threshold per gray is fixed
+                if (interiorFirst < interiorEnd) {
+                    int span = 2 * half + 1;
+                    int area = span * boxLines;
+                    for (int gray = 0; gray <= 255; gray++) {
+                        need[gray] = minAvg[gray] == NEVER ? NEVER : minAvg[gray] * area;
+                    }
+                    for (int q = interiorFirst; q < interiorEnd; q++) {
+                        int sum = prefix[q - half + span] - prefix[q - half];
+                        output[q] = sum >= need[current[q]] ? 255 : 0;
+                    }
+                }
+
+                access.write(line, output);
+            }
+        }
+
+        private int evaluate(int q, int length, int boxLines, int[] prefix, int[] current) {
+            int first = Math.max(q - half, 0);
+            int last = Math.min(q + half, length - 1);
+            int sum = prefix[last + 1] - prefix[first];
+            int required = minAvg[current[q]];
+
+            if (required != NEVER && sum >= required * ((last - first + 1) * boxLines)) {
+                return 255;
+            }
+            return 0;
+        }
+
+        /**
+         * Add (sign 1) or remove (sign -1) a line to the column sums; the first
+         * line and the first element of every line count as the corner pixel
+         */
+        private void addLine(int line, int[] buffer, int[] columnSum, int corner, int sign) {
+            int length = access.lineLength;
+
+            if (line == 0) {
+                for (int q = 0; q < length; q++) {
+                    columnSum[q] += sign * corner;
+                }
+                return;
+            }
+
+            access.read(line, buffer);
+            buffer[0] = corner;
+            for (int q = 0; q < length; q++) {
+                columnSum[q] += sign * buffer[q];
+            }
+        }
+    }
+}
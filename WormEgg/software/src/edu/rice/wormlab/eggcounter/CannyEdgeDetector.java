@@ -5,155 +5,529 @@
 
 package edu.rice.wormlab.eggcounter;
 
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
 /**
- * Perform Canny edge detection
+ * Perform Canny edge detection.
+ * Pixels are kept in flat arrays in the [x][y] order of the rest of the egg
+ * counter (index = x * Height + y), so a line is a column of the image.
+ * The Gaussian filter runs in place, line after line, as it always did: each
+ * output reads the already smoothed line before it, so it is sequential, but
+ * only the non-zero kernel taps are visited. Derivatives, gradient magnitude,
+ * non-maximum suppression and the strong/weak classification are fused in
+ * one pass over bands of lines run on a fork-join pool; each band rolls a
+ * window of three gradient lines, so no full-size float array is built.
+ * Work arrays are kept in the instance and reused for images of the same size.
+ * Edge maps are identical to the earlier array-per-step implementation.
  */
-import java.awt.image.BufferedImage;
+public class CannyEdgeDetector {
 
+    /** default number of lines per band */
+    public static final int DEFAULT_BAND_HEIGHT = 64;
 
-public class CannyEdgeDetector {
+    private static final ForkJoinPool POOL = new ForkJoinPool();
+
+    private static final byte NONE = 0;
+    private static final byte STRONG = 1;
+    private static final byte WEAK = 2;
+
+    private static final int EDGE_RGB = 0xFFFFFF;
+
+    //Neighbour order followed by hysteresis when it picks a weak point
+    private static final int[] NEIGHBOUR_DX = {1, 1, 0, -1, -1, -1, 0, 1};
+    private static final int[] NEIGHBOUR_DY = {0, -1, -1, -1, 0, 1, 1, 1};
+
+    private static final float Phi = 3.1415926535897931F;
 
-    private float[][] DerivativeX;
-    private float[][] DerivativeY;
-    private short[][] EdgeMap;
-    private short[][] EdgePoints;
-    public short[][] FilteredImage;
     private short[][] GaussianKernel;
-    private float[][] GNH;
-    private float[][] GNL;
-    private float[][] Gradient;
-    private short[][] GreyImage;
-    private int KernelSize;
+    private int KernelSize = -1;
     private int KernelWeight;
+    private float Sigma;
     private float MaxHysteresisThresh;
     private float MinHysteresisThresh;
-    private float[][] NonMax;
-    private short[][] PostHysteresis;
-    private float Sigma;
-    private short[][] VisitedMap;
     public int Height;
     public int Width;
-    public int HeightUpperIndex; 
-    public int WidthUpperIndex; 
-    private float Phi = 3.1415926535897931F;
+    public int HeightUpperIndex;
+    public int WidthUpperIndex;
     private NativeImgProcessing ImgProc = new NativeImgProcessing();
 
+    //Non-zero Gaussian taps, in the order the sum is accumulated
+    private int[] tapDx = new int[0];
+    private int[] tapDy = new int[0];
+    private int[] tapWeight = new int[0];
+
+    //Work arrays, [x][y] order
+    private short[] smoothed = new short[0];
+    private byte[] edgePoints = new byte[0];
+    private int[] rowRGB = new int[0];
+    private int[] traceStack = new int[0];
+    private BandWorkspace[] workspaces = new BandWorkspace[0];
+
+    private boolean isParallel = true;
+    private boolean isTracingWeakEdges = false;
+    private int bandHeight = DEFAULT_BAND_HEIGHT;
+
+    public boolean isParallel() {
+        return isParallel;
+    }
+
+    public void setParallel(boolean isParallel) {
+        this.isParallel = isParallel;
+    }
+
+    public int getBandHeight() {
+        return bandHeight;
+    }
+
+    public void setBandHeight(int bandHeight) {
+        this.bandHeight = Math.max(1, bandHeight);
+    }
+
+    public boolean isTracingWeakEdges() {
+        return isTracingWeakEdges;
+    }
+
+    /**
+     * Hysteresis mode. By default (false) every strong point adds only the
+     * first weak point around it, which is what the earlier recursive
+     * traversal did, since it returned as soon as it reached a visited point.
+     * When true, whole chains of weak points connected to a strong point are
+     * followed with an explicit stack, as in textbook Canny; edge maps then
+     * differ from the default.
+     *
+     * @param isTracingWeakEdges true to follow weak chains
+     */
+    public void setTracingWeakEdges(boolean isTracingWeakEdges) {
+        this.isTracingWeakEdges = isTracingWeakEdges;
+    }
+
+    /**
+     * Detect edges
+     *
+     * @param InputImage source image
+     * @param Th high hysteresis threshold
+     * @param Tl low hysteresis threshold
+     * @param GaussianMaskSize Gaussian kernel size
+     * @param SigmaforGaussianKernel Gaussian sigma
+     * @return edge image, edges 255 and the rest 0
+     */
     public final BufferedImage detectCannyEdges(BufferedImage InputImage, float Th, float Tl,
             int GaussianMaskSize, float SigmaforGaussianKernel) {
 
         MaxHysteresisThresh = Th;
         MinHysteresisThresh = Tl;
-        KernelSize = GaussianMaskSize;
-        Sigma = SigmaforGaussianKernel;
         Width = InputImage.getWidth();
         Height = InputImage.getHeight();
         WidthUpperIndex = Width - 1;
         HeightUpperIndex = Height - 1;
 
-        EdgeMap = new short[WidthUpperIndex + 1][HeightUpperIndex + 1];
-        VisitedMap = new short[WidthUpperIndex + 1][HeightUpperIndex + 1];
+        if (GaussianMaskSize != KernelSize || SigmaforGaussianKernel != Sigma) {
+            KernelSize = GaussianMaskSize;
+            Sigma = SigmaforGaussianKernel;
+            KernelWeight = generateGaussianKernel(KernelSize, Sigma, KernelWeight);
+            collect_GaussianTaps();
+        }
 
+        int pixelCount = Width * Height;
+        if (smoothed.length < pixelCount) {
+            smoothed = new short[pixelCount];
+            edgePoints = new byte[pixelCount];
+        }
+        if (rowRGB.length < Width) {
+            rowRGB = new int[Width];
+        }
 
-        GreyImage = ImgProc.convert_Image_To_GrayShortArray(InputImage);
+        read_GrayPixels(InputImage);
+        GaussianFilter();
 
+        BufferedImage outImage = new BufferedImage(Width, Height, BufferedImage.TYPE_INT_RGB);
+        int[] outRGB = ((DataBufferInt) outImage.getRaster().getDataBuffer()).getData();
 
-        Gradient = new float[WidthUpperIndex + 1][HeightUpperIndex + 1];
-        NonMax = new float[WidthUpperIndex + 1][HeightUpperIndex + 1];
-        PostHysteresis = new short[WidthUpperIndex + 1][HeightUpperIndex + 1];
-        DerivativeX = new float[WidthUpperIndex + 1][HeightUpperIndex + 1];
-        DerivativeY = new float[WidthUpperIndex + 1][HeightUpperIndex + 1];
+        runBands(false, outRGB);
+        if (isTracingWeakEdges) {
+            traceWeakEdges(outRGB);
+        } else {
+            runBands(true, outRGB);
+        }
 
-        FilteredImage = GaussianFilter(GreyImage);
+        return outImage;
+    }
 
+    private void read_GrayPixels(BufferedImage InputImage) {
+        for (int y = 0; y < Height; y++) {
+            ImgProc.read_RGBRow(InputImage, y, rowRGB);
+            for (int x = 0; x < Width; x++) {
+                int rgb = rowRGB[x];
+                smoothed[x * Height + y] = ImgProc.RGBToGray((rgb >> 16) & 0x000000FF,
+                        (rgb >> 8) & 0x000000FF, rgb & 0x000000FF);
+            }
+        }
+    }
 
-        short[][] Dx = new short[][]{{1, 0, -1}, {1, 0, -1}, {1, 0, -1}};
-        short[][] Dy = new short[][]{{1, 1, 1}, {0, 0, 0}, {-1, -1, -1}};
-        DerivativeX = differentiate(FilteredImage, Dx);
-        DerivativeY = differentiate(FilteredImage, Dy);
+    //Keep the non-zero kernel taps; adding zero does not change a float sum
+    private void collect_GaussianTaps() {
+        int Limit = KernelSize / 2;
+        int count = 0;
+        tapDx = new int[KernelSize * KernelSize];
+        tapDy = new int[KernelSize * KernelSize];
+        tapWeight = new int[KernelSize * KernelSize];
+
+        for (int k = -Limit; k <= Limit; k++) {
+            for (int l = -Limit; l <= Limit; l++) {
+                int weight = GaussianKernel[Limit + k][Limit + l];
+                if (weight != 0) {
+                    tapDx[count] = k;
+                    tapDy[count] = l;
+                    tapWeight[count] = weight;
+                    count++;
+                }
+            }
+        }
+        tapDx = Arrays.copyOf(tapDx, count);
+        tapDy = Arrays.copyOf(tapDy, count);
+        tapWeight = Arrays.copyOf(tapWeight, count);
+    }
 
+    //Gaussian filter, in place: earlier lines are already smoothed when read
+    private void GaussianFilter() {
+        int Limit = KernelSize / 2;
+        int tapCount = tapWeight.length;
+        int[] tapOffset = new int[tapCount];
+        for (int t = 0; t < tapCount; t++) {
+            tapOffset[t] = tapDx[t] * Height + tapDy[t];
+        }
 
-        calculate_Gradient();
-        do_NonMaxSuppression();
-        do_PostHysteresis();
-        do_GNHandGHL();
-        hysterisisThresholding(EdgePoints);
+        for (int x = Limit; x <= WidthUpperIndex - Limit; x++) {
+            int line = x * Height;
+            for (int y = Limit; y <= HeightUpperIndex - Limit; y++) {
+                int index = line + y;
+                float Sum = 0.0F;
+                for (int t = 0; t < tapCount; t++) {
+                    Sum = Sum + (smoothed[index + tapOffset[t]] * tapWeight[t]);
+                }
+                smoothed[index] = (short) Math.round((double) (Sum / (float) KernelWeight));
+            }
+        }
+    }
 
+    /**
+     * Run bands of lines, either the gradient pass or the hysteresis pass
+     */
+    private void runBands(boolean isHysteresis, int[] outRGB) {
+        final List<BandTask> tasks = new ArrayList<BandTask>();
+        int bandCount = (Width + bandHeight - 1) / bandHeight;
+        if (workspaces.length < bandCount) {
+            workspaces = Arrays.copyOf(workspaces, bandCount);
+        }
 
-        for (int i = 0; i <= WidthUpperIndex; i++) {
-            for (int j = 0; j <= HeightUpperIndex; j++) {
-                EdgeMap[i][j] = (short) (EdgeMap[i][j] * 0xFF);
+        for (int band = 0; band < bandCount; band++) {
+            int first = band * bandHeight;
+            if (!isHysteresis) {
+                if (workspaces[band] == null || workspaces[band].p.length < Height) {
+                    workspaces[band] = new BandWorkspace(Height);
+                }
             }
+            tasks.add(new BandTask(first, Math.min(first + bandHeight, Width),
+                    isHysteresis, workspaces[band], outRGB));
         }
 
+        if (isParallel && tasks.size() > 1) {
+            POOL.invoke(new RecursiveAction() {
+                @Override
+                protected void compute() {
+                    invokeAll(tasks);
+                }
+            });
+        } else {
+            for (BandTask task : tasks) {
+                task.compute();
+            }
+        }
+    }
+
+    /**
+     * First line and position of the area where points are classified; at
+     * least 1, so neighbours are always inside the image
+     */
+    private int get_ClassifyLimit() {
+        return Math.max(1, (int) Math.rint(KernelSize / 2.0));
+    }
+
+    private byte classify(float value) {
+        short rounded = (short) Math.rint(value);
+        if (rounded >= MaxHysteresisThresh) {
+            return STRONG;
+        }
+        if (rounded >= MinHysteresisThresh) {
+            return WEAK;
+        }
+        return NONE;
+    }
+
+    /**
+     * Gradient line x: derivatives are a 4x4 box of the smoothed image with
+     * opposite signs on its two halves, computed as sums across four lines
+     * (P for the x derivative, Q for the y derivative) then along the line
+     */
+    private void compute_GradientLine(int x, BandWorkspace ws, int slot) {
+        float[] gradient = ws.gradient[slot];
+        int[] dx = ws.dx[slot];
+        int[] dy = ws.dy[slot];
+
+        if (x < 2 || x > Width - 3 || Height < 5) {
+            Arrays.fill(gradient, 0, Height, 0.0F);
+            Arrays.fill(dx, 0, Height, 0);
+            Arrays.fill(dy, 0, Height, 0);
+            return;
+        }
+
+        int[] p = ws.p;
+        int[] q = ws.q;
+        int line0 = (x - 2) * Height;
+        int line1 = line0 + Height;
+        int line2 = line1 + Height;
+        int line3 = line2 + Height;
+        for (int y = 0; y < Height; y++) {
+            int left = smoothed[line0 + y] + smoothed[line1 + y];
+            int right = smoothed[line2 + y] + smoothed[line3 + y];
+            p[y] = left + right;
+            q[y] = left - right;
+        }
+
+        gradient[0] = gradient[1] = gradient[Height - 2] = gradient[Height - 1] = 0.0F;
+        dx[0] = dx[1] = dx[Height - 2] = dx[Height - 1] = 0;
+        dy[0] = dy[1] = dy[Height - 2] = dy[Height - 1] = 0;
+        for (int y = 2; y <= Height - 3; y++) {
+            int DerivativeX = p[y - 2] + p[y - 1] - p[y] - p[y + 1];
+            int DerivativeY = q[y - 2] + q[y - 1] + q[y] + q[y + 1];
+            float fdx = DerivativeX;
+            float fdy = DerivativeY;
+            dx[y] = DerivativeX;
+            dy[y] = DerivativeY;
+            gradient[y] = (float) Math.sqrt((double) ((fdx * fdx) + (fdy * fdy)));
+        }
+    }
+
+    /**
+     * Non-maximum suppression of one point
+     *
+     * @return true if the point is not a local maximum along its gradient
+     */
+    private boolean isSuppressed(float[] previous, float[] current, float[] next, int y,
+            int DerivativeX, int DerivativeY) {
+        float Tangent;
+        if (DerivativeX == 0) {
+            Tangent = 90.0F;
+        } else {
+            Tangent = (float) ((Math.atan((double) ((float) DerivativeY /
+                    (float) DerivativeX)) * 180.0) / Phi);
+        }
+        float Gradient = current[y];
+
+        //Angle 0
+        if (((-22.5 < Tangent) && (Tangent <= 22.5F))
+                && ((Gradient < current[y + 1]) || (Gradient < current[y - 1]))) {
+            return true;
+        }
+
+        //Angle 45
+        if ((((-157.5 < Tangent) && (Tangent <= -112.5F)) || ((22.5 < Tangent)
+                && (Tangent <= 67.5F)))
+                && ((Gradient < next[y + 1]) || (Gradient < previous[y - 1]))) {
+            return true;
+        }
+
+        //Angle 90
+        if ((((-112.5 < Tangent) && (Tangent <= -67.5F)) || ((67.5 < Tangent)
+                && (Tangent <= 112.5F)))
+                && ((Gradient < next[y]) || (Gradient < previous[y]))) {
+            return true;
+        }
+
+        //Angle 135
+        if ((((-67.5 < Tangent) && (Tangent <= -22.5F)) || ((112.5 < Tangent)
+                && (Tangent <= 157.5F)))
+                && ((Gradient < next[y - 1]) || (Gradient < previous[y + 1]))) {
+            return true;
+        }
+        return false;
+    }
 
-        return ImgProc.convert_GrayShortArray_To_Image(EdgeMap);
+    /**
+     * Direction of the first weak neighbour of a strong point
+     *
+     * @return index into NEIGHBOUR_DX/NEIGHBOUR_DY, or -1 if there is none
+     */
+    private int find_FirstWeakNeighbour(int x, int y) {
+        for (int d = 0; d < 8; d++) {
+            if (edgePoints[(x + NEIGHBOUR_DX[d]) * Height + y + NEIGHBOUR_DY[d]] == WEAK) {
+                return d;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Weak point is an edge if it is the first weak neighbour of a strong point
+     */
+    private boolean isPickedWeakPoint(int x, int y) {
+        for (int d = 0; d < 8; d++) {
+            int sx = x - NEIGHBOUR_DX[d];
+            int sy = y - NEIGHBOUR_DY[d];
+            if (edgePoints[sx * Height + sy] == STRONG && find_FirstWeakNeighbour(sx, sy) == d) {
+                return true;
+            }
+        }
+        return false;
     }
 
-    private float[][] differentiate(short[][] Data, short[][] Filter) {
-        int Fw = Filter.length;
-        int Fh = Filter[0].length;
-        float FwHalf = (float) (Fw / 2.0);
-        int FwHalfInt = (int) (Math.rint(Fw / 2.0));
-        float FhHalf = (float) (Fh / 2.0);
-        int FhHalfInt = (int) (Math.rint(Fh / 2.0));
-
-
-        float sum;
-        float[][] Output = new float[WidthUpperIndex + 1][HeightUpperIndex + 1];
-        int i = FwHalfInt;
-        while (i <= ((Width - FwHalf) - 1)) {
-            int j = FhHalfInt;
-            while (j <= ((Height - FhHalf) - 1)) {
-                sum = 0.0F;
-                int k = -FwHalfInt;
-                while (k <= FwHalf) {
-                    int l = -FhHalfInt;
-                    while (l <= FhHalf) {
-                        sum = sum + (Data[(i + k)][(j + l)]
-                                * Filter[(int) (Math.rint(FwHalf + k))][(int) (Math.rint(FhHalf + l))]);
-                        l ++;
+    /**
+     * Hysteresis following whole weak chains, with an explicit stack
+     */
+    private void traceWeakEdges(int[] outRGB) {
+        int Limit = get_ClassifyLimit();
+        int top = 0;
+
+        for (int x = Limit; x <= WidthUpperIndex - Limit; x++) {
+            for (int y = Limit; y <= HeightUpperIndex - Limit; y++) {
+                if (edgePoints[x * Height + y] != STRONG) {
+                    continue;
+                }
+                outRGB[y * Width + x] = EDGE_RGB;
+                top = push(top, x * Height + y);
+
+                while (top > 0) {
+                    top--;
+                    int point = traceStack[top];
+                    int px = point / Height;
+                    int py = point - px * Height;
+                    for (int d = 0; d < 8; d++) {
+                        int nx = px + NEIGHBOUR_DX[d];
+                        int ny = py + NEIGHBOUR_DY[d];
+                        int neighbour = nx * Height + ny;
+                        if (edgePoints[neighbour] == WEAK && outRGB[ny * Width + nx] == 0) {
+                            outRGB[ny * Width + nx] = EDGE_RGB;
+                            top = push(top, neighbour);
+                        }
                     }
-                    k ++;
                 }
-                Output[i][j] = sum;
-                j ++;
             }
-            i ++;
         }
-        return Output;
     }
 
-    
-    //Create Gaussian filter
-    private short[][] GaussianFilter(short[][] Data) {
-        KernelWeight = generateGaussianKernel(KernelSize, Sigma, KernelWeight);
-
-
-        short[][] Output;
-        int Limit = (int) Math.rint((int) (KernelSize / 2));
-        float Sum;
-        Output = Data;
-        int i = Limit;
-        while (i <= ((WidthUpperIndex) - Limit)) {
-            int j = Limit;
-            while (j <= ((Height - 1) - Limit)) {
-                Sum = 0.0F;
-                int k = -Limit;
-                while (k <= Limit) {
-                    int l = -Limit;
-                    while (l <= Limit) {
-                        Sum = Sum + (Data[(i + k)][(j + l)]
-                                * GaussianKernel[Limit + k][Limit + l]);
-                        l ++;
+    private int push(int top, int point) {
+        if (top == traceStack.length) {
+            traceStack = Arrays.copyOf(traceStack, Math.max(1024, traceStack.length * 2));
+        }
+        traceStack[top] = point;
+        return top + 1;
+    }
+
+    /**
+     * Lines [firstLine, endLine): gradient pass classifies points into
+     * edgePoints, hysteresis pass writes edges to the output image
+     */
+    private class BandTask extends RecursiveAction {
+
+        private final int firstLine;
+        private final int endLine;
+        private final boolean isHysteresis;
+        private final BandWorkspace ws;
+        private final int[] outRGB;
+
+        BandTask(int firstLine, int endLine, boolean isHysteresis, BandWorkspace ws,
+                int[] outRGB) {
+            this.firstLine = firstLine;
+            this.endLine = endLine;
+            this.isHysteresis = isHysteresis;
+            this.ws = ws;
+            this.outRGB = outRGB;
+        }
+
+        @Override
+        protected void compute() {
+            if (isHysteresis) {
+                computeHysteresis();
+            } else {
+                computeGradient();
+            }
+        }
+
+        private void computeGradient() {
+            int Limit = get_ClassifyLimit();
+            byte classOfZero = classify(0.0F);
+
+            //Gradient lines x - 1, x and x + 1 are kept in slots (x + 3) % 3
+            if (firstLine > 0) {
+                compute_GradientLine(firstLine - 1, ws, (firstLine + 2) % 3);
+            }
+            compute_GradientLine(firstLine, ws, firstLine % 3);
+
+            for (int x = firstLine; x < endLine; x++) {
+                if (x + 1 < Width) {
+                    compute_GradientLine(x + 1, ws, (x + 1) % 3);
+                }
+                int line = x * Height;
+                Arrays.fill(edgePoints, line, line + Height, NONE);
+                if (x < Limit || x > WidthUpperIndex - Limit) {
+                    continue;
+                }
+
+                float[] previous = ws.gradient[(x + 2) % 3];
+                float[] current = ws.gradient[x % 3];
+                float[] next = ws.gradient[(x + 1) % 3];
+                int[] dx = ws.dx[x % 3];
+                int[] dy = ws.dy[x % 3];
+                for (int y = Limit; y <= HeightUpperIndex - Limit; y++) {
+                    byte pointClass = classify(current[y]);
+                    //Suppression only matters if it changes the class
+                    if (pointClass != classOfZero
+                            && isSuppressed(previous, current, next, y, dx[y], dy[y])) {
+                        pointClass = classOfZero;
                     }
-                    k ++;
+                    edgePoints[line + y] = pointClass;
                 }
-                Output[i][j] = (short) Math.round((double) (Sum / (float) KernelWeight));
-                j ++;
             }
-            i ++;
         }
-        return Output;
+
+        private void computeHysteresis() {
+            for (int x = firstLine; x < endLine; x++) {
+                int line = x * Height;
+                for (int y = 0; y < Height; y++) {
+                    byte pointClass = edgePoints[line + y];
+                    if (pointClass == STRONG
+                            || (pointClass == WEAK && isPickedWeakPoint(x, y))) {
+                        outRGB[y * Width + x] = EDGE_RGB;
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Per-band work lines, reused across images
+     */
+    private static class BandWorkspace {
+
+        final int[] p;
+        final int[] q;
+        final float[][] gradient;
+        final int[][] dx;
+        final int[][] dy;
+
+        BandWorkspace(int lineLength) {
+            p = new int[lineLength];
+            q = new int[lineLength];
+            gradient = new float[3][lineLength];
+            dx = new int[3][lineLength];
+            dy = new int[3][lineLength];
+        }
     }
 
     //Create Gaussian kernel
@@ -241,213 +615,4 @@ public class CannyEdgeDetector {
 
         return Weight;
     }
-
-    private void hysterisisThresholding(short[][] Edges) {
-        int i;
-        int j;
-        int Limit = (int) Math.rint(KernelSize / 2.0);
-        i = Limit;
-        while (i <= ((WidthUpperIndex) - Limit)) {
-            j = Limit;
-            while (j <= ((Height - 1) - Limit)) {
-                if (Edges[i][j] == 1) {
-                    EdgeMap[i][j] = 1;
-                }
-                j ++;
-            }
-            i ++;
-        }
-
-
-        i = Limit;
-        while (i <= ((WidthUpperIndex) - Limit)) {
-            j = Limit;
-            while (j <= ((Height - 1) - Limit)) {
-                if (Edges[i][j] == 1) {
-                    EdgeMap[i][j] = 1;
-                    travers(i, j);
-                    VisitedMap[i][j] = 1;
-                }
-                j ++;
-            }
-            i ++;
-        }
-    }
-
-    private void travers(int X, int Y) {
-
-        if (VisitedMap[X][Y] != 1) {
-            if (EdgePoints[X + 1][Y] == 2) {
-                EdgeMap[X + 1][Y] = 1;
-                VisitedMap[X + 1][Y] = 1;
-                travers(X + 1, Y);
-            } else if (EdgePoints[X + 1][Y - 1] == 2) {
-                EdgeMap[X + 1][Y - 1] = 1;
-                VisitedMap[X + 1][Y - 1] = 1;
-                travers(X + 1, Y - 1);
-            } else if (EdgePoints[X][Y - 1] == 2) {
-                EdgeMap[X][Y - 1] = 1;
-                VisitedMap[X][Y - 1] = 1;
-                travers(X, (Y - 1));
-            } else if (EdgePoints[X - 1][Y - 1] == 2) {
-                EdgeMap[X - 1][Y - 1] = 1;
-                VisitedMap[X - 1][Y - 1] = 1;
-                travers((X - 1), (Y - 1));
-            } else if (EdgePoints[X - 1][Y] == 2) {
-                EdgeMap[X - 1][Y] = 1;
-                VisitedMap[X - 1][Y] = 1;
-                travers((X - 1), Y);
-            } else if (EdgePoints[X - 1][Y + 1] == 2) {
-                EdgeMap[X - 1][Y + 1] = 1;
-                VisitedMap[X - 1][Y + 1] = 1;
-                travers((X - 1), (Y + 1));
-            } else if (EdgePoints[X][Y + 1] == 2) {
-                EdgeMap[X][Y + 1] = 1;
-                VisitedMap[X][Y + 1] = 1;
-                travers(X, (Y + 1));
-            } else if (EdgePoints[X + 1][Y + 1] == 2) {
-                EdgeMap[X + 1][Y + 1] = 1;
-                VisitedMap[X + 1][Y + 1] = 1;
-                travers((X + 1), (Y + 1));
-            }
-
-        }
-    }
-
-    private void do_NonMaxSuppression() {
-        int i;
-        int j;
-        int Limit = (int) Math.rint((float) KernelSize / 2.0);
-
-
-        i = Limit;
-        while (i <= ((Width - Limit) - 1)) {
-            j = Limit;
-            while (j <= ((Height - Limit) - 1)) {
-                float Tangent;
-                if (DerivativeX[i][j] == 0.0F) {
-                    Tangent = 90.0F;
-                } else {
-                    Tangent = (float) ((Math.atan((double) (DerivativeY[i][j] /
-                            DerivativeX[i][j])) * 180.0) / Phi);
-                }
-
-
-
-
-                //Angle 0
-                if ((((-22.5 < Tangent) && (Tangent <= 22.5F)) || ((157.5 < Tangent)
-                        && (Tangent <= -157.5F))) && ((Gradient[i][j] < Gradient[i][j + 1])
-                        || (Gradient[i][j] < Gradient[i][j - 1]))) {
-                    NonMax[i][j] = 0.0F;
-                }
-
-
-                //Angle 45
-                if ((((-157.5 < Tangent) && (Tangent <= -112.5F)) || ((22.5 < Tangent)
-                        && (Tangent <= 67.5F))) && ((Gradient[i][j] < Gradient[i + 1][j + 1])
-                        || (Gradient[i][j] < Gradient[i - 1][j - 1]))) {
-                    NonMax[i][j] = 0.0F;
-                }
-
-
-
-                //Angle 90
-                if ((((-112.5 < Tangent) && (Tangent <= -67.5F)) || ((67.5 < Tangent)
-                        && (Tangent <= 112.5F))) && ((Gradient[i][j] < Gradient[i + 1][j])
-                        || (Gradient[i][j] < Gradient[i - 1][ j]))) {
-                    NonMax[i][j] = 0.0F;
-                }
-
-
-                //Angle 135
-                if ((((-67.5 < Tangent) && (Tangent <= -22.5F)) || ((112.5 < Tangent)
-                        && (Tangent <= 157.5F))) && ((Gradient[i][ j] < Gradient[i + 1][j - 1])
-                        || (Gradient[i][j] < Gradient[i - 1][j + 1]))) {
-                    NonMax[i][j] = 0.0F;
-                }
-
-                j ++;
-            }
-            i ++;
-        }
-
-    }
-
-    private void do_PostHysteresis() {
-        int r;
-        int c;
-        float min = 100F;
-        float max = 0F;
-        int Limit = (int) Math.rint(KernelSize / 2.0);
-
-
-        r = Limit;
-        while (r <= ((Width - Limit) - 1)) {
-            c = Limit;
-            while (c <= ((Height - Limit) - 1)) {
-                PostHysteresis[r][c] = (short) Math.rint(NonMax[r][c]);
-                c ++;
-            }
-            r ++;
-        }
-
-
-        while (r <= ((Width - Limit) - 1)) {
-            c = Limit;
-            while (c <= ((Height - Limit) - 1)) {
-                if (PostHysteresis[r][c] > max) {
-                    max = PostHysteresis[r][c];
-                }
-                if ((PostHysteresis[r][c] < min) && (PostHysteresis[r][c] > 0)) {
-                    min = PostHysteresis[r][c];
-                }
-                c ++;
-            }
-            r ++;
-        }
-    }
-
-    private void do_GNHandGHL() {
-        int r;
-        int c;
-
-
-        int Limit = (int) Math.rint(KernelSize / 2.0);
-
-        GNH = new float[WidthUpperIndex + 1][HeightUpperIndex + 1];
-        GNL = new float[WidthUpperIndex + 1][HeightUpperIndex + 1];
-        EdgePoints = new short[WidthUpperIndex + 1][HeightUpperIndex + 1];
-
-        r = Limit;
-        while (r <= ((Width - Limit) - 1)) {
-            c = Limit;
-            while (c <= ((Height - Limit) - 1)) {
-                if (PostHysteresis[r][c] >= MaxHysteresisThresh) {
-                    EdgePoints[r][c] = 1;
-                    GNH[r][c] = 255.0F;
-                }
-
-                if ((PostHysteresis[r][c] < MaxHysteresisThresh)
-                        && (PostHysteresis[r][c] >= MinHysteresisThresh)) {
-                    EdgePoints[r][c] = 2;
-                    GNL[r][c] = 255.0F;
-                }
-                c ++;
-            }
-            r ++;
-        }
-
-    }
-
-    private void calculate_Gradient() {
-        for (int i = 0; i <= WidthUpperIndex; i++) {
-            for (int j = 0; j <= HeightUpperIndex; j++) {
-                Gradient[i][j] = (float) Math.sqrt((double) ((DerivativeX[i][j]
-                        * DerivativeX[i][j]) + (DerivativeY[i][j] * DerivativeY[i][j])));
-                NonMax[i][j] = Gradient[i][j];
-            }
-        }
-    }
 }
-
@@ -0,0 +1,380 @@
+/*
+ * Filename: ComponentTree.java
+ */
+
+package edu.rice.wormlab.eggcounter;
+
+import java.util.Arrays;
+
+/**
+ * Component tree of the lower level sets of a gray image: for every given
+ * threshold, the 8-connected components of the pixels whose gray value is
+ * not above it.
+ * The tree is built in one pass, adding pixels in order of their level
+ * (bucket sorted) to a union-find forest; area, bounding box, first pixel
+ * in raster order, coordinate sums and gray sum of every component are
+ * updated as pixels are added and components merge. A component that did
+ * not change at a level is the same tree node as at the level below, and
+ * keeps its id. After each level the visitor is called, and the components
+ * of that level can be queried until the next level is added.
+ * Work arrays are kept in the instance and reused for images of the same size.
+ */
+public class ComponentTree {
+
+    /**
+     * Called once all pixels of a level are added
+     */
+    public interface LevelVisitor {
+
+        /**
+         * @param tree tree holding the components of this level
+         * @param level index of the threshold
+         * @param threshold threshold value
+         */
+        void visitLevel(ComponentTree tree, int level, int threshold);
+    }
+
+    private static final int NOT_ADDED = -1;
+
+    private int width;
+    private int height;
+
+    //Union-find forest over pixels, row-major: index = x + y * width
+    private int[] parent = new int[0];
+    //Component id of every root pixel
+    private int[] componentOf = new int[0];
+    //Pixels in the order they are added
+    private int[] order = new int[0];
+
+    //Per-component attributes, index is the component id
+    private int componentCount;
+    private int[] root = new int[0];
+    private int[] area = new int[0];
+    private int[] left = new int[0];
+    private int[] right = new int[0];
+    private int[] top = new int[0];
+    private int[] bottom = new int[0];
+    private int[] firstPixel = new int[0];
+    private int[] changedLevel = new int[0];
+    private long[] sumX = new long[0];
+    private long[] sumY = new long[0];
+    private long[] sumGray = new long[0];
+
+    //Components alive at the current level
+    private int[] live = new int[0];
+    private int liveCount;
+
+    /**
+     * Build tree over gray array
+     *
+     * @param grayPixels gray array (0~255), [x][y]
+     * @param thresholds thresholds, in ascending order
+     * @param margin width of the image border left out of every component
+     * @param visitor called after each level
+     */
+    public void build(short[][] grayPixels, int[] thresholds, int margin,
+            LevelVisitor visitor) {
+        for (int q = 1; q < thresholds.length; q++) {
+            if (thresholds[q] <= thresholds[q - 1]) {
+                throw new IllegalArgumentException("Thresholds are not in ascending order");
+            }
+        }
+        prepare(grayPixels.length, grayPixels[0].length);
+
+        //Level at which each gray value joins the lower sets
+        int[] levelOfGray = new int[256];
+        for (int gray = 0; gray <= 255; gray++) {
+            levelOfGray[gray] = NOT_ADDED;
+            for (int q = thresholds.length - 1; q >= 0 && gray <= thresholds[q]; q--) {
+                levelOfGray[gray] = q;
+            }
+        }
+
+        //Bucket sort pixels by level, raster order within a level
+        int[] levelStart = new int[thresholds.length + 1];
+        for (int y = margin; y <= height - margin - 1; y++) {
+            for (int x = margin; x <= width - margin - 1; x++) {
+                int level = get_Level(levelOfGray, grayPixels[x][y]);
+                if (level != NOT_ADDED) {
+                    levelStart[level + 1]++;
+                }
+            }
+        }
+        for (int q = 0; q < thresholds.length; q++) {
+            levelStart[q + 1] += levelStart[q];
+        }
+        int[] next = Arrays.copyOf(levelStart, thresholds.length);
+        for (int y = margin; y <= height - margin - 1; y++) {
+            for (int x = margin; x <= width - margin - 1; x++) {
+                int level = get_Level(levelOfGray, grayPixels[x][y]);
+                if (level != NOT_ADDED) {
+                    order[next[level]++] = x + y * width;
+                }
+            }
+        }
+
+        for (int q = 0; q < thresholds.length; q++) {
+            for (int k = levelStart[q]; k < levelStart[q + 1]; k++) {
+                int pixel = order[k];
+                int x = pixel % width;
+                int y = pixel / width;
+                addPixel(pixel, x, y, grayPixels[x][y], q);
+            }
+
+            //Drop components merged into others
+            int kept = 0;
+            for (int k = 0; k < liveCount; k++) {
+                if (root[live[k]] != NOT_ADDED) {
+                    live[kept++] = live[k];
+                }
+            }
+            liveCount = kept;
+
+            visitor.visitLevel(this, q, thresholds[q]);
+        }
+    }
+
+    private static int get_Level(int[] levelOfGray, short gray) {
+        if (gray < 0 || gray > 255) {
+            return NOT_ADDED;
+        }
+        return levelOfGray[gray];
+    }
+
+    private void prepare(int imageWidth, int imageHeight) {
+        width = imageWidth;
+        height = imageHeight;
+        componentCount = 0;
+        liveCount = 0;
+
+        int pixelCount = width * height;
+        if (parent.length < pixelCount) {
+            parent = new int[pixelCount];
+            componentOf = new int[pixelCount];
+            order = new int[pixelCount];
+        }
+        Arrays.fill(parent, 0, pixelCount, NOT_ADDED);
+    }
+
+    /**
+     * Add pixel to the forest, joining the components of its neighbours
+     */
+    private void addPixel(int pixel, int x, int y, int gray, int level) {
+        int current = NOT_ADDED;
+        for (int dy = -1; dy <= 1; dy++) {
+            int ny = y + dy;
+            if (ny < 0 || ny >= height) {
+                continue;
+            }
+            for (int dx = -1; dx <= 1; dx++) {
+                int nx = x + dx;
+                if (nx < 0 || nx >= width || (dx == 0 && dy == 0)) {
+                    continue;
+                }
+                int neighbour = nx + ny * width;
+                if (parent[neighbour] == NOT_ADDED) {
+                    continue;
+                }
+                int neighbourRoot = find(neighbour);
+                if (current == NOT_ADDED) {
+                    current = neighbourRoot;
+                } else if (neighbourRoot != current) {
+                    current = union(current, neighbourRoot, level);
+                }
+            }
+        }
+
+        int id;
+        if (current == NOT_ADDED) {
+            parent[pixel] = pixel;
+            id = newComponent(pixel);
+        } else {
+            parent[pixel] = current;
+            id = componentOf[current];
+        }
+
+        area[id]++;
+        sumX[id] += x;
+        sumY[id] += y;
+        sumGray[id] += gray;
+        if (x < left[id]) {
+            left[id] = x;
+        }
+        if (x > right[id]) {
+            right[id] = x;
+        }
+        if (y < top[id]) {
+            top[id] = y;
+        }
+        if (y > bottom[id]) {
+            bottom[id] = y;
+        }
+        if (pixel < firstPixel[id]) {
+            firstPixel[id] = pixel;
+        }
+        changedLevel[id] = level;
+    }
+
+    private int newComponent(int pixel) {
+        if (componentCount == root.length) {
+            int size = Math.max(1024, root.length * 2);
+            root = Arrays.copyOf(root, size);
+            area = Arrays.copyOf(area, size);
+            left = Arrays.copyOf(left, size);
+            right = Arrays.copyOf(right, size);
+            top = Arrays.copyOf(top, size);
+            bottom = Arrays.copyOf(bottom, size);
+            firstPixel = Arrays.copyOf(firstPixel, size);
+            changedLevel = Arrays.copyOf(changedLevel, size);
+            sumX = Arrays.copyOf(sumX, size);
+            sumY = Arrays.copyOf(sumY, size);
+            sumGray = Arrays.copyOf(sumGray, size);
+            live = Arrays.copyOf(live, size);
+        }
+
+        int id = componentCount++;
+        root[id] = pixel;
+        area[id] = 0;
+        left[id] = Integer.MAX_VALUE;
+        right[id] = -1;
+        top[id] = Integer.MAX_VALUE;
+        bottom[id] = -1;
+        firstPixel[id] = Integer.MAX_VALUE;
+        sumX[id] = 0;
+        sumY[id] = 0;
+        sumGray[id] = 0;
+        componentOf[pixel] = id;
+        live[liveCount++] = id;
+        return id;
+    }
+
+    /**
+     * Merge two components; the larger one keeps its id
+     *
+     * @return root pixel of the merged component
+     */
+    private int union(int rootA, int rootB, int level) {
+        int kept = componentOf[rootA];
+        int merged = componentOf[rootB];
+        if (area[merged] > area[kept]) {
+            int swap = rootA;
+            rootA = rootB;
+            rootB = swap;
+            kept = componentOf[rootA];
+            merged = componentOf[rootB];
+        }
+
+        parent[rootB] = rootA;
+        area[kept] += area[merged];
+        sumX[kept] += sumX[merged];
+        sumY[kept] += sumY[merged];
+        sumGray[kept] += sumGray[merged];
+        left[kept] = Math.min(left[kept], left[merged]);
+        right[kept] = Math.max(right[kept], right[merged]);
+        top[kept] = Math.min(top[kept], top[merged]);
+        bottom[kept] = Math.max(bottom[kept], bottom[merged]);
+        firstPixel[kept] = Math.min(firstPixel[kept], firstPixel[merged]);
+        changedLevel[kept] = level;
+        root[merged] = NOT_ADDED;
+
+        return rootA;
+    }
+
+    /**
+     * Find root pixel with path halving
+     */
+    private int find(int pixel) {
+        while (parent[pixel] != pixel) {
+            parent[pixel] = parent[parent[pixel]];
+            pixel = parent[pixel];
+        }
+        return pixel;
+    }
+
+    /**
+     * Check if pixel belongs to component at the current level
+     *
+     * @param id component id
+     * @param x x
+     * @param y y
+     * @return true if it does
+     */
+    public boolean contains(int id, int x, int y) {
+        int pixel = x + y * width;
+        return parent[pixel] != NOT_ADDED && componentOf[find(pixel)] == id;
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    /**
+     * @return number of components at the current level
+     */
+    public int getLiveCount() {
+        return liveCount;
+    }
+
+    /**
+     * @param k index, 0 ~ getLiveCount() - 1
+     * @return id of component alive at the current level
+     */
+    public int getLive(int k) {
+        return live[k];
+    }
+
+    /**
+     * @return index of the last level at which the component gained pixels;
+     * below the current level it means the component is unchanged
+     */
+    public int getChangedLevel(int id) {
+        return changedLevel[id];
+    }
+
+    public int getArea(int id) {
+        return area[id];
+    }
+
+    public int getLeft(int id) {
+        return left[id];
+    }
+
+    public int getRight(int id) {
+        return right[id];
+    }
+
+    public int getTop(int id) {
+        return top[id];
+    }
+
+    public int getBottom(int id) {
+        return bottom[id];
+    }
+
+    /**
+     * @return first pixel of the component in raster order, as x + y * width
+     */
+    public int getFirstPixel(int id) {
+        return firstPixel[id];
+    }
+
+    public long getSumX(int id) {
+        return sumX[id];
+    }
+
+    public long getSumY(int id) {
+        return sumY[id];
+    }
+
+    public long getSumGray(int id) {
+        return sumGray[id];
+    }
+
+    public double getMeanGray(int id) {
+        return (double) sumGray[id] / area[id];
+    }
+}
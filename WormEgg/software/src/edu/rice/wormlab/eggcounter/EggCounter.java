@@ -20,8 +20,12 @@ import java.io.FileReader;
 import java.io.FileWriter;
 import java.io.IOException;
 import java.io.PrintWriter;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashMap;
+import java.util.List;
 import javax.imageio.ImageIO;
 import javax.swing.DefaultListModel;
 import javax.swing.JButton;
@@ -113,6 +117,7 @@ public class EggCounter implements Runnable {
     public BufferedImage _Image_EggDetection;
     private NativeImgProcessing ImgProc = new NativeImgProcessing();
     private CannyEdgeDetector CannyDet = new CannyEdgeDetector();
+    private ComponentTree ThresholdComponentTree = new ComponentTree();
     public int numberOfPiecesInX;
     public int numberOfPiecesInY;
     public int[] imageScanOrder;
@@ -905,237 +910,199 @@ public class EggCounter implements Runnable {
 
     }
 
-    //Process (update and delete) detected objects
-    //utilizing region labeled binary image
-    public final short[][] check_LabelID_From_Threshold_RegionExt(
-            short[][] Src_IDMap, short[][] Src_ColorTable) {
+    //Screen objects (eggs) among the components of one threshold level
+    //A component unchanged since the level below keeps its earlier result
+    //Return screened objects in raster order of their first pixel
+    public final List<ID_InfoDef> check_Components_Of_ThresholdLevel(
+            final ComponentTree Tree, int Level, HashMap<Integer, ID_InfoDef> ScreenedComponents) {
 
-        short[][] Temp_New_IDMap;
-
-        int w;
-        int x;
-        int y;
-
-
-        Temp_New_IDMap = ImgProc.multiArrayCopy(Src_IDMap);
-        LabelID_Count = (short) Src_ColorTable.length - 1;
-
-        ID_InfoDef[] temp = new ID_InfoDef[LabelID_Count + 1];
-        ID_Info = temp.clone();
-
-
-        //Initializing
-        initialize_LabelID_Info();
-
-
-
-        //Adding .AvgCenter_X (or _Y) of each pixel
-        //Finding Min,Max
-        for (y = 0; y <= ImageHeightUpperBound; y++) {
-            for (x = 0; x <= ImageWidthUpperBound; x++) {
+        List<ID_InfoDef> FoundObjects = new ArrayList<ID_InfoDef>();
 
-                ID_Info[Src_IDMap[x][y]].PixelCount += 1;
-                ID_Info[Src_IDMap[x][y]].AvgCenter_X += x;
-                ID_Info[Src_IDMap[x][y]].AvgCenter_Y += y;
 
-                if (ID_Info[Src_IDMap[x][y]].X_Min > x) {
-                    ID_Info[Src_IDMap[x][y]].X_Min = x;
-                }
-                if (ID_Info[Src_IDMap[x][y]].Y_Min > y) {
-                    ID_Info[Src_IDMap[x][y]].Y_Min = y;
-                }
-                if (ID_Info[Src_IDMap[x][y]].X_Max < x) {
-                    ID_Info[Src_IDMap[x][y]].X_Max = x;
-                }
-                if (ID_Info[Src_IDMap[x][y]].Y_Max < y) {
-                    ID_Info[Src_IDMap[x][y]].Y_Max = y;
-                }
-            }
+        //A level with a single region adds nothing
+        if (Tree.getLiveCount() <= 1) {
+            ScreenedComponents.clear();
+            return FoundObjects;
         }
 
 
-
-        //Calculating average value
-        for (y = 1; y <= LabelID_Count; y++) {
-
-            if (ID_Info[y].PixelCount > 0) {
-                ID_Info[y].AvgCenter_X = (int) Math.rint(ID_Info[y].AvgCenter_X / 
-                        ID_Info[y].PixelCount);
-                ID_Info[y].AvgCenter_Y = (int) Math.rint(ID_Info[y].AvgCenter_Y / 
-                        ID_Info[y].PixelCount);
+        List<Integer> FoundIDs = new ArrayList<Integer>();
+        for (int k = 0; k < Tree.getLiveCount(); k++) {
+            int ID = Tree.getLive(k);
+            if (Tree.getChangedLevel(ID) == Level || !ScreenedComponents.containsKey(ID)) {
+                ScreenedComponents.put(ID, check_ThresholdComponent(Tree, ID));
             }
-        }
-
-
-        //Adding .avgRadius of each pixel
-        for (y = 0; y <= ImageHeightUpperBound; y++) {
-            for (x = 0; x <= ImageWidthUpperBound; x++) {
-                ID_Info[Src_IDMap[x][y]].AvgRadius +=
-                        Math.sqrt((Math.pow((x - ID_Info[Src_IDMap[x][y]].AvgCenter_X), 2))
-                        + (Math.pow((y - ID_Info[Src_IDMap[x][y]].AvgCenter_Y), 2)));
+            if (ScreenedComponents.get(ID) != null) {
+                FoundIDs.add(ID);
             }
         }
 
+        Collections.sort(FoundIDs, new Comparator<Integer>() {
+            @Override
+            public int compare(Integer ID1, Integer ID2) {
+                return Integer.compare(Tree.getFirstPixel(ID1), Tree.getFirstPixel(ID2));
+            }
+        });
 
-
-        //Calculating avgRadius
-        for (y = 1; y <= LabelID_Count; y++) {
-            ID_Info[y].AvgRadius = ID_Info[y].AvgRadius / ID_Info[y].PixelCount;
-            ID_Info[y].CubicLenth = (int) Math.rint(Math.pow(ID_Info[y].PixelCount, 0.5));
+        for (Integer ID : FoundIDs) {
+            FoundObjects.add(ScreenedComponents.get(ID));
         }
 
 
+        return FoundObjects;
 
-        for (y = 1; y <= LabelID_Count; y++) {
-            if (ID_Info[y].AvgRadius < detectionCondition.min_AvgRadius_In_ThresholdRegion
-                    && (ID_Info[y].X_Max - ID_Info[y].X_Min) >= detectionCondition.min_BoundingSize_In_ThresholdRegion
-                    && (ID_Info[y].Y_Max - ID_Info[y].Y_Min) >= detectionCondition.min_BoundingSize_In_ThresholdRegion
-                    && (ID_Info[y].X_Max - ID_Info[y].X_Min) < detectionCondition.max_BoundingSize_In_ThresholdRegion
-                    && (ID_Info[y].Y_Max - ID_Info[y].Y_Min) < detectionCondition.max_BoundingSize_In_ThresholdRegion
-                    && ID_Info[y].PixelCount <= detectionCondition.min_ObjectSize_In_ThresholdRegion) {
+    }
 
-                ID_Info[y].IsExcludeThisID = false;
-                ID_Info[y].ProbablityPercent = 100;
-            } else {
-                ID_Info[y].IsExcludeThisID = true;
-                ID_Info[y].ProbablityPercent = 0;
-            }
+    //Apply screening rules to one component of a threshold level
+    //Return null if the component is excluded
+    private ID_InfoDef check_ThresholdComponent(ComponentTree Tree, int ID) {
 
+        ID_InfoDef Info = new ID_InfoDef();
 
+        int x;
+        int y;
+        int Left = Tree.getLeft(ID);
+        int Right = Tree.getRight(ID);
+        int Top = Tree.getTop(ID);
+        int Bottom = Tree.getBottom(ID);
+
+
+        Info.Method = Method_AutomatedCounting;
+        Info.PixelCount = Tree.getArea(ID);
+        Info.X_Min = Left;
+        Info.X_Max = Right;
+        Info.Y_Min = Top;
+        Info.Y_Max = Bottom;
+        Info.AvgCenter_X = (int) Math.rint(Tree.getSumX(ID) / Info.PixelCount);
+        Info.AvgCenter_Y = (int) Math.rint(Tree.getSumY(ID) / Info.PixelCount);
+
+
+        //Bounding box and size first; only small objects need a pass over their pixels
+        if (!((Info.X_Max - Info.X_Min) >= detectionCondition.min_BoundingSize_In_ThresholdRegion
+                && (Info.Y_Max - Info.Y_Min) >= detectionCondition.min_BoundingSize_In_ThresholdRegion
+                && (Info.X_Max - Info.X_Min) < detectionCondition.max_BoundingSize_In_ThresholdRegion
+                && (Info.Y_Max - Info.Y_Min) < detectionCondition.max_BoundingSize_In_ThresholdRegion
+                && Info.PixelCount <= detectionCondition.min_ObjectSize_In_ThresholdRegion)) {
+            return null;
+        }
 
 
-            if (ID_Info[y].IsExcludeThisID == false) {
-                if (ID_Info[y].PixelCount < myScreeningCondition.AvgPixelCount * 0.6) {
-                    if (ID_Info[y].PixelCount >= myScreeningCondition.AvgPixelCount * 0.3) {
-                        ID_Info[y].ProbablityPercent = ID_Info[y].ProbablityPercent * 0.7;
-                    } else {
-                        ID_Info[y].ProbablityPercent = 0;
-                        ID_Info[y].IsExcludeThisID = true;
-                    }
+        //Adding .avgRadius of each pixel
+        for (y = Top; y <= Bottom; y++) {
+            for (x = Left; x <= Right; x++) {
+                if (Tree.contains(ID, x, y)) {
+                    Info.AvgRadius += Math.sqrt((Math.pow((x - Info.AvgCenter_X), 2))
+                            + (Math.pow((y - Info.AvgCenter_Y), 2)));
                 }
             }
+        }
+        Info.AvgRadius = Info.AvgRadius / Info.PixelCount;
+        Info.CubicLenth = (int) Math.rint(Math.pow(Info.PixelCount, 0.5));
 
+        if (!(Info.AvgRadius < detectionCondition.min_AvgRadius_In_ThresholdRegion)) {
+            return null;
+        }
+        Info.ProbablityPercent = 100;
 
 
-            if (ID_Info[y].IsExcludeThisID == false) {
-                long GrayValueSum;
-                long MaskedPixelCount;
-                int Cur_X;
-                int Cur_Y;
+        if (Info.PixelCount < myScreeningCondition.AvgPixelCount * 0.6) {
+            if (Info.PixelCount >= myScreeningCondition.AvgPixelCount * 0.3) {
+                Info.ProbablityPercent = Info.ProbablityPercent * 0.7;
+            } else {
+                return null;
+            }
+        }
 
-                GrayValueSum = 0;
-                MaskedPixelCount = 0;
-                for (Cur_Y = (int) Math.rint(ID_Info[y].Y_Min); 
-                        Cur_Y <= (int) Math.rint(ID_Info[y].Y_Max); Cur_Y++) {
-                    for (Cur_X = (int) Math.rint(ID_Info[y].X_Min); 
-                            Cur_X <= (int) Math.rint(ID_Info[y].X_Max); Cur_X++) {
-                        if (Src_IDMap[Cur_X][ Cur_Y] == y) {
-                            GrayValueSum += GrayImageMap[Cur_X][ Cur_Y];
-                            MaskedPixelCount++;
-                        }
-                    }
-                }
 
-                if (MaskedPixelCount > 1) {
+        //Gray sum of the object is kept by the tree
+        if (Tree.getArea(ID) > 1) {
 
-                    ID_Info[y].AvgGrayOfMaskedObject = (int) Math.rint(GrayValueSum /
-                            (double) MaskedPixelCount);
+            Info.AvgGrayOfMaskedObject = (int) Math.rint(Tree.getSumGray(ID) /
+                    (double) Tree.getArea(ID));
 
 
-                    if (ID_Info[y].AvgGrayOfMaskedObject <= myScreeningCondition.AvgGrayOfEgg - 30
-                            | ID_Info[y].AvgGrayOfMaskedObject >= myScreeningCondition.AvgGrayOfEgg + 30) {
+            if (Info.AvgGrayOfMaskedObject <= myScreeningCondition.AvgGrayOfEgg - 30
+                    | Info.AvgGrayOfMaskedObject >= myScreeningCondition.AvgGrayOfEgg + 30) {
 
-                        ID_Info[y].ProbablityPercent = ID_Info[y].ProbablityPercent * 0.5;
+                Info.ProbablityPercent = Info.ProbablityPercent * 0.5;
 
-                    } else if (ID_Info[y].AvgGrayOfMaskedObject <= myScreeningCondition.AvgGrayOfEgg - 40
-                            | ID_Info[y].AvgGrayOfMaskedObject >= myScreeningCondition.AvgGrayOfEgg + 40) {
+            } else if (Info.AvgGrayOfMaskedObject <= myScreeningCondition.AvgGrayOfEgg - 40
+                    | Info.AvgGrayOfMaskedObject >= myScreeningCondition.AvgGrayOfEgg + 40) {
 
-                        ID_Info[y].ProbablityPercent = ID_Info[y].ProbablityPercent * 0.4;
+                Info.ProbablityPercent = Info.ProbablityPercent * 0.4;
 
-                    }
-                }
             }
-
-
         }
 
 
         //Calculating CannyEdgePointCount and SqrtDiffRadius_CannyEdge
-        int CannyEdgePointCount;
-
-        for (w = 1; w <= LabelID_Count; w++) {
-            if (ID_Info[w].IsExcludeThisID == false) {
-
-                CannyEdgePointCount = 0;
-                for (y = (int) Math.rint(ID_Info[w].Y_Min); 
-                        y <= (int) Math.rint(ID_Info[w].Y_Max); y++) {
-                    for (x = (int) Math.rint(ID_Info[w].X_Min); 
-                            x <= (int) Math.rint(ID_Info[w].X_Max); x++) {
-                        if (CannyEedgeMap[x][y] == 255) {
-                            CannyEdgePointCount++;
-
-                            ID_Info[w].SqrtDiffRadius_CannyEdge +=
-                                    (Math.pow((Math.sqrt((Math.pow((x - ID_Info[w].AvgCenter_X), 2))
-                                    + (Math.pow((y - ID_Info[w].AvgCenter_Y), 2)))
-                                    - ID_Info[w].AvgRadius), 2));
-                        }
-                    }
-                }
-
-
-                ID_Info[w].CannyEdgePointCount = CannyEdgePointCount;
-
+        int CannyEdgePointCount = 0;
+        for (y = Top; y <= Bottom; y++) {
+            for (x = Left; x <= Right; x++) {
+                if (CannyEedgeMap[x][y] == 255) {
+                    CannyEdgePointCount++;
 
-                if (ID_Info[w].CannyEdgePointCount > 1) {
-                    ID_Info[w].SqrtDiffRadius_CannyEdge = ID_Info[w].SqrtDiffRadius_CannyEdge
-                            / CannyEdgePointCount;
-                } else {
-                    ID_Info[w].IsExcludeThisID = true;
+                    Info.SqrtDiffRadius_CannyEdge +=
+                            (Math.pow((Math.sqrt((Math.pow((x - Info.AvgCenter_X), 2))
+                            + (Math.pow((y - Info.AvgCenter_Y), 2)))
+                            - Info.AvgRadius), 2));
                 }
             }
         }
+        Info.CannyEdgePointCount = CannyEdgePointCount;
 
+        if (Info.CannyEdgePointCount > 1) {
+            Info.SqrtDiffRadius_CannyEdge = Info.SqrtDiffRadius_CannyEdge
+                    / CannyEdgePointCount;
+        } else {
+            return null;
+        }
 
 
         //Calculating Circularity_FilledRegion
-        //Adding SqrtDiffRadius
-        for (y = 0; y <= ImageHeightUpperBound; y++) {
-            for (x = 0; x <= ImageWidthUpperBound; x++) {
-                if (ID_Info[Src_IDMap[x][ y]].IsExcludeThisID == false && Src_IDMap[x][ y] != 0) {
-
-                    ID_Info[Src_IDMap[x][ y]].SqrtDiffRadius_FilledRegion +=
-                            (Math.pow((Math.sqrt((Math.pow((x - 
-                            ID_Info[Src_IDMap[x][ y]].AvgCenter_X), 2))
-                            + (Math.pow((y - ID_Info[Src_IDMap[x][ y]].AvgCenter_Y), 2)))
-                            - ID_Info[Src_IDMap[x][ y]].AvgRadius), 2));
-
+        for (y = Top; y <= Bottom; y++) {
+            for (x = Left; x <= Right; x++) {
+                if (Tree.contains(ID, x, y)) {
+                    Info.SqrtDiffRadius_FilledRegion +=
+                            (Math.pow((Math.sqrt((Math.pow((x - Info.AvgCenter_X), 2))
+                            + (Math.pow((y - Info.AvgCenter_Y), 2)))
+                            - Info.AvgRadius), 2));
                 }
             }
         }
-        //Calculating SqrtDiffRadius
-        for (y = 1; y <= LabelID_Count; y++) {
-            if (ID_Info[y].IsExcludeThisID == false) {
-                ID_Info[y].SqrtDiffRadius_FilledRegion = ID_Info[y].SqrtDiffRadius_FilledRegion
-                        / ID_Info[y].PixelCount;
-            }
-        }
+        Info.SqrtDiffRadius_FilledRegion = Info.SqrtDiffRadius_FilledRegion
+                / Info.PixelCount;
 
 
+        return Info;
 
-        //Removing pixels on IDMap
-        for (y = 0; y <= ImageHeightUpperBound; y++) {
-            for (x = 0; x <= ImageWidthUpperBound; x++) {
-                if (ID_Info[Src_IDMap[x][ y]].IsExcludeThisID) {
-                    Temp_New_IDMap[x][ y] = 0;
-                } else {
-                    Temp_New_IDMap[x][ y] = Src_IDMap[x][y];
-                }
-            }
-        }
-
-
-        return Temp_New_IDMap;
+    }
 
+    //Copy of detected object
+    private ID_InfoDef copy_IDInfo(ID_InfoDef Src) {
+        ID_InfoDef Out = new ID_InfoDef();
+
+        Out.AvgCenter_X = Src.AvgCenter_X;
+        Out.AvgCenter_Y = Src.AvgCenter_Y;
+        Out.AvgGrayOfEggBox = Src.AvgGrayOfEggBox;
+        Out.AvgGrayOfMaskedObject = Src.AvgGrayOfMaskedObject;
+        Out.AvgRadius = Src.AvgRadius;
+        Out.CannyEdgePointCount = Src.CannyEdgePointCount;
+        Out.CubicLenth = Src.CubicLenth;
+        Out.DuplicateCount = Src.DuplicateCount;
+        Out.EstimatedEggCount = Src.EstimatedEggCount;
+        Out.IsExcludeThisID = Src.IsExcludeThisID;
+        Out.Method = Src.Method;
+        Out.PixelCount = Src.PixelCount;
+        Out.ProbablityPercent = Src.ProbablityPercent;
+        Out.SqrtDiffRadius_CannyEdge = Src.SqrtDiffRadius_CannyEdge;
+        Out.SqrtDiffRadius_FilledRegion = Src.SqrtDiffRadius_FilledRegion;
+        Out.X_Max = Src.X_Max;
+        Out.X_Min = Src.X_Min;
+        Out.Y_Max = Src.Y_Max;
+        Out.Y_Min = Src.Y_Min;
+
+        return Out;
     }
 
     //Count pixel count in the Canny edge image
@@ -1532,55 +1499,36 @@ public class EggCounter implements Runnable {
         ID_Info_Accumu_Count = 0;
 
 
+        //Thresholds in ascending order, as the component tree adds them
+        List<Integer> ThresholdList = new ArrayList<Integer>();
         for (q = StartThresholdValue; q >= EndTrhesholdValue; q += ThresholdStep) {
+            ThresholdList.add(0, q);
+        }
+        int[] Thresholds = new int[ThresholdList.size()];
+        for (q = 0; q < Thresholds.length; q++) {
+            Thresholds[q] = ThresholdList.get(q);
+        }
 
-            _Image_BlackWhite = ImgProc.bwLeveling(_Image_Source, q, true);
-
-            _Image_RegionExtraction = ImgProc.regionExtract_RasterScanning(_Image_BlackWhite, 0);
-
-            LabelIDMap = ImgProc.RegionLabeling_LabelIDMap;
-            FoundRegionColorTable = ImgProc.RegionLabeling_ColorTable;
-
-
-            LabelIDMap = check_LabelID_From_Threshold_RegionExt(LabelIDMap, FoundRegionColorTable);
-
-
-            _Image_Debug = regionExtract_RasterScanning_Update_LabelIDMap_To_Image(
-                    _Image_Source, LabelIDMap, true, 1);
-
-
-            if (ID_Info.length - 1 > 1) {
-
-                for (int w = 1; w <= ID_Info.length - 1; w++) {
-
-                    if (ID_Info[w].IsExcludeThisID == false) {
 
-                        ID_Info_Accumu_Count += 1;
-                        ID_Info_Accumu[ID_Info_Accumu_Count] = new ID_InfoDef();
-                        ID_Info_Accumu[ID_Info_Accumu_Count].AvgCenter_X = ID_Info[w].AvgCenter_X;
-                        ID_Info_Accumu[ID_Info_Accumu_Count].AvgCenter_Y = ID_Info[w].AvgCenter_Y;
-                        ID_Info_Accumu[ID_Info_Accumu_Count].AvgGrayOfEggBox = ID_Info[w].AvgGrayOfEggBox;
-                        ID_Info_Accumu[ID_Info_Accumu_Count].AvgGrayOfMaskedObject = ID_Info[w].AvgGrayOfMaskedObject;
-                        ID_Info_Accumu[ID_Info_Accumu_Count].AvgRadius = ID_Info[w].AvgRadius;
-                        ID_Info_Accumu[ID_Info_Accumu_Count].CannyEdgePointCount = ID_Info[w].CannyEdgePointCount;
-                        ID_Info_Accumu[ID_Info_Accumu_Count].CubicLenth = ID_Info[w].CubicLenth;
-                        ID_Info_Accumu[ID_Info_Accumu_Count].DuplicateCount = ID_Info[w].DuplicateCount;
-                        ID_Info_Accumu[ID_Info_Accumu_Count].EstimatedEggCount = ID_Info[w].EstimatedEggCount;
-                        ID_Info_Accumu[ID_Info_Accumu_Count].IsExcludeThisID = ID_Info[w].IsExcludeThisID;
-                        ID_Info_Accumu[ID_Info_Accumu_Count].Method = ID_Info[w].Method;
-                        ID_Info_Accumu[ID_Info_Accumu_Count].PixelCount = ID_Info[w].PixelCount;
-                        ID_Info_Accumu[ID_Info_Accumu_Count].ProbablityPercent = ID_Info[w].ProbablityPercent;
-                        ID_Info_Accumu[ID_Info_Accumu_Count].SqrtDiffRadius_CannyEdge = ID_Info[w].SqrtDiffRadius_CannyEdge;
-                        ID_Info_Accumu[ID_Info_Accumu_Count].SqrtDiffRadius_FilledRegion = ID_Info[w].SqrtDiffRadius_FilledRegion;
-                        ID_Info_Accumu[ID_Info_Accumu_Count].X_Max = ID_Info[w].X_Max;
-                        ID_Info_Accumu[ID_Info_Accumu_Count].X_Min = ID_Info[w].X_Min;
-                        ID_Info_Accumu[ID_Info_Accumu_Count].Y_Max = ID_Info[w].Y_Max;
-                        ID_Info_Accumu[ID_Info_Accumu_Count].Y_Min = ID_Info[w].Y_Min;
+        //Regions of every threshold (pixels not brighter than it) in one pass
+        final List<List<ID_InfoDef>> FoundObjectsOfLevel = new ArrayList<List<ID_InfoDef>>();
+        final HashMap<Integer, ID_InfoDef> ScreenedComponents = new HashMap<Integer, ID_InfoDef>();
+        ThresholdComponentTree.build(GrayImageMap, Thresholds, 1,
+                new ComponentTree.LevelVisitor() {
+                    @Override
+                    public void visitLevel(ComponentTree Tree, int Level, int Threshold) {
+                        FoundObjectsOfLevel.add(check_Components_Of_ThresholdLevel(
+                                Tree, Level, ScreenedComponents));
                     }
-                }
+                });
 
-            }
 
+        //Accumulate from the highest threshold down
+        for (q = FoundObjectsOfLevel.size() - 1; q >= 0; q--) {
+            for (ID_InfoDef FoundObject : FoundObjectsOfLevel.get(q)) {
+                ID_Info_Accumu_Count += 1;
+                ID_Info_Accumu[ID_Info_Accumu_Count] = copy_IDInfo(FoundObject);
+            }
         }
 
 
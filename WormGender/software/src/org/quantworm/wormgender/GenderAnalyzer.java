@@ -91,7 +91,7 @@ public class GenderAnalyzer {
     private final int ncY = 1;
     private final int ncW = 8;
     private final int ncH = 11;
-    private SequentialLabeling sq = null;
+    private RegionLabeling sq = null;
     private LinkedList<BinaryRegion> roiList = null;
     private LinkedList<WormInfo> infoList = null;
 
@@ -1048,17 +1048,14 @@ public class GenderAnalyzer {
         if (isTrainingImageSet) {
             IJImgProcessing.fill(cropped.getProcessor(), 255, 0);
         }
-        imClearBorder.imclearborder(cropped);
     }
 
     /**
      * Conduct region labeling and the first screening out
      */
     public void labelValidObjects() {
-        //Labeling
-        sq = new SequentialLabeling(cropped.getProcessor());
-        sq.applyLabeling();
-        sq.collectRegions();
+        //Labeling, clearing objects touching the border
+        sq = new UnionFindLabeling(cropped.getProcessor(), true, true);
         //for collecting selected image
         roiList = new LinkedList<BinaryRegion>();
         infoList = new LinkedList<WormInfo>();
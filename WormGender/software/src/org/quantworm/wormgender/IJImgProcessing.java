@@ -6,7 +6,6 @@ package org.quantworm.wormgender;
 import ij.ImagePlus;
 import ij.gui.NewImage;
 import ij.io.FileSaver;
-import ij.process.Blitter;
 import ij.process.ByteProcessor;
 import ij.process.ColorProcessor;
 import ij.process.FloodFiller;
@@ -632,7 +631,6 @@ public class IJImgProcessing {
      * @return ImagePlus
      */
     public static ImagePlus assembleImage_Reload(String folder, ScannerLog scannerLog) {
-        long time1 = System.currentTimeMillis();
         File theFile = new File(folder + File.separator + ASSEMBLED_JPEG);
         if (theFile.exists() == true) {
             ImagePlus assembled = new ImagePlus(folder + File.separator + ASSEMBLED_JPEG);
@@ -647,30 +645,22 @@ public class IJImgProcessing {
             return null;
         }
 
-        // assemble from pieces
-        ImagePlus assembled = NewImage.createByteImage("assembled", numberOfColumns * 640,
-                numberOfRows * 480, 1, NewImage.FILL_BLACK);
-        ImageProcessor ipAssembled = assembled.getProcessor();
-        for (int i = 1; i <= numberOfColumns; i++) {
-            for (int j = 1; j <= numberOfRows; j++) {
-                String index = String.valueOf(i + numberOfColumns * (j - 1));
-                String path = folder + File.separator + "piece_" + index + ".jpeg";
-                ImagePlus tempIP = new ImagePlus(path);
-                try {
-                    ipAssembled.copyBits(tempIP.getProcessor(), 640 * (i - 1), 480 * (j - 1), Blitter.ADD);
-                } catch (Exception ex) {
-                }
-
-            }
+        // assemble from pieces, unreadable ones are left black
+        PlateAssembler assembler = new PlateAssembler(true);
+        assembler.setSkippingBadPieces(true);
+        ImagePlus assembled = assembler.assembleImage(folder, scannerLog);
+        if (assembler.getError() != null) {
+            System.out.println(assembler.getError());
+        }
+        System.out.println(assembler.getTimingReport());
+        if (assembled == null) {
+            return null;
         }
 
         FileSaver saver = new FileSaver(assembled);
         saver.saveAsJpeg(folder + File.separator + ASSEMBLED_JPEG);
 
         ImagePlus assembled2 = new ImagePlus(folder + File.separator + ASSEMBLED_JPEG);
-
-        long time2 = System.currentTimeMillis();
-        System.out.println(Utilities.format2(((time2 - time1) / 1000.0)) + " seconds for assembling image");
         return assembled2;
     }
 
@@ -49,6 +49,14 @@ public abstract class RegionLabeling {
         collectRegions();
     }
 
+    /* For sub-classes that label by themselves: the sub-class sets the
+     * labels array, the regions list and the maximum label.
+     */
+    RegionLabeling(int width, int height) {
+        this.width = width;
+        this.height = height;
+    }
+
     void makeLabelArray(ImageProcessor ip) {
         //IJ.write("makeLabelArray()");
         // set all pixels to FOREGROUND or BACKGROUND (thresholding)
@@ -121,6 +129,10 @@ public abstract class RegionLabeling {
         return currentLabel;
     }
 
+    void setMaxLabel(int maxLabel) {
+        this.maxLabel = maxLabel;
+    }
+
     void setLabel(int u, int v, int label) {
         if (u >= 0 && u < width && v >= 0 && v < height) {
             labels[v * width + u] = label;
@@ -0,0 +1,373 @@
+/*
+ * Filename: UnionFindLabeling.java
+ */
+
+package org.quantworm.wormgender;
+
+import ij.process.ByteProcessor;
+import ij.process.ImageProcessor;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Region labeling (8-connectivity) of the non-zero pixels of an image, in
+ * place of SequentialLabeling: label equivalences go into an int union-find
+ * with path halving instead of a map of collisions, neighbours are read
+ * straight from the labels array, and the regions (area, bounding box,
+ * centroid) are collected in the relabeling pass.
+ * The image is cut into strips of lines labeled on their own, in parallel
+ * on a fork-join pool when asked for; the regions crossing the seams
+ * between strips are merged afterwards.
+ * Objects touching the image border can be cleared as imClearBorder does,
+ * without its flood fills: the sets of the labels found on the border lines
+ * are marked once the seams are merged, and their pixels are set to
+ * background, in the labels and in the image, during the relabeling pass.
+ * Labels start at START_LABEL, numbered in raster order of the first pixel
+ * of each region, and regions are listed in label order. The constructor
+ * does all the work; applyLabeling and collectRegions need not be called.
+ */
+public class UnionFindLabeling extends RegionLabeling {
+
+    /** default number of lines per strip */
+    public static final int DEFAULT_STRIP_HEIGHT = 256;
+
+    private static final ForkJoinPool POOL = new ForkJoinPool();
+
+    /**
+     * Labels an image, strips in parallel
+     *
+     * @param ip the image, foreground is non-zero
+     */
+    public UnionFindLabeling(ImageProcessor ip) {
+        this(ip, true);
+    }
+
+    /**
+     * @param ip the image, foreground is non-zero
+     * @param isParallel true to label strips on the fork-join pool
+     */
+    public UnionFindLabeling(ImageProcessor ip, boolean isParallel) {
+        this(ip, isParallel, false);
+    }
+
+    /**
+     * @param ip the image, foreground is non-zero
+     * @param isParallel true to label strips on the fork-join pool
+     * @param isBorderCleared true to clear the objects touching the border,
+     * from the image as well; as with imClearBorder, only an 8-bit image of
+     * 0 and 255 alone is cleared, any other is labeled as it is
+     */
+    public UnionFindLabeling(ImageProcessor ip, boolean isParallel, boolean isBorderCleared) {
+        super(ip.getWidth(), ip.getHeight());
+        labels = new int[width * height];
+
+        final List<StripTask> tasks = new ArrayList<StripTask>();
+        for (int first = 0; first < height; first += DEFAULT_STRIP_HEIGHT) {
+            tasks.add(new StripTask(ip, first, Math.min(first + DEFAULT_STRIP_HEIGHT, height),
+                    isBorderCleared));
+        }
+        if (isParallel && tasks.size() > 1) {
+            POOL.invoke(new RecursiveAction() {
+                @Override
+                protected void compute() {
+                    invokeAll(tasks);
+                }
+            });
+        } else {
+            for (StripTask task : tasks) {
+                task.compute();
+            }
+        }
+
+        boolean isCleared = isBorderCleared;
+        for (StripTask task : tasks) {
+            isCleared = isCleared && task.isBinary;
+        }
+        collectRegions(tasks, isCleared ? (byte[]) ip.getPixels() : null);
+    }
+
+    /**
+     * Labeling is done by the constructor
+     */
+    @Override
+    void applyLabeling() {
+    }
+
+    /**
+     * Merges the strips, relabels the pixels and collects the regions
+     *
+     * @param clearedPixels pixels of the image whose border objects are
+     * cleared, or null to keep them
+     */
+    private void collectRegions(List<StripTask> tasks, byte[] clearedPixels) {
+        //Provisional labels of strip s are offset by the labels of the strips before it
+        int[] offset = new int[tasks.size()];
+        int total = 0;
+        for (int s = 0; s < tasks.size(); s++) {
+            offset[s] = total;
+            total += tasks.get(s).labelCount;
+        }
+        int[] parent = new int[total + 1];
+        for (int s = 0; s < tasks.size(); s++) {
+            StripTask task = tasks.get(s);
+            for (int q = 1; q <= task.labelCount; q++) {
+                parent[offset[s] + q] = offset[s] + task.parent[q];
+            }
+        }
+
+        //Seams: first line of a strip against the last line of the strip above
+        for (int s = 1; s < tasks.size(); s++) {
+            int row = tasks.get(s).first * width;
+            for (int x = 0; x < width; x++) {
+                int id = labels[row + x];
+                if (id == BACKGROUND) {
+                    continue;
+                }
+                id += offset[s];
+                int upper = row - width + x;
+                if (x > 0 && labels[upper - 1] != BACKGROUND) {
+                    union(parent, id, labels[upper - 1] + offset[s - 1]);
+                }
+                if (labels[upper] != BACKGROUND) {
+                    union(parent, id, labels[upper] + offset[s - 1]);
+                }
+                if (x < width - 1 && labels[upper + 1] != BACKGROUND) {
+                    union(parent, id, labels[upper + 1] + offset[s - 1]);
+                }
+            }
+        }
+
+        //Sets on the border lines are dropped
+        boolean[] isOnBorder = new boolean[total + 1];
+        if (clearedPixels != null) {
+            markBorder(tasks, offset, parent, isOnBorder);
+        }
+
+        //Roots are the smallest label of their set, that of the first pixel;
+        //dropped sets get the background label
+        int[] finalLabel = new int[total + 1];
+        int count = 0;
+        for (int q = 1; q <= total; q++) {
+            if (find(parent, q) == q && isOnBorder[q] == false) {
+                finalLabel[q] = START_LABEL + count;
+                count++;
+            }
+        }
+        for (int q = 1; q <= total; q++) {
+            finalLabel[q] = finalLabel[find(parent, q)];
+        }
+
+        //Relabel and sum up the regions, as BinaryRegion.addPixel does
+        int[] area = new int[count];
+        int[] xSum = new int[count];
+        int[] ySum = new int[count];
+        int[] x2Sum = new int[count];
+        int[] y2Sum = new int[count];
+        int[] left = new int[count];
+        int[] right = new int[count];
+        int[] top = new int[count];
+        int[] bottom = new int[count];
+        Arrays.fill(left, Integer.MAX_VALUE);
+        Arrays.fill(top, Integer.MAX_VALUE);
+        for (int s = 0; s < tasks.size(); s++) {
+            StripTask task = tasks.get(s);
+            for (int y = task.first; y < task.end; y++) {
+                int row = y * width;
+                for (int x = 0; x < width; x++) {
+                    int id = labels[row + x];
+                    if (id == BACKGROUND) {
+                        continue;
+                    }
+                    int label = finalLabel[id + offset[s]];
+                    labels[row + x] = label;
+                    if (label == BACKGROUND) {
+                        clearedPixels[row + x] = 0;
+                        continue;
+                    }
+                    int r = label - START_LABEL;
+                    area[r]++;
+                    xSum[r] += x;
+                    ySum[r] += y;
+                    x2Sum[r] += x * x;
+                    y2Sum[r] += y * y;
+                    if (x < left[r]) {
+                        left[r] = x;
+                    }
+                    if (x > right[r]) {
+                        right[r] = x;
+                    }
+                    if (y < top[r]) {
+                        top[r] = y;
+                    }
+                    if (y > bottom[r]) {
+                        bottom[r] = y;
+                    }
+                }
+            }
+        }
+
+        regions = new ArrayList<BinaryRegion>(count);
+        for (int r = 0; r < count; r++) {
+            BinaryRegion region = new BinaryRegion(START_LABEL + r);
+            region.numberOfPixels = area[r];
+            region.x_sum = xSum[r];
+            region.y_sum = ySum[r];
+            region.x2_sum = x2Sum[r];
+            region.y2_sum = y2Sum[r];
+            region.left = left[r];
+            region.right = right[r];
+            region.top = top[r];
+            region.bottom = bottom[r];
+            region.update();
+            regions.add(region);
+        }
+        setMaxLabel(START_LABEL + count - 1);
+    }
+
+    /**
+     * Marks the roots of the sets having pixels on the first or last line or
+     * column of the image
+     */
+    private void markBorder(List<StripTask> tasks, int[] offset, int[] parent,
+            boolean[] isOnBorder) {
+        int last = tasks.size() - 1;
+        int bottomRow = (height - 1) * width;
+        for (int x = 0; x < width; x++) {
+            markLabel(labels[x], offset[0], parent, isOnBorder);
+            markLabel(labels[bottomRow + x], offset[last], parent, isOnBorder);
+        }
+        for (int s = 0; s < tasks.size(); s++) {
+            StripTask task = tasks.get(s);
+            for (int y = task.first; y < task.end; y++) {
+                markLabel(labels[y * width], offset[s], parent, isOnBorder);
+                markLabel(labels[y * width + width - 1], offset[s], parent, isOnBorder);
+            }
+        }
+    }
+
+    private void markLabel(int id, int offset, int[] parent, boolean[] isOnBorder) {
+        if (id != BACKGROUND) {
+            isOnBorder[find(parent, id + offset)] = true;
+        }
+    }
+
+    /**
+     * Merges the sets of two labels; the smaller root stays root
+     *
+     * @return root of the merged set
+     */
+    private static int union(int[] parent, int a, int b) {
+        int rootA = find(parent, a);
+        int rootB = find(parent, b);
+        if (rootA < rootB) {
+            parent[rootB] = rootA;
+            return rootA;
+        }
+        parent[rootA] = rootB;
+        return rootB;
+    }
+
+    /**
+     * Root of a label, with path halving
+     */
+    private static int find(int[] parent, int id) {
+        while (parent[id] != id) {
+            parent[id] = parent[parent[id]];
+            id = parent[id];
+        }
+        return id;
+    }
+
+    /**
+     * Labels the lines of one strip with provisional labels 1..labelCount of
+     * its own, written into the labels array
+     */
+    private class StripTask extends RecursiveAction {
+
+        private final ImageProcessor ip;
+        private final int first;
+        private final int end;
+        private final boolean isBinaryChecked;
+        private int[] parent = new int[256];
+        private int labelCount;
+
+        //Whether the strip holds 0 and 255 alone, when checked
+        private boolean isBinary;
+
+        StripTask(ImageProcessor ip, int first, int end, boolean isBinaryChecked) {
+            this.ip = ip;
+            this.first = first;
+            this.end = end;
+            this.isBinaryChecked = isBinaryChecked;
+        }
+
+        @Override
+        protected void compute() {
+            byte[] bytes = ip instanceof ByteProcessor ? (byte[]) ip.getPixels() : null;
+            if (isBinaryChecked) {
+                isBinary = bytes != null && isBinary(bytes);
+            }
+            for (int y = first; y < end; y++) {
+                int row = y * width;
+                for (int x = 0; x < width; x++) {
+                    boolean isForeground = bytes != null ? bytes[row + x] != 0 : ip.getPixel(x, y) > 0;
+                    if (isForeground) {
+                        labels[row + x] = label(x, y, row);
+                    }
+                }
+            }
+        }
+
+        private boolean isBinary(byte[] bytes) {
+            for (int i = first * width; i < end * width; i++) {
+                if (bytes[i] != 0 && bytes[i] != (byte) 255) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        /**
+         * Label of a foreground pixel from its already labeled neighbours
+         * (W, NW, N, NE) in the strip, merging their sets, or a new label
+         */
+        private int label(int x, int y, int row) {
+            int current = BACKGROUND;
+            if (x > 0) {
+                current = merge(current, labels[row + x - 1]);
+            }
+            if (y > first) {
+                int upper = row - width + x;
+                if (x > 0) {
+                    current = merge(current, labels[upper - 1]);
+                }
+                current = merge(current, labels[upper]);
+                if (x < width - 1) {
+                    current = merge(current, labels[upper + 1]);
+                }
+            }
+            if (current == BACKGROUND) {
+                labelCount++;
+                if (labelCount == parent.length) {
+                    parent = Arrays.copyOf(parent, parent.length * 2);
+                }
+                parent[labelCount] = labelCount;
+                current = labelCount;
+            }
+            return current;
+        }
+
+        private int merge(int current, int neighbour) {
+            if (neighbour == BACKGROUND) {
+                return current;
+            }
+            if (current == BACKGROUND) {
+                return find(parent, neighbour);
+            }
+            return union(parent, current, neighbour);
+        }
+    }
+}
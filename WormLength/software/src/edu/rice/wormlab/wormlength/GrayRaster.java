@@ -0,0 +1,214 @@
+/*
+ * Filename: GrayRaster.java
+ */
+
+package edu.rice.wormlab.wormlength;
+
+import ij.process.ByteProcessor;
+import java.awt.Point;
+import java.awt.Transparency;
+import java.awt.color.ColorSpace;
+import java.awt.image.BufferedImage;
+import java.awt.image.ColorModel;
+import java.awt.image.ComponentColorModel;
+import java.awt.image.ComponentSampleModel;
+import java.awt.image.DataBuffer;
+import java.awt.image.DataBufferByte;
+import java.awt.image.Raster;
+import java.awt.image.SampleModel;
+import java.awt.image.WritableRaster;
+
+/**
+ * 8-bit gray image stored in a flat byte array.
+ * Pixel (x, y) is at pixels[offset + y * stride + x]; values are the raw
+ * samples 0~255 (as in ImageJ's ByteProcessor), without color management.
+ * A raster can share its array with a TYPE_BYTE_GRAY BufferedImage or a
+ * ByteProcessor, so no pixel is copied when moving between them.
+ */
+public class GrayRaster {
+
+    public final byte[] pixels;
+    public final int width;
+    public final int height;
+    public final int offset;
+    public final int stride;
+
+    /**
+     * Create new raster filled with 0
+     *
+     * @param width width
+     * @param height height
+     */
+    public GrayRaster(int width, int height) {
+        this(new byte[width * height], width, height, 0, width);
+    }
+
+    /**
+     * Create raster on top of existing array (no copy)
+     *
+     * @param pixels pixel array
+     * @param width width
+     * @param height height
+     * @param offset index of pixel (0, 0)
+     * @param stride distance between two rows
+     */
+    public GrayRaster(byte[] pixels, int width, int height, int offset, int stride) {
+        if (width < 0 || height < 0 || stride < width || offset < 0
+                || (height > 0 && offset + (height - 1) * stride + width > pixels.length)) {
+            throw new IllegalArgumentException("Invalid raster geometry: " + width + "x"
+                    + height + ", offset " + offset + ", stride " + stride);
+        }
+        this.pixels = pixels;
+        this.width = width;
+        this.height = height;
+        this.offset = offset;
+        this.stride = stride;
+    }
+
+    /**
+     * Wrap pixels of 8-bit single band image (no copy)
+     *
+     * @param image image backed by DataBufferByte, such as TYPE_BYTE_GRAY
+     * @return raster sharing pixels with image
+     */
+    public static GrayRaster wrap(BufferedImage image) {
+        WritableRaster raster = image.getRaster();
+        SampleModel sampleModel = raster.getSampleModel();
+        if (!(raster.getDataBuffer() instanceof DataBufferByte)
+                || !(sampleModel instanceof ComponentSampleModel)
+                || sampleModel.getNumBands() != 1
+                || ((ComponentSampleModel) sampleModel).getPixelStride() != 1) {
+            throw new IllegalArgumentException("Not an 8-bit single band image");
+        }
+
+        ComponentSampleModel componentModel = (ComponentSampleModel) sampleModel;
+        DataBufferByte dataBuffer = (DataBufferByte) raster.getDataBuffer();
+        int rasterOffset = dataBuffer.getOffset()
+                + componentModel.getOffset(-raster.getSampleModelTranslateX(),
+                        -raster.getSampleModelTranslateY());
+
+        return new GrayRaster(dataBuffer.getData(), image.getWidth(), image.getHeight(),
+                rasterOffset, componentModel.getScanlineStride());
+    }
+
+    /**
+     * Wrap pixels of ImageJ byte processor (no copy)
+     *
+     * @param bp byte processor
+     * @return raster sharing pixels with processor
+     */
+    public static GrayRaster wrap(ByteProcessor bp) {
+        return new GrayRaster((byte[]) bp.getPixels(), bp.getWidth(), bp.getHeight(),
+                0, bp.getWidth());
+    }
+
+    /**
+     * Copy gray array into new raster; values are clamped to 0~255
+     *
+     * @param SrcGrayShortArray gray array, [x][y]
+     * @return raster
+     */
+    public static GrayRaster fromShortArray(short[][] SrcGrayShortArray) {
+        int w = SrcGrayShortArray.length;
+        int h = SrcGrayShortArray[0].length;
+        GrayRaster out = new GrayRaster(w, h);
+
+        for (int x = 0; x < w; x++) {
+            short[] column = SrcGrayShortArray[x];
+            for (int y = 0; y < h; y++) {
+                int gray = column[y];
+                if (gray > 255) {
+                    gray = 255;
+                } else if (gray < 0) {
+                    gray = 0;
+                }
+                out.pixels[y * w + x] = (byte) gray;
+            }
+        }
+        return out;
+    }
+
+    /**
+     * Copy raster into gray array
+     *
+     * @return gray array, [x][y]
+     */
+    public short[][] toShortArray() {
+        short[][] outShortArray = new short[width][height];
+
+        for (int y = 0; y < height; y++) {
+            int row = offset + y * stride;
+            for (int x = 0; x < width; x++) {
+                outShortArray[x][y] = (short) (pixels[row + x] & 0xff);
+            }
+        }
+        return outShortArray;
+    }
+
+    /**
+     * Image sharing pixels with this raster (no copy)
+     *
+     * @return BufferedImage of TYPE_BYTE_GRAY layout
+     */
+    public BufferedImage toBufferedImage() {
+        DataBufferByte dataBuffer = new DataBufferByte(pixels, pixels.length);
+        WritableRaster raster = Raster.createInterleavedRaster(dataBuffer, width, height,
+                stride, 1, new int[]{offset}, new Point(0, 0));
+        ColorModel cm = new ComponentColorModel(ColorSpace.getInstance(ColorSpace.CS_GRAY),
+                new int[]{8}, false, true, Transparency.OPAQUE, DataBuffer.TYPE_BYTE);
+
+        return new BufferedImage(cm, raster, false, null);
+    }
+
+    /**
+     * ImageJ processor on this raster; shares pixels when the raster is
+     * compact (offset 0 and stride equal to width), otherwise copies
+     *
+     * @return byte processor
+     */
+    public ByteProcessor toByteProcessor() {
+        GrayRaster compact = isCompact() ? this : copy();
+        return new ByteProcessor(width, height, compact.pixels, null);
+    }
+
+    /**
+     * Sub-area of this raster sharing the same pixels (no copy)
+     *
+     * @return raster view
+     */
+    public GrayRaster crop(int x, int y, int w, int h) {
+        if (x < 0 || y < 0 || x + w > width || y + h > height) {
+            throw new IllegalArgumentException("Crop area is out of raster");
+        }
+        return new GrayRaster(pixels, w, h, index(x, y), stride);
+    }
+
+    /**
+     * Compact copy of this raster
+     *
+     * @return raster
+     */
+    public GrayRaster copy() {
+        GrayRaster out = new GrayRaster(width, height);
+        for (int y = 0; y < height; y++) {
+            System.arraycopy(pixels, offset + y * stride, out.pixels, y * width, width);
+        }
+        return out;
+    }
+
+    public boolean isCompact() {
+        return offset == 0 && stride == width;
+    }
+
+    public final int index(int x, int y) {
+        return offset + y * stride + x;
+    }
+
+    public final int get(int x, int y) {
+        return pixels[offset + y * stride + x] & 0xff;
+    }
+
+    public final void set(int x, int y, int gray) {
+        pixels[offset + y * stride + x] = (byte) gray;
+    }
+}
@@ -196,13 +196,8 @@ public class ImageProcessing {
             icv.convertToGray8();
         }; // if  
 
-        imClearBorder.imclearborder(cropped);
-        
-
-        //Label and measure
-        SequentialLabeling sq = new SequentialLabeling(cropped.getProcessor());
-        sq.applyLabeling();
-        sq.collectRegions();
+        //Label and measure, clearing objects touching the border
+        RegionLabeling sq = new UnionFindLabeling(cropped.getProcessor(), true, true);
         // these two are for collecting selected image
         List<BinaryRegion> roiList = new LinkedList<BinaryRegion>();
         List<WormInfo> infoList = new LinkedList<WormInfo>();
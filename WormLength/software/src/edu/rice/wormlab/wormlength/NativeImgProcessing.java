@@ -13,6 +13,8 @@ import java.awt.Point;
 import java.awt.RenderingHints;
 import java.awt.image.BufferedImage;
 import java.awt.image.ColorModel;
+import java.awt.image.DataBufferInt;
+import java.awt.image.SinglePixelPackedSampleModel;
 import java.awt.image.WritableRaster;
 import java.io.File;
 import java.io.IOException;
@@ -23,6 +25,8 @@ import javax.imageio.ImageIO;
 public class NativeImgProcessing {
 
     LinkedList<Point> FloodFillQue = new LinkedList<Point>();
+    private int[] FloodFill_Queue = new int[0];
+    private int FloodFill_QueueLength = 0;
     //RegionLabeling_ColorTable: The first dimension for IDnumber (starts from 1)
     //                           The second dimension for color value
     //                                      0:R, 1:G, 2:B
@@ -36,6 +40,8 @@ public class NativeImgProcessing {
     public int MagicThreshold_OptimalThresholdValue;
     public int AdaptiveThreshold_OptimalThresholdValue;
     public final float AdaptiveThreshold_tPercent = 0.3f;
+    //Set AdaptiveThreshold_Engine.setParallel(false) to threshold on the calling thread only
+    public final AdaptiveThresholder AdaptiveThreshold_Engine = new AdaptiveThresholder(true);
 
     public NativeImgProcessing() {
         int i;
@@ -98,20 +104,26 @@ public class NativeImgProcessing {
      * @return BufferedImage
      */
     public BufferedImage convert_RGBShortArray_To_Image(short[][][] SrcRGBShortArray) {
-        int x_upperBound = SrcRGBShortArray.length - 1;
-        int y_upperBound = SrcRGBShortArray[0].length - 1;
-        int rgb;
+        int width = SrcRGBShortArray.length;
+        int height = SrcRGBShortArray[0].length;
+        int red, green, blue;
 
 
-        BufferedImage outImage = new BufferedImage(x_upperBound + 1,
-                y_upperBound + 1, BufferedImage.TYPE_INT_RGB);
+        BufferedImage outImage = new BufferedImage(width,
+                height, BufferedImage.TYPE_INT_RGB);
+        int[] outRGB = ((DataBufferInt) outImage.getRaster().getDataBuffer()).getData();
 
-        for (int y = 0; y <= y_upperBound; y++) {
-            for (int x = 0; x <= x_upperBound; x++) {
-                rgb = new Color(SrcRGBShortArray[x][y][0],
-                        SrcRGBShortArray[x][y][1],
-                        SrcRGBShortArray[x][y][2]).getRGB();
-                outImage.setRGB(x, y, rgb);
+        for (int x = 0; x < width; x++) {
+            short[][] column = SrcRGBShortArray[x];
+            for (int y = 0; y < height; y++) {
+                red = column[y][0];
+                green = column[y][1];
+                blue = column[y][2];
+                if (((red | green | blue) & ~0xFF) != 0) {
+                    throw new IllegalArgumentException(
+                            "Color parameter outside of expected range");
+                }
+                outRGB[y * width + x] = (red << 16) | (green << 8) | blue;
             }
         }
         return outImage;
@@ -127,13 +139,15 @@ public class NativeImgProcessing {
         int x_upperBound = SrcImage.getWidth();
         int y_upperBound = SrcImage.getHeight();
         int red, green, blue;
+        int[] rowRGB = new int[x_upperBound];
 
 
         short[][][] outShortArray = new short[x_upperBound][y_upperBound][3];
 
         for (int y = 0; y < y_upperBound; y++) {
+            read_RGBRow(SrcImage, y, rowRGB);
             for (int x = 0; x < x_upperBound; x++) {
-                int rgb = SrcImage.getRGB(x, y);
+                int rgb = rowRGB[x];
                 red = (rgb >> 16) & 0x000000FF;
                 green = (rgb >> 8) & 0x000000FF;
                 blue = (rgb) & 0x000000FF;
@@ -146,6 +160,33 @@ public class NativeImgProcessing {
         return outShortArray;
     }
 
+    /**
+     * Read one row of packed RGB values of image; TYPE_INT_RGB and
+     * TYPE_INT_ARGB images are read straight from their data buffer
+     *
+     * @param SrcImage source image
+     * @param y row
+     * @param rowRGB output, at least as long as image width
+     */
+    public void read_RGBRow(BufferedImage SrcImage, int y, int[] rowRGB) {
+        int width = SrcImage.getWidth();
+        int type = SrcImage.getType();
+        WritableRaster raster = SrcImage.getRaster();
+
+        if ((type == BufferedImage.TYPE_INT_RGB || type == BufferedImage.TYPE_INT_ARGB)
+                && raster.getSampleModel() instanceof SinglePixelPackedSampleModel) {
+            SinglePixelPackedSampleModel sampleModel =
+                    (SinglePixelPackedSampleModel) raster.getSampleModel();
+            DataBufferInt dataBuffer = (DataBufferInt) raster.getDataBuffer();
+            int start = dataBuffer.getOffset()
+                    + sampleModel.getOffset(-raster.getSampleModelTranslateX(),
+                            y - raster.getSampleModelTranslateY());
+            System.arraycopy(dataBuffer.getData(), start, rowRGB, 0, width);
+        } else {
+            SrcImage.getRGB(0, y, width, 1, rowRGB, 0, width);
+        }
+    }
+
     /**
      * Convert gray array to image
      *
@@ -153,17 +194,18 @@ public class NativeImgProcessing {
      * @return BufferedImage
      */
     public BufferedImage convert_GrayShortArray_To_Image(short[][] SrcGrayShortArray) {
-        int x_upperBound = SrcGrayShortArray.length - 1;
-        int y_upperBound = SrcGrayShortArray[0].length - 1;
-        int rgb;
-        short grayValue;
-
-        BufferedImage outImage = new BufferedImage(x_upperBound + 1,
-                y_upperBound + 1, BufferedImage.TYPE_INT_RGB);
-
-        for (int y = 0; y <= y_upperBound; y++) {
-            for (int x = 0; x <= x_upperBound; x++) {
-                grayValue = SrcGrayShortArray[x][y];
+        int width = SrcGrayShortArray.length;
+        int height = SrcGrayShortArray[0].length;
+        int grayValue;
+
+        BufferedImage outImage = new BufferedImage(width,
+                height, BufferedImage.TYPE_INT_RGB);
+        int[] outRGB = ((DataBufferInt) outImage.getRaster().getDataBuffer()).getData();
+
+        for (int x = 0; x < width; x++) {
+            short[] column = SrcGrayShortArray[x];
+            for (int y = 0; y < height; y++) {
+                grayValue = column[y];
                 if (grayValue > 255) {
                     grayValue = 255;
                 } else {
@@ -172,9 +214,7 @@ public class NativeImgProcessing {
                     }
                 }
 
-                rgb = new Color(grayValue, grayValue,
-                        grayValue).getRGB();
-                outImage.setRGB(x, y, rgb);
+                outRGB[y * width + x] = (grayValue << 16) | (grayValue << 8) | grayValue;
             }
         }
         return outImage;
@@ -250,13 +290,15 @@ public class NativeImgProcessing {
         int x_upperBound = SrcImage.getWidth();
         int y_upperBound = SrcImage.getHeight();
         int rgb, red, green, blue;
+        int[] rowRGB = new int[x_upperBound];
 
 
         short[][] outShortArray = new short[x_upperBound][y_upperBound];
 
         for (int y = 0; y < y_upperBound; y++) {
+            read_RGBRow(SrcImage, y, rowRGB);
             for (int x = 0; x < x_upperBound; x++) {
-                rgb = SrcImage.getRGB(x, y);
+                rgb = rowRGB[x];
                 red = (rgb >> 16) & 0x000000FF;
                 green = (rgb >> 8) & 0x000000FF;
                 blue = (rgb) & 0x000000FF;
@@ -267,6 +309,60 @@ public class NativeImgProcessing {
         return outShortArray;
     }
 
+    /**
+     * Convert image to gray raster; gray values are computed from getRGB()
+     * exactly as in convert_Image_To_GrayShortArray. Use GrayRaster.wrap() instead to
+     * share the raw pixels of an 8-bit image without copying.
+     *
+     * @param SrcImage source image
+     * @return gray raster
+     */
+    public GrayRaster convert_Image_To_GrayRaster(BufferedImage SrcImage) {
+        int width = SrcImage.getWidth();
+        int height = SrcImage.getHeight();
+        int rgb;
+        int[] rowRGB = new int[width];
+
+        GrayRaster outRaster = new GrayRaster(width, height);
+        byte[] outPixels = outRaster.pixels;
+
+        for (int y = 0; y < height; y++) {
+            read_RGBRow(SrcImage, y, rowRGB);
+            int row = y * width;
+            for (int x = 0; x < width; x++) {
+                rgb = rowRGB[x];
+                outPixels[row + x] = (byte) RGBToGray((rgb >> 16) & 0x000000FF,
+                        (rgb >> 8) & 0x000000FF, rgb & 0x000000FF);
+            }
+        }
+        return outRaster;
+    }
+
+    /**
+     * Convert gray raster to RGB image, same layout as convert_GrayShortArray_To_Image
+     *
+     * @param SrcRaster gray raster
+     * @return BufferedImage
+     */
+    public BufferedImage convert_GrayRaster_To_Image(GrayRaster SrcRaster) {
+        int width = SrcRaster.width;
+        int height = SrcRaster.height;
+        byte[] srcPixels = SrcRaster.pixels;
+
+        BufferedImage outImage = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        int[] outRGB = ((DataBufferInt) outImage.getRaster().getDataBuffer()).getData();
+
+        for (int y = 0; y < height; y++) {
+            int srcRow = SrcRaster.index(0, y);
+            int outRow = y * width;
+            for (int x = 0; x < width; x++) {
+                int grayValue = srcPixels[srcRow + x] & 0xff;
+                outRGB[outRow + x] = (grayValue << 16) | (grayValue << 8) | grayValue;
+            }
+        }
+        return outImage;
+    }
+
     /**
      * copy of multiple array, what we call deepCopy
      *
@@ -330,26 +426,41 @@ public class NativeImgProcessing {
      * @return array
      */
     public short[][] gapFilling(short[][] SrcGrayShortArray) {
-        int SrcImgWidth = SrcGrayShortArray.length - 1;
-        int SrcImgHeight = SrcGrayShortArray[0].length - 1;
-        short[][] outPixels = multiArrayCopy(SrcGrayShortArray);
-
+        return gapFilling(GrayRaster.fromShortArray(SrcGrayShortArray)).toShortArray();
+    }
 
-        for (int y = 1; y <= SrcImgHeight - 1; y++) {
-            for (int x = 1; x <= SrcImgWidth - 1; x++) {
-                if (outPixels[x][y] == 0) {
-                    if (outPixels[x][y - 1] == 255 && outPixels[x][y + 1] == 255) {
-                        outPixels[x][y] = 255;
+    /**
+     * Gap filling of gray raster: a black pixel between two white pixels,
+     * vertically or horizontally, turns white
+     *
+     * @param SrcRaster source gray raster
+     * @return new raster
+     */
+    public GrayRaster gapFilling(GrayRaster SrcRaster) {
+        int SrcImgWidth = SrcRaster.width;
+        int SrcImgHeight = SrcRaster.height;
+        GrayRaster OutRaster = SrcRaster.copy();
+        byte[] outPixels = OutRaster.pixels;
+        final byte white = (byte) 255;
+
+
+        for (int y = 1; y <= SrcImgHeight - 2; y++) {
+            int row = y * SrcImgWidth;
+            for (int x = 1; x <= SrcImgWidth - 2; x++) {
+                int i = row + x;
+                if (outPixels[i] == 0) {
+                    if (outPixels[i - SrcImgWidth] == white && outPixels[i + SrcImgWidth] == white) {
+                        outPixels[i] = white;
                     }
 
-                    if (outPixels[x - 1][y] == 255 && outPixels[x + 1][y] == 255) {
-                        outPixels[x][y] = 255;
+                    if (outPixels[i - 1] == white && outPixels[i + 1] == white) {
+                        outPixels[i] = white;
                     }
                 }
             }
         }
 
-        return outPixels;
+        return OutRaster;
     }
 
     /**
@@ -362,17 +473,25 @@ public class NativeImgProcessing {
      */
     public short[][] floodFill(short[][] SrcGrayShortArray, int CenterX, int CenterY,
             short FillColorG, int ToleranceG) {
-        int SrcImageWidth = SrcGrayShortArray.length;
-        int SrcImageHeight = SrcGrayShortArray[0].length;
-        short[][] outArray;
-
-        _FloodFilledDoneMap = new boolean[SrcImageWidth][SrcImageHeight];
-
-
-        outArray = floodFill_Core(SrcGrayShortArray, CenterX, CenterY, FillColorG, ToleranceG);
+        return floodFill(GrayRaster.fromShortArray(SrcGrayShortArray), CenterX, CenterY,
+                FillColorG, ToleranceG).toShortArray();
+    }
 
-        return outArray;
+    /**
+     * flood filling of gray raster
+     *
+     * @param SrcRaster source gray raster
+     * @param CenterX center x
+     * @param CenterY center y
+     * @param FillColorG fill color in gray (0~255)
+     * @param ToleranceG tolerance
+     * @return new raster
+     */
+    public GrayRaster floodFill(GrayRaster SrcRaster, int CenterX, int CenterY,
+            int FillColorG, int ToleranceG) {
+        _FloodFilledDoneMap = new boolean[SrcRaster.width][SrcRaster.height];
 
+        return floodFill_Core(SrcRaster, CenterX, CenterY, FillColorG, ToleranceG);
     }
 
     /**
@@ -387,119 +506,99 @@ public class NativeImgProcessing {
      */
     public short[][] floodFill_Core(short[][] SrcGrayShortArray, int CenterX, int CenterY,
             short FillColorG, int ToleranceG) {
+        return floodFill_Core(GrayRaster.fromShortArray(SrcGrayShortArray), CenterX, CenterY,
+                FillColorG, ToleranceG).toShortArray();
+    }
 
+    /**
+     * flood filling of gray raster, core routine; filled pixels are marked
+     * in _FloodFilledDoneMap, and pixels marked already are not filled
+     *
+     * @param SrcRaster source gray raster
+     * @param CenterX center x
+     * @param CenterY center y
+     * @param FillColorG fill color in gray (0~255)
+     * @param ToleranceG tolerance
+     * @return new raster
+     */
+    public GrayRaster floodFill_Core(GrayRaster SrcRaster, int CenterX, int CenterY,
+            int FillColorG, int ToleranceG) {
+        GrayRaster OutRaster = SrcRaster.copy();
+
+        floodFill_Mark(SrcRaster, CenterX, CenterY, ToleranceG);
+        for (int i = 0; i < FloodFill_QueueLength; i++) {
+            int position = FloodFill_Queue[i];
+            OutRaster.pixels[position] = (byte) FillColorG;
+        }
 
-        int SrcImageWidth = SrcGrayShortArray.length;
-        int SrcImageHeight = SrcGrayShortArray[0].length;
-
-
-        Point Cur_Location = new Point();
-        Point Upper_Location;
-        Point Lower_Location;
-        Point Left_Location;
-        Point Right_Location;
-        int CenterColor_G;
-
-        boolean[][] QueueMap = new boolean[SrcImageWidth][SrcImageHeight];
-
-        short[][] outPixels = multiArrayCopy(SrcGrayShortArray);
-
-
-        Cur_Location.x = CenterX;
-        Cur_Location.y = CenterY;
-        FloodFillQue.add(Cur_Location);
-        QueueMap[Cur_Location.x][Cur_Location.y] = true;
-        _FloodFilledDoneMap[Cur_Location.x][Cur_Location.y] = true;
-
-        CenterColor_G = SrcGrayShortArray[Cur_Location.x][Cur_Location.y];
-
-        do {
-            Cur_Location.x = FloodFillQue.peek().x;
-            Cur_Location.y = FloodFillQue.peek().y;
-
-            outPixels[Cur_Location.x][Cur_Location.y] = FillColorG;
-            _FloodFilledDoneMap[Cur_Location.x][Cur_Location.y] = true;
-
-
-
-            FloodFillQue.poll();
-            QueueMap[Cur_Location.x][Cur_Location.y] = false;
-
-
-            Upper_Location = new Point(Cur_Location.x, Cur_Location.y - 1);
-            Lower_Location = new Point(Cur_Location.x, Cur_Location.y + 1);
-            Left_Location = new Point(Cur_Location.x - 1, Cur_Location.y);
-            Right_Location = new Point(Cur_Location.x + 1, Cur_Location.y);
-
-
-
-            if (Cur_Location.y == 0) {
-                Upper_Location.x = -1;
-            }
+        return OutRaster;
+    }
 
-            if (Cur_Location.y == SrcImageHeight - 1) {
-                Lower_Location.x = -1;
-            }
+    /**
+     * Mark in _FloodFilledDoneMap the pixels reached by flood filling from
+     * the center; their indexes in a compact raster are left in
+     * FloodFill_Queue[0..FloodFill_QueueLength-1]
+     *
+     * @param SrcRaster source gray raster
+     * @param CenterX center x
+     * @param CenterY center y
+     * @param ToleranceG tolerance
+     */
+    private void floodFill_Mark(GrayRaster SrcRaster, int CenterX, int CenterY,
+            int ToleranceG) {
+        int SrcImageWidth = SrcRaster.width;
+        int SrcImageHeight = SrcRaster.height;
+        int PixelCount = SrcImageWidth * SrcImageHeight;
+
+        //Each pixel is queued once at most, so the queue is never reused
+        if (FloodFill_Queue.length < PixelCount) {
+            FloodFill_Queue = new int[PixelCount];
+        }
+        int[] queue = FloodFill_Queue;
+        int head = 0;
+        int tail = 0;
+        int CenterColor_G = SrcRaster.get(CenterX, CenterY);
 
-            if (Cur_Location.x == 0) {
-                Left_Location.x = -1;
-            }
+        queue[tail++] = CenterY * SrcImageWidth + CenterX;
+        _FloodFilledDoneMap[CenterX][CenterY] = true;
 
-            if (Cur_Location.x == SrcImageWidth - 1) {
-                Right_Location.x = -1;
-            }
+        while (head < tail) {
+            int position = queue[head++];
+            int x = position % SrcImageWidth;
+            int y = position / SrcImageWidth;
 
-            if (Upper_Location.x != -1) {
-                if (QueueMap[Upper_Location.x][Upper_Location.y] == false) {
-                    if (_FloodFilledDoneMap[Upper_Location.x][Upper_Location.y] == false
-                            && Math.abs(CenterColor_G
-                            - SrcGrayShortArray[Upper_Location.x][Upper_Location.y]) <= ToleranceG) {
-                        FloodFillQue.add(Upper_Location);
-                        QueueMap[Upper_Location.x][Upper_Location.y] = true;
-                    }
-                }
+            if (y > 0) {
+                tail = floodFill_Enqueue(SrcRaster, x, y - 1, CenterColor_G, ToleranceG, tail);
             }
-
-
-            if (Lower_Location.x != -1) {
-                if (QueueMap[Lower_Location.x][Lower_Location.y] == false) {
-                    if (_FloodFilledDoneMap[Lower_Location.x][Lower_Location.y] == false
-                            && Math.abs(CenterColor_G
-                            - SrcGrayShortArray[Lower_Location.x][Lower_Location.y]) <= ToleranceG) {
-                        FloodFillQue.add(Lower_Location);
-                        QueueMap[Lower_Location.x][Lower_Location.y] = true;
-                    }
-                }
+            if (y < SrcImageHeight - 1) {
+                tail = floodFill_Enqueue(SrcRaster, x, y + 1, CenterColor_G, ToleranceG, tail);
             }
-
-
-            if (Right_Location.x != -1) {
-                if (QueueMap[Right_Location.x][Right_Location.y] == false) {
-                    if (_FloodFilledDoneMap[Right_Location.x][Right_Location.y] == false
-                            && Math.abs(CenterColor_G
-                            - SrcGrayShortArray[Right_Location.x][Right_Location.y]) <= ToleranceG) {
-                        FloodFillQue.add(Right_Location);
-                        QueueMap[Right_Location.x][Right_Location.y] = true;
-                    }
-                }
+            if (x < SrcImageWidth - 1) {
+                tail = floodFill_Enqueue(SrcRaster, x + 1, y, CenterColor_G, ToleranceG, tail);
             }
-
-            if (Left_Location.x != -1) {
-                if (QueueMap[Left_Location.x][Left_Location.y] == false) {
-                    if (_FloodFilledDoneMap[Left_Location.x][Left_Location.y] == false
-                            && Math.abs(CenterColor_G
-                            - SrcGrayShortArray[Left_Location.x][Left_Location.y]) <= ToleranceG) {
-                        FloodFillQue.add(Left_Location);
-                        QueueMap[Left_Location.x][Left_Location.y] = true;
-                    }
-                }
+            if (x > 0) {
+                tail = floodFill_Enqueue(SrcRaster, x - 1, y, CenterColor_G, ToleranceG, tail);
             }
+        }
 
+        FloodFill_QueueLength = tail;
+    }
 
-        } while (FloodFillQue.size() != 0);
-
-
-        return outPixels;
+    /**
+     * Queue a pixel for flood filling when it is not done yet and close
+     * enough to the center color
+     *
+     * @return new end of queue
+     */
+    private int floodFill_Enqueue(GrayRaster SrcRaster, int x, int y,
+            int CenterColor_G, int ToleranceG, int tail) {
+        if (_FloodFilledDoneMap[x][y] == false
+                && Math.abs(CenterColor_G - SrcRaster.get(x, y)) <= ToleranceG) {
+            _FloodFilledDoneMap[x][y] = true;
+            FloodFill_Queue[tail] = y * SrcRaster.width + x;
+            tail++;
+        }
+        return tail;
     }
 
     /**
@@ -509,18 +608,30 @@ public class NativeImgProcessing {
      * @return array
      */
     public short[][] negative_UsingGrayShortArray(short[][] SrcGrayShortArray) {
-        int SrcImgWidth = SrcGrayShortArray.length - 1;
-        int SrcImgHeight = SrcGrayShortArray[0].length - 1;
-        short[][] outPixels = multiArrayCopy(SrcGrayShortArray);
-
+        return negative_UsingGrayRaster(
+                GrayRaster.fromShortArray(SrcGrayShortArray)).toShortArray();
+    }
 
-        for (int y = 0; y <= SrcImgHeight; y++) {
-            for (int x = 0; x <= SrcImgWidth; x++) {
-                outPixels[x][y] = (short) (255 - outPixels[x][y]);
+    /**
+     * Negative of gray raster
+     *
+     * @param SrcRaster source gray raster
+     * @return new raster
+     */
+    public GrayRaster negative_UsingGrayRaster(GrayRaster SrcRaster) {
+        GrayRaster outRaster = new GrayRaster(SrcRaster.width, SrcRaster.height);
+        byte[] srcPixels = SrcRaster.pixels;
+        byte[] outPixels = outRaster.pixels;
+
+        for (int y = 0; y < SrcRaster.height; y++) {
+            int srcRow = SrcRaster.index(0, y);
+            int outRow = y * SrcRaster.width;
+            for (int x = 0; x < SrcRaster.width; x++) {
+                outPixels[outRow + x] = (byte) (255 - (srcPixels[srcRow + x] & 0xff));
             }
         }
 
-        return outPixels;
+        return outRaster;
     }
 
     /**
@@ -764,6 +875,17 @@ public class NativeImgProcessing {
         return convert_RGBShortArray_To_Image(OutPixels_C);
     }
 
+    /**
+     * Conduct region labeling on gray raster
+     *
+     * @param SrcRaster gray raster
+     * @param BkGrayColor background gray color (0~255)
+     * @return image
+     */
+    public BufferedImage regionExtract_RasterScanning(GrayRaster SrcRaster, int BkGrayColor) {
+        return regionExtract_RasterScanning(SrcRaster.toShortArray(), BkGrayColor);
+    }
+
     /**
      * find min value
      *
@@ -825,16 +947,28 @@ public class NativeImgProcessing {
     public BufferedImage bwLeveling(BufferedImage SourceImage, int ThresholdValue,
             boolean IsInvertedImage) {
 
-        short[] LUT_Digitization = new short[256];
-        int i;
-        short[][] SrcPixels, OutPixels;
-        int SrcBitmapWidth = SourceImage.getWidth();
-        int SrcBitmapHeight = SourceImage.getHeight();
+        GrayRaster SrcRaster = convert_Image_To_GrayRaster(SourceImage);
 
+        return convert_GrayRaster_To_Image(
+                bwLeveling(SrcRaster, ThresholdValue, IsInvertedImage));
+    }
 
-        SrcPixels = convert_Image_To_GrayShortArray(SourceImage);
-        OutPixels = multiArrayCopy(SrcPixels);
+    /**
+     * Conduct simple global thresholding
+     *
+     * @param SrcRaster source gray raster
+     * @param ThresholdValue threshold value in gray (0~255)
+     * @param IsInvertedImage if true, conduct inversion
+     * @return new raster, 0 or 255
+     */
+    public GrayRaster bwLeveling(GrayRaster SrcRaster, int ThresholdValue,
+            boolean IsInvertedImage) {
 
+        byte[] LUT_Digitization = new byte[256];
+        int i;
+        int SrcBitmapWidth = SrcRaster.width;
+        int SrcBitmapHeight = SrcRaster.height;
+        GrayRaster OutRaster = new GrayRaster(SrcBitmapWidth, SrcBitmapHeight);
 
 
         if (ThresholdValue < 1) {
@@ -849,7 +983,7 @@ public class NativeImgProcessing {
         if (IsInvertedImage == false) {
             for (i = 0; i <= 255; i++) {
                 if (i > ThresholdValue) {
-                    LUT_Digitization[i] = 255;
+                    LUT_Digitization[i] = (byte) 255;
                 } else {
                     LUT_Digitization[i] = 0;
                 }
@@ -859,21 +993,22 @@ public class NativeImgProcessing {
                 if (i > ThresholdValue) {
                     LUT_Digitization[i] = 0;
                 } else {
-                    LUT_Digitization[i] = (short) 255;
+                    LUT_Digitization[i] = (byte) 255;
                 }
             }
         }
 
-        short Gray;
-
-        for (int y = 0; y <= SrcBitmapHeight - 1; y++) {
-            for (int x = 0; x <= SrcBitmapWidth - 1; x++) {
-                Gray = LUT_Digitization[SrcPixels[x][y]];
-                OutPixels[x][y] = Gray;
+        byte[] srcPixels = SrcRaster.pixels;
+        byte[] outPixels = OutRaster.pixels;
+        for (int y = 0; y < SrcBitmapHeight; y++) {
+            int srcRow = SrcRaster.index(0, y);
+            int outRow = y * SrcBitmapWidth;
+            for (int x = 0; x < SrcBitmapWidth; x++) {
+                outPixels[outRow + x] = LUT_Digitization[srcPixels[srcRow + x] & 0xff];
             }
         }
 
-        return convert_GrayShortArray_To_Image(OutPixels);
+        return OutRaster;
     }
 
     /**
@@ -897,51 +1032,55 @@ public class NativeImgProcessing {
     public BufferedImage magicThresholding_Core(BufferedImage SourceImage,
             int ExcludeGrayRange_Min, int ExcludeGrayRange_Max) {
 
+        GrayRaster SrcRaster = convert_Image_To_GrayRaster(SourceImage);
 
-        short[][] SrcPixels, OutPixels;
-        int SrcBitmapWidth = SourceImage.getWidth();
-        int SrcBitmapHeight = SourceImage.getHeight();
+        return convert_GrayRaster_To_Image(
+                magicThresholding_Core(SrcRaster, ExcludeGrayRange_Min, ExcludeGrayRange_Max));
+    }
 
+    /**
+     * magic thresholding of gray raster: pixels flood filled from those in
+     * the excluded gray range turn black, the others white
+     *
+     * @param SrcRaster source gray raster
+     * @param ExcludeGrayRange_Min lowest gray of excluded range
+     * @param ExcludeGrayRange_Max highest gray of excluded range
+     * @return new raster, 0 or 255
+     */
+    public GrayRaster magicThresholding_Core(GrayRaster SrcRaster,
+            int ExcludeGrayRange_Min, int ExcludeGrayRange_Max) {
 
-        SrcPixels = convert_Image_To_GrayShortArray(SourceImage);
-        OutPixels = new short[SrcBitmapWidth][SrcBitmapHeight];
+        int SrcBitmapWidth = SrcRaster.width;
+        int SrcBitmapHeight = SrcRaster.height;
+        GrayRaster OutRaster = new GrayRaster(SrcBitmapWidth, SrcBitmapHeight);
 
 
         _FloodFilledDoneMap = new boolean[SrcBitmapWidth][SrcBitmapHeight];
         int ToleranceOfExclusion = 20;
 
         for (int y = 0; y < SrcBitmapHeight; y++) {
-
             for (int x = 0; x < SrcBitmapWidth; x++) {
-
-
                 if (_FloodFilledDoneMap[x][y] == false) {
-                    if (SrcPixels[x][y] >= ExcludeGrayRange_Min
-                            && SrcPixels[x][y] <= ExcludeGrayRange_Max) {
-
-                        floodFill_Core(SrcPixels, x, y,
-                                (short) 255, ToleranceOfExclusion);
+                    int gray = SrcRaster.get(x, y);
+                    if (gray >= ExcludeGrayRange_Min && gray <= ExcludeGrayRange_Max) {
+                        floodFill_Mark(SrcRaster, x, y, ToleranceOfExclusion);
                     }
                 }
-
             }
         }
 
 
+        byte[] outPixels = OutRaster.pixels;
         for (int y = 0; y < SrcBitmapHeight; y++) {
-
+            int row = y * SrcBitmapWidth;
             for (int x = 0; x < SrcBitmapWidth; x++) {
-                if (_FloodFilledDoneMap[x][y]) {
-                    OutPixels[x][y] = 0;
-                } else {
-                    OutPixels[x][y] = 255;
+                if (_FloodFilledDoneMap[x][y] == false) {
+                    outPixels[row + x] = (byte) 255;
                 }
-
             }
-
         }
 
-        return convert_GrayShortArray_To_Image(OutPixels);
+        return OutRaster;
     }
 
     /**
@@ -1052,6 +1191,48 @@ public class NativeImgProcessing {
             int boxSize, float tpercent,
             int GrayLimit) {
 
+        AdaptiveThreshold_BWPixelArray = adaptiveThresholding_Core_To_Array(SrcPixels,
+                boxSize, tpercent, GrayLimit);
+        return convert_GrayShortArray_To_Image(AdaptiveThreshold_BWPixelArray);
+    }
+
+    /**
+     * Conduct adaptive thresholding with AdaptiveThreshold_Engine, or with
+     * the integral image when the engine cannot take the input
+     *
+     * @param SrcPixels source gray image
+     * @param boxSize box size for processing
+     * @param tpercent t percent value for comparison between gray value and
+     * average gray value of selected box
+     * @param GrayLimit pixels whose gray value is higher than GrayLimit will be
+     * excluded
+     * @return array of 255 and 0
+     */
+    public short[][] adaptiveThresholding_Core_To_Array(short[][] SrcPixels,
+            int boxSize, float tpercent, int GrayLimit) {
+
+        short[][] OutPixels = AdaptiveThreshold_Engine.threshold(SrcPixels,
+                boxSize, tpercent, GrayLimit);
+        if (OutPixels == null) {
+            OutPixels = adaptiveThresholding_UsingIntegralMap(SrcPixels,
+                    boxSize, tpercent, GrayLimit);
+        }
+        return OutPixels;
+    }
+
+    /**
+     * Conduct adaptive thresholding using full integral image
+     *
+     * @param SrcPixels source gray image
+     * @param boxSize box size for processing
+     * @param tpercent t percent value for comparison between gray value and
+     * average gray value of selected box
+     * @param GrayLimit pixels whose gray value is higher than GrayLimit will be
+     * excluded
+     * @return array of 255 and 0
+     */
+    private short[][] adaptiveThresholding_UsingIntegralMap(short[][] SrcPixels,
+            int boxSize, float tpercent, int GrayLimit) {
 
         short[][] OutPixels;
         int SrcBitmapWidth = SrcPixels.length;
@@ -1079,8 +1260,30 @@ public class NativeImgProcessing {
 
             }
         }
-        AdaptiveThreshold_BWPixelArray = OutPixels;
-        return convert_GrayShortArray_To_Image(OutPixels);
+        return OutPixels;
+    }
+
+    /**
+     * Conduct adaptive thresholding on gray raster
+     *
+     * @param SrcRaster source gray raster
+     * @param boxSize box size for processing
+     * @param tpercent t percent value for comparison between gray value and
+     * average gray value of selected box
+     * @param GrayLimit pixels whose gray value is higher than GrayLimit will be
+     * excluded
+     * @return new raster, 255 for foreground and 0 for background
+     */
+    public GrayRaster adaptiveThresholding_Core(GrayRaster SrcRaster,
+            int boxSize, float tpercent, int GrayLimit) {
+
+        GrayRaster OutRaster = AdaptiveThreshold_Engine.threshold(SrcRaster,
+                boxSize, tpercent, GrayLimit);
+        if (OutRaster == null) {
+            OutRaster = GrayRaster.fromShortArray(adaptiveThresholding_UsingIntegralMap(
+                    SrcRaster.toShortArray(), boxSize, tpercent, GrayLimit));
+        }
+        return OutRaster;
     }
 
     /**
@@ -1147,8 +1350,8 @@ public class NativeImgProcessing {
      * @return optimal threshold value
      */
     public int find_OptimalThreshold_For_AdaptiveThresholding(BufferedImage SourceGrayImage) {
-        short[][] SrcPixels = convert_Image_To_GrayShortArray(SourceGrayImage);
-        int returnValue = find_OptimalThreshold_For_AdaptiveThresholding(SrcPixels);
+        GrayRaster SrcRaster = convert_Image_To_GrayRaster(SourceGrayImage);
+        int returnValue = find_OptimalThreshold_For_AdaptiveThresholding(SrcRaster);
 
         return returnValue;
     }
@@ -1161,22 +1364,34 @@ public class NativeImgProcessing {
      * @return optimal threshold value
      */
     public int find_OptimalThreshold_For_AdaptiveThresholding(short[][] SrcGrayPixelArray) {
-        BufferedImage BWImage = null;
+        return find_OptimalThreshold_For_AdaptiveThresholding(
+                GrayRaster.fromShortArray(SrcGrayPixelArray));
+    }
+
+    /**
+     * Find optimal threshold value for adaptive thresholding of gray raster;
+     * the result is left in AdaptiveThreshold_BWImage and
+     * AdaptiveThreshold_BWPixelArray
+     *
+     * @param SrcRaster source gray raster
+     * @return optimal threshold value
+     */
+    public int find_OptimalThreshold_For_AdaptiveThresholding(GrayRaster SrcRaster) {
+        GrayRaster BWRaster = null;
 
         int TestValue;
         float[][] BasicAnalysis;
         int NumbValidBlob;
-        boolean IsGoodValueFound = false;
 
 
         //Find optimal threshold value
         for (TestValue = 150; TestValue >= 50; TestValue -= 25) {
-            //Run magic threshold
-            BWImage = adaptiveThresholding_Core(SrcGrayPixelArray, 15,
+            //Run adaptive threshold
+            BWRaster = adaptiveThresholding_Core(SrcRaster, 15,
                     AdaptiveThreshold_tPercent, TestValue);
 
             //conduct region lanbeling
-            regionExtract_RasterScanning(BWImage, 0);
+            regionExtract_RasterScanning(BWRaster, 0);
 
             //Conduct basic analysis of detected regions such as center x and y, size
             BasicAnalysis = regionExtract_BasicAnalysis(RegionLabeling_LabelIDMap,
@@ -1195,18 +1410,14 @@ public class NativeImgProcessing {
 
 
             if (NumbValidBlob < 100) {
-                AdaptiveThreshold_BWImage = BWImage;
-                return TestValue;
+                break;
             }
         }
 
+        AdaptiveThreshold_BWPixelArray = BWRaster.toShortArray();
+        AdaptiveThreshold_BWImage = convert_GrayRaster_To_Image(BWRaster);
 
-        if (IsGoodValueFound == false) {
-            AdaptiveThreshold_BWImage = BWImage;
-            return 50;
-        }
-
-        return 50;
+        return Math.max(TestValue, 50);
     }
 
     /**
@@ -1469,12 +1680,14 @@ public class NativeImgProcessing {
         int x_upperBound = SrcImage.getWidth();
         int y_upperBound = SrcImage.getHeight();
         int rgb, gray;
+        int[] rowRGB = new int[x_upperBound];
 
         short[][] outShortArray = new short[x_upperBound][y_upperBound];
 
         for (int y = 0; y < y_upperBound; y++) {
+            read_RGBRow(SrcImage, y, rowRGB);
             for (int x = 0; x < x_upperBound; x++) {
-                rgb = SrcImage.getRGB(x, y);
+                rgb = rowRGB[x];
                 gray = (rgb >> 16) & 0x000000FF;
 
                 outShortArray[x][y] = (short) gray;
@@ -1652,44 +1865,82 @@ public class NativeImgProcessing {
             int boxSize, float tpercent,
             int GrayLimit) {
 
+        AdaptiveThreshold_BWPixelArray = adaptiveThresholding_Core_To_Array(SrcPixels,
+                boxSize, tpercent, GrayLimit);
+        return convert_GrayShortArray_To_GrayImage(AdaptiveThreshold_BWPixelArray);
+    }
 
-        short[][] OutPixels;
-        int SrcBitmapWidth = SrcPixels.length;
-        int SrcBitmapHeight = SrcPixels[0].length;
+    public long countPixelInCircle(short[][] SrcGrayShortArray,
+            int centerX, int centerY,
+            int circleRadius, int circleWidth,
+            short pixelValue) {
 
-        OutPixels = new short[SrcBitmapWidth][SrcBitmapHeight];
+        int srcImageWidth = SrcGrayShortArray.length;
+        int srcImageHeight = SrcGrayShortArray[0].length;
 
-        long[][] temp_IntegralGrayMap;
-        int LocalGrayAvg = 0;
-        float rPercentValue = (float) (1 - tpercent);
+        double curX, curY;
+        double prevX = 0;
+        double prevY = 0;
+        double oneCycleRad = 2 * Math.PI;
+        double circleStepIncrease = oneCycleRad / 360;
 
-        temp_IntegralGrayMap = build_IntegralGrayArrayMap(SrcPixels);
+        long pixelCountSum = 0;
 
+        for (int curCircleRadius = circleRadius - circleWidth / 2;
+                curCircleRadius < circleRadius + circleWidth / 2;
+                curCircleRadius++) {
 
-        for (int y = 0; y < SrcBitmapHeight; y++) {
-            for (int x = 0; x < SrcBitmapWidth; x++) {
+            for (double radAngle = 0; radAngle < oneCycleRad;
+                    radAngle = radAngle + circleStepIncrease) {
 
-                LocalGrayAvg = calculate_LocalGrayAvgValueUsingIntegralMap(
-                        temp_IntegralGrayMap, boxSize, x, y);
-                if (SrcPixels[x][y] < LocalGrayAvg * rPercentValue && SrcPixels[x][y] < GrayLimit) {
-                    OutPixels[x][y] = 255;
-                } else {
-                    OutPixels[x][y] = 0;
+                curX = Math.sin(radAngle) * curCircleRadius + centerX;
+                curY = Math.cos(radAngle) * curCircleRadius + centerY;
+
+                if ((int) curX < 0
+                        || (int) curY < 0
+                        || (int) curX >= srcImageWidth
+                        || (int) curY >= srcImageHeight) {
+                    //if the point is out of range, skip it
+                    continue;
+                }
+
+                if ((int) curX == prevX && (int) curY == prevY) {
+                    //if the point is the same as the previous one, skip it
+                    continue;
+                }
+
+                if (SrcGrayShortArray[(int) curX][(int) curY] == pixelValue) {
+                    pixelCountSum++;
                 }
 
+                prevX = (int) curX;
+                prevY = (int) curY;
+
             }
         }
-        AdaptiveThreshold_BWPixelArray = OutPixels;
-        return convert_GrayShortArray_To_GrayImage(OutPixels);
+
+        return pixelCountSum;
+
     }
 
-    public long countPixelInCircle(short[][] SrcGrayShortArray,
+    /**
+     * Count the pixels of a given gray value on rings around a center
+     *
+     * @param SrcRaster source gray raster
+     * @param centerX center x
+     * @param centerY center y
+     * @param circleRadius radius of middle ring
+     * @param circleWidth number of rings
+     * @param pixelValue gray value to count (0~255)
+     * @return number of pixels
+     */
+    public long countPixelInCircle(GrayRaster SrcRaster,
             int centerX, int centerY,
             int circleRadius, int circleWidth,
-            short pixelValue) {
+            int pixelValue) {
 
-        int srcImageWidth = SrcGrayShortArray.length;
-        int srcImageHeight = SrcGrayShortArray[0].length;
+        int srcImageWidth = SrcRaster.width;
+        int srcImageHeight = SrcRaster.height;
 
         double curX, curY;
         double prevX = 0;
@@ -1722,7 +1973,7 @@ public class NativeImgProcessing {
                     continue;
                 }
 
-                if (SrcGrayShortArray[(int) curX][(int) curY] == pixelValue) {
+                if (SrcRaster.get((int) curX, (int) curY) == pixelValue) {
                     pixelCountSum++;
                 }
 
@@ -19,6 +19,10 @@ public class ScannerLog {
 	/** the name of the log file name */
 	public static final String LOG_FILENAME = "thelog.txt";
 
+	/** piece size used when the log cannot tell it */
+	public static final int DEFAULT_PIECE_WIDTH = 640;
+	public static final int DEFAULT_PIECE_HEIGHT = 480;
+
 	// keeps list of errors, if any
 	protected final List<String> errorList;
 	
@@ -32,6 +36,12 @@ public class ScannerLog {
 	
 	private double stepsPerPixelsY = 0;
 	
+	private int pieceWidth = DEFAULT_PIECE_WIDTH;
+	
+	private int pieceHeight = DEFAULT_PIECE_HEIGHT;
+	
+	private boolean isPieceSizeKnown = false;
+	
 	/**
 	 * Default constructor
 	 */
@@ -82,6 +92,10 @@ public class ScannerLog {
     	String seen = null;
     	int columns = 0;
     	int total = 0;
+    	double minX = Double.MAX_VALUE;
+    	double maxX = -Double.MAX_VALUE;
+    	double minY = Double.MAX_VALUE;
+    	double maxY = -Double.MAX_VALUE;
     	for( String each : linesList ) {
     		if( each.startsWith( "#StepsPerPixelsX" ) == true ) {
     			String[] pieces = each.split( "\t" );
@@ -103,6 +117,14 @@ public class ScannerLog {
     				if( third.equals( seen ) == true ) {
     					columns++;
     				}; // if
+    				Double positionX = Utilities.getDouble( pieces[ 1 ] );
+    				Double positionY = Utilities.getDouble( third );
+    				if( positionX != null && positionY != null ) {
+    					minX = Math.min( minX, positionX );
+    					maxX = Math.max( maxX, positionX );
+    					minY = Math.min( minY, positionY );
+    					maxY = Math.max( maxY, positionY );
+    				}; // if
     			}; // if
     		}; // if
     	}; // for
@@ -123,9 +145,35 @@ public class ScannerLog {
     	}; // if
     	scannerLog.setStepsPerPixelsX( x );
     	scannerLog.setStepsPerPixelsY( y );
+    	int width = getPieceSize( minX, maxX, columns, x );
+    	int height = getPieceSize( minY, maxY, rows, y );
+    	if( width > 0 && height > 0 ) {
+    		scannerLog.pieceWidth = width;
+    		scannerLog.pieceHeight = height;
+    		scannerLog.isPieceSizeKnown = true;
+    	}; // if
     	return scannerLog;
     }
 
+	/**
+	 * Gets the piece size from the distance between the first and last piece positions, in steps, along one axis
+	 * @param  min  the smallest position
+	 * @param  max  the largest position
+	 * @param  count  the number of pieces along the axis
+	 * @param  stepsPerPixel  the steps per pixel along the axis
+	 * @return  the piece size in pixels; 0 when it cannot be told
+	 */
+	private static int getPieceSize( double min, double max, int count, double stepsPerPixel ) {
+		if( count < 2 || max <= min || stepsPerPixel <= 0 ) {
+			return 0;
+		}; // if
+		long size = Math.round( ( max - min ) / ( count - 1 ) / stepsPerPixel );
+		if( size < 1 || size > Integer.MAX_VALUE ) {
+			return 0;
+		}; // if
+		return (int) size;
+	}
+
 	
 	/**
 	 * Get the number of rows
@@ -144,6 +192,32 @@ public class ScannerLog {
 		return numberOfColumns;
 	}
 
+	/**
+	 * Get the width of a piece, in pixels, from the distance between the piece positions;
+	 * the pieces themselves may differ (see PlateAssembler)
+	 * @return the pieceWidth
+	 */
+	public int getPieceWidth() {
+		return pieceWidth;
+	}
+
+	/**
+	 * Get the height of a piece, in pixels
+	 * @return the pieceHeight
+	 */
+	public int getPieceHeight() {
+		return pieceHeight;
+	}
+
+	/**
+	 * Whether the piece size comes from the piece positions of the log;
+	 * when false it is DEFAULT_PIECE_WIDTH x DEFAULT_PIECE_HEIGHT
+	 * @return the isPieceSizeKnown
+	 */
+	public boolean isPieceSizeKnown() {
+		return isPieceSizeKnown;
+	}
+
 	/**
 	 * @return the stepsPerPixelsX
 	 */
@@ -8,7 +8,6 @@ package edu.rice.wormlab.wormlength;
 import ij.ImagePlus;
 import ij.gui.NewImage;
 import ij.io.FileSaver;
-import ij.process.Blitter;
 import ij.process.FloodFiller;
 import ij.process.ImageProcessor;
 import java.io.BufferedReader;
@@ -52,34 +51,21 @@ public class Utilities {
 	 * @return
 	 */
 	public static ImagePlus assembleImage( String folder, boolean saveToDiskFlag, ScannerLog scannerLog ) {
-		long time1 = System.currentTimeMillis();
 		File theFile = new File( folder + File.separator + ASSEMBLED_JPEG );
 		if( theFile.exists() == true ) {
 			ImagePlus assembled = new ImagePlus( folder + File.separator + ASSEMBLED_JPEG );
 			return assembled;
 		}; // if
 		
-		int numberOfColumns = scannerLog.getNumberOfColumns();
-		int numberOfRows = scannerLog.getNumberOfRows();
-		
 		// assemble from pieces
-		ImagePlus assembled = NewImage.createByteImage( "assembled", numberOfColumns * 640, numberOfRows * 480, 1, NewImage.FILL_BLACK );
-		ImageProcessor ipAssembled = assembled.getProcessor();
-		for( int i = 1; i <= numberOfColumns; i++ ) {
-			for( int j = 1; j <= numberOfRows; j++ ) {
-				String index = String.valueOf( i + numberOfColumns * ( j - 1 ) );
-				String path = folder + File.separator + "piece_" + index + ".jpeg";
-				ImagePlus tempIP = new ImagePlus( path );
-				ipAssembled.copyBits( tempIP.getProcessor(), 640 * ( i - 1 ), 480 * ( j - 1 ), Blitter.ADD );
-			}; // for
-		}; // for
+		ImagePlus assembled = assembleFromPieces( folder, scannerLog, false );
+		if( assembled == null ) {
+			return null;
+		}; // if
 		if( saveToDiskFlag == true ) {
 			FileSaver saver = new FileSaver( assembled );
 			saver.saveAsJpeg( folder + File.separator + ASSEMBLED_JPEG );
 		}; // if
-		long time2 = System.currentTimeMillis();
-		out.println( Utilities.format2( ( ( time2 - time1 ) / 1000.0 ) ) + " seconds for assembling image" );
-		//iw.show();
 		return assembled;
 	}
 
@@ -96,40 +82,21 @@ public class Utilities {
      * @return if piece images are not found, return false
      */
     public static boolean assembleImage_NoImageReturn(String folder, ScannerLog scannerLog) {
-        long time1 = System.currentTimeMillis();
         File theFile = new File(folder + File.separator + ASSEMBLED_JPEG);
 
         if (theFile.exists() == true) {
             return true;
         }
 
-        int numberOfColumns = scannerLog.getNumberOfColumns();
-        int numberOfRows = scannerLog.getNumberOfRows();
-
         // assemble from pieces
-        ImagePlus assembled = NewImage.createByteImage("assembled", numberOfColumns * 640, numberOfRows * 480, 1, NewImage.FILL_BLACK);
-        ImageProcessor ipAssembled = assembled.getProcessor();
-        for (int i = 1; i <= numberOfColumns; i++) {
-            for (int j = 1; j <= numberOfRows; j++) {
-                String index = String.valueOf(i + numberOfColumns * (j - 1));
-                String path = folder + File.separator + "piece_" + index + ".jpeg";
-                ImagePlus tempIP = new ImagePlus(path);
-                ipAssembled.copyBits(tempIP.getProcessor(), 640 * (i - 1), 480 * (j - 1), Blitter.ADD);
-            }; // for
-        }; // for
-
-
+        ImagePlus assembled = assembleFromPieces(folder, scannerLog, false);
         if (assembled == null) {
             return false;
-        }
-
+        }; // if
 
         FileSaver saver = new FileSaver(assembled);
         saver.saveAsJpeg(folder + File.separator + ASSEMBLED_JPEG);
 
-        long time2 = System.currentTimeMillis();
-        System.out.println(Utilities.format2(((time2 - time1) / 1000.0)) + " seconds for assembling image");
-
         return true;
     }
 
@@ -147,48 +114,48 @@ public class Utilities {
      * @return ImagePlus
      */
     public static ImagePlus assembleImage_Reload(String folder, ScannerLog scannerLog) {
-        long time1 = System.currentTimeMillis();
         File theFile = new File(folder + File.separator + ASSEMBLED_JPEG);
         if (theFile.exists() == true) {
             ImagePlus assembled = new ImagePlus(folder + File.separator + ASSEMBLED_JPEG);
             return assembled;
         }; // if
 
-        int numberOfColumns = scannerLog.getNumberOfColumns();
-        int numberOfRows = scannerLog.getNumberOfRows();
-
         // assemble from pieces
-        ImagePlus assembled = NewImage.createByteImage("assembled", numberOfColumns * 640, numberOfRows * 480, 1, NewImage.FILL_BLACK);
-        ImageProcessor ipAssembled = assembled.getProcessor();
-        for (int i = 1; i <= numberOfColumns; i++) {
-            for (int j = 1; j <= numberOfRows; j++) {
-                String index = String.valueOf(i + numberOfColumns * (j - 1));
-                String path = folder + File.separator + "piece_" + index + ".jpeg";
-                ImagePlus tempIP = new ImagePlus(path);
-                try {
-                    ipAssembled.copyBits(tempIP.getProcessor(), 640 * (i - 1), 480 * (j - 1), Blitter.ADD);
-                } catch (Exception ex) {
-                    //Do nothing
-                }
-                        
-            }; // for
-        }; // for
-
-        
-        if (assembled==null) {
+        ImagePlus assembled = assembleFromPieces(folder, scannerLog, true);
+        if (assembled == null) {
             return null;
-        }
-                
-                
+        }; // if
+
         FileSaver saver = new FileSaver(assembled);
         saver.saveAsJpeg(folder + File.separator + ASSEMBLED_JPEG);
 
         ImagePlus assembled2 = new ImagePlus(folder + File.separator + ASSEMBLED_JPEG);
-                        
-        long time2 = System.currentTimeMillis();
-        System.out.println(Utilities.format2(((time2 - time1) / 1000.0)) + " seconds for assembling image");
         return assembled2;
     }
+
+
+    /**
+     * Assembles image from the pieces of a folder, decoding them in parallel
+     *
+     * @param folder the name of the folder
+     * @param scannerLog the ScannerLog object
+     * @param isSkippingBadPieces true: missing or unreadable pieces are left
+     * black; false: they make the assembly fail
+     * @return the assembled image; null when it fails
+     */
+    public static ImagePlus assembleFromPieces(String folder, ScannerLog scannerLog,
+            boolean isSkippingBadPieces) {
+        PlateAssembler assembler = new PlateAssembler(true);
+        assembler.setSkippingBadPieces(isSkippingBadPieces);
+        ImagePlus assembled = assembler.assembleImage(folder, scannerLog);
+        if (assembler.getError() != null) {
+            out.println(assembler.getError());
+        }; // if
+        if (assembled != null) {
+            out.println(assembler.getTimingReport());
+        }; // if
+        return assembled;
+    }
     
     
     
@@ -9,33 +9,99 @@ import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
 import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
 
 public class BatchImageProcessing {
 
+    /** estimated bytes of memory a plate pair takes while processed, per pixel of the plate */
+    public static final int BYTES_PER_PLATE_PIXEL = 40;
+
+    /** part of the maximum heap that plate pairs being processed may take */
+    public static final double MEMORY_FRACTION = 0.75;
+
+    private static final int MEGABYTE = 1024 * 1024;
+
     public static DetectionCondition detectionCondition = new DetectionCondition();
-    public static MotionDetection motionDetection = new MotionDetection(null);
+
+    // the pipeline keeps no state of the plates, so folders share it
+    private static final LifespanPipeline pipeline = new LifespanPipeline(new DetectionCondition());
 
     /**
-     * Recursively performs image-processing operation in all sub-folders
+     * Recursively performs image-processing operation in all sub-folders,
+     * one thread per processor
      *
      * @param  directory  the directory to start with
      * @return  outcome-map containing folders processed with message (such as error or null)
      */
     public static Map<String, String> recursiveImageProcessing(File directory) {
+        return recursiveImageProcessing(directory, Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * Recursively performs image-processing operation in all sub-folders;
+     * folders are processed on a pool of threads, and a folder only starts
+     * when the estimated memory of the folders being processed leaves room
+     * for it
+     *
+     * @param  directory  the directory to start with
+     * @param  threadCount  largest number of folders processed at once
+     * @return  outcome-map containing folders processed with message (such as error or null)
+     */
+    public static Map<String, String> recursiveImageProcessing(File directory, int threadCount) {
         if (directory == null) {
             return null;
         }; // if
+        if (threadCount < 1) {
+            throw new IllegalArgumentException("Thread count must be positive: " + threadCount);
+        }; // if
         Map<String, String> ret = new TreeMap<String, String>();
-        recursiveImageProcessing(directory, ret);
+        List<File> foldersList = new ArrayList<File>();
+        collectImageFolders(directory, foldersList);
+        if (foldersList.isEmpty() == true) {
+            return ret;
+        }; // if
+
+        // memory is handed out in megabytes
+        int memoryBudget = (int) Math.max(1,
+                Runtime.getRuntime().maxMemory() * MEMORY_FRACTION / MEGABYTE);
+        Semaphore memory = new Semaphore(memoryBudget, true);
+
+        ExecutorService executor = Executors.newFixedThreadPool(Math.min(threadCount, foldersList.size()));
+        List<Future<String>> futuresList = new ArrayList<Future<String>>();
+        for (File folder : foldersList) {
+            int megabytes = Math.min(memoryBudget, estimateMegabytes(folder));
+            futuresList.add(executor.submit(new FolderTask(folder, memory, megabytes)));
+        }; // for
+        executor.shutdown();
+
+        for (int i = 0; i < foldersList.size(); i++) {
+            String error;
+            try {
+                error = futuresList.get(i).get();
+            } catch (ExecutionException ee) {
+                ee.printStackTrace();
+                error = "Error in image-processing: " + ee.getCause();
+            } catch (InterruptedException ie) {
+                executor.shutdownNow();
+                Thread.currentThread().interrupt();
+                error = "Image-processing was interrupted";
+            }; // try
+            ret.put(foldersList.get(i).getAbsolutePath(), error);
+        }; // for
         return ret;
     }
 
     /*
-     * Recursively performs image-processing operation in all sub-folders (private)
-     * @param  directory  the directory to start with
-     * @param  outcomeMap  Map of folders to message (either error or null)
+     * Recursively collects the folders that contain images (private)
+     * @param  folder  the directory to start with
+     * @param  foldersList  list where the folders are added
      */
-    private static void recursiveImageProcessing(File folder, Map<String, String> outcomeMap) {
+    private static void collectImageFolders(File folder, List<File> foldersList) {
         if (folder == null) {
             return;
         }; // if
@@ -44,10 +110,9 @@ public class BatchImageProcessing {
         int imageFilesCount = Utilities.countPiecesFiles(folder.getAbsolutePath());
         File theFile = new File(folder.getAbsolutePath() + File.separator + Utilities.ASSEMBLED_JPEG);
         boolean existingAssembleOrgFileFlag = theFile.exists();
-        
+
         if (imageFilesCount > 0 || existingAssembleOrgFileFlag) {
-            String error = imageProcessing(folder);
-            outcomeMap.put(folder.getAbsolutePath(), error);
+            foldersList.add(folder);
         }; // if
 
         // get the sub-directories
@@ -61,10 +126,28 @@ public class BatchImageProcessing {
 
         // recursion happens here
         for (File each : subdirectoriesList) {
-            recursiveImageProcessing(each, outcomeMap);
+            collectImageFolders(each, foldersList);
         }; // for
     }
 
+    /**
+     * Estimates the memory that processing a folder takes, from the size of
+     * the plate in its scanner-log
+     *
+     * @param directory the directory
+     * @return megabytes; 0 for folders that are not processed
+     */
+    static int estimateMegabytes(File directory) {
+        if (directory.getName().endsWith(App.UNDERSCORE_UNDERSCORE_ONE) == false) {
+            return 0;
+        }; // if
+        ScannerLog scannerLog = ScannerLog.readLog(directory);
+        long pixels = (long) scannerLog.getNumberOfRows() * scannerLog.getNumberOfColumns()
+                * scannerLog.getPieceWidth() * scannerLog.getPieceHeight();
+        long bytes = pixels * BYTES_PER_PLATE_PIXEL;
+        return (int) Math.min(Integer.MAX_VALUE, (bytes + MEGABYTE - 1) / MEGABYTE);
+    }
+
     /**
      * Performs image-processing on a directory: assemble the image
      *
@@ -77,25 +160,94 @@ public class BatchImageProcessing {
         if (error != null) {
             return error;
         }; // if
-        
+
         if (directory.getName().endsWith(App.UNDERSCORE_UNDERSCORE_ONE) == false) {
             return null;
         }
-        
-        File resultsFile = new File(directory.getAbsoluteFile() 
+
+        File resultsFile = new File(directory.getAbsoluteFile()
                             + File.separator + MotionDetection.N_LIVE_RESULTS_TXT);
         if (resultsFile.exists() == true) {
             resultsFile.delete();
         }
-        
-        motionDetection.setFolders(directory, directory);
+        ResultsSidecar.delete(directory);
 
-        String errors = motionDetection.do_imageProcessing();
-        if( errors != null ) {
-			  return errors;
-		  }; // if
-        MotionDetection.saveInspectionResults( false, null, motionDetection.getWormsList(), motionDetection.getFolder(), motionDetection.getAssembledImage() );
+        String path = directory.getAbsolutePath();
+        File folder1 = new File(path.substring(0, path.length() - App.UNDERSCORE_UNDERSCORE_ONE.length()));
+        PlateAnalysis plateAnalysis = pipeline.process(folder1, directory);
+        if (plateAnalysis.getErrors() != null) {
+            return plateAnalysis.getErrors();
+        }; // if
+        error = MotionDetection.writeInspectionResults(false, plateAnalysis.getWormsList(),
+                plateAnalysis.getFolder(), plateAnalysis.getAssembledImage());
+        if (error != null) {
+            return error;
+        }; // if
 
+        // the sidecar only saves time when the plate is reopened
+        error = ResultsSidecar.write(plateAnalysis, plateAnalysis.getWormsList(), pipeline.getDetectionCondition());
+        if (error != null) {
+            System.out.println(error);
+        }; // if
         return null;
     }
+
+    /**
+     * Processes one folder once its memory is available
+     */
+    private static class FolderTask implements Callable<String> {
+
+        private final File folder;
+        private final Semaphore memory;
+        private final int megabytes;
+
+        FolderTask(File folder, Semaphore memory, int megabytes) {
+            this.folder = folder;
+            this.memory = memory;
+            this.megabytes = megabytes;
+        }
+
+        @Override
+        public String call() throws InterruptedException {
+            memory.acquire(megabytes);
+            try {
+                return imageProcessing(folder);
+            } finally {
+                memory.release(megabytes);
+            }
+        }
+    }
+
+    /**
+     * Runs the batch image-processing without user interface
+     *
+     * @param args the directory to start with, and optionally the number of threads
+     */
+    public static void main(String[] args) {
+        if (args.length < 1 || args.length > 2) {
+            System.out.println("Usage: BatchImageProcessing directory [threads]");
+            System.exit(1);
+        }; // if
+        File directory = new File(args[0]);
+        int threadCount = Runtime.getRuntime().availableProcessors();
+        if (args.length == 2) {
+            Integer value = Utilities.getInteger(args[1]);
+            if (value == null || value < 1) {
+                System.out.println("Invalid number of threads: " + args[1]);
+                System.exit(1);
+            }; // if
+            threadCount = value;
+        }; // if
+
+        Map<String, String> outcomeMap = recursiveImageProcessing(directory, threadCount);
+        int goodCount = 0;
+        for (Map.Entry<String, String> each : outcomeMap.entrySet()) {
+            if (each.getValue() == null) {
+                goodCount++;
+            } else {
+                System.out.println(each.getKey() + " " + each.getValue());
+            }; // if
+        }; // for
+        System.out.println(goodCount + " folders processed");
+    }
 }
@@ -0,0 +1,328 @@
+/*
+ * Filename: ConnectedComponentLabeler.java
+ */
+
+package edu.rice.wormlab.lifespan;
+
+import java.util.Arrays;
+
+/**
+ * Connected-component labeling (8-connectivity) using a path-compressed
+ * union-find on int labels.
+ * There is no cap on the number of labels; final labels are compacted to
+ * 1..getLabelCount() in raster order, and area, bounding box and centroid
+ * of every label are collected during the same relabeling pass.
+ * An instance keeps its work arrays, so reusing it for images of the same
+ * size does not allocate again.
+ */
+public class ConnectedComponentLabeler {
+
+    /** label of background pixels */
+    public static final int BACKGROUND = 0;
+
+    private int width;
+    private int height;
+    private int labelCount;
+
+    //Label map, row-major: index = x + y * width
+    private int[] labelMap = new int[0];
+
+    //Union-find forest over provisional labels
+    private int[] parent = new int[1024];
+
+    //Per-label statistics, index is the final label (starts from 1)
+    private int[] area = new int[0];
+    private int[] left = new int[0];
+    private int[] right = new int[0];
+    private int[] top = new int[0];
+    private int[] bottom = new int[0];
+    private long[] sumX = new long[0];
+    private long[] sumY = new long[0];
+
+    /**
+     * Label all pixels that differ from the background gray value
+     *
+     * @param srcPixels gray array, [x][y]
+     * @param bkGrayColor background gray color (0~255)
+     * @param margin width of the image border left unlabeled
+     * @return number of labels found
+     */
+    public int label(short[][] srcPixels, int bkGrayColor, int margin) {
+        prepare(srcPixels.length, srcPixels[0].length);
+
+        //First pass: provisional labels, equivalences go into the forest
+        int nextLabel = 1;
+        for (int y = margin; y <= height - margin - 1; y++) {
+            for (int x = margin; x <= width - margin - 1; x++) {
+                if (srcPixels[x][y] != bkGrayColor) {
+                    nextLabel = assignProvisionalLabel(x, y, nextLabel);
+                }
+            }
+        }
+
+        return resolveLabels(nextLabel, margin);
+    }
+
+    /**
+     * Label all pixels that differ from the background gray value
+     *
+     * @param srcRaster gray raster
+     * @param bkGrayColor background gray color (0~255)
+     * @param margin width of the image border left unlabeled
+     * @return number of labels found
+     */
+    public int label(GrayRaster srcRaster, int bkGrayColor, int margin) {
+        prepare(srcRaster.width, srcRaster.height);
+
+        byte[] pixels = srcRaster.pixels;
+        int nextLabel = 1;
+        for (int y = margin; y <= height - margin - 1; y++) {
+            int row = srcRaster.index(0, y);
+            for (int x = margin; x <= width - margin - 1; x++) {
+                if ((pixels[row + x] & 0xff) != bkGrayColor) {
+                    nextLabel = assignProvisionalLabel(x, y, nextLabel);
+                }
+            }
+        }
+
+        return resolveLabels(nextLabel, margin);
+    }
+
+    private void prepare(int imageWidth, int imageHeight) {
+        width = imageWidth;
+        height = imageHeight;
+
+        int pixelCount = width * height;
+        if (labelMap.length < pixelCount) {
+            labelMap = new int[pixelCount];
+        } else {
+            Arrays.fill(labelMap, 0, pixelCount, BACKGROUND);
+        }
+    }
+
+    /**
+     * Give foreground pixel the label of its already scanned neighbours
+     * (W, NW, N, NE), merging their sets, or a new label if there is none
+     *
+     * @return next free provisional label
+     */
+    private int assignProvisionalLabel(int x, int y, int nextLabel) {
+        int row = y * width;
+        int current = BACKGROUND;
+        if (x > 0) {
+            current = union(current, labelMap[row + x - 1]);
+        }
+        if (y > 0) {
+            int upper = row - width + x;
+            if (x > 0) {
+                current = union(current, labelMap[upper - 1]);
+            }
+            current = union(current, labelMap[upper]);
+            if (x < width - 1) {
+                current = union(current, labelMap[upper + 1]);
+            }
+        }
+
+        if (current == BACKGROUND) {
+            if (nextLabel == parent.length) {
+                parent = Arrays.copyOf(parent, parent.length * 2);
+            }
+            parent[nextLabel] = nextLabel;
+            current = nextLabel;
+            nextLabel++;
+        }
+        labelMap[row + x] = current;
+
+        return nextLabel;
+    }
+
+    /**
+     * Second pass: compact provisional labels and collect statistics
+     *
+     * @return number of labels
+     */
+    private int resolveLabels(int nextLabel, int margin) {
+        //Compact roots to final labels in order of first appearance
+        int[] finalLabel = new int[nextLabel];
+        labelCount = 0;
+        for (int q = 1; q < nextLabel; q++) {
+            int root = find(q);
+            if (root == q) {
+                labelCount++;
+                finalLabel[q] = labelCount;
+            }
+        }
+        for (int q = 1; q < nextLabel; q++) {
+            finalLabel[q] = finalLabel[find(q)];
+        }
+
+        resetStatistics(labelCount + 1);
+
+        //Relabel and collect statistics
+        for (int y = margin; y <= height - margin - 1; y++) {
+            int row = y * width;
+            for (int x = margin; x <= width - margin - 1; x++) {
+                int id = labelMap[row + x];
+                if (id == BACKGROUND) {
+                    continue;
+                }
+                id = finalLabel[id];
+                labelMap[row + x] = id;
+
+                area[id]++;
+                sumX[id] += x;
+                sumY[id] += y;
+                if (x < left[id]) {
+                    left[id] = x;
+                }
+                if (x > right[id]) {
+                    right[id] = x;
+                }
+                if (y < top[id]) {
+                    top[id] = y;
+                }
+                if (y > bottom[id]) {
+                    bottom[id] = y;
+                }
+            }
+        }
+
+        return labelCount;
+    }
+
+    /**
+     * Merge the set of a neighbour label into the current set
+     *
+     * @param current current label, or BACKGROUND
+     * @param neighbour neighbour label, or BACKGROUND
+     * @return root label of the merged set
+     */
+    private int union(int current, int neighbour) {
+        if (neighbour == BACKGROUND) {
+            return current;
+        }
+        int rootNeighbour = find(neighbour);
+        if (current == BACKGROUND) {
+            return rootNeighbour;
+        }
+        int rootCurrent = find(current);
+        if (rootCurrent == rootNeighbour) {
+            return rootCurrent;
+        }
+
+        //Smaller label becomes root so labels keep their raster order
+        if (rootCurrent < rootNeighbour) {
+            parent[rootNeighbour] = rootCurrent;
+            return rootCurrent;
+        }
+        parent[rootCurrent] = rootNeighbour;
+        return rootNeighbour;
+    }
+
+    /**
+     * Find root label with path halving
+     */
+    private int find(int id) {
+        while (parent[id] != id) {
+            parent[id] = parent[parent[id]];
+            id = parent[id];
+        }
+        return id;
+    }
+
+    private void resetStatistics(int size) {
+        if (area.length < size) {
+            area = new int[size];
+            left = new int[size];
+            right = new int[size];
+            top = new int[size];
+            bottom = new int[size];
+            sumX = new long[size];
+            sumY = new long[size];
+        }
+        for (int q = 0; q < size; q++) {
+            area[q] = 0;
+            left[q] = Integer.MAX_VALUE;
+            right[q] = -1;
+            top[q] = Integer.MAX_VALUE;
+            bottom[q] = -1;
+            sumX[q] = 0;
+            sumY[q] = 0;
+        }
+    }
+
+    /**
+     * Convert label map to the short[x][y] layout used by
+     * NativeImgProcessing; labels above Short.MAX_VALUE are left as background
+     *
+     * @return label map
+     */
+    public short[][] toShortLabelMap() {
+        short[][] outIDMap = new short[width][height];
+
+        for (int y = 0; y < height; y++) {
+            int row = y * width;
+            for (int x = 0; x < width; x++) {
+                int id = labelMap[row + x];
+                if (id <= Short.MAX_VALUE) {
+                    outIDMap[x][y] = (short) id;
+                }
+            }
+        }
+        return outIDMap;
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    public int getLabelCount() {
+        return labelCount;
+    }
+
+    public int getLabel(int x, int y) {
+        return labelMap[x + y * width];
+    }
+
+    /**
+     * Label map of the last call, row-major (x + y * width); the array may be
+     * longer than width * height since it is reused across calls
+     *
+     * @return label map
+     */
+    public int[] getLabelMap() {
+        return labelMap;
+    }
+
+    public int getArea(int id) {
+        return area[id];
+    }
+
+    public int getLeft(int id) {
+        return left[id];
+    }
+
+    public int getRight(int id) {
+        return right[id];
+    }
+
+    public int getTop(int id) {
+        return top[id];
+    }
+
+    public int getBottom(int id) {
+        return bottom[id];
+    }
+
+    public double getCenterX(int id) {
+        return (double) sumX[id] / area[id];
+    }
+
+    public double getCenterY(int id) {
+        return (double) sumY[id] / area[id];
+    }
+}
@@ -0,0 +1,259 @@
+/*
+ * Filename: DiffImageLabeling.java
+ */
+
+package edu.rice.wormlab.lifespan;
+
+import ij.ImagePlus;
+import ij.process.ByteProcessor;
+import ij.process.ImageProcessor;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Difference of two plate images, binarized, labeled and filtered by region
+ * area in one kernel working on the raw pixel arrays.
+ * Subtraction (image1 - image2, saturated at 0 as Blitter.SUBTRACT does) and
+ * thresholding are done in one pass, split into bands of lines run in
+ * parallel on a fork-join pool or sequentially. The 8-connected regions are
+ * then labeled with ConnectedComponentLabeler, whose label map becomes the
+ * labels array. Regions touching the image border are dropped, as if
+ * imClearBorder had cleared them before labeling: their labels, found on
+ * the border lines of the label map, are left out when labels are
+ * renumbered. Region statistics are collected, and dropped regions as well
+ * as regions whose area is not strictly between the limits are cleared from
+ * the binary image, in the same relabeling pass; regions of rejected area
+ * stay labeled and listed, as they did with SequentialLabeling.
+ * Labels start at START_LABEL, numbered in raster order of the first pixel
+ * of each region, and regions are listed in label order.
+ */
+public class DiffImageLabeling extends RegionLabeling {
+
+    /** default number of lines per band */
+    public static final int DEFAULT_BAND_HEIGHT = 64;
+
+    private static final ForkJoinPool POOL = new ForkJoinPool();
+
+    private final ByteProcessor diffImage;
+    private final ImagePlus binaryImage;
+
+    /**
+     * @param image1 first image
+     * @param image2 second image, subtracted from the first; the part
+     * outside the first image is left out
+     * @param threshold difference at which a pixel becomes white (255)
+     * @param minArea regions must be larger to stay white
+     * @param maxArea regions must be smaller to stay white
+     * @param isParallel true to process bands on the fork-join pool
+     */
+    public DiffImageLabeling(ImageProcessor image1, ImageProcessor image2,
+            int threshold, int minArea, int maxArea, boolean isParallel) {
+        super(image1.getWidth(), image1.getHeight());
+
+        diffImage = new ByteProcessor(width, height);
+        ByteProcessor binary = new ByteProcessor(width, height);
+        subtractAndThreshold(getBytes(image1), width, height, getBytes(image2), image2.getWidth(),
+                image2.getHeight(), (byte[]) diffImage.getPixels(),
+                (byte[]) binary.getPixels(), threshold, isParallel);
+
+        binaryImage = new ImagePlus("binarySubtractedImage", binary);
+        labelAndFilter((byte[]) binary.getPixels(), minArea, maxArea);
+    }
+
+    /**
+     * Labeling is done by the constructor
+     */
+    @Override
+    void applyLabeling() {
+    }
+
+    /**
+     * @return difference image, image1 - image2 saturated at 0
+     */
+    public ByteProcessor getDiffImage() {
+        return diffImage;
+    }
+
+    /**
+     * @return binary difference image, border objects and regions of
+     * rejected area cleared
+     */
+    public ImagePlus getBinaryImage() {
+        return binaryImage;
+    }
+
+    /**
+     * Difference image alone, as the labeling makes it
+     *
+     * @param image1 first image
+     * @param image2 second image, subtracted from the first
+     * @param isParallel true to process bands on the fork-join pool
+     * @return image1 - image2 saturated at 0, the size of image1
+     */
+    public static ByteProcessor subtract(ImageProcessor image1, ImageProcessor image2,
+            boolean isParallel) {
+        ByteProcessor diff = new ByteProcessor(image1.getWidth(), image1.getHeight());
+        subtractAndThreshold(getBytes(image1), image1.getWidth(), image1.getHeight(),
+                getBytes(image2), image2.getWidth(), image2.getHeight(),
+                (byte[]) diff.getPixels(), null, 0, isParallel);
+        return diff;
+    }
+
+    /**
+     * Pixels of an image as 8-bit, converted the way Blitter does
+     */
+    private static byte[] getBytes(ImageProcessor ip) {
+        if (ip instanceof ByteProcessor) {
+            return (byte[]) ip.getPixels();
+        }
+        return (byte[]) ip.convertToByte(true).getPixels();
+    }
+
+    /**
+     * Subtracts and thresholds in bands; binary may be null to subtract only
+     */
+    private static void subtractAndThreshold(byte[] pixels1, int width, int height,
+            byte[] pixels2, int width2, int height2, byte[] diff, byte[] binary,
+            int threshold, boolean isParallel) {
+        final List<BandTask> tasks = new ArrayList<BandTask>();
+        for (int first = 0; first < height; first += DEFAULT_BAND_HEIGHT) {
+            BandTask task = new BandTask(pixels1, pixels2, width, width2, height2,
+                    diff, binary, threshold);
+            task.bandStart = first;
+            task.bandEnd = Math.min(first + DEFAULT_BAND_HEIGHT, height);
+            tasks.add(task);
+        }
+
+        if (isParallel && tasks.size() > 1) {
+            POOL.invoke(new RecursiveAction() {
+                @Override
+                protected void compute() {
+                    invokeAll(tasks);
+                }
+            });
+        } else {
+            for (BandTask task : tasks) {
+                task.compute();
+            }
+        }
+    }
+
+    /**
+     * Subtracts and thresholds the lines of one band
+     */
+    private static class BandTask extends RecursiveAction {
+
+        private final byte[] pixels1;
+        private final byte[] pixels2;
+        private final int width;
+        private final int width2;
+        private final int height2;
+        private final byte[] diff;
+        private final byte[] binary;
+        private final int threshold;
+        private int bandStart;
+        private int bandEnd;
+
+        BandTask(byte[] pixels1, byte[] pixels2, int width, int width2, int height2,
+                byte[] diff, byte[] binary, int threshold) {
+            this.pixels1 = pixels1;
+            this.pixels2 = pixels2;
+            this.width = width;
+            this.width2 = width2;
+            this.height2 = height2;
+            this.diff = diff;
+            this.binary = binary;
+            this.threshold = threshold;
+        }
+
+        @Override
+        protected void compute() {
+            int overlapWidth = Math.min(width, width2);
+            for (int y = bandStart; y < bandEnd; y++) {
+                int row = y * width;
+                int row2 = y * width2;
+                int end = y < height2 ? overlapWidth : 0;
+                for (int x = 0; x < width; x++) {
+                    int value = pixels1[row + x] & 0xff;
+                    if (x < end) {
+                        value = Math.max(0, value - (pixels2[row2 + x] & 0xff));
+                    }
+                    diff[row + x] = (byte) value;
+                    if (binary != null) {
+                        binary[row + x] = value >= threshold ? (byte) 255 : 0;
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Label white pixels, drop regions touching the border, collect the
+     * others and clear those of rejected area
+     */
+    private void labelAndFilter(byte[] binary, int minArea, int maxArea) {
+        ConnectedComponentLabeler labeler = new ConnectedComponentLabeler();
+        int labelCount = labeler.label(new GrayRaster(binary, width, height, 0, width), 0, 0);
+
+        //The labeler is not reused, so its label map (exactly width * height
+        //long) is taken over
+        labels = labeler.getLabelMap();
+
+        //Labels on the first or last line or column are dropped, the others
+        //renumbered keeping their order
+        boolean[] isOnBorder = new boolean[labelCount + 1];
+        int bottomRow = (height - 1) * width;
+        for (int x = 0; x < width; x++) {
+            isOnBorder[labels[x]] = true;
+            isOnBorder[labels[bottomRow + x]] = true;
+        }
+        for (int y = 0; y < height; y++) {
+            isOnBorder[labels[y * width]] = true;
+            isOnBorder[labels[y * width + width - 1]] = true;
+        }
+        BinaryRegion[] regionOf = new BinaryRegion[labelCount + 1];
+        boolean[] isKept = new boolean[labelCount + 1];
+        int regionCount = 0;
+        for (int id = 1; id <= labelCount; id++) {
+            if (isOnBorder[id] == true) {
+                continue;
+            }
+            regionCount++;
+            regionOf[id] = new BinaryRegion(regionCount + START_LABEL - 1);
+            int area = labeler.getArea(id);
+            isKept[id] = area > minArea && area < maxArea;
+        }
+
+        for (int y = 0; y < height; y++) {
+            int row = y * width;
+            for (int x = 0; x < width; x++) {
+                int id = labels[row + x];
+                if (id == ConnectedComponentLabeler.BACKGROUND) {
+                    continue;
+                }
+                BinaryRegion region = regionOf[id];
+                if (region == null) {
+                    labels[row + x] = BACKGROUND;
+                    binary[row + x] = 0;
+                    continue;
+                }
+                labels[row + x] = region.getLabel();
+                region.addPixel(x, y);
+                if (isKept[id] == false) {
+                    binary[row + x] = 0;
+                }
+            }
+        }
+
+        regions = new ArrayList<BinaryRegion>(regionCount);
+        for (int id = 1; id <= labelCount; id++) {
+            if (regionOf[id] != null) {
+                regionOf[id].update();
+                regions.add(regionOf[id]);
+            }
+        }
+        setMaxLabel(regionCount + START_LABEL - 1);
+    }
+}
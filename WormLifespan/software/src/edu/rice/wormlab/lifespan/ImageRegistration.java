@@ -0,0 +1,591 @@
+/*
+ * Filename: ImageRegistration.java
+ */
+
+package edu.rice.wormlab.lifespan;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Finds the translation between two images of the same size, coarse to
+ * fine on image pyramids.
+ * Each pyramid level halves the one below by averaging 2x2 pixels, until
+ * the shift range at the top level is a few pixels. All shifts of that
+ * range are tried at the top level; going down, the best shift is doubled
+ * and only its neighbourhood is tried again, so the work barely grows with
+ * the shift range. At full resolution the images are compared over the
+ * same sampled grid, inside a margin of maxShift, as the exhaustive search
+ * of NativeImgProcessing.alignImage did.
+ * Shifts are compared by the sum of absolute differences (SAD) or by
+ * normalized cross-correlation (NCC). The compared rows of a level are
+ * split into bands that sum all its shifts, run in parallel on a fork-join
+ * pool or sequentially. Ties go to the shift tried first, in order of x
+ * then y.
+ * Optionally the whole-pixel result is refined to sub-pixel precision by
+ * phase correlation of a window at the image center.
+ */
+public class ImageRegistration {
+
+    /** sum of absolute differences */
+    public static final int SAD = 0;
+    /** normalized cross-correlation */
+    public static final int NCC = 1;
+
+    /** default size of the phase correlation window */
+    public static final int DEFAULT_PHASE_WINDOW = 256;
+
+    private static final ForkJoinPool POOL = new ForkJoinPool();
+
+    //Shift range at which no coarser level is made
+    private static final int COARSEST_SHIFT = 4;
+    //Smallest compared area of a level, in pixels per side
+    private static final int MIN_WINDOW = 16;
+    //Neighbourhood of the doubled shift tried at the next finer level
+    private static final int REFINE_RADIUS = 2;
+    //Sampled rows per band of parallel work
+    private static final int BAND_ROWS = 16;
+
+    private boolean isParallel;
+    private int maxShift;
+    private int samplingInterval;
+    private int metric = SAD;
+    private boolean isSubPixel;
+    private int phaseWindow = DEFAULT_PHASE_WINDOW;
+
+    /**
+     * @param maxShift extent of shift, in x and in y
+     * @param samplingInterval interval of compared pixels at full resolution
+     * @param isParallel true to evaluate shifts on the fork-join pool
+     */
+    public ImageRegistration(int maxShift, int samplingInterval, boolean isParallel) {
+        setMaxShift(maxShift);
+        setSamplingInterval(samplingInterval);
+        this.isParallel = isParallel;
+    }
+
+    public boolean isParallel() {
+        return isParallel;
+    }
+
+    public void setParallel(boolean isParallel) {
+        this.isParallel = isParallel;
+    }
+
+    public int getMaxShift() {
+        return maxShift;
+    }
+
+    public void setMaxShift(int maxShift) {
+        if (maxShift < 0) {
+            throw new IllegalArgumentException("Negative shift range: " + maxShift);
+        }
+        this.maxShift = maxShift;
+    }
+
+    public int getSamplingInterval() {
+        return samplingInterval;
+    }
+
+    public void setSamplingInterval(int samplingInterval) {
+        if (samplingInterval < 1) {
+            throw new IllegalArgumentException("Bad sampling interval: " + samplingInterval);
+        }
+        this.samplingInterval = samplingInterval;
+    }
+
+    public int getMetric() {
+        return metric;
+    }
+
+    /**
+     * @param metric SAD or NCC
+     */
+    public void setMetric(int metric) {
+        if (metric != SAD && metric != NCC) {
+            throw new IllegalArgumentException("Unknown metric: " + metric);
+        }
+        this.metric = metric;
+    }
+
+    public boolean isSubPixel() {
+        return isSubPixel;
+    }
+
+    /**
+     * @param isSubPixel true to refine the shift by phase correlation
+     */
+    public void setSubPixel(boolean isSubPixel) {
+        this.isSubPixel = isSubPixel;
+    }
+
+    public int getPhaseWindow() {
+        return phaseWindow;
+    }
+
+    /**
+     * @param phaseWindow largest side of the phase correlation window; it
+     * is rounded down to a power of 2
+     */
+    public void setPhaseWindow(int phaseWindow) {
+        if (phaseWindow < MIN_WINDOW) {
+            throw new IllegalArgumentException("Phase window too small: " + phaseWindow);
+        }
+        this.phaseWindow = phaseWindow;
+    }
+
+    /**
+     * Register moving image onto reference image
+     *
+     * @param reference the reference image
+     * @param moving the moving image, same size as the reference
+     * @return shift of the moving image
+     */
+    public ImageShift register(GrayRaster reference, GrayRaster moving) {
+        if (reference.width != moving.width || reference.height != moving.height) {
+            throw new IllegalArgumentException("Images differ in size: " + reference.width
+                    + "x" + reference.height + " and " + moving.width + "x" + moving.height);
+        }
+        if (reference.width <= 2 * maxShift || reference.height <= 2 * maxShift) {
+            throw new IllegalArgumentException("Shift range " + maxShift
+                    + " too large for " + reference.width + "x" + reference.height);
+        }
+
+        int levelCount = 1;
+        while (getShift(levelCount - 1) > COARSEST_SHIFT
+                && getWindow(levelCount, reference.width) >= MIN_WINDOW
+                && getWindow(levelCount, reference.height) >= MIN_WINDOW) {
+            levelCount++;
+        }
+
+        GrayRaster[] referencePyramid = new GrayRaster[levelCount];
+        GrayRaster[] movingPyramid = new GrayRaster[levelCount];
+        referencePyramid[0] = reference;
+        movingPyramid[0] = moving;
+        for (int level = 1; level < levelCount; level++) {
+            referencePyramid[level] = halve(referencePyramid[level - 1]);
+            movingPyramid[level] = halve(movingPyramid[level - 1]);
+        }
+
+        //Every shift at the top level, then around the doubled best shift
+        int top = levelCount - 1;
+        int topShift = getShift(top);
+        Match best = search(referencePyramid[top], movingPyramid[top], top,
+                -topShift, topShift, -topShift, topShift);
+        for (int level = top - 1; level >= 0; level--) {
+            int shift = getShift(level);
+            int centerX = best.shiftX * 2;
+            int centerY = best.shiftY * 2;
+            best = search(referencePyramid[level], movingPyramid[level], level,
+                    Math.max(-shift, centerX - REFINE_RADIUS), Math.min(shift, centerX + REFINE_RADIUS),
+                    Math.max(-shift, centerY - REFINE_RADIUS), Math.min(shift, centerY + REFINE_RADIUS));
+        }
+
+        if (isSubPixel == true) {
+            double[] residual = phaseCorrelate(reference, moving, best.shiftX, best.shiftY);
+            if (residual != null) {
+                return new ImageShift(best.shiftX + residual[0], best.shiftY + residual[1], best.score);
+            }
+        }
+        return new ImageShift(best.shiftX, best.shiftY, best.score);
+    }
+
+    /**
+     * @return shift range at a pyramid level, rounded up
+     */
+    private int getShift(int level) {
+        return (maxShift + (1 << level) - 1) >> level;
+    }
+
+    /**
+     * @return compared size at a pyramid level, for a side of full size
+     */
+    private int getWindow(int level, int size) {
+        return (size >> level) - 2 * getShift(level);
+    }
+
+    /**
+     * Image of half the size, each pixel the rounded average of 2x2 pixels
+     */
+    private static GrayRaster halve(GrayRaster in) {
+        GrayRaster out = new GrayRaster(in.width / 2, in.height / 2);
+        for (int y = 0; y < out.height; y++) {
+            int row1 = in.index(0, 2 * y);
+            int row2 = row1 + in.stride;
+            int outRow = out.index(0, y);
+            for (int x = 0; x < out.width; x++) {
+                int sum = (in.pixels[row1 + 2 * x] & 0xff) + (in.pixels[row1 + 2 * x + 1] & 0xff)
+                        + (in.pixels[row2 + 2 * x] & 0xff) + (in.pixels[row2 + 2 * x + 1] & 0xff);
+                out.pixels[outRow + x] = (byte) ((sum + 2) >> 2);
+            }
+        }
+        return out;
+    }
+
+    /**
+     * Best shift of a level and its score
+     */
+    private static class Match {
+
+        private final int shiftX;
+        private final int shiftY;
+        private final double score;
+
+        Match(int shiftX, int shiftY, double score) {
+            this.shiftX = shiftX;
+            this.shiftY = shiftY;
+            this.score = score;
+        }
+    }
+
+    /**
+     * Evaluate a rectangle of shifts at one level, over the sampled grid
+     * inside the margin of the level
+     *
+     * @return the best shift
+     */
+    private Match search(GrayRaster reference, GrayRaster moving, int level,
+            int fromX, int toX, int fromY, int toY) {
+        int margin = getShift(level);
+        int step = Math.max(1, samplingInterval >> level);
+        int candidateCount = (toX - fromX + 1) * (toY - fromY + 1);
+        int[] shiftXs = new int[candidateCount];
+        int[] shiftYs = new int[candidateCount];
+        int q = 0;
+        for (int shiftX = fromX; shiftX <= toX; shiftX++) {
+            for (int shiftY = fromY; shiftY <= toY; shiftY++) {
+                shiftXs[q] = shiftX;
+                shiftYs[q] = shiftY;
+                q++;
+            }
+        }
+
+        //Bands of sampled rows; each band sums every shift, so the rows a
+        //band reads stay in cache while the shifts are tried
+        final List<BandTask> tasks = new ArrayList<BandTask>();
+        int endY = reference.height - margin;
+        for (int first = margin; first < endY; first += BAND_ROWS * step) {
+            tasks.add(new BandTask(reference, moving, margin, step, metric, shiftXs, shiftYs,
+                    first, Math.min(first + BAND_ROWS * step, endY)));
+        }
+
+        if (isParallel && tasks.size() > 1) {
+            POOL.invoke(new RecursiveAction() {
+                @Override
+                protected void compute() {
+                    invokeAll(tasks);
+                }
+            });
+        } else {
+            for (BandTask task : tasks) {
+                task.compute();
+            }
+        }
+
+        Match best = null;
+        for (q = 0; q < candidateCount; q++) {
+            double score = getScore(tasks, q);
+            if (best == null || score < best.score) {
+                best = new Match(shiftXs[q], shiftYs[q], score);
+            }
+        }
+        return best;
+    }
+
+    /**
+     * Score of a shift from the sums of all bands; lower is better
+     */
+    private double getScore(List<BandTask> tasks, int candidate) {
+        if (metric == SAD) {
+            long sum = 0;
+            for (BandTask task : tasks) {
+                sum += task.sums[candidate];
+            }
+            return sum;
+        }
+
+        long count = 0;
+        long sum1 = 0;
+        long sum11 = 0;
+        long sum2 = 0;
+        long sum22 = 0;
+        long sum12 = 0;
+        for (BandTask task : tasks) {
+            count += task.count;
+            sum1 += task.sum1;
+            sum11 += task.sum11;
+            sum2 += task.sums[3 * candidate];
+            sum22 += task.sums[3 * candidate + 1];
+            sum12 += task.sums[3 * candidate + 2];
+        }
+        double variance1 = (double) count * sum11 - (double) sum1 * sum1;
+        double variance2 = (double) count * sum22 - (double) sum2 * sum2;
+        double covariance = (double) count * sum12 - (double) sum1 * sum2;
+        double ncc = 0;
+        if (variance1 > 0 && variance2 > 0) {
+            ncc = covariance / Math.sqrt(variance1 * variance2);
+        }
+        return 1 - ncc;
+    }
+
+    /**
+     * Sums the sampled rows of one band for every shift: the absolute
+     * differences (SAD), or the sums of the moving image and of its products
+     * (NCC; the sums of the reference do not depend on the shift)
+     */
+    private static class BandTask extends RecursiveAction {
+
+        private final GrayRaster reference;
+        private final GrayRaster moving;
+        private final int margin;
+        private final int step;
+        private final int metric;
+        private final int[] shiftXs;
+        private final int[] shiftYs;
+        private final int bandStart;
+        private final int bandEnd;
+        private final long[] sums;
+        private long count;
+        private long sum1;
+        private long sum11;
+
+        BandTask(GrayRaster reference, GrayRaster moving, int margin, int step, int metric,
+                int[] shiftXs, int[] shiftYs, int bandStart, int bandEnd) {
+            this.reference = reference;
+            this.moving = moving;
+            this.margin = margin;
+            this.step = step;
+            this.metric = metric;
+            this.shiftXs = shiftXs;
+            this.shiftYs = shiftYs;
+            this.bandStart = bandStart;
+            this.bandEnd = bandEnd;
+            sums = new long[metric == SAD ? shiftXs.length : 3 * shiftXs.length];
+        }
+
+        @Override
+        protected void compute() {
+            byte[] pixels1 = reference.pixels;
+            byte[] pixels2 = moving.pixels;
+            int endX = reference.width - margin;
+
+            for (int y = bandStart; y < bandEnd; y += step) {
+                int row1 = reference.index(0, y);
+                if (metric != SAD) {
+                    for (int x = margin; x < endX; x += step) {
+                        int gray1 = pixels1[row1 + x] & 0xff;
+                        sum1 += gray1;
+                        sum11 += gray1 * gray1;
+                        count++;
+                    }
+                }
+
+                for (int q = 0; q < shiftXs.length; q++) {
+                    int row2 = moving.index(shiftXs[q], y + shiftYs[q]);
+                    if (metric == SAD) {
+                        long sum = 0;
+                        for (int x = margin; x < endX; x += step) {
+                            sum += Math.abs((pixels1[row1 + x] & 0xff) - (pixels2[row2 + x] & 0xff));
+                        }
+                        sums[q] += sum;
+                        continue;
+                    }
+
+                    long sum2 = 0;
+                    long sum22 = 0;
+                    long sum12 = 0;
+                    for (int x = margin; x < endX; x += step) {
+                        int gray1 = pixels1[row1 + x] & 0xff;
+                        int gray2 = pixels2[row2 + x] & 0xff;
+                        sum2 += gray2;
+                        sum22 += gray2 * gray2;
+                        sum12 += gray1 * gray2;
+                    }
+                    sums[3 * q] += sum2;
+                    sums[3 * q + 1] += sum22;
+                    sums[3 * q + 2] += sum12;
+                }
+            }
+        }
+    }
+
+    /**
+     * Sub-pixel shift left between the images once the moving image is
+     * shifted by whole pixels, from the peak of their phase correlation
+     *
+     * @return residual shift {dx, dy}, within one pixel; null when the
+     * window does not fit or the peak is not next to the whole-pixel shift
+     */
+    private double[] phaseCorrelate(GrayRaster reference, GrayRaster moving,
+            int shiftX, int shiftY) {
+        int limit = Math.min(phaseWindow, Math.min(reference.width, reference.height)
+                - 2 * (maxShift + 1));
+        if (limit < MIN_WINDOW) {
+            return null;
+        }
+        int size = Integer.highestOneBit(limit);
+        int x0 = (reference.width - size) / 2;
+        int y0 = (reference.height - size) / 2;
+
+        double[] re1 = window(reference, x0, y0, size);
+        double[] im1 = new double[size * size];
+        double[] re2 = window(moving, x0 + shiftX, y0 + shiftY, size);
+        double[] im2 = new double[size * size];
+        fft2(re1, im1, size, false);
+        fft2(re2, im2, size, false);
+
+        //Normalized cross-power spectrum; its inverse peaks at the shift
+        //of the moving window
+        for (int k = 0; k < re1.length; k++) {
+            double re = re2[k] * re1[k] + im2[k] * im1[k];
+            double im = im2[k] * re1[k] - re2[k] * im1[k];
+            double magnitude = Math.sqrt(re * re + im * im);
+            if (magnitude > 1e-12) {
+                re1[k] = re / magnitude;
+                im1[k] = im / magnitude;
+            } else {
+                re1[k] = 0;
+                im1[k] = 0;
+            }
+        }
+        fft2(re1, im1, size, true);
+
+        int peak = 0;
+        for (int k = 1; k < re1.length; k++) {
+            if (re1[k] > re1[peak]) {
+                peak = k;
+            }
+        }
+        int peakX = peak % size;
+        int peakY = peak / size;
+        double dx = (peakX > size / 2 ? peakX - size : peakX)
+                + interpolatePeak(re1[peakY * size + (peakX + size - 1) % size], re1[peak],
+                        re1[peakY * size + (peakX + 1) % size]);
+        double dy = (peakY > size / 2 ? peakY - size : peakY)
+                + interpolatePeak(re1[(peakY + size - 1) % size * size + peakX], re1[peak],
+                        re1[(peakY + 1) % size * size + peakX]);
+        if (Math.abs(dx) > 1 || Math.abs(dy) > 1) {
+            return null;
+        }
+        return new double[]{dx, dy};
+    }
+
+    /**
+     * Sub-pixel offset of a correlation peak from its larger neighbour,
+     * as the ratio of the neighbour to the neighbour plus the peak (Foroosh
+     * et al.), which fits the sinc-like peak of a phase correlation
+     *
+     * @return offset -0.5 ~ 0.5 from the peak sample
+     */
+    private static double interpolatePeak(double before, double peak, double after) {
+        if (peak <= 0) {
+            return 0;
+        }
+        if (after >= before) {
+            return after > 0 ? after / (after + peak) : 0;
+        }
+        return before > 0 ? -before / (before + peak) : 0;
+    }
+
+    /**
+     * Square of an image, mean removed and tapered by a Hann window
+     */
+    private static double[] window(GrayRaster raster, int x0, int y0, int size) {
+        double[] out = new double[size * size];
+        double mean = 0;
+        for (int y = 0; y < size; y++) {
+            for (int x = 0; x < size; x++) {
+                out[y * size + x] = raster.get(x0 + x, y0 + y);
+                mean += out[y * size + x];
+            }
+        }
+        mean /= out.length;
+
+        double[] hann = new double[size];
+        for (int q = 0; q < size; q++) {
+            hann[q] = 0.5 - 0.5 * Math.cos(2 * Math.PI * q / size);
+        }
+        for (int y = 0; y < size; y++) {
+            for (int x = 0; x < size; x++) {
+                out[y * size + x] = (out[y * size + x] - mean) * hann[x] * hann[y];
+            }
+        }
+        return out;
+    }
+
+    /**
+     * In-place 2D FFT of a square whose side is a power of 2, rows then
+     * columns; the inverse is not scaled
+     */
+    private static void fft2(double[] re, double[] im, int size, boolean isInverse) {
+        double[] lineRe = new double[size];
+        double[] lineIm = new double[size];
+        for (int y = 0; y < size; y++) {
+            System.arraycopy(re, y * size, lineRe, 0, size);
+            System.arraycopy(im, y * size, lineIm, 0, size);
+            fft(lineRe, lineIm, isInverse);
+            System.arraycopy(lineRe, 0, re, y * size, size);
+            System.arraycopy(lineIm, 0, im, y * size, size);
+        }
+        for (int x = 0; x < size; x++) {
+            for (int y = 0; y < size; y++) {
+                lineRe[y] = re[y * size + x];
+                lineIm[y] = im[y * size + x];
+            }
+            fft(lineRe, lineIm, isInverse);
+            for (int y = 0; y < size; y++) {
+                re[y * size + x] = lineRe[y];
+                im[y * size + x] = lineIm[y];
+            }
+        }
+    }
+
+    /**
+     * In-place iterative radix-2 FFT
+     */
+    private static void fft(double[] re, double[] im, boolean isInverse) {
+        int n = re.length;
+        for (int i = 1, j = 0; i < n; i++) {
+            int bit = n >> 1;
+            while ((j & bit) != 0) {
+                j ^= bit;
+                bit >>= 1;
+            }
+            j ^= bit;
+            if (i < j) {
+                double swap = re[i];
+                re[i] = re[j];
+                re[j] = swap;
+                swap = im[i];
+                im[i] = im[j];
+                im[j] = swap;
+            }
+        }
+
+        for (int length = 2; length <= n; length <<= 1) {
+            double angle = (isInverse ? 2 : -2) * Math.PI / length;
+            double stepRe = Math.cos(angle);
+            double stepIm = Math.sin(angle);
+            int half = length / 2;
+            for (int start = 0; start < n; start += length) {
+                double wRe = 1;
+                double wIm = 0;
+                for (int k = 0; k < half; k++) {
+                    int a = start + k;
+                    int b = a + half;
+                    double tRe = re[b] * wRe - im[b] * wIm;
+                    double tIm = re[b] * wIm + im[b] * wRe;
+                    re[b] = re[a] - tRe;
+                    im[b] = im[a] - tIm;
+                    re[a] += tRe;
+                    im[a] += tIm;
+                    double nextRe = wRe * stepRe - wIm * stepIm;
+                    wIm = wRe * stepIm + wIm * stepRe;
+                    wRe = nextRe;
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,116 @@
+/*
+ * Filename: ImageShift.java
+ */
+
+package edu.rice.wormlab.lifespan;
+
+import java.util.Arrays;
+
+/**
+ * Translation found by ImageRegistration: the moving image matches the
+ * reference image when pixel (x + dx, y + dy) of the moving image is put at
+ * (x, y). The shift is whole pixels unless sub-pixel registration was asked
+ * for.
+ */
+public class ImageShift {
+
+    private final double dx;
+    private final double dy;
+    private final double score;
+
+    /**
+     * @param dx shift in x
+     * @param dy shift in y
+     * @param score metric value at the shift at full resolution; lower is
+     * better
+     */
+    public ImageShift(double dx, double dy, double score) {
+        this.dx = dx;
+        this.dy = dy;
+        this.score = score;
+    }
+
+    public double getDx() {
+        return dx;
+    }
+
+    public double getDy() {
+        return dy;
+    }
+
+    public double getScore() {
+        return score;
+    }
+
+    /**
+     * @return true when the images are aligned as they are
+     */
+    public boolean isIdentity() {
+        return dx == 0 && dy == 0;
+    }
+
+    /**
+     * @return true when the shift is whole pixels
+     */
+    public boolean isInteger() {
+        return dx == Math.rint(dx) && dy == Math.rint(dy);
+    }
+
+    /**
+     * Render the moving image aligned to the reference; whole-pixel shifts
+     * copy pixels, others interpolate bilinearly
+     *
+     * @param moving the moving image
+     * @param fill gray value (0~255) of pixels that come from outside the
+     * moving image
+     * @return new raster of the size of the moving image
+     */
+    public GrayRaster apply(GrayRaster moving, int fill) {
+        GrayRaster out = new GrayRaster(moving.width, moving.height);
+        if (isInteger() == true) {
+            int shiftX = (int) dx;
+            int shiftY = (int) dy;
+            int fromX = Math.max(0, -shiftX);
+            int toX = Math.min(moving.width, moving.width - shiftX);
+            for (int y = 0; y < out.height; y++) {
+                int row = out.index(0, y);
+                if (y + shiftY < 0 || y + shiftY >= moving.height || fromX >= toX) {
+                    Arrays.fill(out.pixels, row, row + out.width, (byte) fill);
+                    continue;
+                }
+                Arrays.fill(out.pixels, row, row + fromX, (byte) fill);
+                System.arraycopy(moving.pixels, moving.index(fromX + shiftX, y + shiftY),
+                        out.pixels, row + fromX, toX - fromX);
+                Arrays.fill(out.pixels, row + toX, row + out.width, (byte) fill);
+            }
+            return out;
+        }
+
+        for (int y = 0; y < out.height; y++) {
+            double sourceY = y + dy;
+            int y0 = (int) Math.floor(sourceY);
+            double fy = sourceY - y0;
+            for (int x = 0; x < out.width; x++) {
+                double sourceX = x + dx;
+                int x0 = (int) Math.floor(sourceX);
+                double fx = sourceX - x0;
+                //The next pixel is only needed when it has some weight
+                int x1 = fx > 0 ? x0 + 1 : x0;
+                int y1 = fy > 0 ? y0 + 1 : y0;
+                if (x0 < 0 || y0 < 0 || x1 >= moving.width || y1 >= moving.height) {
+                    out.set(x, y, fill);
+                    continue;
+                }
+                double top = moving.get(x0, y0) * (1 - fx) + moving.get(x1, y0) * fx;
+                double bottom = moving.get(x0, y1) * (1 - fx) + moving.get(x1, y1) * fx;
+                out.set(x, y, (int) Math.round(top * (1 - fy) + bottom * fy));
+            }
+        }
+        return out;
+    }
+
+    @Override
+    public String toString() {
+        return "shift (" + dx + ", " + dy + ")";
+    }
+}
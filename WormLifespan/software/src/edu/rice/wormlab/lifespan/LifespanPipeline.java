@@ -0,0 +1,411 @@
+/*
+ * Filename: LifespanPipeline.java
+ */
+
+package edu.rice.wormlab.lifespan;
+
+import ij.ImagePlus;
+import ij.process.ImageConverter;
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * Image-processing core of the lifespan assay, without any user interface.
+ * The images of a plate pair are assembled and aligned, the differential
+ * image and the binarized image 2 are labeled, and moving worms are found.
+ * The pipeline keeps no state of its own besides the detection condition:
+ * every run works on a new PlateAnalysis, so one pipeline can process
+ * several plates on several threads at once as long as the detection
+ * condition is not changed meanwhile.
+ */
+public class LifespanPipeline {
+
+    /** largest shift, in pixels, when aligning image 1 to image 2 */
+    public static final int ALIGNMENT_MAX_SHIFT = 10;
+
+    /** sampling interval, in pixels, when aligning image 1 to image 2 */
+    public static final int ALIGNMENT_SAMPLING_INTERVAL = 10;
+
+    /** difference at which a pixel of the differential image becomes white */
+    public static final int DIFF_THRESHOLD = 20;
+
+    private final DetectionCondition wormSetting;
+
+    /**
+     * @param wormSetting the worm detection parameters
+     */
+    public LifespanPipeline(DetectionCondition wormSetting) {
+        if (wormSetting == null) {
+            throw new IllegalArgumentException("Detection condition is null");
+        }
+        this.wormSetting = wormSetting;
+    }
+
+    /**
+     * @return the worm detection parameters
+     */
+    public DetectionCondition getDetectionCondition() {
+        return wormSetting;
+    }
+
+    /**
+     * Finds the moving worms of a plate pair; the worms list is made via
+     * image-processing, results files are not read
+     *
+     * @param folder1 folder of the first (before) images
+     * @param folder2 folder of the second (after) images
+     * @return the analysis, with the ordered worms list or the error
+     */
+    public PlateAnalysis process(File folder1, File folder2) {
+        PlateAnalysis analysis = processImages(folder1, folder2);
+        if (analysis.errors != null) {
+            return analysis;
+        }; // if
+        detectWorms(analysis);
+        return analysis;
+    }
+
+    /**
+     * Finds and orders the worms of processed images into the worms list of
+     * the analysis; its errors are set when the ordering loses worms
+     *
+     * @param analysis the analysis, images processed
+     */
+    void detectWorms(PlateAnalysis analysis) {
+        List<WormInfo> wormsList = findWorms(analysis);
+        int wormCount = 0;
+        for (WormInfo each : wormsList) {
+            wormCount += each.nLive;
+        }; // for
+        int verifyWormCount = orderWorms(wormsList);
+        if (wormCount != verifyWormCount) {
+            analysis.errors = "Error in worm-count! worm count: " + wormCount
+                    + ", verify count: " + verifyWormCount;
+            return;
+        }; // if
+        analysis.wormsList = wormsList;
+    }
+
+    /**
+     * Assembles and aligns the images of a plate pair, then makes and labels
+     * the differential image and the binarized image 2
+     *
+     * @param folder1 folder of the first (before) images
+     * @param folder2 folder of the second (after) images
+     * @return the analysis, without worms list; its errors tell whether
+     * things went OK
+     */
+    public PlateAnalysis processImages(File folder1, File folder2) {
+        PlateAnalysis analysis = new PlateAnalysis(folder1, folder2);
+
+        // get the scanner-log for the purpose of assembling image
+        ScannerLog scannerLog = ScannerLog.readLog(folder1);
+        String error = scannerLog.getErrors();
+        if (error != null) {
+            analysis.errors = error;
+            return analysis;
+        }; // if
+
+        NativeImgProcessing imgProc = new NativeImgProcessing();
+        analysis.assembled1 = Utilities.assembleImage_Reload(folder1.getAbsolutePath(), scannerLog);
+        // we expect that the same scannerLog can be used for folder2
+        analysis.assembled2 = Utilities.assembleImage_Reload(folder2.getAbsolutePath(), scannerLog);
+        if (analysis.assembled1 == null || analysis.assembled2 == null) {
+            analysis.errors = "Unable to assemble the images of " + folder1.getAbsolutePath()
+                    + " and " + folder2.getAbsolutePath();
+            return analysis;
+        }; // if
+
+        // Auto alignment
+        BufferedImage assembled1Aligned = imgProc.alignImage(
+                analysis.assembled1.getBufferedImage(), analysis.assembled2.getBufferedImage(),
+                ALIGNMENT_MAX_SHIFT, ALIGNMENT_SAMPLING_INTERVAL);
+        if (assembled1Aligned != null) {
+            imgProc.saveImage(assembled1Aligned, "jpeg", folder1.getAbsolutePath()
+                    + File.separator + Utilities.ASSEMBLED_JPEG);
+            analysis.assembled1 = Utilities.assembleImage_Reload(folder1.getAbsolutePath(), scannerLog);
+        }; // if
+
+        processAssembledImages(analysis, binarizeImage2(analysis.assembled2, imgProc));
+        return analysis;
+    }
+
+    /**
+     * Makes and labels the differential image of assembled, aligned images,
+     * and labels the binarized image 2
+     *
+     * @param analysis the analysis, assembled1 (aligned) and assembled2 set
+     * @param assembled2_bw binarized image 2, see binarizeImage2
+     */
+    void processAssembledImages(PlateAnalysis analysis, ImagePlus assembled2_bw) {
+        processDiffImage(analysis);
+        labelImage2(analysis, assembled2_bw);
+    }
+
+    /**
+     * Creates the differential image (image1-image2) and binarySubtractedImage:
+     * the binarized differential image, without objects touching the border
+     * or of rejected size, labeled into sq_sub
+     */
+    private void processDiffImage(PlateAnalysis analysis) {
+        DiffImageLabeling diffLabeling = new DiffImageLabeling(
+                analysis.assembled1.getProcessor(), analysis.assembled2.getProcessor(), DIFF_THRESHOLD,
+                wormSetting.min_DiffPixelCount_Of_Worm_In_DiffBinaryImage,
+                wormSetting.max_WormSize, true);
+        analysis.substractedImage = new ImagePlus("substractedImage", diffLabeling.getDiffImage());
+        analysis.binarySubtractedImage = diffLabeling.getBinaryImage();
+        analysis.sq_sub = diffLabeling;
+    }
+
+    /**
+     * Process image2 to create binary image applying adaptive thresholding
+     *
+     * @param assembled2 the assembled image 2
+     * @param imgProc image-processing object to work with
+     * @return 8-bit binary image, 0 or 255
+     */
+    static ImagePlus binarizeImage2(ImagePlus assembled2, NativeImgProcessing imgProc) {
+        ImagePlus assembled2_bw = assembled2.duplicate();
+
+        //Binarize image
+        short[][] srcPixelArray;
+        srcPixelArray = imgProc.convert_Image_To_GrayShortArray(
+                assembled2_bw.getProcessor().convertToRGB().getBufferedImage());
+
+        BufferedImage imgBW =
+                imgProc.adaptiveThresholding_Core(srcPixelArray, 15, 0.2f, 200);
+        assembled2_bw.setImage(imgBW);
+
+        if (assembled2_bw.getBitDepth() != 8) {
+            ImageConverter icv = new ImageConverter(assembled2_bw);
+            icv.convertToGray8();
+        }; // if
+        return assembled2_bw;
+    }
+
+    /**
+     * Conduct region labeling of the binarized image 2 to identify worms
+     */
+    private void labelImage2(PlateAnalysis analysis, ImagePlus assembled2_bw) {
+        analysis.assembled2_bw = assembled2_bw;
+        analysis.assembled2_bw_beforeRemovingBorder = assembled2_bw.duplicate();
+
+        //Label and measure
+        RegionLabeling sq = new UnionFindLabeling(assembled2_bw.getProcessor());
+        analysis.sq = sq;
+
+        //for collecting selected image
+        List<BinaryRegion> roiList = new LinkedList<BinaryRegion>();
+        for (BinaryRegion br : sq.regions) {
+            double area = br.getSize();
+            Rectangle regionBoundingBox = br.getBoundingBox();
+            if (area > wormSetting.min_WormSize && area < wormSetting.max_WormSize) {
+                if (regionBoundingBox.getWidth() > 16 || regionBoundingBox.getHeight() > 16) {
+                    roiList.add(br);
+                }; // if
+            }; // if
+        }; // for
+        analysis.roiList = roiList;
+    }
+
+    /**
+     * Makes the worms list de novo from the labeled images: regions of image 2
+     * with the size of a worm, trimmed to those that moved, plus the worms
+     * found only in the differential image
+     *
+     * @param analysis the analysis, images processed
+     * @return the worms list, unordered
+     */
+    public List<WormInfo> findWorms(PlateAnalysis analysis) {
+        List<WormInfo> wormsList = new ArrayList<WormInfo>();
+        Iterator<BinaryRegion> roiIterator = analysis.roiList.iterator();
+        while (roiIterator.hasNext()) {
+            BinaryRegion roi = (BinaryRegion) roiIterator.next();
+            Rectangle rec = roi.getBoundingBox();
+            WormInfo info = new WormInfo();
+            info.pX = rec.x;
+            info.pY = rec.y;
+            info.width = rec.width;
+            info.height = rec.height;
+            info.nLive = 1;
+            info.label = roi.getLabel();
+            info.deleted = false;
+            info.isWormFoundInDiffImage = false;
+            wormsList.add(info);
+        }; // while
+
+        trimWormsList(analysis, wormsList);
+
+        findMissingWorms_From_DiffImage(analysis, wormsList);
+        return wormsList;
+    }
+
+    /**
+     * Orders a worms list: sorted, then worms attached to each other are
+     * grouped next to each other
+     *
+     * @param wormsList the worms list, ordered in place
+     * @return number of live worms in the ordered list
+     */
+    public static int orderWorms(List<WormInfo> wormsList) {
+        // place the objects into a set for sorting purposes
+        Set<WormInfo> wormInfoSet = new TreeSet<WormInfo>(wormsList);
+
+        // copy them back ordered
+        wormsList.clear();
+        int verifyWormCount = 0;
+        for (WormInfo each : wormInfoSet) {
+            wormsList.add(each);
+            verifyWormCount += each.nLive;
+        }; // for
+
+        //Conduct grouping for attached findings
+        int marginIntersect = 3;
+        for (int i = 0; i < wormsList.size(); i++) {
+
+            for (int j = i + 1; j < wormsList.size(); j++) {
+                WormInfo curWormsList = wormsList.get(i);
+                WormInfo nextWormsList = wormsList.get(j);
+                Rectangle curRectangle = new Rectangle(curWormsList.pX - marginIntersect,
+                        curWormsList.pY - marginIntersect,
+                        curWormsList.width + marginIntersect * 2,
+                        curWormsList.height + marginIntersect * 2);
+                Rectangle nextRectangle = new Rectangle(nextWormsList.pX - marginIntersect,
+                        nextWormsList.pY - marginIntersect,
+                        nextWormsList.width + marginIntersect * 2,
+                        nextWormsList.height + marginIntersect * 2);
+                if (curRectangle.intersects(nextRectangle)) {
+                    wormsList.remove(j);
+                    wormsList.add(i + 1, nextWormsList);
+                }
+            }
+        }
+        return verifyWormCount;
+    }
+
+    /**
+     * Spatial index of a worms-list, keyed on the bounding boxes
+     * @param wormsList the worms list
+     * @param image the image the worms are in
+     * @return the index, worms in list order
+     */
+    static RectangleIndex<WormInfo> getWormsIndex(List<WormInfo> wormsList, ImagePlus image) {
+        RectangleIndex<WormInfo> wormsIndex = new RectangleIndex<WormInfo>(
+                image.getWidth(), image.getHeight());
+        for (WormInfo worm : wormsList) {
+            wormsIndex.add(new Rectangle(worm.pX, worm.pY, worm.width, worm.height), worm);
+        }; // for
+        return wormsIndex;
+    }
+
+    /**
+     * Excludes invalid findings that have negligible white area in subtracted bw image;
+     * the white areas of all regions are measured in one pass over the plate, as the
+     * worms of the de novo list have the bounding boxes of their regions
+     */
+    private void trimWormsList(PlateAnalysis analysis, List<WormInfo> wormsList) {
+        RegionDiffStatistics diffStatistics = new RegionDiffStatistics(analysis.sq,
+                analysis.assembled2_bw.getProcessor(), analysis.substractedImage.getProcessor(),
+                wormSetting.min_GrayDiff_In_DiffImage);
+
+        for (int k = 0; k < wormsList.size(); k++) {
+            WormInfo worm = wormsList.get(k);
+            int maxWhiteCount = diffStatistics.getMaxWhiteCount(worm.label);
+
+            //Excluding invalid findings
+            if (maxWhiteCount < wormSetting.min_WhitePixelCount_In_DiffImage) {
+                worm.nLive = 0;
+                wormsList.remove(k);
+                k--;
+            } else {
+                worm.nLive = 1;
+            }
+        }
+    }
+
+    /**
+     * Check if object is excluded in big regions
+     * @param analysis the analysis
+     * @param brObject region of the differential image
+     * @param isBigObjectLabel big-object flags of the labels of image 2, see getBigObjectLabels
+     * @return true when a pixel of the object lies in a big region
+     */
+    private static boolean isObjectInExcludedBigObject(PlateAnalysis analysis, BinaryRegion brObject,
+            boolean[] isBigObjectLabel) {
+        int width = analysis.binarySubtractedImage.getWidth();
+        Rectangle rec = brObject.getBoundingBox();
+        int label_Object_In_Diff = brObject.getLabel();
+
+        for (int y = rec.y; y < rec.y + rec.height; y++) {
+            for (int x = rec.x; x < rec.x + rec.width; x++) {
+                if (analysis.sq_sub.labels[y * width + x] == label_Object_In_Diff
+                        && isBigObjectLabel[analysis.sq.labels[y * width + x]]) {
+                    return true;
+                }
+            }
+        }
+
+        return false;
+    }
+
+    /**
+     * Flags the regions of image 2 that are too big to be worms
+     * @return array indexed by label of image 2, true for the big regions
+     */
+    private boolean[] getBigObjectLabels(RegionLabeling sq) {
+        // labels never exceed the max label, background and foreground marks included
+        boolean[] isBigObjectLabel = new boolean[Math.max(sq.getMaxLabel(), sq.START_LABEL) + 1];
+        for (BinaryRegion br : sq.regions) {
+            if (br.getSize() > wormSetting.max_WormSize) {
+                isBigObjectLabel[br.getLabel()] = true;
+            }
+        }
+        return isBigObjectLabel;
+    }
+
+    /**
+     * Find missing worms from differential image
+     */
+    private void findMissingWorms_From_DiffImage(PlateAnalysis analysis, List<WormInfo> wormsList) {
+        RectangleIndex<WormInfo> wormsIndex = getWormsIndex(wormsList, analysis.assembled2);
+        boolean[] isBigObjectLabel = getBigObjectLabels(analysis.sq);
+
+        for (BinaryRegion br : analysis.sq_sub.regions) {
+            double area = br.getSize();
+            if (area > wormSetting.min_MissingWormSize_In_DiffImage && area < wormSetting.max_WormSize) {
+                Rectangle rec = br.getBoundingBox();
+
+                //Find existing worms
+                boolean isWormFound = false;
+                for (WormInfo worm : wormsIndex.getIntersecting(rec)) {
+                    if (worm.deleted == false) {
+                        isWormFound = true;
+                        break;
+                    }
+                }
+
+                if (isWormFound == false
+                        && isObjectInExcludedBigObject(analysis, br, isBigObjectLabel)) {
+                    WormInfo newWorm = new WormInfo();
+                    newWorm.nLive = 1;
+                    newWorm.pX = rec.x;
+                    newWorm.pY = rec.y;
+                    newWorm.width = rec.width;
+                    newWorm.height = rec.height;
+                    newWorm.label = br.getLabel();
+                    newWorm.deleted = false;
+                    newWorm.isWormFoundInDiffImage = true;
+                    wormsList.add(newWorm);
+                    wormsIndex.add(rec, newWorm);
+                }
+            } //if
+        } //for
+    }
+}
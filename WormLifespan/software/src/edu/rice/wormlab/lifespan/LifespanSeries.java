@@ -0,0 +1,204 @@
+/*
+ * Filename: LifespanSeries.java
+ */
+
+package edu.rice.wormlab.lifespan;
+
+import ij.ImagePlus;
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Processes the whole timeline of a plate, day 1..N, in one run: every pair
+ * of consecutive days is a plate pair whose moving worms are found, with the
+ * results written into the folder of the later day.
+ * Each day is assembled and binarized once (see SeriesDay, which caches both
+ * next to the images), and only two days are held at a time. Each day is
+ * aligned to the next one by ImageRegistration on the raw rasters; the
+ * aligned image stays in memory, so the assembled images on disk are left
+ * as they are, unlike in the processing of a single plate pair.
+ */
+public class LifespanSeries {
+
+    private final LifespanPipeline pipeline;
+    private final List<File> dayFolders;
+    private final List<ImageShift> shiftsList = new ArrayList<ImageShift>();
+    private final List<List<WormInfo>> wormsLists = new ArrayList<List<WormInfo>>();
+
+    /**
+     * @param pipeline the pipeline finding the worms
+     * @param dayFolders folders of the days, in order; at least two
+     */
+    public LifespanSeries(LifespanPipeline pipeline, List<File> dayFolders) {
+        if (pipeline == null || dayFolders == null || dayFolders.size() < 2) {
+            throw new IllegalArgumentException("A series needs a pipeline and at least two days");
+        }
+        this.pipeline = pipeline;
+        this.dayFolders = new ArrayList<File>(dayFolders);
+    }
+
+    /**
+     * Processes the pairs of consecutive days and writes their results
+     *
+     * @return outcome-map of the folders of the later days with message
+     * (error or null); pairs after a day that cannot be read are not processed
+     */
+    public Map<String, String> process() {
+        Map<String, String> outcomeMap = new TreeMap<String, String>();
+        shiftsList.clear();
+        wormsLists.clear();
+        NativeImgProcessing imgProc = new NativeImgProcessing();
+
+        String error = null;
+        SeriesDay previousDay = loadDay(dayFolders.get(0));
+        if (previousDay == null) {
+            error = "Unable to assemble the image of " + dayFolders.get(0).getAbsolutePath();
+        }; // if
+        for (int i = 1; i < dayFolders.size(); i++) {
+            File folder = dayFolders.get(i);
+            if (error != null) {
+                outcomeMap.put(folder.getAbsolutePath(), error);
+                continue;
+            }; // if
+            SeriesDay day = loadDay(folder);
+            if (day == null) {
+                error = "Unable to assemble the image of " + folder.getAbsolutePath();
+                outcomeMap.put(folder.getAbsolutePath(), error);
+                continue;
+            }; // if
+
+            outcomeMap.put(folder.getAbsolutePath(), processPair(previousDay, day, imgProc));
+            previousDay = day;
+        }; // for
+        return outcomeMap;
+    }
+
+    /**
+     * Shifts of the days, see ImageShift; shift i aligns day i to day i + 1,
+     * null when the two days could not be aligned
+     *
+     * @return the shifts of the pairs processed
+     */
+    public List<ImageShift> getShifts() {
+        return Collections.unmodifiableList(shiftsList);
+    }
+
+    /**
+     * Worms lists of the pairs; list i is for days i and i + 1, null when
+     * the pair failed
+     *
+     * @return the worms lists of the pairs processed
+     */
+    public List<List<WormInfo>> getWormsLists() {
+        return Collections.unmodifiableList(wormsLists);
+    }
+
+    /**
+     * Loads a day, or returns null when its image cannot be assembled
+     */
+    private static SeriesDay loadDay(File folder) {
+        ScannerLog scannerLog = ScannerLog.readLog(folder);
+        if (scannerLog.getErrors() != null) {
+            System.out.println(scannerLog.getErrors());
+            return null;
+        }; // if
+        return SeriesDay.load(folder, scannerLog);
+    }
+
+    /**
+     * Aligns day 1 to day 2, finds the worms and writes the results into the
+     * folder of day 2
+     *
+     * @return null when things go OK, otherwise an error message
+     */
+    private String processPair(SeriesDay day1, SeriesDay day2, NativeImgProcessing imgProc) {
+        wormsLists.add(null);
+        ImageShift shift;
+        try {
+            shift = new ImageRegistration(LifespanPipeline.ALIGNMENT_MAX_SHIFT,
+                    LifespanPipeline.ALIGNMENT_SAMPLING_INTERVAL, true).register(
+                    day2.getRaster(), day1.getRaster());
+        } catch (IllegalArgumentException e) {
+            // e.g. the assembled images of the two days differ in size
+            shiftsList.add(null);
+            return "Unable to align " + day1.getFolder().getAbsolutePath() + " to "
+                    + day2.getFolder().getAbsolutePath() + ": " + e.getMessage();
+        }; // try
+        shiftsList.add(shift);
+
+        PlateAnalysis analysis = new PlateAnalysis(day1.getFolder(), day2.getFolder());
+        if (shift.isIdentity() == true) {
+            analysis.assembled1 = day1.getImage();
+        } else {
+            analysis.assembled1 = new ImagePlus("aligned",
+                    shift.apply(day1.getRaster(), 255).toByteProcessor());
+            analysis.shift1 = shift;
+        }; // if
+        analysis.assembled2 = day2.getImage();
+        pipeline.processAssembledImages(analysis, day2.getBinaryImage(imgProc));
+        pipeline.detectWorms(analysis);
+        if (analysis.getErrors() != null) {
+            return analysis.getErrors();
+        }; // if
+        wormsLists.set(wormsLists.size() - 1, analysis.getWormsList());
+
+        String error = day2.saveCache();
+        if (error != null) {
+            // the cache only saves time, the results are still good
+            System.out.println(error);
+        }; // if
+        error = day1.saveCache();
+        if (error != null) {
+            System.out.println(error);
+        }; // if
+
+        File resultsFile = new File(day2.getFolder(), MotionDetection.N_LIVE_RESULTS_TXT);
+        if (resultsFile.exists() == true) {
+            resultsFile.delete();
+        }; // if
+        ResultsSidecar.delete(day2.getFolder());
+        error = MotionDetection.writeInspectionResults(false, analysis.getWormsList(),
+                analysis.getFolder(), analysis.getAssembledImage());
+        if (error != null) {
+            return error;
+        }; // if
+        error = ResultsSidecar.write(analysis, analysis.getWormsList(), pipeline.getDetectionCondition());
+        if (error != null) {
+            System.out.println(error);
+        }; // if
+        return null;
+    }
+
+    /**
+     * Runs a series without user interface
+     *
+     * @param args the folders of the days, in order
+     */
+    public static void main(String[] args) {
+        if (args.length < 2) {
+            System.out.println("Usage: LifespanSeries day1-folder day2-folder [... dayN-folder]");
+            System.exit(1);
+        }; // if
+        List<File> dayFolders = new ArrayList<File>();
+        for (String each : args) {
+            dayFolders.add(new File(each));
+        }; // for
+        LifespanSeries series = new LifespanSeries(
+                new LifespanPipeline(new DetectionCondition()), dayFolders);
+        Map<String, String> outcomeMap = series.process();
+        for (int i = 0; i < series.getShifts().size(); i++) {
+            List<WormInfo> wormsList = series.getWormsLists().get(i);
+            System.out.println(dayFolders.get(i + 1).getAbsolutePath() + ": " + series.getShifts().get(i)
+                    + ", " + (wormsList == null ? "failed" : wormsList.size() + " worms"));
+        }; // for
+        for (Map.Entry<String, String> each : outcomeMap.entrySet()) {
+            if (each.getValue() != null) {
+                System.out.println(each.getKey() + " " + each.getValue());
+            }; // if
+        }; // for
+    }
+}
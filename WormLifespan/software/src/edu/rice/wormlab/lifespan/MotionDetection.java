@@ -9,17 +9,14 @@ import ij.ImagePlus;
 import ij.gui.NewImage;
 import ij.gui.Roi;
 import ij.io.FileSaver;
-import ij.process.Blitter;
 import ij.process.ByteProcessor;
 import ij.process.ColorProcessor;
-import ij.process.ImageConverter;
 import ij.process.ImageProcessor;
 import ij.process.TypeConverter;
 import java.awt.Color;
 import java.awt.Dimension;
 import java.awt.GridBagLayout;
 import java.awt.Insets;
-import java.awt.Rectangle;
 import java.awt.event.ActionEvent;
 import java.awt.event.ActionListener;
 import java.awt.event.KeyEvent;
@@ -28,7 +25,6 @@ import java.awt.event.MouseAdapter;
 import java.awt.event.MouseEvent;
 import java.awt.event.WindowAdapter;
 import java.awt.event.WindowEvent;
-import java.awt.image.BufferedImage;
 import java.io.BufferedReader;
 import java.io.BufferedWriter;
 import java.io.File;
@@ -39,11 +35,7 @@ import java.io.IOException;
 import java.io.PrintWriter;
 import java.util.ArrayList;
 import java.util.Date;
-import java.util.Iterator;
-import java.util.LinkedList;
 import java.util.List;
-import java.util.Set;
-import java.util.TreeSet;
 import javax.swing.ImageIcon;
 import javax.swing.JButton;
 import javax.swing.JComponent;
@@ -96,8 +88,8 @@ public final class MotionDetection implements ChangeListener, KeyListener {
     // size-height of button
     private final int BUTTON_HEIGHT = 200;
     private DetectionCondition wormSetting = new DetectionCondition();
-    private SequentialLabeling sq_sub = null;
-    private SequentialLabeling sq = null;
+    private RegionLabeling sq_sub = null;
+    private RegionLabeling sq = null;
     private List<BinaryRegion> roiList = null;
     ImagePlus assembled1 = null;
     ImagePlus assembled2 = null;
@@ -122,13 +114,15 @@ public final class MotionDetection implements ChangeListener, KeyListener {
     private SpinnerModel[] spinnerModel = null;
     private List<WormInfo> wormsList = null;
     private List<Integer> wormsOriginalList = null;
-    private List<ImageIcon> wormColorIconList = null;
-    private List<ImageIcon> wormColorIcon2List = null;
+    // icons of the worms, rendered page by page
+    private WormIconCache iconCache = null;
     private JPopupMenu popupMenu = null;
     private File folder1;
     private File folder2;
     private final JFrame parentFrame;
-    private NativeImgProcessing imgProc = new NativeImgProcessing();
+    private final LifespanPipeline pipeline = new LifespanPipeline(wormSetting);
+    // images and labelings of the folders, made by the pipeline
+    private PlateAnalysis plateAnalysis = null;
 
     
     /**
@@ -205,46 +199,34 @@ public final class MotionDetection implements ChangeListener, KeyListener {
 	 * @return  null when things go OK, otherwise it returns an error message
 	 */
 	public String do_imageProcessing( List<WormInfo> list ) {
-		// get the scanner-log for the purpose of assembling image
-		ScannerLog scannerLog = null;
-		
 		roiList = null;
 		wormsOriginalList = null;
-		wormColorIconList = null;
-		wormColorIcon2List = null;
+		stopIconCache();
 		
 		// when the list is null, a few things do have to be always be processed
 		if( list == null ) {
-			scannerLog = ScannerLog.readLog(folder1);
-			String error = scannerLog.getErrors();
-			if (error != null) {
-				return error;
-			}; // if
-
 			assembled2_bw = null;
 			wormsList = null;
 			sq = null;
 			sq_sub = null;
 			binarySubtractedImage = null;
-			assembled1 = Utilities.assembleImage_Reload(folder1.getAbsolutePath(), scannerLog);
-			// we expect that the same scannerLog can be used for folder2
-			assembled2 = Utilities.assembleImage_Reload(folder2.getAbsolutePath(), scannerLog);
-		
-			// Auto alignment
-			BufferedImage assembled1Aligned = imgProc.alignImage(
-				assembled1.getBufferedImage(), assembled2.getBufferedImage(), 10, 10);
-			if (assembled1Aligned != null) {
-				imgProc.saveImage(assembled1Aligned, "jpeg", folder1.getAbsolutePath()
-					+ File.separator + Utilities.ASSEMBLED_JPEG );
-				assembled1 = Utilities.assembleImage_Reload(folder1.getAbsolutePath(), scannerLog);
-			}
-		
-			// image1-image2
-			substractedImage = NewImage.createByteImage("substractedImage", assembled1.getWidth(), assembled1.getHeight(), 1, NewImage.FILL_BLACK);
-			ImageProcessor ipSub1 = substractedImage.getProcessor();
-			ipSub1.copyBits(assembled1.getProcessor(), 0, 0, Blitter.ADD);
-			ipSub1.copyBits(assembled2.getProcessor(), 0, 0, Blitter.SUBTRACT);
-		
+			// the sidecar of the results file spares processing the images again
+			plateAnalysis = ResultsSidecar.read( folder1, folder2, wormSetting );
+			if( plateAnalysis == null ) {
+				plateAnalysis = pipeline.processImages( folder1, folder2 );
+			}; // if
+			if( plateAnalysis.getErrors() != null ) {
+				return plateAnalysis.getErrors();
+			}; // if
+			assembled1 = plateAnalysis.assembled1;
+			assembled2 = plateAnalysis.assembled2;
+			substractedImage = plateAnalysis.substractedImage;
+			binarySubtractedImage = plateAnalysis.binarySubtractedImage;
+			assembled2_bw = plateAnalysis.assembled2_bw;
+			assembled2_bw_beforeRemovingBorder = plateAnalysis.assembled2_bw_beforeRemovingBorder;
+			sq_sub = plateAnalysis.sq_sub;
+			sq = plateAnalysis.sq;
+			roiList = plateAnalysis.roiList;
 		}; // if
 		
 		getRegions( list );
@@ -375,7 +357,7 @@ public final class MotionDetection implements ChangeListener, KeyListener {
 
         saveButton.addActionListener(new ActionListener() {
             public void actionPerformed(ActionEvent evt) {
-                saveInspectionResults( true, inspectDialog, wormsList, folder2.getAbsolutePath(), assembled2 );
+                saveResults();
             }
         });
         saveButton.setMnemonic(KeyEvent.VK_S);
@@ -519,12 +501,7 @@ public final class MotionDetection implements ChangeListener, KeyListener {
 							continue;
 						}; // if
 						if( i < wormsList.size() ) {
-							if( whichFlag == false ) {
-								eachButton[ buttonIndex ].setRolloverIcon( wormColorIcon2List.get( i ) );
-							}
-							else {
-								eachButton[ buttonIndex ].setRolloverIcon( wormColorIconList.get( i ) );
-							}; // if
+							eachButton[ buttonIndex ].setRolloverIcon( iconCache.getIcon( i, whichFlag == false ) );
 						}
 						else {
 							eachButton[ buttonIndex ].setRolloverIcon( null );
@@ -669,65 +646,6 @@ public final class MotionDetection implements ChangeListener, KeyListener {
         }; // if
     }
 
-    /**
-     * Processes the differential image, binarySubtractedImage is created
-     */
-    public void processDiffImage() {
-        //binarize the differential image
-        binarySubtractedImage = substractedImage.duplicate();
-
-
-        //Binarization
-        final int diff_ThresholdValue = 20;
-        for (int i = 0; i < binarySubtractedImage.getWidth(); i++) {
-            for (int j = 0; j < binarySubtractedImage.getHeight(); j++) {
-                if (substractedImage.getProcessor().getPixelValue(i, j) >= diff_ThresholdValue) {
-                    binarySubtractedImage.getProcessor().putPixel(i, j, 255);
-                } else {
-                    binarySubtractedImage.getProcessor().putPixel(i, j, 0);
-                }
-            }
-        }
-
-        //imgProc.saveImage(binarySubtractedImage.getBufferedImage(), "gif", folder1.getAbsolutePath()
-        //                + File.separator + "assembled_diff.gif" );
-
-
-
-        imClearBorder.imclearborder(binarySubtractedImage);
-        //Label and measure
-        sq_sub = new SequentialLabeling(binarySubtractedImage.getProcessor());
-        sq_sub.applyLabeling();
-        sq_sub.collectRegions();
-        //for collecting selected image
-
-        List<BinaryRegion> list = sq_sub.regions;  // the infomation of all binary regions is kept in list
-        Iterator<BinaryRegion> brIterator = list.iterator();
-        while (brIterator.hasNext()) {
-            BinaryRegion br = (BinaryRegion) brIterator.next();
-            double area = br.getSize();
-            if (area > wormSetting.min_DiffPixelCount_Of_Worm_In_DiffBinaryImage && area < wormSetting.max_WormSize) {  //filtering according to area
-                // do nothing
-            } else { //clear small particles from the binary image
-                Rectangle rec = br.getBoundingBox();
-                int label = br.getLabel();
-                int x = rec.x;
-                int y = rec.y;
-                int height = rec.height;
-                int width = rec.width;
-                for (int i = 0; i < width; i++) {
-                    for (int j = 0; j < height; j++) {
-                        if (sq_sub.labels[(y + j) * binarySubtractedImage.getWidth() + x + i] == label) //excluding other objects in the same bounding box
-                        {
-                            binarySubtractedImage.getProcessor().putPixel(x + i, y + j, 0);
-                        }
-                    }
-                }
-            }
-        }//end of while
-
-    }
-
     /**
      * Updates the count-label
      */
@@ -756,7 +674,8 @@ public final class MotionDetection implements ChangeListener, KeyListener {
                 WormInfo worm = wormsList.get(i);
                 eachButton[ buttonIndex ].setEnabled(true);
 			  
-                eachButton[ buttonIndex ].setIcon(wormColorIconList.get(i));
+                // null until rendered, see showPageIcons
+                eachButton[ buttonIndex ].setIcon(iconCache.getIcon(i, false));
                 eachButton[ buttonIndex ].setPreferredSize(new Dimension(BUTTON_WIDTH, BUTTON_HEIGHT));
                 if (worm.deleted == false) {
                     eachButton[ buttonIndex ].setText(worm.nLive + " moving"); //display number of living worms
@@ -795,6 +714,12 @@ public final class MotionDetection implements ChangeListener, KeyListener {
             spinner[ s ].addChangeListener( this );
         }; // for     
 
+        iconCache.requestPage(currentPage, new WormIconCache.PageListener() {
+            public void pageReady(int page) {
+                showPageIcons(page);
+            }
+        });
+
         inspectDialog.validate();
         inspectDialog.repaint();
         inspectDialog.pack();
@@ -802,53 +727,6 @@ public final class MotionDetection implements ChangeListener, KeyListener {
     }
 
     
-    /**
-     * Process image2 to create binary image applying adaptive thresholding
-     * and conduct region labeling to identify worms 
-     * 
-     */
-    public void processImage2() {
-        assembled2_bw = assembled2.duplicate();
-
-        //Binarize image
-        short[][] srcPixelArray;
-        srcPixelArray = imgProc.convert_Image_To_GrayShortArray(
-                assembled2_bw.getProcessor().convertToRGB().getBufferedImage());
-
-        BufferedImage imgBW =
-                imgProc.adaptiveThresholding_Core(srcPixelArray, 15, 0.2f, 200);
-        assembled2_bw.setImage(imgBW);
-
-        if (assembled2_bw.getBitDepth() != 8) {
-            ImageConverter icv = new ImageConverter(assembled2_bw);
-            icv.convertToGray8();
-        }; // if  
-
-        assembled2_bw_beforeRemovingBorder = assembled2_bw.duplicate();
-
-        //Label and measure
-        sq = new SequentialLabeling(assembled2_bw.getProcessor());
-        sq.applyLabeling();
-        sq.collectRegions();
-        //for collecting selected image
-        roiList = new LinkedList<BinaryRegion>();
-
-        List<BinaryRegion> list2 = sq.regions;  // the information of all binary regions is kept in list
-        Iterator<BinaryRegion> brIterator2 = list2.iterator();
-        while (brIterator2.hasNext()) {
-            BinaryRegion br = (BinaryRegion) brIterator2.next();
-            double area = br.getSize();
-            Rectangle regionBoundingBox = br.getBoundingBox();
-            if (area > wormSetting.min_WormSize && area < wormSetting.max_WormSize) {
-
-                if (regionBoundingBox.getWidth() > 16 || regionBoundingBox.getHeight() > 16) {
-                    roiList.add(br);
-                }
-
-            }
-        }//end of while
-    }
-
 	/**
 	 * Populates the 'wormsList' containing identified worms
 	 * @param  list  the worms-list to utilize; 
@@ -860,9 +738,6 @@ public final class MotionDetection implements ChangeListener, KeyListener {
 		boolean utilizeExistingWormsListFlag = false;
 
 		if( list == null ) {
-		processDiffImage();
-		//binarize image 2
-		processImage2();
 			wormsList = new ArrayList<WormInfo>();
 		}
 		else {
@@ -880,7 +755,12 @@ public final class MotionDetection implements ChangeListener, KeyListener {
 			}; // if
 			// see if there is a results file already
 			File resultsFile = new File(directory + N_LIVE_RESULTS_TXT);
-			if (resultsFile.exists() == true) {
+			boolean isSidecarRead = plateAnalysis.getWormsList() != null;
+			if (isSidecarRead == true) {
+				// case0: the worms of the results file came with its sidecar
+				wormsList.addAll(plateAnalysis.getWormsList());
+			}
+			else if (resultsFile.exists() == true) {
 				// case1: read worms from text file
 				List<String> linesList = null;
 				try {
@@ -926,32 +806,31 @@ public final class MotionDetection implements ChangeListener, KeyListener {
 					worm.height = new Integer(pieces[ 4]);
 					wormsList.add(worm);
 				}; // for
+			}; // if
+
+			if (isSidecarRead == true || resultsFile.exists() == true) {
+				// worms are looked up by their exact bounding box
+				RectangleIndex<WormInfo> wormsIndex = LifespanPipeline.getWormsIndex( wormsList, assembled2 );
 
 				// update the worms-list with 'label'  from binarized assembled2
 				for (BinaryRegion binaryRegion : roiList) {
-					Rectangle rec = binaryRegion.getBoundingBox();
 					// find it in the worms-list 
-					for (WormInfo each : wormsList) {
-						if (each.pX == rec.x && each.pY == rec.y && each.width == rec.width && each.height == rec.height) {
-							each.label = binaryRegion.getLabel();
-							each.isWormFoundInDiffImage = false;
-							break;
-						}
-					}
+					WormInfo each = wormsIndex.getFirstEqual(binaryRegion.getBoundingBox());
+					if (each != null) {
+						each.label = binaryRegion.getLabel();
+						each.isWormFoundInDiffImage = false;
+					}; // if
 				}
 
 
 				// update the worms-list with 'label' from binarized differential image
 				for (BinaryRegion binaryRegion : sq_sub.regions) {
-					Rectangle rec = binaryRegion.getBoundingBox();
 					// find it in the worms-list 
-					for (WormInfo each : wormsList) {
-						if (each.pX == rec.x && each.pY == rec.y && each.width == rec.width && each.height == rec.height) {
-							each.label = binaryRegion.getLabel();
-							each.isWormFoundInDiffImage = true;
-							break;
-						}
-					}
+					WormInfo each = wormsIndex.getFirstEqual(binaryRegion.getBoundingBox());
+					if (each != null) {
+						each.label = binaryRegion.getLabel();
+						each.isWormFoundInDiffImage = true;
+					}; // if
 				}
 
 				utilizeExistingWormsListFlag = true;
@@ -960,73 +839,20 @@ public final class MotionDetection implements ChangeListener, KeyListener {
 
 
         if (utilizeExistingWormsListFlag == false) { //de novo
-            Iterator<BinaryRegion> roiIterator = roiList.iterator();
-            while (roiIterator.hasNext()) {
-                BinaryRegion roi = (BinaryRegion) roiIterator.next();
-                Rectangle rec = roi.getBoundingBox();
-                WormInfo info = new WormInfo();
-                info.pX = rec.x;
-                info.pY = rec.y;
-                info.width = rec.width;
-                info.height = rec.height;
-                info.nLive = 1;
-                info.label = roi.getLabel();
-                info.deleted = false;
-                info.isWormFoundInDiffImage = false;
-                wormsList.add(info);
-            }; // while
-
-            trimWormsList();
-
-            findMissingWorms_From_DiffImage();
+            wormsList = pipeline.findWorms(plateAnalysis);
         }; // if
 
-
-
-        // place the objects into a set for sorting purposes
-        Set<WormInfo> wormInfoSet = new TreeSet<WormInfo>();
+        // sort, then group attached findings
         int wormCount = 0;
         for (WormInfo each : wormsList) {
-            wormInfoSet.add(each);
             wormCount += each.nLive;
         }; // for
-
-        // copy them back ordered
-        wormsList.clear();
-        int verifyWormCount = 0;
-        for (WormInfo each : wormInfoSet) {
-            wormsList.add(each);
-            verifyWormCount += each.nLive;
+        int verifyWormCount = LifespanPipeline.orderWorms(wormsList);
+        for (WormInfo each : wormsList) {
             wormsOriginalList.add(each.nLive);
         }; // for
 
 
-
-        //Conduct grouping for attached findings
-        int marginIntersect = 3;
-        for (int i = 0; i < wormsList.size(); i++) {
-
-            for (int j = i + 1; j < wormsList.size(); j++) {
-                WormInfo curWormsList = wormsList.get(i);
-                WormInfo nextWormsList = wormsList.get(j);
-                Rectangle curRectangle = new Rectangle(curWormsList.pX - marginIntersect,
-                        curWormsList.pY - marginIntersect,
-                        curWormsList.width + marginIntersect * 2,
-                        curWormsList.height + marginIntersect * 2);
-                Rectangle nextRectangle = new Rectangle(nextWormsList.pX - marginIntersect,
-                        nextWormsList.pY - marginIntersect,
-                        nextWormsList.width + marginIntersect * 2,
-                        nextWormsList.height + marginIntersect * 2);
-                if (curRectangle.intersects(nextRectangle)) {
-                    wormsList.remove(j);
-                    wormsList.add(i + 1, nextWormsList);
-                    wormsOriginalList.remove(j);
-                    wormsOriginalList.add(i + 1, nextWormsList.nLive);
-                }
-            }
-        }
-
-
         // verification just in case
         if (wormCount != verifyWormCount) {
             System.out.println("ERROR, wormcount: " + wormCount + " verifyWormCount: " + verifyWormCount);
@@ -1034,197 +860,86 @@ public final class MotionDetection implements ChangeListener, KeyListener {
             System.exit(1);
         }; // if
 
-        wormColorIconList = new ArrayList<ImageIcon>();
-        wormColorIcon2List = new ArrayList<ImageIcon>();
         for (WormInfo worm : wormsList) {
-            wormColorIconList.add( getImageIconDetail(worm, utilizeExistingWormsListFlag, false) );
-            wormColorIcon2List.add( getImageIconDetail(worm, utilizeExistingWormsListFlag, true) );
+            if (worm.firstView) {
+                if (utilizeExistingWormsListFlag == false) {
+                    worm.nLive = 1;
+                }
+                worm.firstView = false;
+            }
         }; // for
+
+        // icons are rendered when their page is shown, on another thread, from
+        // the images of this plate even if another plate is processed meanwhile
+        final List<WormInfo> iconWormsList = wormsList;
+        final IconImages iconImages = new IconImages(this);
+        iconCache = new WormIconCache(wormsList.size(), 9, WormIconCache.DEFAULT_PAGES_KEPT,
+                new WormIconCache.IconRenderer() {
+                    public ImageIcon render(int wormIndex, boolean isSecondIcon) {
+                        return getImageIconDetail(iconWormsList.get(wormIndex), isSecondIcon, iconImages);
+                    }
+                });
     }
 
-        
+
     /**
-     * Excludes invalid findings that have negligible white area in subtracted bw image
+     * Puts the rendered icons of a page onto the buttons, if the page is still shown
+     * @param page the page
      */
-    public void trimWormsList() {
-        if (wormsList == null) {
+    private void showPageIcons(int page) {
+        if (page != currentPage || wormsList == null) {
             return;
         }; // if
-
-        NativeImgProcessing ImgProc = new NativeImgProcessing();
-
-
-        for (int k = 0; k < wormsList.size(); k++) {
-            WormInfo worm = wormsList.get(k);
-            int x = worm.pX;
-            int y = worm.pY;
-            int height = worm.height;
-            int width = worm.width;
-            int label = worm.label;
-
-            short imgSubClipArray[][] = new short[width][height];
-
-            short imgSubBWClipArray[][] = new short[width][height];
-
-            for (int i = 0; i < width; i++) {
-                for (int j = 0; j < height; j++) {
-
-                    if (assembled2_bw.getPixel(x + i, y + j)[0] == 255
-                            && sq.labels[(y + j) * substractedImage.getWidth() + (x + i)] == label) {
-                        imgSubClipArray[i][j] = (short) substractedImage.getPixel(x + i, y + j)[0];
-                    } else {
-                        imgSubClipArray[i][j] = 0;
-                    }
-
-
-                    if (imgSubClipArray[i][j] > wormSetting.min_GrayDiff_In_DiffImage) {
-                        imgSubBWClipArray[i][j] = 255;
-                    } else {
-                        imgSubBWClipArray[i][j] = 0;
-                    }
-                }; // for
-            }; // for
-
-
-            ImgProc.regionExtract_RasterScanning(imgSubBWClipArray, 0);
-
-            short outIDMap[][];
-            outIDMap = ImgProc.RegionLabeling_LabelIDMap;
-
-            int outIDCount;
-            outIDCount = ImgProc.RegionLabeling_ColorTable.length;
-
-            int regionArray_WhiteCount[] = new int[outIDCount];
-
-            //Initialzing array
-            for (int q = 1; q < outIDCount; q++) {
-                regionArray_WhiteCount[q] = 0;
-            }
-
-            //Counting pixel size of regions
-            for (int i = 0; i < width; i++) {
-                for (int j = 0; j < height; j++) {
-                    regionArray_WhiteCount[outIDMap[i][j]]++;
-                };
-            };
-
-            //Searching max area size of regions
-            int maxWhiteCount = 0;
-            for (int q = 1; q < outIDCount; q++) {
-                if (maxWhiteCount < regionArray_WhiteCount[q]) {
-                    maxWhiteCount = regionArray_WhiteCount[q];
-                }
-            }
-
-            //Excluding invalid findings
-            if (maxWhiteCount < wormSetting.min_WhitePixelCount_In_DiffImage) {
-                worm.nLive = 0;
-                wormsList.remove(k);
-                k--;
-            } else {
-                worm.nLive = 1;
-            }
-        }
+        int i = currentPage * 9;
+        for (int buttonIndex = 0; buttonIndex < eachButton.length; buttonIndex++) {
+            if (i < wormsList.size()) {
+                eachButton[ buttonIndex ].setIcon(iconCache.getIcon(i, false));
+            }; // if
+            i++;
+        }; // for
+        inspectDialog.repaint();
     }
 
-    
+
     /**
-     * Check if object is excluded in big regions
-     * @param binSubImage
-     * @param brObject
-     * @param assem2_bw
-     * @return 
+     * Stops rendering icons of the worms
      */
-    public boolean isObjectInExcludedBigObject(ImagePlus binSubImage, BinaryRegion brObject, ImagePlus assem2_bw) {
-        int label_Object_In_Diff;
-        int label_Object_In_Assemble;
-        Rectangle rec = brObject.getBoundingBox();
-
-        label_Object_In_Diff = brObject.getLabel();
-
-
-        List<BinaryRegion> list = sq.regions;
-        Iterator<BinaryRegion> brIterator = list.iterator();
-
-
-        while (brIterator.hasNext()) {
-            BinaryRegion br = (BinaryRegion) brIterator.next();
-            double area = br.getSize();
-            if (area > wormSetting.max_WormSize) {
-                label_Object_In_Assemble = br.getLabel();
-
-                for (int y = rec.y; y < rec.y + rec.height; y++) {
-                    for (int x = rec.x; x < rec.x + rec.width; x++) {
-                        if (sq.labels[y * binSubImage.getWidth() + x] == label_Object_In_Assemble
-                                && sq_sub.labels[y * binSubImage.getWidth() + x] == label_Object_In_Diff) {
-                            return true;
-                        }
-                    }
-                }
-            }
-
-        }
-
-        return false;
+    private void stopIconCache() {
+        if (iconCache != null) {
+            iconCache.shutdown();
+        }; // if
     }
 
-    
+
     /**
-     * Find missing worms from differential image
+     * @param worm the worm
+     * @param isAnimatedSecondImageIcon if false, draw image1 to the left top segment (the first animated image)
+     *                                   if true, draw image2 to the left top segment (the second animated image)
+     * @return image-icon that is usable inside a button
      */
-    public void findMissingWorms_From_DiffImage() {
-
-        WormInfo worm;
-
-        List<BinaryRegion> list = sq_sub.regions;
-        Iterator<BinaryRegion> brIterator = list.iterator();
-
-
-        while (brIterator.hasNext()) {
-            BinaryRegion br = (BinaryRegion) brIterator.next();
-            double area = br.getSize();
-            if (area > wormSetting.min_MissingWormSize_In_DiffImage && area < wormSetting.max_WormSize) {
-                Rectangle rec = br.getBoundingBox();
-
-                //Find existing worms
-                boolean isWormFound = false;
-                for (int k = 0; k < wormsList.size(); k++) {
-                    worm = wormsList.get(k);
-                    if (rec.intersects(worm.pX, worm.pY, worm.width, worm.height) == true && worm.deleted == false) {
-                        isWormFound = true;
-                        break;
-                    }
-                }
-
-                if (isWormFound == false
-                        && isObjectInExcludedBigObject(binarySubtractedImage, br, assembled2_bw)) {
-                    WormInfo newWorm = new WormInfo();
-                    newWorm.nLive = 1;
-                    newWorm.pX = rec.x;
-                    newWorm.pY = rec.y;
-                    newWorm.width = rec.width;
-                    newWorm.height = rec.height;
-                    newWorm.label = br.getLabel();
-                    newWorm.deleted = false;
-                    newWorm.isWormFoundInDiffImage = true;
-						  wormsList.add( newWorm );
-                }
-
-            } //if
-        } //while
-
+    public ImageIcon getImageIconDetail(WormInfo worm, boolean isAnimatedSecondImageIcon) {
+        return getImageIconDetail(worm, isAnimatedSecondImageIcon, new IconImages(this));
     }
 
-    
+
     /**
      * @param worm the worm
-     * @param readFromFileFlag
      * @param isAnimatedSecondImageIcon if false, draw image1 to the left top segment (the first animated image)
      *                                   if true, draw image2 to the left top segment (the second animated image)
+     * @param images the images and labelings to draw from
      * @return image-icon that is usable inside a button
      */
-    public ImageIcon getImageIconDetail(WormInfo worm, boolean readFromFileFlag,
-            boolean isAnimatedSecondImageIcon) {
+    private static ImageIcon getImageIconDetail(WormInfo worm, boolean isAnimatedSecondImageIcon,
+            IconImages images) {
+        ImagePlus assembled1 = images.assembled1;
+        ImagePlus assembled2 = images.assembled2;
+        ImagePlus substractedImage = images.substractedImage;
+        ImagePlus binarySubtractedImage = images.binarySubtractedImage;
+        ImagePlus assembled2_bw = images.assembled2_bw;
+        RegionLabeling sq = images.sq;
+        RegionLabeling sq_sub = images.sq_sub;
+        int min_GrayDiff_In_DiffImage = images.min_GrayDiff_In_DiffImage;
+
         int x = worm.pX;
         int y = worm.pY;
         int height = worm.height;
@@ -1313,7 +1028,7 @@ public final class MotionDetection implements ChangeListener, KeyListener {
                 for (int j = y1_withPadding; j < y2_withPadding + 1; j++) {
                     if (binarySubtractedImage.getPixel(i, j)[0] == 255
                             && sq_sub.labels[j * substractedImage.getWidth() + i] == label) {
-                        if (binarySubtractedImage.getProcessor().getPixel(i, j) > wormSetting.min_GrayDiff_In_DiffImage) {
+                        if (binarySubtractedImage.getProcessor().getPixel(i, j) > min_GrayDiff_In_DiffImage) {
                             previewImagePlus.getProcessor().putPixel(i - x1_withPadding + x_shifted,
                                     j - y1_withPadding,
                                     255);
@@ -1337,7 +1052,7 @@ public final class MotionDetection implements ChangeListener, KeyListener {
                 for (int j = y1_withPadding; j < y2_withPadding + 1; j++) {
                     if (assembled2_bw.getPixel(i, j)[0] == 255
                             && sq.labels[j * substractedImage.getWidth() + i] == label) {
-                        if (substractedImage.getProcessor().getPixel(i, j) > wormSetting.min_GrayDiff_In_DiffImage) {
+                        if (substractedImage.getProcessor().getPixel(i, j) > min_GrayDiff_In_DiffImage) {
                             previewImagePlus.getProcessor().putPixel(i - x1_withPadding + x_shifted,
                                     j - y1_withPadding,
                                     255);
@@ -1429,13 +1144,6 @@ public final class MotionDetection implements ChangeListener, KeyListener {
         }; // for
 
 
-        if (worm.firstView) {
-            if (readFromFileFlag == false) {
-                worm.nLive = 1;
-            }
-            worm.firstView = false;
-        }
-
         int clipWidth = previewImagePlus.getWidth();
         int clipHeight = previewImagePlus.getHeight();
         int clipIWidthMid = (x2_withPadding - x1_withPadding + 1);
@@ -1456,7 +1164,7 @@ public final class MotionDetection implements ChangeListener, KeyListener {
      *
      */
     protected void saveClose() {
-        saveInspectionResults( true, inspectDialog, wormsList, folder2.getAbsolutePath(), assembled2 );
+        saveResults();
 		  doCleanClose();
     }
 
@@ -1465,6 +1173,7 @@ public final class MotionDetection implements ChangeListener, KeyListener {
 	 */
 	protected void doCleanClose() {
 		currentPage = -1;
+		stopIconCache();
 		// allow time for worker-thread to finish
 		try {
 			Thread.sleep( 500 );
@@ -1591,6 +1300,22 @@ public final class MotionDetection implements ChangeListener, KeyListener {
 		plateView = null;
 	}
 
+	/**
+	 * Saves the inspection results of the dialog, and their sidecar
+	 */
+	private void saveResults() {
+		if( saveInspectionResults( true, inspectDialog, wormsList, folder2.getAbsolutePath(), assembled2 ) == false ) {
+			return;
+		}; // if
+		if( plateAnalysis != null ) {
+			// the sidecar only saves time when the plate is reopened
+			String error = ResultsSidecar.write( plateAnalysis, wormsList, wormSetting );
+			if( error != null ) {
+				System.out.println( error );
+			}; // if
+		}; // if
+	}
+
 	/**
 	 * Saves the inspection results
 	 *
@@ -1599,11 +1324,33 @@ public final class MotionDetection implements ChangeListener, KeyListener {
 	 * @param  wormsList the list of worms
 	 * @param  folder  the folder into which write the results
 	 * @param  assembledImagePlus  the assembled-image inside of folder into which write the results
+	 * @return  true when the results were saved
 	 */
- 	protected static void saveInspectionResults( boolean humanInspectionFlag, JDialog dialog, List<WormInfo> wormsList, String folder, ImagePlus assembledImagePlus ) {
+ 	protected static boolean saveInspectionResults( boolean humanInspectionFlag, JDialog dialog, List<WormInfo> wormsList, String folder, ImagePlus assembledImagePlus ) {
 		if (folder == null) {
 			JOptionPane.showMessageDialog( dialog, "Warning, unable to save results, folder is null!", "Unable to save results!", JOptionPane.ERROR_MESSAGE);
-			return;
+			return false;
+		}; // if
+		String error = writeInspectionResults( humanInspectionFlag, wormsList, folder, assembledImagePlus );
+		if( error != null ) {
+			JOptionPane.showMessageDialog( dialog, error, "Cannot save!", JOptionPane.ERROR_MESSAGE);
+			return false;
+		}; // if
+		return true;
+	}
+
+	/**
+	 * Writes the inspection results, without any user interface
+	 *
+	 * @param  humanInspectionFlag  whether it was inspected by human
+	 * @param  wormsList the list of worms
+	 * @param  folder  the folder into which write the results
+	 * @param  assembledImagePlus  the assembled-image inside of folder into which write the results
+	 * @return  null when things go OK, otherwise an error message
+	 */
+	static String writeInspectionResults( boolean humanInspectionFlag, List<WormInfo> wormsList, String folder, ImagePlus assembledImagePlus ) {
+		if (folder == null) {
+			return "Warning, unable to save results, folder is null!";
 		}; // if
 		if (folder.endsWith(File.separator) == false) {
 			folder += File.separator;
@@ -1637,8 +1384,7 @@ public final class MotionDetection implements ChangeListener, KeyListener {
 			File oldResultsFile = new File(folder + N_LIVE_RESULTS_TXT);
 			boolean renamedFlag = oldResultsFile.renameTo(historicalFile);
 			if (renamedFlag == false) {
-				JOptionPane.showMessageDialog( dialog, "Error, unable to rename file " + N_LIVE_RESULTS_TXT + " to a historical filename.", "Cannot save!", JOptionPane.ERROR_MESSAGE);
-				return;
+				return "Error, unable to rename file " + N_LIVE_RESULTS_TXT + " to a historical filename.";
 			}; // if
 		}; // if
 
@@ -1662,8 +1408,7 @@ public final class MotionDetection implements ChangeListener, KeyListener {
 		} 
 		catch (IOException ioe) {
 			ioe.printStackTrace();
-			JOptionPane.showMessageDialog( dialog, "Error when saving " + N_LIVE_RESULTS_TXT + " as follows:<br>" + ioe, "I/O Error", JOptionPane.ERROR_MESSAGE);
-			return;
+			return "Error when saving " + N_LIVE_RESULTS_TXT + " as follows:\n" + ioe;
 		}; // try
 
 		if( folder.endsWith( File.separator ) == false ) {
@@ -1696,6 +1441,7 @@ public final class MotionDetection implements ChangeListener, KeyListener {
 			FileSaver fileSaver = new FileSaver( imagePlus );
 			fileSaver.saveAsJpeg( folder + "assembled_colors.jpeg" );
 		}; // if
+		return null;
 	}
 
     /**
@@ -1770,4 +1516,32 @@ public final class MotionDetection implements ChangeListener, KeyListener {
 
         }
     }
+
+    /**
+     * Images and labelings of a plate an icon is drawn from, taken together
+     * so that icons rendered on another thread do not see those of the next
+     * plate
+     */
+    private static final class IconImages {
+
+        final ImagePlus assembled1;
+        final ImagePlus assembled2;
+        final ImagePlus substractedImage;
+        final ImagePlus binarySubtractedImage;
+        final ImagePlus assembled2_bw;
+        final RegionLabeling sq;
+        final RegionLabeling sq_sub;
+        final int min_GrayDiff_In_DiffImage;
+
+        IconImages(MotionDetection motionDetection) {
+            assembled1 = motionDetection.assembled1;
+            assembled2 = motionDetection.assembled2;
+            substractedImage = motionDetection.substractedImage;
+            binarySubtractedImage = motionDetection.binarySubtractedImage;
+            assembled2_bw = motionDetection.assembled2_bw;
+            sq = motionDetection.sq;
+            sq_sub = motionDetection.sq_sub;
+            min_GrayDiff_In_DiffImage = motionDetection.wormSetting.min_GrayDiff_In_DiffImage;
+        }
+    }
 }
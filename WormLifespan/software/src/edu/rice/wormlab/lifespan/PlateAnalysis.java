@@ -0,0 +1,79 @@
+/*
+ * Filename: PlateAnalysis.java
+ */
+
+package edu.rice.wormlab.lifespan;
+
+import ij.ImagePlus;
+import java.io.File;
+import java.util.List;
+
+/**
+ * Images, labelings and worms of one plate pair (a folder and its __1
+ * folder), as made by LifespanPipeline.
+ * Every run of the pipeline makes its own object, so plates can be processed
+ * on several threads at once.
+ */
+public class PlateAnalysis {
+
+    final File folder1;
+    final File folder2;
+    ImagePlus assembled1 = null;
+    //shift applied to the assembled image 1 of folder1 to align it, null when
+    //the aligned image was written into folder1 instead
+    ImageShift shift1 = null;
+    ImagePlus assembled2 = null;
+    ImagePlus substractedImage = null;
+    ImagePlus binarySubtractedImage = null;
+    ImagePlus assembled2_bw = null;
+    ImagePlus assembled2_bw_beforeRemovingBorder = null;
+    //labeling of the binarized differential image
+    RegionLabeling sq_sub = null;
+    //labeling of the binarized image 2
+    RegionLabeling sq = null;
+    //regions of image 2 with the size of a worm
+    List<BinaryRegion> roiList = null;
+    List<WormInfo> wormsList = null;
+    String errors = null;
+
+    /**
+     * @param folder1 folder of the first (before) images
+     * @param folder2 folder of the second (after) images, where results are written
+     */
+    PlateAnalysis(File folder1, File folder2) {
+        this.folder1 = folder1;
+        this.folder2 = folder2;
+    }
+
+    /**
+     * Get the error of the run, if any
+     * @return null when things went OK, otherwise an error message
+     */
+    public String getErrors() {
+        return errors;
+    }
+
+    /**
+     * Get the worm objects list
+     * @return the worms list; null when there was an error
+     */
+    public List<WormInfo> getWormsList() {
+        return wormsList;
+    }
+
+    /**
+     * Get folder where results are written
+     * @return folder path
+     */
+    public String getFolder() {
+        return folder2.getAbsolutePath();
+    }
+
+    /**
+     * Get the assembled image inside of folder where results are written
+     * @return assembled image
+     */
+    public ImagePlus getAssembledImage() {
+        return assembled2;
+    }
+}
@@ -0,0 +1,172 @@
+/*
+ * Filename: RectangleIndex.java
+ */
+
+package edu.rice.wormlab.lifespan;
+
+import java.awt.Rectangle;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Uniform grid of square cells over an image, indexing items by their
+ * bounding boxes.
+ * An item is listed in every cell its box touches, so a lookup only visits
+ * the items of the cells the query touches instead of all of them. Boxes
+ * reaching out of the image go to the border cells. Lookups return items in
+ * the order they were added, as a scan of a list would find them, and items
+ * may be added between lookups.
+ */
+public class RectangleIndex<T> {
+
+    /** default cell side, in pixels; about the size of a worm */
+    public static final int DEFAULT_CELL_SIZE = 64;
+
+    private final int cellSize;
+    private final int columns;
+    private final int rows;
+
+    //Item ids of each cell, in increasing order
+    private final int[][] cells;
+    private final int[] cellCounts;
+
+    //Boxes and items, index is the item id
+    private final List<T> items = new ArrayList<T>();
+    private final List<Rectangle> boxes = new ArrayList<Rectangle>();
+
+    //Last lookup that met each item, so items in several cells count once
+    private int[] visited = new int[16];
+    private int lookup;
+
+    /**
+     * @param width width of the image
+     * @param height height of the image
+     */
+    public RectangleIndex(int width, int height) {
+        this(width, height, DEFAULT_CELL_SIZE);
+    }
+
+    /**
+     * @param width width of the image
+     * @param height height of the image
+     * @param cellSize side of a cell, in pixels
+     */
+    public RectangleIndex(int width, int height, int cellSize) {
+        if (width < 1 || height < 1 || cellSize < 1) {
+            throw new IllegalArgumentException("Bad index geometry: " + width + "x" + height
+                    + ", cell " + cellSize);
+        }
+        this.cellSize = cellSize;
+        columns = (width + cellSize - 1) / cellSize;
+        rows = (height + cellSize - 1) / cellSize;
+        cells = new int[columns * rows][];
+        cellCounts = new int[columns * rows];
+    }
+
+    /**
+     * Add item
+     *
+     * @param box bounding box of the item; it is copied
+     * @param item the item
+     */
+    public void add(Rectangle box, T item) {
+        int id = items.size();
+        items.add(item);
+        boxes.add(new Rectangle(box));
+        if (visited.length == id) {
+            visited = Arrays.copyOf(visited, id * 2);
+        }
+
+        int lastColumn = getColumn(box.x + Math.max(box.width, 1) - 1);
+        int lastRow = getRow(box.y + Math.max(box.height, 1) - 1);
+        for (int row = getRow(box.y); row <= lastRow; row++) {
+            for (int column = getColumn(box.x); column <= lastColumn; column++) {
+                int cell = row * columns + column;
+                if (cells[cell] == null) {
+                    cells[cell] = new int[4];
+                } else if (cellCounts[cell] == cells[cell].length) {
+                    cells[cell] = Arrays.copyOf(cells[cell], cellCounts[cell] * 2);
+                }
+                cells[cell][cellCounts[cell]++] = id;
+            }
+        }
+    }
+
+    /**
+     * @return number of items
+     */
+    public int size() {
+        return items.size();
+    }
+
+    /**
+     * Items whose box intersects a rectangle (as Rectangle.intersects:
+     * empty boxes intersect nothing)
+     *
+     * @param rec the rectangle
+     * @return the items, in the order they were added
+     */
+    public List<T> getIntersecting(Rectangle rec) {
+        List<T> found = new ArrayList<T>();
+        if (rec.width <= 0 || rec.height <= 0) {
+            return found;
+        }
+
+        lookup++;
+        int[] ids = new int[8];
+        int count = 0;
+        int lastColumn = getColumn(rec.x + rec.width - 1);
+        int lastRow = getRow(rec.y + rec.height - 1);
+        for (int row = getRow(rec.y); row <= lastRow; row++) {
+            for (int column = getColumn(rec.x); column <= lastColumn; column++) {
+                int cell = row * columns + column;
+                for (int q = 0; q < cellCounts[cell]; q++) {
+                    int id = cells[cell][q];
+                    if (visited[id] == lookup) {
+                        continue;
+                    }
+                    visited[id] = lookup;
+                    if (rec.intersects(boxes.get(id))) {
+                        if (count == ids.length) {
+                            ids = Arrays.copyOf(ids, count * 2);
+                        }
+                        ids[count++] = id;
+                    }
+                }
+            }
+        }
+
+        Arrays.sort(ids, 0, count);
+        for (int q = 0; q < count; q++) {
+            found.add(items.get(ids[q]));
+        }
+        return found;
+    }
+
+    /**
+     * First item whose box equals a rectangle
+     *
+     * @param rec the rectangle
+     * @return the item added first with that box; null if none
+     */
+    public T getFirstEqual(Rectangle rec) {
+        //An item is always listed in the cell of its top-left corner
+        int cell = getRow(rec.y) * columns + getColumn(rec.x);
+        for (int q = 0; q < cellCounts[cell]; q++) {
+            int id = cells[cell][q];
+            if (boxes.get(id).equals(rec)) {
+                return items.get(id);
+            }
+        }
+        return null;
+    }
+
+    private int getColumn(int x) {
+        return x < 0 ? 0 : Math.min(columns - 1, x / cellSize);
+    }
+
+    private int getRow(int y) {
+        return y < 0 ? 0 : Math.min(rows - 1, y / cellSize);
+    }
+}
@@ -0,0 +1,183 @@
+/*
+ * Filename: RegionDiffStatistics.java
+ */
+
+package edu.rice.wormlab.lifespan;
+
+import ij.process.ByteProcessor;
+import ij.process.ImageProcessor;
+import java.awt.Rectangle;
+import java.util.Arrays;
+
+/**
+ * Size of the largest connected white part of the difference image inside
+ * every labeled region of image 2, found in one pass over the whole plate.
+ * A pixel is white when it is white (255) in the binary image 2, belongs to
+ * the region, and its difference is above the gray threshold; pixels on the
+ * border of the bounding box of the region are left out. White pixels are
+ * joined (8-connected) only with white pixels of the same region.
+ * This is what labeling a clip of each region's bounding box gives, with
+ * the one-pixel clip border left unlabeled as regionExtract_RasterScanning
+ * does, without any per-region arrays.
+ */
+public class RegionDiffStatistics {
+
+    private static final int NONE = 0;
+
+    //Largest connected white count, index is the region label
+    private final int[] maxWhiteCount;
+
+    /**
+     * @param labeling labeled image 2, regions collected
+     * @param binaryImage binary image 2, same size
+     * @param diffImage difference image, same size
+     * @param minGrayDiff difference must be larger for a pixel to be white
+     */
+    public RegionDiffStatistics(RegionLabeling labeling, ImageProcessor binaryImage,
+            ImageProcessor diffImage, int minGrayDiff) {
+        int width = labeling.width;
+        int height = labeling.height;
+        if (binaryImage.getWidth() != width || binaryImage.getHeight() != height
+                || diffImage.getWidth() != width || diffImage.getHeight() != height) {
+            throw new IllegalArgumentException("Images differ in size from the labeling");
+        }
+        int[] labels = labeling.labels;
+        byte[] binary = getBytes(binaryImage);
+        byte[] diff = getBytes(diffImage);
+
+        //Interior of the bounding box of every region; empty for labels
+        //without a region
+        int maxLabel = Math.max(labeling.getMaxLabel(), 0);
+        for (BinaryRegion region : labeling.regions) {
+            maxLabel = Math.max(maxLabel, region.getLabel());
+        }
+        int[] left = new int[maxLabel + 1];
+        int[] right = new int[maxLabel + 1];
+        int[] top = new int[maxLabel + 1];
+        int[] bottom = new int[maxLabel + 1];
+        Arrays.fill(left, Integer.MAX_VALUE);
+        for (BinaryRegion region : labeling.regions) {
+            Rectangle box = region.getBoundingBox();
+            int label = region.getLabel();
+            left[label] = box.x;
+            right[label] = box.x + box.width - 1;
+            top[label] = box.y;
+            bottom[label] = box.y + box.height - 1;
+        }
+
+        //Union-find over provisional component ids, with the region of each
+        int[] componentMap = new int[width * height];
+        int[] parent = new int[1024];
+        int[] regionOf = new int[1024];
+        int nextId = 1;
+        for (int y = 0; y < height; y++) {
+            int row = y * width;
+            for (int x = 0; x < width; x++) {
+                int index = row + x;
+                int label = labels[index];
+                if (label <= 0 || label > maxLabel
+                        || x <= left[label] || x >= right[label] || y <= top[label] || y >= bottom[label]
+                        || binary[index] != (byte) 255 || (diff[index] & 0xff) <= minGrayDiff) {
+                    continue;
+                }
+
+                //Scanned neighbours W, NW, N, NE of the same region
+                int current = NONE;
+                if (labels[index - 1] == label) {
+                    current = union(parent, current, componentMap[index - 1]);
+                }
+                int upper = index - width;
+                if (labels[upper - 1] == label) {
+                    current = union(parent, current, componentMap[upper - 1]);
+                }
+                if (labels[upper] == label) {
+                    current = union(parent, current, componentMap[upper]);
+                }
+                if (labels[upper + 1] == label) {
+                    current = union(parent, current, componentMap[upper + 1]);
+                }
+
+                if (current == NONE) {
+                    if (nextId == parent.length) {
+                        parent = Arrays.copyOf(parent, parent.length * 2);
+                        regionOf = Arrays.copyOf(regionOf, parent.length);
+                    }
+                    parent[nextId] = nextId;
+                    regionOf[nextId] = label;
+                    current = nextId;
+                    nextId++;
+                }
+                componentMap[index] = current;
+            }
+        }
+
+        int[] count = new int[nextId];
+        for (int index = 0; index < componentMap.length; index++) {
+            if (componentMap[index] != NONE) {
+                count[find(parent, componentMap[index])]++;
+            }
+        }
+        maxWhiteCount = new int[maxLabel + 1];
+        for (int id = 1; id < nextId; id++) {
+            if (parent[id] == id) {
+                maxWhiteCount[regionOf[id]] = Math.max(maxWhiteCount[regionOf[id]], count[id]);
+            }
+        }
+    }
+
+    /**
+     * @param label region label of image 2
+     * @return pixel count of the largest connected white part of the
+     * region; 0 if there is none or the label is unknown
+     */
+    public int getMaxWhiteCount(int label) {
+        if (label < 0 || label >= maxWhiteCount.length) {
+            return 0;
+        }
+        return maxWhiteCount[label];
+    }
+
+    /**
+     * Merge the set of a neighbour into the current set; neighbours that
+     * are not white (id NONE) are skipped
+     *
+     * @return root of the merged set
+     */
+    private static int union(int[] parent, int current, int neighbour) {
+        if (neighbour == NONE) {
+            return current;
+        }
+        int rootNeighbour = find(parent, neighbour);
+        if (current == NONE) {
+            return rootNeighbour;
+        }
+        int rootCurrent = find(parent, current);
+        if (rootCurrent < rootNeighbour) {
+            parent[rootNeighbour] = rootCurrent;
+            return rootCurrent;
+        }
+        parent[rootCurrent] = rootNeighbour;
+        return rootNeighbour;
+    }
+
+    /**
+     * Find root with path halving
+     */
+    private static int find(int[] parent, int id) {
+        while (parent[id] != id) {
+            parent[id] = parent[parent[id]];
+            id = parent[id];
+        }
+        return id;
+    }
+
+    /**
+     * Pixels of an image as 8-bit, converted the way ImageJ does
+     */
+    private static byte[] getBytes(ImageProcessor ip) {
+        if (ip instanceof ByteProcessor) {
+            return (byte[]) ip.getPixels();
+        }
+        return (byte[]) ip.convertToByte(false).getPixels();
+    }
+}
@@ -0,0 +1,470 @@
+/*
+ * Filename: ResultsSidecar.java
+ */
+
+package edu.rice.wormlab.lifespan;
+
+import ij.ImagePlus;
+import ij.process.ByteProcessor;
+import ij.process.ImageConverter;
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Binary companion of the results file of a plate pair: the worms written
+ * into the results file, the regions of the binarized image 2 and of the
+ * binarized differential image, and their label maps and binary images
+ * run-length encoded (value and length of each run as variable-length
+ * integers, mostly one or two bytes).
+ * Reopening a plate for inspection reads it instead of
+ * parsing the results file and processing the images again. It holds the
+ * time stamps of the pieces and assembled images of both folders, of the
+ * results file and the detection condition it was made with; when any of
+ * them changed, it is ignored and the plate is processed as before.
+ */
+public class ResultsSidecar {
+
+    /** name of the sidecar file, next to the results file */
+    public static final String FILENAME = "result-lifespan.bin";
+
+    private static final int MAGIC = 0x51574C52; // "QWLR"
+    private static final int VERSION = 1;
+
+    /**
+     * Writes the sidecar of an analysis; to be called right after its
+     * results file is written
+     *
+     * @param analysis the analysis, images processed
+     * @param wormsList the worms written into the results file; deleted ones
+     * and those without live worms are left out, as in the results file
+     * @param wormSetting the detection condition of the analysis
+     * @return null when things go OK, otherwise an error message
+     */
+    public static String write(PlateAnalysis analysis, List<WormInfo> wormsList,
+            DetectionCondition wormSetting) {
+        File sidecarFile = new File(analysis.folder2, FILENAME);
+        File resultsFile = new File(analysis.folder2, MotionDetection.N_LIVE_RESULTS_TXT);
+        long sourcesStamp1 = getSourcesStamp(analysis.folder1);
+        long sourcesStamp2 = getSourcesStamp(analysis.folder2);
+        if (resultsFile.exists() == false || sourcesStamp1 == 0 || sourcesStamp2 == 0) {
+            sidecarFile.delete();
+            return "Unable to write " + sidecarFile.getAbsolutePath() + ": images or results missing";
+        }; // if
+
+        List<WormInfo> writtenList = new ArrayList<WormInfo>();
+        for (WormInfo worm : wormsList) {
+            if (worm.deleted == false && worm.nLive != 0) {
+                writtenList.add(worm);
+            }; // if
+        }; // for
+        ImageShift shift1 = analysis.shift1 == null ? new ImageShift(0, 0, 0) : analysis.shift1;
+        int width = analysis.assembled2.getWidth();
+        int height = analysis.assembled2.getHeight();
+
+        try {
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                    new FileOutputStream(sidecarFile), 1 << 16));
+            try {
+                out.writeInt(MAGIC);
+                out.writeInt(VERSION);
+                out.writeLong(resultsFile.length());
+                out.writeLong(resultsFile.lastModified());
+                out.writeLong(sourcesStamp1);
+                out.writeLong(sourcesStamp2);
+                for (int value : getConditionValues(wormSetting)) {
+                    out.writeInt(value);
+                }; // for
+                out.writeDouble(shift1.getDx());
+                out.writeDouble(shift1.getDy());
+                out.writeInt(width);
+                out.writeInt(height);
+
+                out.writeInt(writtenList.size());
+                for (WormInfo worm : writtenList) {
+                    out.writeInt(worm.nLive);
+                    out.writeInt(worm.pX);
+                    out.writeInt(worm.pY);
+                    out.writeInt(worm.width);
+                    out.writeInt(worm.height);
+                }; // for
+
+                writeRegions(out, analysis.sq);
+                out.writeInt(analysis.roiList.size());
+                for (BinaryRegion region : analysis.roiList) {
+                    out.writeInt(region.getLabel());
+                }; // for
+                writeRegions(out, analysis.sq_sub);
+
+                writeRuns(out, analysis.sq.labels);
+                writeRuns(out, analysis.sq_sub.labels);
+                writeRuns(out, (byte[]) analysis.assembled2_bw.getProcessor().getPixels());
+                writeRuns(out, (byte[]) analysis.binarySubtractedImage.getProcessor().getPixels());
+            } finally {
+                out.close();
+            }; // try
+        } catch (IOException ioe) {
+            sidecarFile.delete();
+            return "Unable to write " + sidecarFile.getAbsolutePath() + ": " + ioe;
+        }; // try
+        return null;
+    }
+
+    /**
+     * Reads the sidecar of a plate pair, if it is still current
+     *
+     * @param folder1 folder of the first (before) images
+     * @param folder2 folder of the second (after) images, with the results
+     * @param wormSetting the detection condition to work with
+     * @return the analysis with images, labelings and the worms of the
+     * results file (labels not set); null when there is no sidecar or it is
+     * outdated
+     */
+    public static PlateAnalysis read(File folder1, File folder2, DetectionCondition wormSetting) {
+        File sidecarFile = new File(folder2, FILENAME);
+        File resultsFile = new File(folder2, MotionDetection.N_LIVE_RESULTS_TXT);
+        if (sidecarFile.exists() == false || resultsFile.exists() == false) {
+            return null;
+        }; // if
+        try {
+            // read, not mapped: a mapping would keep the file from being
+            // replaced or deleted (on Windows) until it is garbage collected
+            ByteBuffer buffer;
+            FileChannel channel = new FileInputStream(sidecarFile).getChannel();
+            try {
+                long size = channel.size();
+                if (size > Integer.MAX_VALUE) {
+                    throw new IOException("too large");
+                }; // if
+                buffer = ByteBuffer.allocate((int) size);
+                while (buffer.hasRemaining() == true) {
+                    if (channel.read(buffer) < 0) {
+                        throw new BufferUnderflowException();
+                    }; // if
+                }; // while
+            } finally {
+                channel.close();
+            }; // try
+            buffer.flip();
+            return read(buffer, folder1, folder2, resultsFile, wormSetting);
+        } catch (IOException ioe) {
+            System.out.println("Ignoring " + sidecarFile.getAbsolutePath() + ": " + ioe);
+        } catch (BufferUnderflowException bue) {
+            System.out.println("Ignoring " + sidecarFile.getAbsolutePath() + ": truncated");
+        }; // try
+        return null;
+    }
+
+    /**
+     * Deletes the sidecar of a folder, if any
+     *
+     * @param folder2 folder of the second (after) images, with the results
+     */
+    public static void delete(File folder2) {
+        File sidecarFile = new File(folder2, FILENAME);
+        if (sidecarFile.exists() == true) {
+            sidecarFile.delete();
+        }; // if
+    }
+
+    private static PlateAnalysis read(ByteBuffer buffer, File folder1, File folder2,
+            File resultsFile, DetectionCondition wormSetting) throws IOException {
+        if (buffer.getInt() != MAGIC || buffer.getInt() != VERSION) {
+            return null;
+        }; // if
+        if (buffer.getLong() != resultsFile.length() || buffer.getLong() != resultsFile.lastModified()) {
+            return null;
+        }; // if
+        long sourcesStamp1 = buffer.getLong();
+        long sourcesStamp2 = buffer.getLong();
+        if (sourcesStamp1 == 0 || sourcesStamp1 != getSourcesStamp(folder1)
+                || sourcesStamp2 == 0 || sourcesStamp2 != getSourcesStamp(folder2)) {
+            return null;
+        }; // if
+        for (int value : getConditionValues(wormSetting)) {
+            if (buffer.getInt() != value) {
+                return null;
+            }; // if
+        }; // for
+        ImageShift shift1 = new ImageShift(buffer.getDouble(), buffer.getDouble(), 0);
+        int width = buffer.getInt();
+        int height = buffer.getInt();
+        if (width < 1 || height < 1 || (long) width * height > Integer.MAX_VALUE) {
+            throw new IOException("Bad image size " + width + "x" + height);
+        }; // if
+
+        PlateAnalysis analysis = new PlateAnalysis(folder1, folder2);
+        List<WormInfo> wormsList = new ArrayList<WormInfo>();
+        int wormCount = buffer.getInt();
+        for (int i = 0; i < wormCount; i++) {
+            WormInfo worm = new WormInfo();
+            worm.nLive = buffer.getInt();
+            worm.pX = buffer.getInt();
+            worm.pY = buffer.getInt();
+            worm.width = buffer.getInt();
+            worm.height = buffer.getInt();
+            wormsList.add(worm);
+        }; // for
+
+        int maxLabel = buffer.getInt();
+        List<BinaryRegion> regions = readRegions(buffer);
+        Map<Integer, BinaryRegion> regionOf = new HashMap<Integer, BinaryRegion>();
+        for (BinaryRegion region : regions) {
+            regionOf.put(region.getLabel(), region);
+        }; // for
+        List<BinaryRegion> roiList = new LinkedList<BinaryRegion>();
+        int roiCount = buffer.getInt();
+        for (int i = 0; i < roiCount; i++) {
+            BinaryRegion region = regionOf.get(buffer.getInt());
+            if (region == null) {
+                throw new IOException("Unknown region");
+            }; // if
+            roiList.add(region);
+        }; // for
+        int diffMaxLabel = buffer.getInt();
+        List<BinaryRegion> diffRegions = readRegions(buffer);
+
+        int[] labels = new int[width * height];
+        readRuns(buffer, labels);
+        int[] diffLabels = new int[width * height];
+        readRuns(buffer, diffLabels);
+        ByteProcessor binary = new ByteProcessor(width, height);
+        readRuns(buffer, (byte[]) binary.getPixels());
+        ByteProcessor diffBinary = new ByteProcessor(width, height);
+        readRuns(buffer, (byte[]) diffBinary.getPixels());
+
+        // the images are the assembled images the sidecar was made from
+        analysis.assembled1 = new ImagePlus(new File(folder1, Utilities.ASSEMBLED_JPEG).getAbsolutePath());
+        analysis.assembled2 = new ImagePlus(new File(folder2, Utilities.ASSEMBLED_JPEG).getAbsolutePath());
+        if (analysis.assembled1.getProcessor() == null || analysis.assembled2.getProcessor() == null) {
+            return null;
+        }; // if
+        if (shift1.isIdentity() == false) {
+            if (analysis.assembled1.getBitDepth() != 8) {
+                new ImageConverter(analysis.assembled1).convertToGray8();
+            }; // if
+            GrayRaster raster = GrayRaster.wrap((ByteProcessor) analysis.assembled1.getProcessor());
+            analysis.assembled1 = new ImagePlus("aligned", shift1.apply(raster, 255).toByteProcessor());
+            analysis.shift1 = shift1;
+        }; // if
+        if (analysis.assembled2.getWidth() != width || analysis.assembled2.getHeight() != height) {
+            return null;
+        }; // if
+
+        analysis.substractedImage = new ImagePlus("substractedImage", DiffImageLabeling.subtract(
+                analysis.assembled1.getProcessor(), analysis.assembled2.getProcessor(), true));
+        analysis.binarySubtractedImage = new ImagePlus("binarySubtractedImage", diffBinary);
+        analysis.assembled2_bw = new ImagePlus("assembled2_bw", binary);
+        analysis.assembled2_bw_beforeRemovingBorder = analysis.assembled2_bw.duplicate();
+        analysis.sq = new StoredLabeling(width, height, labels, regions, maxLabel);
+        analysis.sq_sub = new StoredLabeling(width, height, diffLabels, diffRegions, diffMaxLabel);
+        analysis.roiList = roiList;
+        analysis.wormsList = wormsList;
+        return analysis;
+    }
+
+    /**
+     * Time stamp of the images of a folder: pieces and assembled image
+     *
+     * @return the stamp; 0 when there is no assembled image
+     */
+    static long getSourcesStamp(File folder) {
+        File assembledFile = new File(folder, Utilities.ASSEMBLED_JPEG);
+        if (assembledFile.exists() == false) {
+            return 0;
+        }; // if
+        long stamp = 17;
+        stamp = stamp * 31 + assembledFile.length();
+        stamp = stamp * 31 + assembledFile.lastModified();
+        int piecesCount = Utilities.countPiecesFiles(folder.getAbsolutePath());
+        stamp = stamp * 31 + piecesCount;
+        for (int i = 1; i <= piecesCount; i++) {
+            File pieceFile = new File(folder, "piece_" + i + ".jpeg");
+            stamp = stamp * 31 + pieceFile.length();
+            stamp = stamp * 31 + pieceFile.lastModified();
+        }; // for
+        return stamp == 0 ? 1 : stamp;
+    }
+
+    private static int[] getConditionValues(DetectionCondition wormSetting) {
+        return new int[] {
+            wormSetting.min_DiffPixelCount_Of_Worm_In_DiffBinaryImage,
+            wormSetting.min_WormSize,
+            wormSetting.max_WormSize,
+            wormSetting.min_MissingWormSize_In_DiffImage,
+            wormSetting.min_GrayDiff_In_DiffImage,
+            wormSetting.min_WhitePixelCount_In_DiffImage
+        };
+    }
+
+    private static void writeRegions(DataOutputStream out, RegionLabeling labeling) throws IOException {
+        out.writeInt(labeling.getMaxLabel());
+        out.writeInt(labeling.regions.size());
+        for (BinaryRegion region : labeling.regions) {
+            out.writeInt(region.label);
+            out.writeInt(region.numberOfPixels);
+            out.writeInt(region.left);
+            out.writeInt(region.top);
+            out.writeInt(region.right);
+            out.writeInt(region.bottom);
+            out.writeInt(region.x_sum);
+            out.writeInt(region.y_sum);
+            out.writeInt(region.x2_sum);
+            out.writeInt(region.y2_sum);
+        }; // for
+    }
+
+    private static List<BinaryRegion> readRegions(ByteBuffer buffer) {
+        int count = buffer.getInt();
+        List<BinaryRegion> regions = new ArrayList<BinaryRegion>();
+        for (int i = 0; i < count; i++) {
+            BinaryRegion region = new BinaryRegion(buffer.getInt());
+            region.numberOfPixels = buffer.getInt();
+            region.left = buffer.getInt();
+            region.top = buffer.getInt();
+            region.right = buffer.getInt();
+            region.bottom = buffer.getInt();
+            region.x_sum = buffer.getInt();
+            region.y_sum = buffer.getInt();
+            region.x2_sum = buffer.getInt();
+            region.y2_sum = buffer.getInt();
+            region.update();
+            regions.add(region);
+        }; // for
+        return regions;
+    }
+
+    /**
+     * Writes values as runs: the number of runs, then value and length of
+     * each run
+     */
+    private static void writeRuns(DataOutputStream out, int[] values) throws IOException {
+        int runCount = 0;
+        for (int i = 0; i < values.length; i++) {
+            if (i == 0 || values[i] != values[i - 1]) {
+                runCount++;
+            }; // if
+        }; // for
+        out.writeInt(runCount);
+        int start = 0;
+        for (int i = 1; i <= values.length; i++) {
+            if (i == values.length || values[i] != values[start]) {
+                writeVarint(out, values[start]);
+                writeVarint(out, i - start);
+                start = i;
+            }; // if
+        }; // for
+    }
+
+    private static void writeRuns(DataOutputStream out, byte[] values) throws IOException {
+        int runCount = 0;
+        for (int i = 0; i < values.length; i++) {
+            if (i == 0 || values[i] != values[i - 1]) {
+                runCount++;
+            }; // if
+        }; // for
+        out.writeInt(runCount);
+        int start = 0;
+        for (int i = 1; i <= values.length; i++) {
+            if (i == values.length || values[i] != values[start]) {
+                writeVarint(out, values[start] & 0xff);
+                writeVarint(out, i - start);
+                start = i;
+            }; // if
+        }; // for
+    }
+
+    private static void readRuns(ByteBuffer buffer, int[] values) throws IOException {
+        int runCount = buffer.getInt();
+        int position = 0;
+        for (int i = 0; i < runCount; i++) {
+            int value = readVarint(buffer);
+            int length = readVarint(buffer);
+            if (length < 1 || length > values.length - position) {
+                throw new IOException("Bad run length " + length);
+            }; // if
+            if (value != 0) {
+                Arrays.fill(values, position, position + length, value);
+            }; // if
+            position += length;
+        }; // for
+        if (position != values.length) {
+            throw new IOException("Runs do not cover the image");
+        }; // if
+    }
+
+    private static void readRuns(ByteBuffer buffer, byte[] values) throws IOException {
+        int runCount = buffer.getInt();
+        int position = 0;
+        for (int i = 0; i < runCount; i++) {
+            byte value = (byte) readVarint(buffer);
+            int length = readVarint(buffer);
+            if (length < 1 || length > values.length - position) {
+                throw new IOException("Bad run length " + length);
+            }; // if
+            if (value != 0) {
+                Arrays.fill(values, position, position + length, value);
+            }; // if
+            position += length;
+        }; // for
+        if (position != values.length) {
+            throw new IOException("Runs do not cover the image");
+        }; // if
+    }
+
+    /**
+     * Writes a non-negative value, 7 bits per byte, low bits first; the high
+     * bit of a byte is set when more bytes follow
+     */
+    private static void writeVarint(DataOutputStream out, int value) throws IOException {
+        while ((value & ~0x7f) != 0) {
+            out.writeByte((value & 0x7f) | 0x80);
+            value >>>= 7;
+        }; // while
+        out.writeByte(value);
+    }
+
+    private static int readVarint(ByteBuffer buffer) throws IOException {
+        int value = 0;
+        for (int shift = 0; shift < 32; shift += 7) {
+            int b = buffer.get();
+            value |= (b & 0x7f) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }; // if
+        }; // for
+        throw new IOException("Bad variable-length integer");
+    }
+
+    /**
+     * Labeling read back from a sidecar
+     */
+    private static class StoredLabeling extends RegionLabeling {
+
+        StoredLabeling(int width, int height, int[] labels, List<BinaryRegion> regions, int maxLabel) {
+            super(width, height);
+            this.labels = labels;
+            this.regions = regions;
+            setMaxLabel(maxLabel);
+        }
+
+        /**
+         * Labels are read, not made
+         */
+        @Override
+        void applyLabeling() {
+        }
+    }
+}
@@ -6,6 +6,7 @@ package edu.rice.wormlab.lifespan;
 
 import ij.process.ImageProcessor;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 
 /**
@@ -28,6 +29,15 @@ public class SequentialLabeling extends RegionLabeling {
 		super(ip);
 	}
 
+	/* The constructor only makes the labels array; this labels it and
+	 * collects the regions.
+	 */
+	public List<BinaryRegion> labelRegions() {
+		applyLabeling();
+		collectRegions();
+		return regions;
+	}
+
 	void applyLabeling() {
 		//if (beVerbose) IJ.write("Sequential region labeling - Step 1");
 		//map = new Hashtable<Collission,Collission>(1000);
@@ -0,0 +1,225 @@
+/*
+ * Filename: SeriesDay.java
+ */
+
+package edu.rice.wormlab.lifespan;
+
+import ij.ImagePlus;
+import ij.process.ByteProcessor;
+import ij.process.ImageConverter;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * One day of a lifespan series: the assembled plate image of a folder and
+ * its binarization, each made once.
+ * Both are kept in a cache file in the folder (deflated; the binarization
+ * one bit per pixel), so later runs read them back instead of decoding
+ * the assembled image and thresholding it again. The cache belongs to the
+ * assembled image it was made from: when that file changes, the cache is
+ * made again.
+ */
+public class SeriesDay {
+
+    /** name of the cache file in the folder of the day */
+    public static final String CACHE_FILENAME = "series-cache.bin";
+
+    private static final int MAGIC = 0x51574443; // "QWDC"
+    private static final int VERSION = 1;
+
+    private final File folder;
+    private final GrayRaster raster;
+    private ByteProcessor binary;
+    private final long assembledModified;
+    private final long assembledLength;
+    private boolean isCacheOutdated;
+
+    private SeriesDay(File folder, GrayRaster raster, ByteProcessor binary,
+            File assembledFile, boolean isCacheOutdated) {
+        this.folder = folder;
+        this.raster = raster;
+        this.binary = binary;
+        this.assembledModified = assembledFile.lastModified();
+        this.assembledLength = assembledFile.length();
+        this.isCacheOutdated = isCacheOutdated;
+    }
+
+    /**
+     * Loads a day from its cache file, or assembles its image when the cache
+     * is missing or outdated
+     *
+     * @param folder the folder of the day
+     * @param scannerLog the scanner-log of the folder
+     * @return the day; null when the image cannot be assembled
+     */
+    public static SeriesDay load(File folder, ScannerLog scannerLog) {
+        File assembledFile = new File(folder, Utilities.ASSEMBLED_JPEG);
+        File cacheFile = new File(folder, CACHE_FILENAME);
+        if (assembledFile.exists() == true && cacheFile.exists() == true) {
+            try {
+                SeriesDay day = readCache(folder, cacheFile, assembledFile);
+                if (day != null) {
+                    return day;
+                }; // if
+            } catch (IOException ioe) {
+                System.out.println("Ignoring cache " + cacheFile.getAbsolutePath() + ": " + ioe);
+            }; // try
+        }; // if
+
+        ImagePlus assembled = Utilities.assembleImage_Reload(folder.getAbsolutePath(), scannerLog);
+        if (assembled == null) {
+            return null;
+        }; // if
+        if (assembled.getBitDepth() != 8) {
+            new ImageConverter(assembled).convertToGray8();
+        }; // if
+        GrayRaster raster = GrayRaster.wrap((ByteProcessor) assembled.getProcessor());
+        return new SeriesDay(folder, raster, null, assembledFile, true);
+    }
+
+    /**
+     * @return the folder of the day
+     */
+    public File getFolder() {
+        return folder;
+    }
+
+    /**
+     * @return the assembled image, 8-bit
+     */
+    public GrayRaster getRaster() {
+        return raster;
+    }
+
+    /**
+     * @return the assembled image as an ImageJ image sharing the raster
+     */
+    public ImagePlus getImage() {
+        return new ImagePlus(new File(folder, Utilities.ASSEMBLED_JPEG).getAbsolutePath(),
+                raster.toByteProcessor());
+    }
+
+    /**
+     * Binarized image, as LifespanPipeline.binarizeImage2 makes it; made at
+     * the first call unless it was cached
+     *
+     * @param imgProc image-processing object to work with
+     * @return 8-bit binary image, 0 or 255
+     */
+    public ImagePlus getBinaryImage(NativeImgProcessing imgProc) {
+        if (binary == null) {
+            ImagePlus binaryImage = LifespanPipeline.binarizeImage2(getImage(), imgProc);
+            binary = (ByteProcessor) binaryImage.getProcessor();
+            isCacheOutdated = true;
+        }; // if
+        return new ImagePlus("binary", binary.duplicate());
+    }
+
+    /**
+     * Writes the cache file, if what it holds changed
+     *
+     * @return null when things go OK, otherwise an error message
+     */
+    public String saveCache() {
+        if (isCacheOutdated == false) {
+            return null;
+        }; // if
+        File cacheFile = new File(folder, CACHE_FILENAME);
+        try {
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                    new DeflaterOutputStream(new FileOutputStream(cacheFile),
+                    new Deflater(Deflater.BEST_SPEED), 1 << 16), 1 << 16));
+            try {
+                out.writeInt(MAGIC);
+                out.writeInt(VERSION);
+                out.writeLong(assembledModified);
+                out.writeLong(assembledLength);
+                out.writeInt(raster.width);
+                out.writeInt(raster.height);
+                GrayRaster compact = raster.isCompact() ? raster : raster.copy();
+                out.write(compact.pixels, 0, raster.width * raster.height);
+                out.writeBoolean(binary != null);
+                if (binary != null) {
+                    out.write(packBits((byte[]) binary.getPixels()));
+                }; // if
+            } finally {
+                out.close();
+            }; // try
+        } catch (IOException ioe) {
+            cacheFile.delete();
+            return "Unable to write " + cacheFile.getAbsolutePath() + ": " + ioe;
+        }; // try
+        isCacheOutdated = false;
+        return null;
+    }
+
+    /**
+     * @return the day read from the cache; null when the cache was made from
+     * another assembled image
+     */
+    private static SeriesDay readCache(File folder, File cacheFile, File assembledFile)
+            throws IOException {
+        DataInputStream in = new DataInputStream(new BufferedInputStream(
+                new InflaterInputStream(new FileInputStream(cacheFile)), 1 << 16));
+        try {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                return null;
+            }; // if
+            if (in.readLong() != assembledFile.lastModified()
+                    || in.readLong() != assembledFile.length()) {
+                return null;
+            }; // if
+            int width = in.readInt();
+            int height = in.readInt();
+            if (width < 1 || height < 1 || (long) width * height > Integer.MAX_VALUE) {
+                throw new IOException("Bad image size " + width + "x" + height);
+            }; // if
+            GrayRaster raster = new GrayRaster(width, height);
+            in.readFully(raster.pixels);
+            ByteProcessor binary = null;
+            if (in.readBoolean() == true) {
+                byte[] packed = new byte[(width * height + 7) / 8];
+                in.readFully(packed);
+                binary = new ByteProcessor(width, height, unpackBits(packed, width * height), null);
+            }; // if
+            return new SeriesDay(folder, raster, binary, assembledFile, false);
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * Packs a binary image, one bit per pixel (set for white)
+     */
+    private static byte[] packBits(byte[] pixels) {
+        byte[] packed = new byte[(pixels.length + 7) / 8];
+        for (int i = 0; i < pixels.length; i++) {
+            if (pixels[i] != 0) {
+                packed[i >> 3] |= (byte) (0x80 >>> (i & 7));
+            }; // if
+        }; // for
+        return packed;
+    }
+
+    /**
+     * Unpacks a binary image into pixels of 0 or 255
+     */
+    private static byte[] unpackBits(byte[] packed, int count) {
+        byte[] pixels = new byte[count];
+        for (int i = 0; i < count; i++) {
+            if ((packed[i >> 3] & (0x80 >>> (i & 7))) != 0) {
+                pixels[i] = (byte) 255;
+            }; // if
+        }; // for
+        return pixels;
+    }
+}
@@ -5,10 +5,7 @@
 package edu.rice.wormlab.lifespan;
 
 import ij.ImagePlus;
-import ij.gui.NewImage;
 import ij.io.FileSaver;
-import ij.process.Blitter;
-import ij.process.ImageProcessor;
 import java.io.BufferedReader;
 import java.io.File;
 import java.io.FileNotFoundException;
@@ -77,35 +74,21 @@ public class Utilities {
      * @return
      */
     public static ImagePlus assembleImage(String folder, boolean saveToDiskFlag, ScannerLog scannerLog) {
-        long time1 = System.currentTimeMillis();
         File theFile = new File(folder + File.separator + ASSEMBLED_JPEG);
         if (theFile.exists() == true) {
             ImagePlus assembled = new ImagePlus(folder + File.separator + ASSEMBLED_JPEG);
             return assembled;
         }; // if
 
-        int numberOfColumns = scannerLog.getNumberOfColumns();
-        int numberOfRows = scannerLog.getNumberOfRows();
-
         // assemble from pieces
-        ImagePlus assembled = NewImage.createByteImage("assembled", numberOfColumns * 640, numberOfRows * 480, 1, NewImage.FILL_BLACK);
-        ImageProcessor ipAssembled = assembled.getProcessor();
-        for (int i = 1; i <= numberOfColumns; i++) {
-            for (int j = 1; j <= numberOfRows; j++) {
-                String index = String.valueOf(i + numberOfColumns * (j - 1));
-                String path = folder + File.separator + "piece_" + index + ".jpeg";
-                ImagePlus tempIP = new ImagePlus(path);
-                ipAssembled.copyBits(tempIP.getProcessor(), 640 * (i - 1), 480 * (j - 1), Blitter.ADD);
-            }; // for
-        }; // for
+        ImagePlus assembled = assembleFromPieces(folder, scannerLog);
+        if (assembled == null) {
+            return null;
+        }; // if
         if (saveToDiskFlag == true) {
             FileSaver saver = new FileSaver(assembled);
             saver.saveAsJpeg(folder + File.separator + ASSEMBLED_JPEG);
         }; // if
-
-        long time2 = System.currentTimeMillis();
-        System.out.println(Utilities.format2(((time2 - time1) / 1000.0)) + " seconds for assembling image");
-        //iw.show();
         return assembled;
     }
 
@@ -120,34 +103,21 @@ public class Utilities {
      * @return if piece images are not found, return false
      */
     public static boolean assembleImage_NoImageReturn(String folder, ScannerLog scannerLog) {
-        long time1 = System.currentTimeMillis();
         File theFile = new File(folder + File.separator + ASSEMBLED_JPEG);
 
         if (theFile.exists() == true) {
             return true;
         }
 
-        int numberOfColumns = scannerLog.getNumberOfColumns();
-        int numberOfRows = scannerLog.getNumberOfRows();
-
         // assemble from pieces
-        ImagePlus assembled = NewImage.createByteImage("assembled", numberOfColumns * 640, numberOfRows * 480, 1, NewImage.FILL_BLACK);
-        ImageProcessor ipAssembled = assembled.getProcessor();
-        for (int i = 1; i <= numberOfColumns; i++) {
-            for (int j = 1; j <= numberOfRows; j++) {
-                String index = String.valueOf(i + numberOfColumns * (j - 1));
-                String path = folder + File.separator + "piece_" + index + ".jpeg";
-                ImagePlus tempIP = new ImagePlus(path);
-                ipAssembled.copyBits(tempIP.getProcessor(), 640 * (i - 1), 480 * (j - 1), Blitter.ADD);
-            }; // for
-        }; // for
+        ImagePlus assembled = assembleFromPieces(folder, scannerLog);
+        if (assembled == null) {
+            return false;
+        }; // if
 
         FileSaver saver = new FileSaver(assembled);
         saver.saveAsJpeg(folder + File.separator + ASSEMBLED_JPEG);
 
-        long time2 = System.currentTimeMillis();
-        System.out.println(Utilities.format2(((time2 - time1) / 1000.0)) + " seconds for assembling image");
-
         return true;
     }
 
@@ -163,40 +133,43 @@ public class Utilities {
      * @return ImagePlus
      */
     public static ImagePlus assembleImage_Reload(String folder, ScannerLog scannerLog) {
-        long time1 = System.currentTimeMillis();
         File theFile = new File(folder + File.separator + ASSEMBLED_JPEG);
         if (theFile.exists() == true) {
             ImagePlus assembled = new ImagePlus(folder + File.separator + ASSEMBLED_JPEG);
             return assembled;
         }; // if
 
-        int numberOfColumns = scannerLog.getNumberOfColumns();
-        int numberOfRows = scannerLog.getNumberOfRows();
-
         // assemble from pieces
-        ImagePlus assembled = NewImage.createByteImage("assembled", numberOfColumns * 640, numberOfRows * 480, 1, NewImage.FILL_BLACK);
-        ImageProcessor ipAssembled = assembled.getProcessor();
-        for (int i = 1; i <= numberOfColumns; i++) {
-            for (int j = 1; j <= numberOfRows; j++) {
-                String index = String.valueOf(i + numberOfColumns * (j - 1));
-                String path = folder + File.separator + "piece_" + index + ".jpeg";
-                ImagePlus tempIP = new ImagePlus(path);
-                ipAssembled.copyBits(tempIP.getProcessor(), 640 * (i - 1), 480 * (j - 1), Blitter.ADD);
-            }; // for
-        }; // for
-
+        ImagePlus assembled = assembleFromPieces(folder, scannerLog);
+        if (assembled == null) {
+            return null;
+        }; // if
 
         FileSaver saver = new FileSaver(assembled);
         saver.saveAsJpeg(folder + File.separator + ASSEMBLED_JPEG);
 
         ImagePlus assembled2 = new ImagePlus(folder + File.separator + ASSEMBLED_JPEG);
-
-        long time2 = System.currentTimeMillis();
-        System.out.println(Utilities.format2(((time2 - time1) / 1000.0)) + " seconds for assembling image");
-        //iw.show();
         return assembled2;
     }
 
+    /**
+     * Assembles image from the pieces of a folder, decoding them in parallel
+     *
+     * @param folder the name of the folder
+     * @param scannerLog the ScannerLog object
+     * @return the assembled image; null when a piece is missing or unreadable
+     */
+    public static ImagePlus assembleFromPieces(String folder, ScannerLog scannerLog) {
+        PlateAssembler assembler = new PlateAssembler(true);
+        ImagePlus assembled = assembler.assembleImage(folder, scannerLog);
+        if (assembled == null) {
+            System.out.println(assembler.getError());
+            return null;
+        }; // if
+        System.out.println(assembler.getTimingReport());
+        return assembled;
+    }
+
     /**
      * Reads a file
      *
@@ -0,0 +1,187 @@
+/*
+ * Filename: WormIconCache.java
+ */
+
+package edu.rice.wormlab.lifespan;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import javax.swing.ImageIcon;
+import javax.swing.SwingUtilities;
+
+/**
+ * Icons of the worms shown page by page in the inspection dialog, two per
+ * worm (the frames of the animation).
+ * Icons are rendered on a background thread when their page is asked for,
+ * and the pages before and after it are rendered next, so turning a page
+ * rarely waits. Only the icons of the last few pages used are kept (least
+ * recently used ones are dropped), so memory does not grow with the worm
+ * count.
+ */
+public class WormIconCache {
+
+    /** default number of pages whose icons are kept */
+    public static final int DEFAULT_PAGES_KEPT = 5;
+
+    /**
+     * Renders the icons of the worms
+     */
+    public interface IconRenderer {
+
+        /**
+         * @param wormIndex index of the worm
+         * @param isSecondIcon false for the first frame, true for the second
+         * @return the icon; called on the background thread
+         */
+        ImageIcon render(int wormIndex, boolean isSecondIcon);
+    }
+
+    /**
+     * Told when the icons of a page are ready
+     */
+    public interface PageListener {
+
+        /**
+         * @param page the page; called on the event dispatch thread
+         */
+        void pageReady(int page);
+    }
+
+    private final int wormCount;
+    private final int pageSize;
+    private final IconRenderer renderer;
+    private final ExecutorService executor;
+
+    //Icons, key is wormIndex * 2 (+ 1 for second icon), in access order
+    private final Map<Integer, ImageIcon> iconsMap;
+
+    //Page asked for last; pages asked before it are not rendered any more
+    private volatile int wantedPage = -1;
+
+    /**
+     * @param wormCount number of worms
+     * @param pageSize number of worms in a page
+     * @param pagesKept number of pages whose icons are kept; at least 3
+     * (a page and the pages around it)
+     * @param renderer renderer of the icons
+     */
+    public WormIconCache(int wormCount, int pageSize, int pagesKept, IconRenderer renderer) {
+        if (wormCount < 0 || pageSize < 1 || pagesKept < 3 || renderer == null) {
+            throw new IllegalArgumentException("Bad icon cache: " + wormCount + " worms, page "
+                    + pageSize + ", " + pagesKept + " pages kept");
+        }
+        this.wormCount = wormCount;
+        this.pageSize = pageSize;
+        this.renderer = renderer;
+        final int capacity = pagesKept * pageSize * 2;
+        iconsMap = new LinkedHashMap<Integer, ImageIcon>(capacity * 4 / 3 + 1, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Integer, ImageIcon> eldest) {
+                return size() > capacity;
+            }
+        };
+        executor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "worm-icons");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+
+    /**
+     * Icon if it is rendered already; it is not rendered otherwise
+     *
+     * @param wormIndex index of the worm
+     * @param isSecondIcon false for the first frame, true for the second
+     * @return the icon, or null
+     */
+    public synchronized ImageIcon getIcon(int wormIndex, boolean isSecondIcon) {
+        return iconsMap.get(getKey(wormIndex, isSecondIcon));
+    }
+
+    /**
+     * Asks for the icons of a page; the listener is told once they are
+     * ready, unless another page was asked for meanwhile
+     *
+     * @param page the page
+     * @param listener the listener, may be null
+     */
+    public void requestPage(final int page, final PageListener listener) {
+        wantedPage = page;
+        if (executor.isShutdown() == true) {
+            return;
+        }; // if
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                if (renderPage(page, page) == false) {
+                    return;
+                }; // if
+                if (listener != null) {
+                    SwingUtilities.invokeLater(new Runnable() {
+                        @Override
+                        public void run() {
+                            listener.pageReady(page);
+                        }
+                    });
+                }; // if
+
+                // prefetch
+                if (renderPage(page + 1, page) == true) {
+                    renderPage(page - 1, page);
+                }; // if
+            }
+        });
+    }
+
+    /**
+     * Stops rendering; icons already rendered stay available
+     */
+    public void shutdown() {
+        wantedPage = -1;
+        executor.shutdownNow();
+    }
+
+    /**
+     * Renders the missing icons of a page, while it is still wanted
+     *
+     * @param page the page to render
+     * @param forPage the page asked for
+     * @return false when another page was asked for meanwhile
+     */
+    private boolean renderPage(int page, int forPage) {
+        int first = Math.max(0, page * pageSize);
+        int last = Math.min(wormCount, (page + 1) * pageSize);
+        for (int wormIndex = first; wormIndex < last; wormIndex++) {
+            for (int which = 0; which < 2; which++) {
+                if (wantedPage != forPage) {
+                    return false;
+                }; // if
+                boolean isSecondIcon = which == 1;
+                if (getIcon(wormIndex, isSecondIcon) != null) {
+                    continue;
+                }; // if
+                ImageIcon icon;
+                try {
+                    icon = renderer.render(wormIndex, isSecondIcon);
+                } catch (RuntimeException re) {
+                    re.printStackTrace();
+                    continue;
+                }; // try
+                synchronized (this) {
+                    iconsMap.put(getKey(wormIndex, isSecondIcon), icon);
+                }
+            }; // for
+        }; // for
+        return true;
+    }
+
+    private static Integer getKey(int wormIndex, boolean isSecondIcon) {
+        return wormIndex * 2 + (isSecondIcon ? 1 : 0);
+    }
+}
@@ -11,7 +11,6 @@ import java.io.PrintStream;
 import java.io.PrintWriter;
 import java.util.ArrayList;
 import java.util.Date;
-import java.util.LinkedList;
 import java.util.List;
 import javax.swing.JFileChooser;
 import javax.swing.JFrame;
@@ -122,7 +121,7 @@ public class BatchTracking {
             }
 
 
-            LinkedList<LinkedList<double[]>> tracksList = null;
+            TrackStore tracksList = null;
             // does the .file exist?
             File dotFile = new File(video.getAbsoluteFile() + ".file");
             
@@ -147,7 +146,7 @@ public class BatchTracking {
                     continue;
                 }; // if
             }; // if
-            tracksList = tracker.getActiveList();
+            tracksList = tracker.getTracks();
 
 
             if (tracksList == null) {
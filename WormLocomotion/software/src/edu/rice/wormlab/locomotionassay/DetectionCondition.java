@@ -28,6 +28,12 @@ public class DetectionCondition {
     public int min_Distance_Of_SameWorm = 10;
     //maximum allowable area percent changes of worm
     public int max_PercentChange_In_WormSize = 20;
+    //true to assign the worms of a frame to the tracks all at once (see
+    //TrackAssignment), false to give each track in turn its nearest worm
+    public boolean is_GlobalAssignment = false;
+    //true to expect a worm, in the assignment all at once, where its last
+    //step would take it again
+    public boolean is_VelocityPredicted = false;
     //bin size for statistical analysis
     public double max_BinSize_For_Histogram = 0.5;
     public double binSpacingSize_For_Histogram = 0.01;
@@ -109,6 +115,14 @@ public class DetectionCondition {
                     String[] splitStr = each.split("=");
                     this.max_PercentChange_In_WormSize = Utilities.getInteger(splitStr[1].trim());
                 }
+                if (each.startsWith("is_GlobalAssignment") == true) {
+                    String[] splitStr = each.split("=");
+                    this.is_GlobalAssignment = Boolean.parseBoolean(splitStr[1].trim());
+                }
+                if (each.startsWith("is_VelocityPredicted") == true) {
+                    String[] splitStr = each.split("=");
+                    this.is_VelocityPredicted = Boolean.parseBoolean(splitStr[1].trim());
+                }
                 if (each.startsWith("max_BinSize_For_Histogram") == true) {
                     String[] splitStr = each.split("=");
                     this.max_BinSize_For_Histogram = Utilities.getDouble(splitStr[1].trim());
@@ -0,0 +1,242 @@
+/*
+ * Filename: DetectionGrid.java
+ */
+
+package edu.rice.wormlab.locomotionassay;
+
+import ij.measure.ResultsTable;
+import java.util.Arrays;
+
+/**
+ * The objects detected in a frame (centroid and area), copied out of the
+ * results of ParticleAnalyzer into arrays and bucketed in a uniform grid of
+ * cells as wide as the matching distance, so the detections near a point
+ * are found by looking at a few cells instead of at all the rows.
+ * Detections keep the order of the rows; a detection taken by a track is
+ * no longer found. The arrays are kept from frame to frame and only grow.
+ */
+public class DetectionGrid {
+
+    //Upper bound on the number of cells, the cells grow for wide spreads
+    private static final int MAX_CELL_COUNT = 1 << 16;
+
+    private double radius;
+    private int count = 0;
+    private double[] x = new double[64];
+    private double[] y = new double[64];
+    private double[] area = new double[64];
+    private boolean[] isTaken = new boolean[64];
+
+    private double minX;
+    private double minY;
+    private double cellSize;
+    private int columns;
+    private int rows;
+    //Detections of cell c are cellItems[cellStart[c]] to cellItems[cellStart[c + 1] - 1]
+    private int[] cellStart = new int[1];
+    private int[] cellItems = new int[64];
+    private int[] cellOf = new int[64];
+
+    /**
+     * Loads the detections of a frame
+     *
+     * @param resultsTable results of ParticleAnalyzer, with X, Y and Area
+     * @param radius matching distance; detections are found within it
+     */
+    public void load(ResultsTable resultsTable, double radius) {
+        this.radius = radius;
+        count = resultsTable.getCounter();
+        if (count > x.length) {
+            int capacity = Math.max(count, x.length * 2);
+            x = new double[capacity];
+            y = new double[capacity];
+            area = new double[capacity];
+            isTaken = new boolean[capacity];
+            cellItems = new int[capacity];
+            cellOf = new int[capacity];
+        }; // if
+        if (count == 0) {
+            return;
+        }; // if
+        int xColumn = resultsTable.getColumnIndex("X");
+        int yColumn = resultsTable.getColumnIndex("Y");
+        int areaColumn = resultsTable.getColumnIndex("Area");
+        for (int i = 0; i < count; i++) {
+            x[i] = resultsTable.getValueAsDouble(xColumn, i);
+            y[i] = resultsTable.getValueAsDouble(yColumn, i);
+            area[i] = resultsTable.getValueAsDouble(areaColumn, i);
+            isTaken[i] = false;
+        }; // for
+        buildCells();
+    }
+
+    /**
+     * @return the matching distance
+     */
+    public double getRadius() {
+        return radius;
+    }
+
+    /**
+     * @return number of detections
+     */
+    public int size() {
+        return count;
+    }
+
+    /**
+     * @return x of the centroid of a detection
+     */
+    public double getX(int detection) {
+        return x[detection];
+    }
+
+    /**
+     * @return y of the centroid of a detection
+     */
+    public double getY(int detection) {
+        return y[detection];
+    }
+
+    /**
+     * @return area of a detection
+     */
+    public double getArea(int detection) {
+        return area[detection];
+    }
+
+    /**
+     * @return true when the detection is taken by a track
+     */
+    public boolean isTaken(int detection) {
+        return isTaken[detection];
+    }
+
+    /**
+     * Marks a detection as taken by a track; it is not found afterwards
+     */
+    public void take(int detection) {
+        isTaken[detection] = true;
+    }
+
+    /**
+     * Nearest detection not taken yet within the matching distance of a
+     * point (the distance itself included); of detections as near, the one
+     * of the first row
+     *
+     * @return index of the detection; -1 when there is none
+     */
+    public int findNearest(double pointX, double pointY) {
+        if (count == 0 || radius < 0) {
+            return -1;
+        }; // if
+        int firstColumn = Math.max(0, (int) Math.floor((pointX - radius - minX) / cellSize));
+        int lastColumn = Math.min(columns - 1, (int) Math.floor((pointX + radius - minX) / cellSize));
+        int firstRow = Math.max(0, (int) Math.floor((pointY - radius - minY) / cellSize));
+        int lastRow = Math.min(rows - 1, (int) Math.floor((pointY + radius - minY) / cellSize));
+        double maxSquared = radius * radius;
+        double bestSquared = Double.MAX_VALUE;
+        int best = -1;
+        for (int row = firstRow; row <= lastRow; row++) {
+            for (int column = firstColumn; column <= lastColumn; column++) {
+                int cell = row * columns + column;
+                for (int k = cellStart[cell]; k < cellStart[cell + 1]; k++) {
+                    int i = cellItems[k];
+                    if (isTaken[i] == true) {
+                        continue;
+                    }; // if
+                    double dx = pointX - x[i];
+                    double dy = pointY - y[i];
+                    double squared = dx * dx + dy * dy;
+                    if (squared <= maxSquared
+                            && (squared < bestSquared || (squared == bestSquared && i < best))) {
+                        bestSquared = squared;
+                        best = i;
+                    }; // if
+                }; // for
+            }; // for
+        }; // for
+        return best;
+    }
+
+    /**
+     * Detections not taken yet within the matching distance of a point (the
+     * distance itself included)
+     *
+     * @param found receives the indices of the detections, in no particular
+     * order; at least size() long
+     * @return number of detections found
+     */
+    public int findWithin(double pointX, double pointY, int[] found) {
+        if (count == 0 || radius < 0) {
+            return 0;
+        }; // if
+        int firstColumn = Math.max(0, (int) Math.floor((pointX - radius - minX) / cellSize));
+        int lastColumn = Math.min(columns - 1, (int) Math.floor((pointX + radius - minX) / cellSize));
+        int firstRow = Math.max(0, (int) Math.floor((pointY - radius - minY) / cellSize));
+        int lastRow = Math.min(rows - 1, (int) Math.floor((pointY + radius - minY) / cellSize));
+        double maxSquared = radius * radius;
+        int foundCount = 0;
+        for (int row = firstRow; row <= lastRow; row++) {
+            for (int column = firstColumn; column <= lastColumn; column++) {
+                int cell = row * columns + column;
+                for (int k = cellStart[cell]; k < cellStart[cell + 1]; k++) {
+                    int i = cellItems[k];
+                    double dx = pointX - x[i];
+                    double dy = pointY - y[i];
+                    if (isTaken[i] == false && dx * dx + dy * dy <= maxSquared) {
+                        found[foundCount] = i;
+                        foundCount++;
+                    }; // if
+                }; // for
+            }; // for
+        }; // for
+        return foundCount;
+    }
+
+    /**
+     * Buckets the detections into cells, by counting sort
+     */
+    private void buildCells() {
+        minX = x[0];
+        minY = y[0];
+        double maxX = x[0];
+        double maxY = y[0];
+        for (int i = 1; i < count; i++) {
+            minX = Math.min(minX, x[i]);
+            minY = Math.min(minY, y[i]);
+            maxX = Math.max(maxX, x[i]);
+            maxY = Math.max(maxY, y[i]);
+        }; // for
+        cellSize = Math.max(radius, 1);
+        while (((long) ((maxX - minX) / cellSize) + 1) * ((long) ((maxY - minY) / cellSize) + 1)
+                > MAX_CELL_COUNT) {
+            cellSize *= 2;
+        }; // while
+        columns = (int) ((maxX - minX) / cellSize) + 1;
+        rows = (int) ((maxY - minY) / cellSize) + 1;
+
+        int cellCount = columns * rows;
+        if (cellStart.length < cellCount + 1) {
+            cellStart = new int[cellCount + 1];
+        }; // if
+        Arrays.fill(cellStart, 0, cellCount + 1, 0);
+        for (int i = 0; i < count; i++) {
+            int column = Math.min(columns - 1, (int) ((x[i] - minX) / cellSize));
+            int row = Math.min(rows - 1, (int) ((y[i] - minY) / cellSize));
+            cellOf[i] = row * columns + column;
+            cellStart[cellOf[i] + 1]++;
+        }; // for
+        for (int cell = 0; cell < cellCount; cell++) {
+            cellStart[cell + 1] += cellStart[cell];
+        }; // for
+        // cellStart[c] is used as the next free slot of cell c, then restored
+        for (int i = 0; i < count; i++) {
+            cellItems[cellStart[cellOf[i]]++] = i;
+        }; // for
+        for (int cell = cellCount; cell > 0; cell--) {
+            cellStart[cell] = cellStart[cell - 1];
+        }; // for
+        cellStart[0] = 0;
+    }
+}
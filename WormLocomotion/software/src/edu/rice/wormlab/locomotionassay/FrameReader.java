@@ -6,8 +6,10 @@ package edu.rice.wormlab.locomotionassay;
 
 import ij.ImagePlus;
 
+import java.io.File;
 import java.io.IOException;
 
+import java.awt.Dimension;
 import java.awt.Image;
 
 import javax.media.Buffer;
@@ -16,6 +18,7 @@ import javax.media.ControllerEvent;
 import javax.media.ControllerListener;
 import javax.media.Duration;
 import javax.media.EndOfMediaEvent;
+import javax.media.Format;
 import javax.media.Manager;
 import javax.media.MediaLocator;
 import javax.media.NoPlayerException;
@@ -25,16 +28,22 @@ import javax.media.Time;
 
 import javax.media.control.FrameGrabbingControl;
 import javax.media.control.FramePositioningControl;
+import javax.media.format.RGBFormat;
 import javax.media.format.VideoFormat;
 import javax.media.util.BufferToImage;
 
 
 /**
- * Reads a video for the purpose of taking a frame image out of it
+ * Reads a video for the purpose of taking a frame image out of it.
+ * AVI videos in a codec that AviReader decodes are read by it, without JMF;
+ * other videos go through a JMF player.
+ * Frames read in order (readNextFrame) are converted from the grabbed
+ * buffer straight into gray rasters when the buffer is RGB, without making
+ * an AWT image of each.
  * @author Wenshan
  */
 
-public class FrameReader implements ControllerListener {
+public class FrameReader implements ControllerListener, FrameSource {
 
     private boolean stateTransitionOK = true;
     private Object waitSync = new Object();
@@ -44,8 +53,29 @@ public class FrameReader implements ControllerListener {
     private FramePositioningControl framePositioningControl = null;
     private FrameGrabbingControl frameGrabbingControl = null;
     private double videoDurationInSec;
+    private int frameCount = -1;
+    private int nextFrame = 0;
+    private final NativeImgProcessing imgProc = new NativeImgProcessing();
+    private VideoFormat bufferToImageFormat = null;
+    private BufferToImage bufferToImage = null;
+    private AviReader aviReader = null;
+    private int currentFrame = 0;
 
     public FrameReader(String filename) {
+        File file = new File(filename.startsWith("file://") ? filename.substring("file://".length()) : filename);
+        if (file.isFile() == true) {
+            try {
+                aviReader = AviReader.open(file);
+            } catch (IOException ioe) {
+                ioe.printStackTrace();
+            }; // try
+        }; // if
+        if (aviReader != null) {
+            videoDurationInSec = aviReader.getDurationInSec();
+            frameCount = aviReader.getFrameCount();
+            return;
+        }; // if
+
         MediaLocator mediaLocator = new MediaLocator(filename);
         Manager.setHint(Manager.PLUGIN_PLAYER, true);
         
@@ -96,6 +126,7 @@ public class FrameReader implements ControllerListener {
         	totalFrames = framePositioningControl.mapTimeToFrame( duration );
         	if( totalFrames != FramePositioningControl.FRAME_UNKNOWN ) {
         		//System.out.println( "\t" + totalFrames + " frames" );
+        		frameCount = totalFrames;
         	}; // if
         }; // if
         
@@ -122,19 +153,202 @@ public class FrameReader implements ControllerListener {
     }
 
     
+    /**
+     * @return the number of frames, -1 when unknown
+     */
+    public int getFrameCount() {
+        return frameCount;
+    }
+
+    
     /**
      * @return the current video time in sec
      */
     public double getCurrentVideoTimeInSec() {
+        if (aviReader != null) {
+            return aviReader.getTimeInSec(currentFrame);
+        }; // if
         return player.getMediaTime().getSeconds();
     }    
     
         
+    /**
+     * @return the JMF player; null when the video is read by AviReader
+     */
     public Player getPlayer(){
         return player;
     }
 
     public ImagePlus grab(int frame) {
+        if (aviReader != null) {
+            Image image = null;
+            try {
+                image = aviReader.readImage(frame);
+            } catch (IOException ioe) {
+                ioe.printStackTrace();
+            }; // try
+            if (image == null) {
+                return null;
+            }; // if
+            currentFrame = frame;
+            return new ImagePlus("grabbed", image);
+        }; // if
+        Buffer buffer = grabBuffer(frame);
+        if( buffer == null ) {
+        	return null;
+        }; // if
+        VideoFormat videoFormat = (VideoFormat) buffer.getFormat();
+        BufferToImage bufferToImage = new BufferToImage(videoFormat);
+        Image image = bufferToImage.createImage(buffer);
+        ImagePlus grabbed = new ImagePlus("grabbed", image);
+        return grabbed;
+    }
+
+    /**
+     * Reads the frame after the one read last, see FrameSource
+     */
+    public GrayRaster readNextFrame(GrayRaster reuse) {
+        if (aviReader != null) {
+            GrayRaster raster = null;
+            try {
+                raster = aviReader.readGray(nextFrame, reuse);
+            } catch (IOException ioe) {
+                ioe.printStackTrace();
+            }; // try
+            if (raster == null) {
+                return null;
+            }; // if
+            currentFrame = nextFrame;
+            nextFrame++;
+            return raster;
+        }; // if
+        Buffer buffer = grabBuffer(nextFrame);
+        if( buffer == null ) {
+        	return null;
+        }; // if
+        nextFrame++;
+
+        VideoFormat videoFormat = (VideoFormat) buffer.getFormat();
+        Dimension size = videoFormat.getSize();
+        GrayRaster raster = reuse;
+        if (raster == null || raster.isCompact() == false
+                || raster.width != size.width || raster.height != size.height) {
+            raster = new GrayRaster(size.width, size.height);
+        }; // if
+        if (videoFormat instanceof RGBFormat
+                && readRGBBuffer(buffer, (RGBFormat) videoFormat, raster) == true) {
+            return raster;
+        }; // if
+
+        // other formats go through an AWT image, as grab does
+        if (bufferToImage == null || videoFormat.equals(bufferToImageFormat) == false) {
+            bufferToImage = new BufferToImage(videoFormat);
+            bufferToImageFormat = videoFormat;
+        }; // if
+        Image image = bufferToImage.createImage(buffer);
+        if (image == null) {
+            return null;
+        }; // if
+        GrayRaster converted = imgProc.convert_Image_To_GrayRaster(
+                new ImagePlus("grabbed", image).getBufferedImage());
+        if (converted.width != raster.width || converted.height != raster.height) {
+            return converted;
+        }; // if
+        System.arraycopy(converted.pixels, 0, raster.pixels, 0, converted.pixels.length);
+        return raster;
+    }
+
+    /**
+     * Releases the player, or the AVI reader
+     */
+    public void close() {
+        if (aviReader != null) {
+            aviReader.close();
+        }; // if
+        if (player != null) {
+            player.stop();
+            player.close();
+        }; // if
+    }
+
+    /**
+     * Converts an RGB buffer to gray, the way convert_Image_To_GrayRaster does
+     * with the image made out of it
+     *
+     * @return false when the layout of the buffer is not handled here (it
+     * is left to BufferToImage, for the same pixels as before)
+     */
+    private boolean readRGBBuffer(Buffer buffer, RGBFormat rgbFormat, GrayRaster raster) {
+        int pixelStride = rgbFormat.getPixelStride();
+        int lineStride = rgbFormat.getLineStride();
+        if (pixelStride < 1 || lineStride < 1 || buffer.getOffset() != 0) {
+            return false;
+        }; // if
+        int redMask = rgbFormat.getRedMask();
+        int greenMask = rgbFormat.getGreenMask();
+        int blueMask = rgbFormat.getBlueMask();
+        boolean isFlipped = rgbFormat.getFlipped() == Format.TRUE;
+        int width = raster.width;
+        int height = raster.height;
+        byte[] outPixels = raster.pixels;
+        Object data = buffer.getData();
+
+        if (data instanceof int[]) {
+            // masks are bit masks of 8 bits; lines are not padded
+            if (Integer.bitCount(redMask) != 8 || Integer.bitCount(greenMask) != 8
+                    || Integer.bitCount(blueMask) != 8 || lineStride != width * pixelStride) {
+                return false;
+            }; // if
+            int redShift = Integer.numberOfTrailingZeros(redMask);
+            int greenShift = Integer.numberOfTrailingZeros(greenMask);
+            int blueShift = Integer.numberOfTrailingZeros(blueMask);
+            int[] intPixels = (int[]) data;
+            if (height * lineStride > intPixels.length) {
+                return false;
+            }; // if
+            for (int y = 0; y < height; y++) {
+                int index = (isFlipped ? height - 1 - y : y) * lineStride;
+                int row = y * width;
+                for (int x = 0; x < width; x++) {
+                    int rgb = intPixels[index];
+                    outPixels[row + x] = (byte) imgProc.RGBToGray((rgb & redMask) >>> redShift,
+                            (rgb & greenMask) >>> greenShift, (rgb & blueMask) >>> blueShift);
+                    index += pixelStride;
+                }; // for
+            }; // for
+            return true;
+        }; // if
+
+        if (data instanceof byte[]) {
+            // masks are positions of the bytes in a pixel, from 1
+            if (redMask < 1 || redMask > pixelStride || greenMask < 1 || greenMask > pixelStride
+                    || blueMask < 1 || blueMask > pixelStride) {
+                return false;
+            }; // if
+            byte[] bytePixels = (byte[]) data;
+            if ((height - 1) * lineStride + width * pixelStride > bytePixels.length) {
+                return false;
+            }; // if
+            for (int y = 0; y < height; y++) {
+                int index = (isFlipped ? height - 1 - y : y) * lineStride - 1;
+                int row = y * width;
+                for (int x = 0; x < width; x++) {
+                    outPixels[row + x] = (byte) imgProc.RGBToGray(bytePixels[index + redMask] & 0xff,
+                            bytePixels[index + greenMask] & 0xff, bytePixels[index + blueMask] & 0xff);
+                    index += pixelStride;
+                }; // for
+            }; // for
+            return true;
+        }; // if
+        return false;
+    }
+
+    /**
+     * Positions the player at a frame and grabs it
+     *
+     * @return the buffer of the frame, null when it cannot be read
+     */
+    private Buffer grabBuffer(int frame) {
         if(failedInitialization){
             //System.out.println("initialization failed. cannot grab");
             return null;
@@ -143,9 +357,6 @@ public class FrameReader implements ControllerListener {
         frameGrabbingControl = (FrameGrabbingControl) player.getControl("javax.media.control.FrameGrabbingControl");
         
         Buffer buffer = null;
-        VideoFormat videoFormat = null;
-        BufferToImage bufferToImage = null;
-        Image image = null;
         int acturalFrame = framePositioningControl.seek(frame);
         if (acturalFrame != frame) {
             //System.out.println("frame"+frame+"cannot be read");
@@ -168,11 +379,7 @@ public class FrameReader implements ControllerListener {
         	System.out.println("empty buffer");
         	return null;
         }; // if
-        videoFormat = (VideoFormat) buffer.getFormat();
-        bufferToImage = new BufferToImage(videoFormat);
-        image = bufferToImage.createImage(buffer);
-        ImagePlus grabbed = new ImagePlus("grabbed", image);
-        return grabbed;
+        return buffer;
     }
 
     boolean waitForState(int state) {
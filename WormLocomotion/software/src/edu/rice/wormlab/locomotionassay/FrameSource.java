@@ -0,0 +1,52 @@
+/*
+ * Filename: FrameSource.java
+ */
+
+package edu.rice.wormlab.locomotionassay;
+
+import ij.ImagePlus;
+
+/**
+ * Source of the frames of a video.
+ * Frames are read either one at a time at any position (grab, for previews)
+ * or one after the other as gray rasters (readNextFrame, for tracking; see
+ * FrameStream, which does it on a thread of its own). The two ways keep
+ * positions of their own, but a source is meant for one of them at a time.
+ */
+public interface FrameSource {
+
+    /**
+     * @return duration of the video in seconds
+     */
+    double getVideoDurationInSec();
+
+    /**
+     * @return number of frames of the video; -1 when unknown
+     */
+    int getFrameCount();
+
+    /**
+     * Reads a frame at any position
+     *
+     * @param frame index of the frame, starts from 0
+     * @return the frame; null when it cannot be read
+     */
+    ImagePlus grab(int frame);
+
+    /**
+     * Reads the frame after the one read last (the first frame at the first
+     * call), in gray as NativeImgProcessing.convert_Image_To_GrayRaster makes
+     * it
+     *
+     * @param reuse raster to write the frame into when it is compact and of
+     * the size of the frame, otherwise a new raster is made; may be null
+     * @return the raster holding the frame; null at the end of the video or
+     * when the frame cannot be read
+     */
+    GrayRaster readNextFrame(GrayRaster reuse);
+
+    /**
+     * Releases the video; no frame can be read afterwards
+     */
+    void close();
+}
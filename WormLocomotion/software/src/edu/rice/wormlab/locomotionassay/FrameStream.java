@@ -0,0 +1,146 @@
+/*
+ * Filename: FrameStream.java
+ */
+
+package edu.rice.wormlab.locomotionassay;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Semaphore;
+
+/**
+ * Frames of a video read in order on a decoder thread, ahead of the one
+ * consuming them.
+ * The decoder fills a bounded ring of gray rasters: at most 'capacity'
+ * frames are decoded and not yet released, so the decoder waits when it is
+ * that far ahead. Released rasters are decoded into again, so a stream
+ * allocates no more than 'capacity' frames. One thread consumes the frames:
+ * next() gives them in order, and each must be released once used.
+ */
+public class FrameStream {
+
+    /** default number of frames decoded ahead */
+    public static final int DEFAULT_CAPACITY = 4;
+
+    //Marks the end of the frames in the queue of decoded frames
+    private static final GrayRaster END = new GrayRaster(0, 0);
+
+    private final FrameSource source;
+    private final Semaphore permits;
+    private final BlockingQueue<GrayRaster> freeQueue;
+    private final BlockingQueue<GrayRaster> decodedQueue;
+    private final Thread decoderThread;
+    private volatile boolean isClosed = false;
+    private volatile String error = null;
+    private boolean isEnded = false;
+
+    /**
+     * @param source source of the frames, read from its next frame on
+     * @param capacity number of frames decoded ahead; at least 1
+     */
+    public FrameStream(FrameSource source, int capacity) {
+        if (source == null || capacity < 1) {
+            throw new IllegalArgumentException("Bad frame stream: " + capacity + " frames");
+        }
+        this.source = source;
+        permits = new Semaphore(capacity);
+        freeQueue = new ArrayBlockingQueue<GrayRaster>(capacity);
+        decodedQueue = new ArrayBlockingQueue<GrayRaster>(capacity + 1);
+        decoderThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                decode();
+            }
+        }, "frame-decoder");
+        decoderThread.setDaemon(true);
+    }
+
+    /**
+     * Starts decoding
+     */
+    public void start() {
+        decoderThread.start();
+    }
+
+    /**
+     * Next frame, waiting for it to be decoded
+     *
+     * @return the frame; null at the end of the video, or when the stream
+     * is closed or the decoder failed (see getError)
+     */
+    public GrayRaster next() {
+        if (isEnded == true || isClosed == true) {
+            return null;
+        }; // if
+        GrayRaster frame;
+        try {
+            frame = decodedQueue.take();
+        } catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+            return null;
+        }; // try
+        if (frame == END) {
+            isEnded = true;
+            return null;
+        }; // if
+        return frame;
+    }
+
+    /**
+     * Gives a frame back, to be decoded into again
+     *
+     * @param frame a frame given by next(); not to be used afterwards
+     */
+    public void release(GrayRaster frame) {
+        if (frame == null || frame == END) {
+            return;
+        }; // if
+        freeQueue.offer(frame);
+        permits.release();
+    }
+
+    /**
+     * Stops decoding and waits for the decoder thread to finish; the source
+     * is left open
+     */
+    public void close() {
+        isClosed = true;
+        decoderThread.interrupt();
+        try {
+            decoderThread.join();
+        } catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+        }; // try
+    }
+
+    /**
+     * @return error of the decoder, null when there was none
+     */
+    public String getError() {
+        return error;
+    }
+
+    /**
+     * Decodes frames until the end of the video or until closed
+     */
+    private void decode() {
+        try {
+            while (isClosed == false) {
+                permits.acquire();
+                GrayRaster frame = source.readNextFrame(freeQueue.poll());
+                if (frame == null) {
+                    break;
+                }; // if
+                decodedQueue.put(frame);
+            }; // while
+        } catch (InterruptedException ie) {
+            // closed
+        } catch (RuntimeException re) {
+            re.printStackTrace();
+            error = "Unable to decode the video: " + re;
+        } finally {
+            // there is always room for it: at most capacity frames are queued
+            decodedQueue.offer(END);
+        }; // try
+    }
+}
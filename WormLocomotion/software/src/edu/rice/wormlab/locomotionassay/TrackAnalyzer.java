@@ -6,12 +6,11 @@ package edu.rice.wormlab.locomotionassay;
 
 import ij.gui.Plot;
 import java.awt.Color;
-import java.util.LinkedList;
 
 public class TrackAnalyzer {
 
     //Calculate worm speed for all tracklists
-    public static double[] analyze_AllTrackLists(LinkedList<LinkedList<double[]>> tracksList,
+    public static double[] analyze_AllTrackLists(TrackStore tracksList,
             int videoFrameCount, Double videoDurationInSec,
             Double microMeterPerPixel) {
         if (tracksList == null) {
@@ -19,17 +18,13 @@ public class TrackAnalyzer {
         }; // if
 
 
-        int numPoints = 0;
-        for (int i = 0; i < tracksList.size(); i++) {
-            numPoints += (tracksList.get(i)).size();
-        }
+        int numPoints = tracksList.getPointCount();
 
         double[] ret = new double[numPoints];
         int copyStart = 0;
         for (int i = 0; i < tracksList.size(); i++) {
-            LinkedList<double[]> trackList = tracksList.get(i);
-            double[] X = Smoothing.getX(trackList);
-            double[] Y = Smoothing.getY(trackList);
+            double[] X = tracksList.getXs(i);
+            double[] Y = tracksList.getYs(i);
             double[] XSmoothed = Smoothing.doBezierSmoothing(X,
                     X.length);
             double[] YSmoothed = Smoothing.doBezierSmoothing(Y,
@@ -46,22 +41,21 @@ public class TrackAnalyzer {
     
     
     //Calculate worm speed only for the designated tracklist
-    public static double[] analyze_OnlyTargetTrackList(LinkedList<LinkedList<double[]>> tracksList, int frames,
+    public static double[] analyze_OnlyTargetTrackList(TrackStore tracksList, int frames,
             Double duration, Double microMeterPerPixel, int targetTrackIndex) {
         if (tracksList == null) {
             return null;
         }; // if
 
 
-        int numPoints = tracksList.get(targetTrackIndex).size();
+        int numPoints = tracksList.getLength(targetTrackIndex);
 
 
         double[] ret = new double[numPoints];
         int copyStart = 0;
 
-        LinkedList<double[]> trackList = tracksList.get(targetTrackIndex);
-        double[] X = Smoothing.getX(trackList);
-        double[] Y = Smoothing.getY(trackList);
+        double[] X = tracksList.getXs(targetTrackIndex);
+        double[] Y = tracksList.getYs(targetTrackIndex);
         double[] XSmoothed = Smoothing.doBezierSmoothing(X,
                 X.length);
         double[] YSmoothed = Smoothing.doBezierSmoothing(Y,
@@ -0,0 +1,316 @@
+/*
+ * Filename: TrackAssignment.java
+ */
+
+package edu.rice.wormlab.locomotionassay;
+
+import java.util.Arrays;
+
+/**
+ * Assigns the objects detected in a frame to the active tracks all at once,
+ * in place of the track-by-track nearest object: of the assignments
+ * matching the most tracks, the one of least total squared distance.
+ * A track may take an object within the matching distance of where the
+ * track is expected (its last point, or its last point moved once more by
+ * its last step when the velocity is predicted) whose size changed little
+ * enough. These candidate pairs come from a DetectionGrid; the tracks and
+ * objects linked by them fall apart into small groups (worms near each
+ * other), each solved on its own by the Hungarian method.
+ * The arrays are kept from frame to frame and only grow.
+ */
+public class TrackAssignment {
+
+    private int trackCount;
+    private int[] assigned = new int[64];
+    private int[] found = new int[64];
+
+    //Candidate pairs, cost is the squared distance
+    private int edgeCount;
+    private int[] edgeTrack = new int[256];
+    private int[] edgeDetection = new int[256];
+    private double[] edgeCost = new double[256];
+
+    //Groups: nodes are the tracks, then the detections
+    private int[] parent = new int[128];
+    private int[] groupStart = new int[129];
+    private int[] groupEdges = new int[256];
+    private int[] localIndex = new int[128];
+    private int[] rowNodes = new int[64];
+    private int[] columnNodes = new int[64];
+
+    //Hungarian method, 1-based as rows and columns 0 are sentinels
+    private double[] cost = new double[64];
+    private double[] u = new double[16];
+    private double[] v = new double[16];
+    private double[] minv = new double[16];
+    private int[] match = new int[16];
+    private int[] way = new int[16];
+    private boolean[] isUsed = new boolean[16];
+    private int[] rowMatch = new int[16];
+
+    /**
+     * Assigns the detections of a frame to the active tracks; detections are
+     * not marked as taken
+     *
+     * @param tracks the tracks; those completed are skipped
+     * @param grid the detections of the frame, loaded with the matching
+     * distance
+     * @param maxPercentChange maximum change of size, in percent of the
+     * size of the last point of a track
+     * @param isVelocityPredicted true to expect a track at its last point
+     * moved by its last step, false to expect it at its last point
+     * @return for each active track in order, index of its detection or -1;
+     * the array is reused by the next call and may be longer
+     */
+    public int[] assign(TrackStore tracks, DetectionGrid grid,
+            double maxPercentChange, boolean isVelocityPredicted) {
+        int detectionCount = grid.size();
+        if (found.length < detectionCount) {
+            found = new int[detectionCount];
+        }; // if
+        trackCount = 0;
+        edgeCount = 0;
+        for (int t = 0; t < tracks.size(); t++) {
+            if (tracks.isActive(t) == false) {
+                continue;
+            }; // if
+            int last = tracks.getLength(t) - 1;
+            double lastSize = tracks.getArea(t, last);
+            double expectedX = tracks.getX(t, last);
+            double expectedY = tracks.getY(t, last);
+            if (isVelocityPredicted == true && last > 0) {
+                expectedX += expectedX - tracks.getX(t, last - 1);
+                expectedY += expectedY - tracks.getY(t, last - 1);
+            }; // if
+            int foundCount = grid.findWithin(expectedX, expectedY, found);
+            for (int k = 0; k < foundCount; k++) {
+                int detection = found[k];
+                if (Math.abs((grid.getArea(detection) - lastSize) / lastSize * 100)
+                        > maxPercentChange) {
+                    continue;
+                }; // if
+                double dx = expectedX - grid.getX(detection);
+                double dy = expectedY - grid.getY(detection);
+                addEdge(trackCount, detection, dx * dx + dy * dy);
+            }; // for
+            trackCount++;
+        }; // for
+
+        if (assigned.length < trackCount) {
+            assigned = new int[Math.max(trackCount, assigned.length * 2)];
+        }; // if
+        Arrays.fill(assigned, 0, trackCount, -1);
+        double radius = grid.getRadius();
+        solveGroups(trackCount + detectionCount, (radius * radius) + 1);
+        return assigned;
+    }
+
+    private void addEdge(int track, int detection, double squared) {
+        if (edgeCount == edgeTrack.length) {
+            edgeTrack = Arrays.copyOf(edgeTrack, edgeCount * 2);
+            edgeDetection = Arrays.copyOf(edgeDetection, edgeCount * 2);
+            edgeCost = Arrays.copyOf(edgeCost, edgeCount * 2);
+        }; // if
+        edgeTrack[edgeCount] = track;
+        edgeDetection[edgeCount] = detection;
+        edgeCost[edgeCount] = squared;
+        edgeCount++;
+    }
+
+    /**
+     * Splits the candidate pairs into groups of linked tracks and detections
+     * and solves each group
+     *
+     * @param nodeCount number of tracks and detections
+     * @param maxCost bound on the cost of a pair
+     */
+    private void solveGroups(int nodeCount, double maxCost) {
+        if (parent.length < nodeCount) {
+            parent = new int[nodeCount];
+            groupStart = new int[nodeCount + 1];
+            localIndex = new int[nodeCount];
+        }; // if
+        if (groupEdges.length < edgeCount) {
+            groupEdges = new int[edgeTrack.length];
+        }; // if
+        for (int node = 0; node < nodeCount; node++) {
+            parent[node] = node;
+            localIndex[node] = -1;
+        }; // for
+        for (int e = 0; e < edgeCount; e++) {
+            int rootA = find(edgeTrack[e]);
+            int rootB = find(trackCount + edgeDetection[e]);
+            if (rootA != rootB) {
+                parent[Math.max(rootA, rootB)] = Math.min(rootA, rootB);
+            }; // if
+        }; // for
+
+        //Edges of group g are groupEdges[groupStart[g]] to groupEdges[groupStart[g + 1] - 1]
+        Arrays.fill(groupStart, 0, nodeCount + 1, 0);
+        for (int e = 0; e < edgeCount; e++) {
+            groupStart[find(edgeTrack[e]) + 1]++;
+        }; // for
+        for (int node = 0; node < nodeCount; node++) {
+            groupStart[node + 1] += groupStart[node];
+        }; // for
+        for (int e = 0; e < edgeCount; e++) {
+            groupEdges[groupStart[find(edgeTrack[e])]++] = e;
+        }; // for
+        // groupStart[g] now holds the end of group g
+        int start = 0;
+        for (int group = 0; group < nodeCount; group++) {
+            int end = groupStart[group];
+            if (end - start == 1) {
+                int e = groupEdges[start];
+                assigned[edgeTrack[e]] = edgeDetection[e];
+            } else if (end > start) {
+                solveGroup(start, end, maxCost);
+            }; // if
+            start = end;
+        }; // for
+    }
+
+    /**
+     * Solves a group of more than one candidate pair
+     */
+    private void solveGroup(int start, int end, double maxCost) {
+        int rowCount = 0;
+        int columnCount = 0;
+        for (int k = start; k < end; k++) {
+            int e = groupEdges[k];
+            int trackNode = edgeTrack[e];
+            int detectionNode = trackCount + edgeDetection[e];
+            if (localIndex[trackNode] == -1) {
+                rowNodes = grow(rowNodes, rowCount);
+                localIndex[trackNode] = rowCount;
+                rowNodes[rowCount] = trackNode;
+                rowCount++;
+            }; // if
+            if (localIndex[detectionNode] == -1) {
+                columnNodes = grow(columnNodes, columnCount);
+                localIndex[detectionNode] = columnCount;
+                columnNodes[columnCount] = detectionNode;
+                columnCount++;
+            }; // if
+        }; // for
+
+        //Rows are the smaller side; missing pairs cost more than any
+        //assignment of real pairs, so the most tracks are matched
+        boolean isTransposed = rowCount > columnCount;
+        int n = isTransposed ? columnCount : rowCount;
+        int m = isTransposed ? rowCount : columnCount;
+        double missingCost = (n + 1) * maxCost;
+        if (cost.length < (n + 1) * (m + 1)) {
+            cost = new double[(n + 1) * (m + 1)];
+        }; // if
+        Arrays.fill(cost, 0, (n + 1) * (m + 1), missingCost);
+        for (int k = start; k < end; k++) {
+            int e = groupEdges[k];
+            int row = localIndex[edgeTrack[e]] + 1;
+            int column = localIndex[trackCount + edgeDetection[e]] + 1;
+            if (isTransposed == true) {
+                cost[column * (m + 1) + row] = edgeCost[e];
+            } else {
+                cost[row * (m + 1) + column] = edgeCost[e];
+            }; // if
+        }; // for
+
+        hungarian(n, m);
+        for (int i = 1; i <= n; i++) {
+            int j = rowMatch[i];
+            if (cost[i * (m + 1) + j] == missingCost) {
+                continue;
+            }; // if
+            int trackNode = isTransposed ? rowNodes[j - 1] : rowNodes[i - 1];
+            int detectionNode = isTransposed ? columnNodes[i - 1] : columnNodes[j - 1];
+            assigned[trackNode] = detectionNode - trackCount;
+        }; // for
+        for (int r = 0; r < rowCount; r++) {
+            localIndex[rowNodes[r]] = -1;
+        }; // for
+        for (int c = 0; c < columnCount; c++) {
+            localIndex[columnNodes[c]] = -1;
+        }; // for
+    }
+
+    /**
+     * Least-cost assignment of the n rows to distinct columns of the cost
+     * matrix, n <= m, by the Hungarian method with potentials; sets
+     * rowMatch[1..n]
+     */
+    private void hungarian(int n, int m) {
+        if (u.length < m + 1) {
+            int size = Math.max(m + 1, u.length * 2);
+            u = new double[size];
+            v = new double[size];
+            minv = new double[size];
+            match = new int[size];
+            way = new int[size];
+            isUsed = new boolean[size];
+            rowMatch = new int[size];
+        }; // if
+        Arrays.fill(u, 0, n + 1, 0);
+        Arrays.fill(v, 0, m + 1, 0);
+        Arrays.fill(match, 0, m + 1, 0);
+        int stride = m + 1;
+        for (int i = 1; i <= n; i++) {
+            match[0] = i;
+            int j0 = 0;
+            Arrays.fill(minv, 0, m + 1, Double.MAX_VALUE);
+            Arrays.fill(isUsed, 0, m + 1, false);
+            do {
+                isUsed[j0] = true;
+                int i0 = match[j0];
+                double delta = Double.MAX_VALUE;
+                int j1 = 0;
+                for (int j = 1; j <= m; j++) {
+                    if (isUsed[j] == false) {
+                        double current = cost[i0 * stride + j] - u[i0] - v[j];
+                        if (current < minv[j]) {
+                            minv[j] = current;
+                            way[j] = j0;
+                        }; // if
+                        if (minv[j] < delta) {
+                            delta = minv[j];
+                            j1 = j;
+                        }; // if
+                    }; // if
+                }; // for
+                for (int j = 0; j <= m; j++) {
+                    if (isUsed[j] == true) {
+                        u[match[j]] += delta;
+                        v[j] -= delta;
+                    } else {
+                        minv[j] -= delta;
+                    }; // if
+                }; // for
+                j0 = j1;
+            } while (match[j0] != 0);
+            do {
+                int j1 = way[j0];
+                match[j0] = match[j1];
+                j0 = j1;
+            } while (j0 != 0);
+        }; // for
+        for (int j = 1; j <= m; j++) {
+            if (match[j] != 0) {
+                rowMatch[match[j]] = j;
+            }; // if
+        }; // for
+    }
+
+    /**
+     * Root of a node, with path halving
+     */
+    private int find(int node) {
+        while (parent[node] != node) {
+            parent[node] = parent[parent[node]];
+            node = parent[node];
+        }; // while
+        return node;
+    }
+
+    private static int[] grow(int[] array, int size) {
+        return size < array.length ? array : Arrays.copyOf(array, array.length * 2);
+    }
+}
@@ -0,0 +1,229 @@
+/*
+ * Filename: TrackFile.java
+ */
+
+package edu.rice.wormlab.locomotionassay;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.Map;
+
+/**
+ * Contents of a .file file: the tracks of a video and the values needed to
+ * analyze them.
+ * The file is binary, little-endian (see TrackFileWriter):
+ * <pre>
+ * header:  8 bytes MAGIC, int VERSION, int 0
+ * blocks:  one per track written, in any order:
+ *          int id, int point count n, n doubles x, n doubles y,
+ *          n doubles area, n bytes active
+ * footer:  int track count m, m ints ids of the tracks in order,
+ *          int frame count, double micrometers per pixel in x, in y,
+ *          and their average, double video duration in seconds
+ * trailer: long offset of the footer, 8 bytes MAGIC
+ * </pre>
+ * Blocks are written while the video is tracked, so a block may be of a
+ * track later dropped; only the tracks of the footer are read.
+ * Files of the earlier format, Java serialization of the tracks as
+ * LinkedList&lt;LinkedList&lt;double[]&gt;&gt; (points x, y, area, active)
+ * followed by the same values, are read too.
+ */
+public class TrackFile {
+
+    public static final byte[] MAGIC = {'Q', 'W', 'T', 'R', 'A', 'C', 'K', 'S'};
+    public static final int VERSION = 1;
+    public static final int HEADER_SIZE = 16;
+    public static final int TRAILER_SIZE = 16;
+
+    public final TrackStore tracks;
+    public final int frameCount;
+    public final double microMeterPerPixelsX;
+    public final double microMeterPerPixelsY;
+    public final double microMeterPerPixels;
+    public final double videoDurationInSec;
+
+    private TrackFile(TrackStore tracks, int frameCount, double microMeterPerPixelsX,
+            double microMeterPerPixelsY, double microMeterPerPixels, double videoDurationInSec) {
+        this.tracks = tracks;
+        this.frameCount = frameCount;
+        this.microMeterPerPixelsX = microMeterPerPixelsX;
+        this.microMeterPerPixelsY = microMeterPerPixelsY;
+        this.microMeterPerPixels = microMeterPerPixels;
+        this.videoDurationInSec = videoDurationInSec;
+    }
+
+    /**
+     * Reads a .file file, of either format
+     *
+     * @param file the file
+     * @return its contents
+     * @throws IOException when the file cannot be read or is not a .file
+     */
+    public static TrackFile read(File file) throws IOException {
+        RandomAccessFile randomAccessFile = new RandomAccessFile(file, "r");
+        TrackFile trackFile;
+        try {
+            byte[] start = new byte[MAGIC.length];
+            boolean isBinary = randomAccessFile.length() >= HEADER_SIZE + TRAILER_SIZE;
+            if (isBinary == true) {
+                randomAccessFile.readFully(start);
+                for (int i = 0; i < MAGIC.length; i++) {
+                    isBinary = isBinary && start[i] == MAGIC[i];
+                }; // for
+            }; // if
+            if (isBinary == true) {
+                trackFile = readBinary(randomAccessFile.getChannel(), file);
+            } else {
+                trackFile = null;
+            }; // if
+        } finally {
+            randomAccessFile.close();
+        }; // try
+        if (trackFile == null) {
+            trackFile = readSerialized(file);
+        }; // if
+        return trackFile;
+    }
+
+    /**
+     * Reads the binary format; the whole file is read into memory, rather
+     * than mapped, so it can be replaced as soon as it is closed
+     */
+    private static TrackFile readBinary(FileChannel channel, File file) throws IOException {
+        long size = channel.size();
+        if (size > Integer.MAX_VALUE) {
+            throw new IOException("File of tracks too large: " + file.getAbsolutePath());
+        }; // if
+        ByteBuffer buffer = ByteBuffer.allocate((int) size).order(ByteOrder.LITTLE_ENDIAN);
+        channel.position(0);
+        while (buffer.hasRemaining() == true) {
+            if (channel.read(buffer) < 0) {
+                throw new IOException("Incomplete file of tracks: " + file.getAbsolutePath());
+            }; // if
+        }; // while
+        buffer.clear();
+        int version = buffer.getInt(MAGIC.length);
+        if (version != VERSION) {
+            throw new IOException("Unsupported version " + version + " of " + file.getAbsolutePath());
+        }; // if
+        int trailer = buffer.limit() - TRAILER_SIZE;
+        for (int i = 0; i < MAGIC.length; i++) {
+            if (buffer.get(trailer + 8 + i) != MAGIC[i]) {
+                throw new IOException("Incomplete file of tracks: " + file.getAbsolutePath());
+            }; // if
+        }; // for
+        long footer = buffer.getLong(trailer);
+        if (footer < HEADER_SIZE || footer > trailer) {
+            throw new IOException("Corrupt file of tracks: " + file.getAbsolutePath());
+        }; // if
+
+        //Offset of the block of each track written
+        Map<Integer, Integer> blocks = new HashMap<Integer, Integer>();
+        int position = HEADER_SIZE;
+        while (position < footer) {
+            int id = buffer.getInt(position);
+            int count = buffer.getInt(position + 4);
+            if (count < 1 || position + 8 + 25L * count > footer) {
+                throw new IOException("Corrupt file of tracks: " + file.getAbsolutePath());
+            }; // if
+            blocks.put(id, position);
+            position += 8 + 25 * count;
+        }; // while
+
+        buffer.position((int) footer);
+        int trackCount = buffer.getInt();
+        int[] ids = new int[trackCount];
+        for (int t = 0; t < trackCount; t++) {
+            ids[t] = buffer.getInt();
+        }; // for
+        int frameCount = buffer.getInt();
+        double microMeterPerPixelsX = buffer.getDouble();
+        double microMeterPerPixelsY = buffer.getDouble();
+        double microMeterPerPixels = buffer.getDouble();
+        double videoDurationInSec = buffer.getDouble();
+
+        TrackStore tracks = new TrackStore();
+        double[] x = new double[0];
+        double[] y = new double[0];
+        double[] area = new double[0];
+        byte[] active = new byte[0];
+        for (int t = 0; t < trackCount; t++) {
+            Integer block = blocks.get(ids[t]);
+            if (block == null) {
+                throw new IOException("Missing track " + ids[t] + " in " + file.getAbsolutePath());
+            }; // if
+            int count = buffer.getInt(block + 4);
+            if (x.length < count) {
+                x = new double[count];
+                y = new double[count];
+                area = new double[count];
+                active = new byte[count];
+            }; // if
+            buffer.position(block + 8);
+            buffer.asDoubleBuffer().get(x, 0, count);
+            buffer.position(block + 8 + 8 * count);
+            buffer.asDoubleBuffer().get(y, 0, count);
+            buffer.position(block + 8 + 16 * count);
+            buffer.asDoubleBuffer().get(area, 0, count);
+            buffer.position(block + 8 + 24 * count);
+            buffer.get(active, 0, count);
+            tracks.addTrack(x, y, area, active, 0, count);
+        }; // for
+        return new TrackFile(tracks, frameCount, microMeterPerPixelsX, microMeterPerPixelsY,
+                microMeterPerPixels, videoDurationInSec);
+    }
+
+    /**
+     * Reads the earlier format, written by Java serialization
+     */
+    @SuppressWarnings("unchecked")
+    private static TrackFile readSerialized(File file) throws IOException {
+        ObjectInputStream oi = new ObjectInputStream(new FileInputStream(file));
+        TrackFile trackFile;
+        try {
+            LinkedList<LinkedList<double[]>> list = (LinkedList<LinkedList<double[]>>) oi.readObject();
+            int frameCount = oi.readInt();
+            double microMeterPerPixelsX = oi.readDouble();
+            double microMeterPerPixelsY = oi.readDouble();
+            double microMeterPerPixels = oi.readDouble();
+            double videoDurationInSec = oi.readDouble();
+
+            TrackStore tracks = new TrackStore();
+            for (LinkedList<double[]> each : list) {
+                int count = each.size();
+                double[] x = new double[count];
+                double[] y = new double[count];
+                double[] area = new double[count];
+                byte[] active = new byte[count];
+                int i = 0;
+                for (double[] point : each) {
+                    x[i] = point[0];
+                    y[i] = point[1];
+                    area[i] = point[2];
+                    active[i] = (byte) (point[3] == 0 ? 0 : 1);
+                    i++;
+                }; // for
+                if (count > 0) {
+                    tracks.addTrack(x, y, area, active, 0, count);
+                }; // if
+            }; // for
+            trackFile = new TrackFile(tracks, frameCount, microMeterPerPixelsX, microMeterPerPixelsY,
+                    microMeterPerPixels, videoDurationInSec);
+        } catch (ClassNotFoundException ex) {
+            throw new IOException("Not a file of tracks: " + file.getAbsolutePath(), ex);
+        } catch (ClassCastException ex) {
+            throw new IOException("Not a file of tracks: " + file.getAbsolutePath(), ex);
+        } finally {
+            oi.close();
+        }; // try
+        return trackFile;
+    }
+}
@@ -0,0 +1,150 @@
+/*
+ * Filename: TrackFileWriter.java
+ */
+
+package edu.rice.wormlab.locomotionassay;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.util.BitSet;
+
+/**
+ * Writes a .file file in the binary format of TrackFile, while the video is
+ * tracked: each track is written once it is completed, and finish() writes
+ * the tracks still active and the footer.
+ * The file is written under a temporary name, given its final name by
+ * finish(), so a .file file is always complete.
+ */
+public class TrackFileWriter {
+
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    private final File file;
+    private final File partFile;
+    private final FileOutputStream outputStream;
+    private final FileChannel channel;
+    private final ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+    //Ids of the tracks written
+    private final BitSet writtenIds = new BitSet();
+    private long position = 0;
+
+    /**
+     * Starts a .file file; it is written as the file name plus ".part"
+     *
+     * @param file the .file file
+     * @throws IOException when unable to create the file
+     */
+    public TrackFileWriter(File file) throws IOException {
+        this.file = file;
+        partFile = new File(file.getPath() + ".part");
+        outputStream = new FileOutputStream(partFile);
+        channel = outputStream.getChannel();
+        buffer.put(TrackFile.MAGIC);
+        buffer.putInt(TrackFile.VERSION);
+        buffer.putInt(0);
+    }
+
+    /**
+     * Writes a track, unless it has been written already
+     *
+     * @param tracks the tracks
+     * @param track index of the track
+     * @throws IOException when unable to write
+     */
+    public void writeTrack(TrackStore tracks, int track) throws IOException {
+        int id = tracks.getId(track);
+        if (writtenIds.get(id) == true) {
+            return;
+        }; // if
+        writtenIds.set(id);
+        int count = tracks.getLength(track);
+        ensureRoom(8);
+        buffer.putInt(id);
+        buffer.putInt(count);
+        for (int i = 0; i < count; i++) {
+            ensureRoom(8);
+            buffer.putDouble(tracks.getX(track, i));
+        }; // for
+        for (int i = 0; i < count; i++) {
+            ensureRoom(8);
+            buffer.putDouble(tracks.getY(track, i));
+        }; // for
+        for (int i = 0; i < count; i++) {
+            ensureRoom(8);
+            buffer.putDouble(tracks.getArea(track, i));
+        }; // for
+        for (int i = 0; i < count; i++) {
+            ensureRoom(1);
+            buffer.put((byte) (tracks.isActive(track, i) == true ? 1 : 0));
+        }; // for
+    }
+
+    /**
+     * Writes the tracks not written yet and the footer, and gives the file
+     * its final name, replacing any file of that name
+     *
+     * @param tracks the tracks to keep, in order
+     * @throws IOException when unable to write or to rename the file
+     */
+    public void finish(TrackStore tracks, int frameCount, double microMeterPerPixelsX,
+            double microMeterPerPixelsY, double microMeterPerPixels,
+            double videoDurationInSec) throws IOException {
+        for (int t = 0; t < tracks.size(); t++) {
+            writeTrack(tracks, t);
+        }; // for
+        flush();
+        long footer = position;
+        ensureRoom(4);
+        buffer.putInt(tracks.size());
+        for (int t = 0; t < tracks.size(); t++) {
+            ensureRoom(4);
+            buffer.putInt(tracks.getId(t));
+        }; // for
+        ensureRoom(36 + TrackFile.TRAILER_SIZE);
+        buffer.putInt(frameCount);
+        buffer.putDouble(microMeterPerPixelsX);
+        buffer.putDouble(microMeterPerPixelsY);
+        buffer.putDouble(microMeterPerPixels);
+        buffer.putDouble(videoDurationInSec);
+        buffer.putLong(footer);
+        buffer.put(TrackFile.MAGIC);
+        flush();
+        outputStream.close();
+        if (file.exists() == true && file.delete() == false) {
+            throw new IOException("Unable to replace " + file.getAbsolutePath());
+        }; // if
+        if (partFile.renameTo(file) == false) {
+            throw new IOException("Unable to rename " + partFile.getAbsolutePath());
+        }; // if
+    }
+
+    /**
+     * Stops writing and deletes the unfinished file
+     */
+    public void abort() {
+        try {
+            outputStream.close();
+        } catch (IOException ex) {
+            ex.printStackTrace();
+        }; // try
+        partFile.delete();
+    }
+
+    private void ensureRoom(int size) throws IOException {
+        if (buffer.remaining() < size) {
+            flush();
+        }; // if
+    }
+
+    private void flush() throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining() == true) {
+            position += channel.write(buffer);
+        }; // while
+        buffer.clear();
+    }
+}
@@ -0,0 +1,308 @@
+/*
+ * Filename: TrackStore.java
+ */
+
+package edu.rice.wormlab.locomotionassay;
+
+import java.util.Arrays;
+
+/**
+ * Tracks of worms, held as columns of primitive values: x, y and area of
+ * the centroid of each point, and whether the point is active (0 marks the
+ * last point of a completed track).
+ * The points of a track lie together in the columns, at its offset; each
+ * track has room to grow in place, and moves to the end of the columns
+ * when that room is used up. Space left behind by moved or removed tracks
+ * is reclaimed by compact(), done as well when it is half of the columns.
+ * Tracks are numbered 0..size()-1 in order; each also has an id, given
+ * when it is added, that does not change when tracks before it are removed.
+ */
+public class TrackStore {
+
+    private static final int INITIAL_TRACK_CAPACITY = 16;
+
+    private double[] x = new double[1024];
+    private double[] y = new double[1024];
+    private double[] area = new double[1024];
+    private byte[] active = new byte[1024];
+    //Used part of the columns, and the points of it not owned by any track
+    private int pointEnd = 0;
+    private int freeCount = 0;
+
+    //Points of track t are start[t] to start[t] + length[t] - 1, with room up to start[t] + capacity[t]
+    private int trackCount = 0;
+    private int[] start = new int[64];
+    private int[] length = new int[64];
+    private int[] capacity = new int[64];
+    private int[] id = new int[64];
+    private boolean[] isRemoved = new boolean[64];
+    private boolean isAnyRemoved = false;
+    private int nextId = 0;
+
+    /**
+     * @return number of tracks
+     */
+    public int size() {
+        return trackCount;
+    }
+
+    /**
+     * @return number of points of all tracks
+     */
+    public int getPointCount() {
+        int count = 0;
+        for (int t = 0; t < trackCount; t++) {
+            count += length[t];
+        }; // for
+        return count;
+    }
+
+    /**
+     * @return number of points of a track
+     */
+    public int getLength(int track) {
+        return length[track];
+    }
+
+    /**
+     * @return id of a track
+     */
+    public int getId(int track) {
+        return id[track];
+    }
+
+    public double getX(int track, int point) {
+        return x[start[track] + point];
+    }
+
+    public double getY(int track, int point) {
+        return y[start[track] + point];
+    }
+
+    public double getArea(int track, int point) {
+        return area[start[track] + point];
+    }
+
+    /**
+     * @return whether a point is active, that is, not the last point of a
+     * completed track
+     */
+    public boolean isActive(int track, int point) {
+        return active[start[track] + point] != 0;
+    }
+
+    /**
+     * @return whether a track is active, i.e. whether its last point is
+     */
+    public boolean isActive(int track) {
+        return active[start[track] + length[track] - 1] != 0;
+    }
+
+    /**
+     * @return copy of the x values of a track
+     */
+    public double[] getXs(int track) {
+        return Arrays.copyOfRange(x, start[track], start[track] + length[track]);
+    }
+
+    /**
+     * @return copy of the y values of a track
+     */
+    public double[] getYs(int track) {
+        return Arrays.copyOfRange(y, start[track], start[track] + length[track]);
+    }
+
+    /**
+     * Adds a track of one active point, after the others
+     *
+     * @return index of the new track
+     */
+    public int addTrack(double pointX, double pointY, double pointArea) {
+        int track = newTrack(INITIAL_TRACK_CAPACITY);
+        addPoint(track, pointX, pointY, pointArea);
+        return track;
+    }
+
+    /**
+     * Adds a track, after the others, of the points in the given columns
+     *
+     * @param offset index of the first point in the columns
+     * @param count number of points
+     * @return index of the new track
+     */
+    public int addTrack(double[] xs, double[] ys, double[] areas, byte[] actives,
+            int offset, int count) {
+        if (count < 1) {
+            throw new IllegalArgumentException("A track needs at least one point");
+        }; // if
+        int track = newTrack(count);
+        int first = start[track];
+        System.arraycopy(xs, offset, x, first, count);
+        System.arraycopy(ys, offset, y, first, count);
+        System.arraycopy(areas, offset, area, first, count);
+        System.arraycopy(actives, offset, active, first, count);
+        length[track] = count;
+        return track;
+    }
+
+    /**
+     * Adds an active point at the end of a track
+     */
+    public void addPoint(int track, double pointX, double pointY, double pointArea) {
+        if (length[track] == capacity[track]) {
+            makeRoom(track);
+        }; // if
+        int index = start[track] + length[track];
+        x[index] = pointX;
+        y[index] = pointY;
+        area[index] = pointArea;
+        active[index] = 1;
+        length[track]++;
+    }
+
+    /**
+     * Completes a track: its last point is no longer active
+     */
+    public void complete(int track) {
+        active[start[track] + length[track] - 1] = 0;
+    }
+
+    /**
+     * Marks a track to be removed by removeMarked(); until then it stays
+     * where it is
+     */
+    public void markRemoved(int track) {
+        isRemoved[track] = true;
+        isAnyRemoved = true;
+    }
+
+    /**
+     * Removes the tracks marked; the others keep their order
+     */
+    public void removeMarked() {
+        if (isAnyRemoved == false) {
+            return;
+        }; // if
+        int kept = 0;
+        for (int t = 0; t < trackCount; t++) {
+            if (isRemoved[t] == true) {
+                freeCount += capacity[t];
+                isRemoved[t] = false;
+                continue;
+            }; // if
+            start[kept] = start[t];
+            length[kept] = length[t];
+            capacity[kept] = capacity[t];
+            id[kept] = id[t];
+            kept++;
+        }; // for
+        trackCount = kept;
+        isAnyRemoved = false;
+    }
+
+    /**
+     * Removes all tracks
+     */
+    public void clear() {
+        trackCount = 0;
+        pointEnd = 0;
+        freeCount = 0;
+        isAnyRemoved = false;
+        Arrays.fill(isRemoved, false);
+    }
+
+    /**
+     * Lays the tracks out one after the other, in order, with no room left
+     * between them
+     */
+    public void compact() {
+        int total = getPointCount();
+        int newLength = Math.max(1024, total + total / 2);
+        double[] newX = new double[newLength];
+        double[] newY = new double[newLength];
+        double[] newArea = new double[newLength];
+        byte[] newActive = new byte[newLength];
+        int position = 0;
+        for (int t = 0; t < trackCount; t++) {
+            System.arraycopy(x, start[t], newX, position, length[t]);
+            System.arraycopy(y, start[t], newY, position, length[t]);
+            System.arraycopy(area, start[t], newArea, position, length[t]);
+            System.arraycopy(active, start[t], newActive, position, length[t]);
+            start[t] = position;
+            capacity[t] = length[t];
+            position += length[t];
+        }; // for
+        x = newX;
+        y = newY;
+        area = newArea;
+        active = newActive;
+        pointEnd = position;
+        freeCount = 0;
+    }
+
+    /**
+     * Appends a track of no points with room for some
+     */
+    private int newTrack(int room) {
+        if (trackCount == start.length) {
+            int newLength = trackCount * 2;
+            start = Arrays.copyOf(start, newLength);
+            length = Arrays.copyOf(length, newLength);
+            capacity = Arrays.copyOf(capacity, newLength);
+            id = Arrays.copyOf(id, newLength);
+            isRemoved = Arrays.copyOf(isRemoved, newLength);
+        }; // if
+        int track = trackCount;
+        trackCount++;
+        ensureColumns(pointEnd + room);
+        start[track] = pointEnd;
+        length[track] = 0;
+        capacity[track] = room;
+        id[track] = nextId;
+        nextId++;
+        pointEnd += room;
+        return track;
+    }
+
+    /**
+     * Doubles the room of a full track, in place when it is the last one in
+     * the columns, otherwise by moving it to the end
+     */
+    private void makeRoom(int track) {
+        int room = Math.max(INITIAL_TRACK_CAPACITY, capacity[track]);
+        if (start[track] + capacity[track] == pointEnd) {
+            ensureColumns(pointEnd + room);
+            capacity[track] += room;
+            pointEnd += room;
+            return;
+        }; // if
+        if (freeCount > pointEnd / 2) {
+            compact();
+            if (start[track] + capacity[track] == pointEnd) {
+                makeRoom(track);
+                return;
+            }; // if
+        }; // if
+        int newCapacity = capacity[track] + room;
+        ensureColumns(pointEnd + newCapacity);
+        System.arraycopy(x, start[track], x, pointEnd, length[track]);
+        System.arraycopy(y, start[track], y, pointEnd, length[track]);
+        System.arraycopy(area, start[track], area, pointEnd, length[track]);
+        System.arraycopy(active, start[track], active, pointEnd, length[track]);
+        freeCount += capacity[track];
+        start[track] = pointEnd;
+        capacity[track] = newCapacity;
+        pointEnd += newCapacity;
+    }
+
+    private void ensureColumns(int size) {
+        if (size <= x.length) {
+            return;
+        }; // if
+        int newLength = Math.max(size, x.length * 2);
+        x = Arrays.copyOf(x, newLength);
+        y = Arrays.copyOf(y, newLength);
+        area = Arrays.copyOf(area, newLength);
+        active = Arrays.copyOf(active, newLength);
+    }
+}
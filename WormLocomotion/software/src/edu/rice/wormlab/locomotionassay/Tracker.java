@@ -8,21 +8,13 @@ import ij.gui.ImageWindow;
 import ij.measure.Measurements;
 import ij.measure.ResultsTable;
 import ij.plugin.filter.ParticleAnalyzer;
-import ij.process.ImageConverter;
-import ij.process.ImageStatistics;
 import java.awt.Color;
 import java.awt.Font;
 import java.awt.TextArea;
-import java.awt.image.BufferedImage;
 import java.io.File;
-import java.io.FileInputStream;
-import java.io.FileOutputStream;
 import java.io.IOException;
-import java.io.ObjectInputStream;
-import java.io.ObjectOutputStream;
 import java.io.PrintStream;
 import java.util.ArrayList;
-import java.util.LinkedList;
 import java.util.List;
 import javax.swing.JFrame;
 import javax.swing.JOptionPane;
@@ -48,14 +40,18 @@ public class Tracker implements Runnable {
     public int SYSTEM_MEASUREMENTS = Measurements.AREA + Measurements.MEAN + Measurements.MIN_MAX + Measurements.CENTROID;
     private File video;
     private Boolean displayFlag;
-    private FrameReader frameReader;
+    private FrameSource frameSource;
     private ImagePlus displayImagePlus = null;
     private ImageWindow displayImageWindow = null;
-    private BufferedImage lastActiveImageFrame;
+    private GrayRaster lastFrame = null;
     private int currentFrame = 0;
     private int validFrameCount = 0;
     private int frameCount = 0;
-    private final LinkedList<LinkedList<double[]>> activeList = new LinkedList<LinkedList<double[]>>();
+    private TrackStore tracks = new TrackStore();
+    //Writes the .file file while tracking; null when not tracking
+    private TrackFileWriter trackFileWriter = null;
+    private final DetectionGrid detectionGrid = new DetectionGrid();
+    private final TrackAssignment trackAssignment = new TrackAssignment();
     private Integer drawInterval = 2;
     private static final PrintStream out = System.out;
     private NativeImgProcessing imgProc = new NativeImgProcessing();
@@ -95,7 +91,7 @@ public class Tracker implements Runnable {
         if (this.isReadTrackFromFile) {
             this.video = video;
             this.displayFlag = isOneVideoAnalysis;
-            this.frameReader = null;
+            this.frameSource = null;
         } else {
             this.video = video;
             this.displayFlag = isOneVideoAnalysis;
@@ -109,7 +105,7 @@ public class Tracker implements Runnable {
                         "Video file:\n" + video.getAbsolutePath() + "\n\n"
                         + "Preparing analysis...");
 
-                this.frameReader = new FrameReader("file://" + video.getAbsolutePath());
+                this.frameSource = new FrameReader("file://" + video.getAbsolutePath());
 
             } catch (Exception ex) {
                 this.updateStatusWindow(null,
@@ -165,49 +161,28 @@ public class Tracker implements Runnable {
      *
      * @return null when things went OK; otherwise it returns an error message
      */
-    @SuppressWarnings("unchecked")
     public String readPrecomputedTracks() {
-        File dotFile = new File(video.getAbsoluteFile() + ".file");
+        File dotFile = getDotFile();
         if (dotFile.exists() == false) {
             return "Unable to find the file containing precomputed tracks (" + dotFile.getAbsolutePath() + ")";
         }; // if
         frameCount = 0;
-        activeList.clear();
-        FileInputStream fs = null;
-        ObjectInputStream oi = null;
-        LinkedList<LinkedList<double[]>> list = null;
+        tracks.clear();
+        TrackFile trackFile;
         try {
-            fs = new FileInputStream(dotFile);
-            oi = new ObjectInputStream(fs);
-            Object listObject = oi.readObject();
-            this.frameCount = oi.readInt();
-            this.microMeterPerPixelsX = oi.readDouble();
-            this.microMeterPerPixelsY = oi.readDouble();
-            this.microMeterPerPixels = oi.readDouble();
-            this.videoDurationInSec = oi.readDouble();
-
-
-            list = (LinkedList<LinkedList<double[]>>) listObject;
-            oi.close();
-            fs.close();
-        } catch (ClassNotFoundException ex) {
-            ex.printStackTrace();
-            try {
-                oi.close();
-            } catch (IOException e) {
-                e.printStackTrace();
-                return e.getMessage();
-            }; // try
-            return ex.getMessage();
+            trackFile = TrackFile.read(dotFile);
         } catch (IOException ex) {
             ex.printStackTrace();
             return ex.getMessage();
         } finally {
             this.frameStatusWindow.dispose();
         }
-        for (LinkedList<double[]> each : list) {
-            activeList.add(each);
-        }; // for
+        this.tracks = trackFile.tracks;
+        this.frameCount = trackFile.frameCount;
+        this.microMeterPerPixelsX = trackFile.microMeterPerPixelsX;
+        this.microMeterPerPixelsY = trackFile.microMeterPerPixelsY;
+        this.microMeterPerPixels = trackFile.microMeterPerPixels;
+        this.videoDurationInSec = trackFile.videoDurationInSec;
         return null;
     }
 
@@ -230,20 +205,33 @@ public class Tracker implements Runnable {
         this.microMeterPerPixelsY = scannerLog.getStepsPerPixelsY();
         this.microMeterPerPixels = (this.microMeterPerPixelsX
                 + this.microMeterPerPixelsY) / 2;
-        this.videoDurationInSec = frameReader.getVideoDurationInSec();
+        this.videoDurationInSec = frameSource.getVideoDurationInSec();
 
 
 
         //long start = System.currentTimeMillis();
-        activeList.clear();
+        tracks.clear();
+        try {
+            trackFileWriter = new TrackFileWriter(getDotFile());
+        } catch (IOException ex) {
+            // the tracks are then all written at the end
+            ex.printStackTrace();
+            trackFileWriter = null;
+        }; // try
         currentFrame = 0;
         validFrameCount = 0;
         frameCount = 0;
+        lastFrame = null;
+        // frames are decoded on a thread of their own, ahead of tracking
+        FrameStream frameStream = new FrameStream(frameSource, FrameStream.DEFAULT_CAPACITY);
+        frameStream.start();
         while (true) {
-            int state = trackFrame(currentFrame);
-            if (state == -1) {
+            GrayRaster grayFrame = frameStream.next();
+            if (grayFrame == null) {
                 break;
             }; // if
+            trackFrame(currentFrame, grayFrame);
+            frameStream.release(grayFrame);
 
             if (isWriteFrameImages) {
                 if (currentFrame % writeFrameImageInterval == 0 && currentFrame != 0) {
@@ -254,6 +242,11 @@ public class Tracker implements Runnable {
             }
             currentFrame++;
         }; // while
+        frameStream.close();
+        frameSource.close();
+        if (frameStream.getError() != null) {
+            out.println(frameStream.getError());
+        }; // if
 
         frameCount = currentFrame;
 
@@ -284,7 +277,7 @@ public class Tracker implements Runnable {
             if (displayFlag == true) {
 
                 double[] allSpeedPoints = TrackAnalyzer.analyze_AllTrackLists(
-                        activeList, frameCount, this.videoDurationInSec,
+                        tracks, frameCount, this.videoDurationInSec,
                         this.microMeterPerPixels);
                 if (allSpeedPoints.length == 0) {
                     JOptionPane.showMessageDialog(null, "No tracks data detected in the video.",
@@ -332,14 +325,14 @@ public class Tracker implements Runnable {
                 //Calculate speed info for all tracklist
                 resultsList.add(get_SummaryOutput(
                         video.getAbsolutePath(),
-                        activeList, frameCount, this.videoDurationInSec,
+                        tracks, frameCount, this.videoDurationInSec,
                         this.microMeterPerPixels));
 
 
                 //Calculate individual spped info
                 resultsList_DetailedInfo.add(get_SummaryOutput_Detailed(
                         video.getAbsolutePath(),
-                        activeList, frameCount, this.videoDurationInSec,
+                        tracks, frameCount, this.videoDurationInSec,
                         this.microMeterPerPixels));
 
 
@@ -360,6 +353,9 @@ public class Tracker implements Runnable {
                 BatchTracking.writeTrackingResults(video.getParent(),
                         resultsList_DetailedInfo, TRACKING_RESULTS_DETAIL);
             }
+        } else if (trackFileWriter != null) {
+            trackFileWriter.abort();
+            trackFileWriter = null;
         }
 
 
@@ -394,7 +390,7 @@ public class Tracker implements Runnable {
 
     //Obtain summary result as string format
     public String get_SummaryOutput(String videoAbsoluteFileName,
-            LinkedList<LinkedList<double[]>> tracksList,
+            TrackStore tracksList,
             int videoframeCount, Double videoDurationInSec,
             Double microMeterPerPixel) {
 
@@ -433,7 +429,7 @@ public class Tracker implements Runnable {
     //Obtain detailed summary result as string format
     //Speed of each track list is calculated
     public String get_SummaryOutput_Detailed(String videoAbsoluteFileName,
-            LinkedList<LinkedList<double[]>> tracksList,
+            TrackStore tracksList,
             int videoframeCount, Double videoDurationInSec, Double microMeterPerPixel) {
 
 
@@ -487,12 +483,12 @@ public class Tracker implements Runnable {
     }
 
     /**
-     * Gets the active-list (all tracks)
+     * Gets the tracks
      *
-     * @return the activeList
+     * @return the tracks
      */
-    public LinkedList<LinkedList<double[]>> getActiveList() {
-        return activeList;
+    public TrackStore getTracks() {
+        return tracks;
     }
 
     /**
@@ -501,7 +497,7 @@ public class Tracker implements Runnable {
      * @return the TrackCount
      */
     public int getTrackCount() {
-        return activeList.size();
+        return tracks.size();
     }
 
     /**
@@ -533,42 +529,45 @@ public class Tracker implements Runnable {
     }
 
     /**
-     * Writes the active-list and valid-frame-count into a serialized file named
-     * same as the video plus ".file"
+     * Writes the tracks and valid-frame-count into a file named same as the
+     * video plus ".file" (see TrackFile); completed tracks have been written
+     * already while tracking
      */
     public void writeTracks() {
         try {
-            FileOutputStream fs = new FileOutputStream(video.getParent() + File.separator + video.getName() + ".file");
-            ObjectOutputStream os = new ObjectOutputStream(fs);
-            os.writeObject(activeList);
-            os.writeInt(this.frameCount);
-            os.writeDouble(this.microMeterPerPixelsX);
-            os.writeDouble(this.microMeterPerPixelsY);
-            os.writeDouble(this.microMeterPerPixels);
-            os.writeDouble(this.videoDurationInSec);
-            os.close();
-            fs.close();
+            if (trackFileWriter == null) {
+                trackFileWriter = new TrackFileWriter(getDotFile());
+            }; // if
+            trackFileWriter.finish(tracks, this.frameCount,
+                    this.microMeterPerPixelsX, this.microMeterPerPixelsY,
+                    this.microMeterPerPixels, this.videoDurationInSec);
         } catch (IOException ex) {
             ex.printStackTrace();
             System.exit(1);
         }; // try
+        trackFileWriter = null;
+    }
+
+    /**
+     * @return the file of the tracks of the video
+     */
+    private File getDotFile() {
+        return new File(video.getAbsoluteFile() + ".file");
     }
 
     /**
      * Removes tracks that are too short
      */
     private void validateTracks() {
-        for (int i = 0; i < activeList.size(); i++) {
-            LinkedList<double[]> activeTrackList = activeList.get(i);
-            if (activeTrackList.size() < detectionCondition.min_FrameCount_Of_ActiveTrack
-                    || get_MaxBoundarySize_Of_TrackList(activeTrackList)
+        for (int i = 0; i < tracks.size(); i++) {
+            if (tracks.getLength(i) < detectionCondition.min_FrameCount_Of_ActiveTrack
+                    || get_MaxBoundarySize_Of_Track(i)
                     < detectionCondition.min_BoundingSize_Of_ActiveTrack) {
-                activeList.remove(i);
-                i--;
+                tracks.markRemoved(i);
 
             } else {
-                double[] X = Smoothing.getX(activeTrackList);
-                double[] Y = Smoothing.getY(activeTrackList);
+                double[] X = tracks.getXs(i);
+                double[] Y = tracks.getYs(i);
                 double[] XSmoothed = Smoothing.doBezierSmoothing(X,
                         X.length);
                 double[] YSmoothed = Smoothing.doBezierSmoothing(Y,
@@ -576,16 +575,16 @@ public class Tracker implements Runnable {
 
                 double pathLength = Smoothing.get_PathLength(XSmoothed, YSmoothed);
                 if (pathLength < detectionCondition.min_PathLength_Of_SmoothedTrack) {
-                    activeList.remove(i);
-                    i--;
+                    tracks.markRemoved(i);
                 }
 
             }
         }
+        tracks.removeMarked();
 
 
         displayImagePlus = new ImagePlus("TheLastFrame");
-        displayImagePlus.setImage(lastActiveImageFrame);
+        displayImagePlus.setImage(imgProc.convert_GrayRaster_To_Image(lastFrame));
         drawTracks();
     }
 
@@ -604,29 +603,35 @@ public class Tracker implements Runnable {
     }
 
     /**
-     * Grabs a frame from the video; skips frames that are fully blank; applies
-     * thresholding level; runs ParticleAnalyzer; when the displayFlag is set,
-     * it draws the tracks with red color
+     * Grabs a frame from the video at any position and tracks it, see
+     * trackFrame(int, GrayRaster); the video is closed when the frame cannot
+     * be read
      *
      * @param frame the frame number
      * @return zero when things go OK; -1 when unable to process a frame
      */
     public int trackFrame(int frame) {
-        ImagePlus imagePlus = frameReader.grab(frame);
-
-
-        BufferedImage imgBuf;
-
+        ImagePlus imagePlus = frameSource.grab(frame);
         if (imagePlus == null) {
-            frameReader.getPlayer().stop();
-            frameReader.getPlayer().close();
+            frameSource.close();
             return -1;
         }; // if
+        trackFrame(frame, imgProc.convert_Image_To_GrayRaster(imagePlus.getBufferedImage()));
+        return 0;
+    }
 
-
+    /**
+     * Tracks a gray frame: counts frames that are not fully blank; applies
+     * thresholding level; runs ParticleAnalyzer; when the displayFlag is set,
+     * it draws the tracks with red color
+     *
+     * @param frame the frame number
+     * @param grayFrame the frame in gray; left as it is
+     */
+    private void trackFrame(int frame, GrayRaster grayFrame) {
         if (isWriteFrameImages) {
             if (frame % writeFrameImageInterval == 0 && frame != 0) {
-                imgProc.saveImage(imagePlus.getBufferedImage(),
+                imgProc.saveImage(imgProc.convert_GrayRaster_To_Image(grayFrame),
                         "gif", writeFrameImageDestFolder + File.separator
                         + "original" + frame + ".gif");
             }
@@ -634,49 +639,27 @@ public class Tracker implements Runnable {
 
 
         if (this.isReadTrackFromFile == false) {
+            int videoFrameCount = this.frameSource.getFrameCount();
             this.updateStatusWindow(null,
                     "Video file:\n" + video.getAbsolutePath() + "\n\n"
                     + "Processing Frame # " + frame + "\n\n"
-                    + "Progress: " + (int) (this.frameReader.getCurrentVideoTimeInSec()
-                    / this.frameReader.getVideoDurationInSec() * 100)
-                    + "%");
+                    + (videoFrameCount > 0
+                    ? "Progress: " + (int) ((long) frame * 100 / videoFrameCount) + "%"
+                    : ""));
         }
 
 
-
-        ImagePlus grabbed = imagePlus.duplicate();
-        // convert to gray-scale
-        if (grabbed.getBitDepth() != 8) {
-            ImageConverter icv = new ImageConverter(grabbed);
-            icv.convertToGray8();
-        }; // if
-        ImageStatistics imageStatistics = grabbed.getStatistics();
-        double mean = imageStatistics.mean;
-        if (mean != 0) {
+        if (isBlank(grayFrame) == false) {
             validFrameCount++;
         }
 
 
-        //Binarization
-        short[][] srcPixelArray;
-        srcPixelArray = imgProc.convert_Image_To_GrayShortArray(
-                imagePlus.getBufferedImage());
-
-        imgBuf = imgProc.adaptiveThresholding_Core(srcPixelArray, 15, 0.2f, 300);
-
-
-        grabbed.setImage(imgBuf);
+        //Binarization; inverted, worms are black for Particle analyzer
+        GrayRaster binaryRaster = imgProc.adaptiveThresholding_Core(grayFrame, 15, 0.2f, 300);
+        ImagePlus grabbed = new ImagePlus("grabbed", binaryRaster.toByteProcessor());
         grabbed.getProcessor().invert();
 
 
-        // convert to gray-scale
-        // this is needed for Particle analyzer
-        if (grabbed.getBitDepth() != 8) {
-            ImageConverter icv = new ImageConverter(grabbed);
-            icv.convertToGray8();
-        }; // if
-
-
         ResultsTable resultsTable = new ResultsTable();
         ParticleAnalyzer analyzer = new ParticleAnalyzer(OPTIONS,
                 SYSTEM_MEASUREMENTS, resultsTable,
@@ -685,18 +668,26 @@ public class Tracker implements Runnable {
 
         updateActiveTracks(resultsTable);
 
-        lastActiveImageFrame = imagePlus.getBufferedImage();
+        // the frame may be decoded into again, so the last one is copied
+        if (lastFrame == null || lastFrame.width != grayFrame.width
+                || lastFrame.height != grayFrame.height) {
+            lastFrame = new GrayRaster(grayFrame.width, grayFrame.height);
+        }; // if
+        for (int y = 0; y < grayFrame.height; y++) {
+            System.arraycopy(grayFrame.pixels, grayFrame.index(0, y),
+                    lastFrame.pixels, y * lastFrame.width, grayFrame.width);
+        }; // for
 
         if (displayFlag == true) {
             if (displayImagePlus == null) {
-                displayImagePlus = imagePlus;
+                displayImagePlus = new ImagePlus("grabbed",
+                        imgProc.convert_GrayRaster_To_Image(grayFrame));
                 displayImageWindow = new ImageWindow(displayImagePlus);
                 displayImageWindow.setTitle(video.getName());
                 displayImagePlus.getProcessor().setColor(Color.RED);
 
             } else if (frame % drawInterval == 0) {
-                //displayImagePlus.setImage(imagePlus);
-                displayImagePlus.setImage(imagePlus);
+                displayImagePlus.setImage(imgProc.convert_GrayRaster_To_Image(grayFrame));
                 drawTracks();
                 displayImageWindow.setImage(displayImagePlus);
                 displayImageWindow.invalidate();
@@ -704,48 +695,61 @@ public class Tracker implements Runnable {
         }; // if
 
         resultsTable.reset();
-        return 0;
+    }
+
+    /**
+     * @return true when all pixels of the frame are 0
+     */
+    private static boolean isBlank(GrayRaster grayFrame) {
+        for (int y = 0; y < grayFrame.height; y++) {
+            int row = grayFrame.index(0, y);
+            for (int x = 0; x < grayFrame.width; x++) {
+                if (grayFrame.pixels[row + x] != 0) {
+                    return false;
+                }; // if
+            }; // for
+        }; // for
+        return true;
     }
 
     /**
      * Generates drawings of tracks onto the display-image-plus object
      */
     public void drawTracks() {
-        if (activeList == null) {
+        if (tracks == null) {
             return;
         }; // if
 
         
-        for (int i = 0; i < activeList.size(); i++) {
-            LinkedList<double[]> activeTrackList = activeList.get(i);
-            double[] lastPoint = activeTrackList.get(activeTrackList.size() - 1);
+        for (int i = 0; i < tracks.size(); i++) {
+            int last = tracks.getLength(i) - 1;
+            double lastX = tracks.getX(i, last);
+            double lastY = tracks.getY(i, last);
 
             //Do not delete this part
             displayImagePlus.getProcessor().setColor(Color.MAGENTA);
-            displayImagePlus.getProcessor().fillOval((int) lastPoint[0] - 2, (int) lastPoint[1] - 2,
+            displayImagePlus.getProcessor().fillOval((int) lastX - 2, (int) lastY - 2,
                     4, 4);
 
             displayImagePlus.getProcessor().drawString(Integer.toString(i + 1),
-                    (int) lastPoint[0] + 3, (int) lastPoint[1] + 4);
+                    (int) lastX + 3, (int) lastY + 4);
 
 
-            if (lastPoint[ 3] == 0) {
+            if (tracks.isActive(i) == false) {
 
                 displayImagePlus.getProcessor().setColor(Color.BLUE);
-                for (int j = 0; j < activeTrackList.size(); j++) {
-                    double[] point = activeTrackList.get(j);
-                    double X = point[ 0];
-                    double Y = point[ 1];
+                for (int j = 0; j <= last; j++) {
+                    double X = tracks.getX(i, j);
+                    double Y = tracks.getY(i, j);
                     displayImagePlus.getProcessor().drawDot((int) Math.ceil(X), (int) Math.ceil(Y));
                 }; // for
 
             } else {
 
                 displayImagePlus.getProcessor().setColor(Color.RED);
-                for (int j = 0; j < activeTrackList.size(); j++) {
-                    double[] point = activeTrackList.get(j);
-                    double X = point[ 0];
-                    double Y = point[ 1];
+                for (int j = 0; j <= last; j++) {
+                    double X = tracks.getX(i, j);
+                    double Y = tracks.getY(i, j);
                     displayImagePlus.getProcessor().drawDot((int) Math.ceil(X), (int) Math.ceil(Y));
                 }; // for
             }
@@ -755,36 +759,34 @@ public class Tracker implements Runnable {
     }
 
     /**
-     * Find minimum boundary size of given TrackList
+     * Find minimum boundary size of given track
      */
-    private int get_MaxBoundarySize_Of_TrackList(LinkedList<double[]> cur_ActiveTrackList) {
-        if (cur_ActiveTrackList == null) {
-            return 0;
-        }
-        if (cur_ActiveTrackList.size() == 0) {
+    private int get_MaxBoundarySize_Of_Track(int track) {
+        int length = tracks.getLength(track);
+        if (length == 0) {
             return 0;
         }
 
 
-        double[] curPoint = cur_ActiveTrackList.get(0);
-        double minX = curPoint[0];
-        double maxX = curPoint[0];
-        double minY = curPoint[1];
-        double maxY = curPoint[1];
+        double minX = tracks.getX(track, 0);
+        double maxX = minX;
+        double minY = tracks.getY(track, 0);
+        double maxY = minY;
 
-        for (int i = 0; i < cur_ActiveTrackList.size(); i++) {
-            curPoint = cur_ActiveTrackList.get(i);
-            if (curPoint[0] < minX) {
-                minX = curPoint[0];
+        for (int i = 1; i < length; i++) {
+            double curX = tracks.getX(track, i);
+            double curY = tracks.getY(track, i);
+            if (curX < minX) {
+                minX = curX;
             }
-            if (curPoint[0] > maxX) {
-                maxX = curPoint[0];
+            if (curX > maxX) {
+                maxX = curX;
             }
-            if (curPoint[1] < minY) {
-                minY = curPoint[1];
+            if (curY < minY) {
+                minY = curY;
             }
-            if (curPoint[1] > maxY) {
-                maxY = curPoint[1];
+            if (curY > maxY) {
+                maxY = curY;
             }
         }
 
@@ -795,102 +797,93 @@ public class Tracker implements Runnable {
         }
     }
 
+    /**
+     * Extends the active tracks with the objects found in a frame: each
+     * track, in order, takes the nearest object not taken yet when it is
+     * within min_Distance_Of_SameWorm and its size changed by no more than
+     * max_PercentChange_In_WormSize, otherwise the track is completed (or
+     * dropped when too short). Objects left start tracks of their own.
+     * Objects are looked up in a DetectionGrid, not row by row. With
+     * is_GlobalAssignment, the objects are given to the tracks by
+     * TrackAssignment instead, all at once.
+     *
+     * @param resultsTable results of ParticleAnalyzer for the frame
+     */
     public void updateActiveTracks(ResultsTable resultsTable) {
+        detectionGrid.load(resultsTable, detectionCondition.min_Distance_Of_SameWorm);
+        int[] assigned = null;
+        if (detectionCondition.is_GlobalAssignment == true) {
+            assigned = trackAssignment.assign(tracks, detectionGrid,
+                    detectionCondition.max_PercentChange_In_WormSize,
+                    detectionCondition.is_VelocityPredicted);
+        }; // if
+        int activeCount = 0;
 
-
-        for (int i = 0; i < activeList.size(); i++) {
-            LinkedList<double[]> activeTrackList = activeList.get(i);
-
-            double[] lastPoint = activeTrackList.get(activeTrackList.size() - 1); //get the last point
-            double lastX = lastPoint[ 0];
-            double lastY = lastPoint[ 1];
-            double lastSize = lastPoint[ 2];
-            double active = lastPoint[ 3];
-
-            //Check if current TrackList is already completed
-            if (active == 0) {
+        for (int i = 0; i < tracks.size(); i++) {
+            //Check if current track is already completed
+            if (tracks.isActive(i) == false) {
                 continue;
             }; // if
 
-            double minShift = 100000;
-            int minRow = -1;
-
-            //examine all of the tracks
-            for (int row = 0; row < resultsTable.getCounter(); row++) {
-                double X = resultsTable.getValue("X", row);
-                double Y = resultsTable.getValue("Y", row);
-                double shift = Math.sqrt((lastX - X) * (lastX - X) + (lastY - Y) * (lastY - Y));
-                if (shift < minShift) {
-                    minShift = shift;
-                    minRow = row;
-                }; // if
-            }; // for
-
-
-
-            // check if the same object is found      
-            if (minRow == -1 || minShift > detectionCondition.min_Distance_Of_SameWorm) {
-                if (activeTrackList.size() < detectionCondition.min_FrameCount_Of_ActiveTrack
-                        || get_MaxBoundarySize_Of_TrackList(activeTrackList)
-                        < detectionCondition.min_BoundingSize_Of_ActiveTrack) {
-                    // delete dead tracks that are no longer active & too short
-                    activeList.remove(i);
-                    i--;
-                    continue;
-                } else {
-                    // mark tracks as completed track
-                    lastPoint[ 3] = 0;
-                    activeTrackList.set(activeTrackList.size() - 1, lastPoint);
-                    activeList.set(i, activeTrackList);
-                    continue;
-                }
-            }
-
+            int last = tracks.getLength(i) - 1;
+            double lastSize = tracks.getArea(i, last);
 
-            // check if the same object is found by comparing maxSizeChange
-            if (Math.abs((resultsTable.getValue("Area", minRow) - lastSize) / lastSize * 100)
-                    > detectionCondition.max_PercentChange_In_WormSize) {
-                if (activeTrackList.size() < detectionCondition.min_FrameCount_Of_ActiveTrack
-                        || get_MaxBoundarySize_Of_TrackList(activeTrackList)
+            // check if the same object is found, also by comparing maxSizeChange
+            int match;
+            if (assigned != null) {
+                match = assigned[activeCount];
+                activeCount++;
+            } else {
+                match = detectionGrid.findNearest(tracks.getX(i, last), tracks.getY(i, last));
+                if (match != -1 && Math.abs((detectionGrid.getArea(match) - lastSize) / lastSize * 100)
+                        > detectionCondition.max_PercentChange_In_WormSize) {
+                    match = -1;
+                }; // if
+            }; // if
+            if (match == -1) {
+                if (tracks.getLength(i) < detectionCondition.min_FrameCount_Of_ActiveTrack
+                        || get_MaxBoundarySize_Of_Track(i)
                         < detectionCondition.min_BoundingSize_Of_ActiveTrack) {
                     // delete dead tracks that are no longer active & too short
-                    activeList.remove(i);
-                    i--;
-                    continue;
+                    tracks.markRemoved(i);
                 } else {
-                    // mark tracks as completed track
-                    lastPoint[ 3] = 0;
-                    activeTrackList.set(activeTrackList.size() - 1, lastPoint);
-                    activeList.set(i, activeTrackList);
-                    continue;
-                }
-            }
-
+                    // mark tracks as completed track, it will not change anymore
+                    tracks.complete(i);
+                    writeCompletedTrack(i);
+                }; // if
+                continue;
+            }; // if
 
-            // update-able           
-            double[] newPoint = new double[4];
-            newPoint[ 0] = resultsTable.getValue("X", minRow);
-            newPoint[ 1] = resultsTable.getValue("Y", minRow);
-            newPoint[ 2] = resultsTable.getValue("Area", minRow);
-            newPoint[ 3] = 1;
-            activeTrackList.add(newPoint);
-            activeList.set(i, activeTrackList);
-            resultsTable.deleteRow(minRow);
-        }
+            // update-able
+            tracks.addPoint(i, detectionGrid.getX(match), detectionGrid.getY(match),
+                    detectionGrid.getArea(match));
+            detectionGrid.take(match);
+        }; // for
+        tracks.removeMarked();
 
+        // create new tracks for remaining objects
+        for (int k = 0; k < detectionGrid.size(); k++) {
+            if (detectionGrid.isTaken(k) == false) {
+                tracks.addTrack(detectionGrid.getX(k), detectionGrid.getY(k),
+                        detectionGrid.getArea(k));
+            }; // if
+        }; // for
+    }
 
-        if (resultsTable.getCounter() > 0) {
-            // create new tracks for remaining rows in result
-            for (int k = 0; k < resultsTable.getCounter(); k++) {
-                double[] newPoint = new double[4];
-                newPoint[ 0] = resultsTable.getValue("X", k);
-                newPoint[ 1] = resultsTable.getValue("Y", k);
-                newPoint[ 2] = resultsTable.getValue("Area", k);
-                newPoint[ 3] = 1;
-                LinkedList<double[]> newTrackList = new LinkedList<double[]>();
-                newTrackList.add(newPoint);
-                activeList.add(newTrackList);
-            }; // for
+    /**
+     * Writes a completed track into the .file file being written; when it
+     * cannot, the file is left to be written at the end
+     */
+    private void writeCompletedTrack(int track) {
+        if (trackFileWriter == null) {
+            return;
         }; // if
+        try {
+            trackFileWriter.writeTrack(tracks, track);
+        } catch (IOException ex) {
+            ex.printStackTrace();
+            trackFileWriter.abort();
+            trackFileWriter = null;
+        }; // try
     }
 }
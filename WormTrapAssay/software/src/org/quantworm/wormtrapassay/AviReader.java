@@ -0,0 +1,686 @@
+/*
+ * Filename: AviReader.java
+ */
+
+package org.quantworm.wormtrapassay;
+
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferByte;
+import java.awt.image.DataBufferInt;
+import java.awt.image.PixelInterleavedSampleModel;
+import java.awt.image.SampleModel;
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+import java.util.Iterator;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.plugins.jpeg.JPEGHuffmanTable;
+import javax.imageio.stream.ImageInputStream;
+
+/**
+ * Reads the frames of an AVI video without JMF, for the codecs it can
+ * decode itself: uncompressed DIB (8-bit palette, 24-bit and 32-bit), 8-bit
+ * gray (Y800, GREY) and Motion JPEG.
+ * The position of every frame comes from the index of the file (the OpenDML
+ * 'indx' when there is one, 'idx1' otherwise, or a walk over the 'movi'
+ * list when there is none), so any frame is read with one seek. Frames are
+ * decoded straight into gray, with the weights and rounding of
+ * NativeImgProcessing.RGBToGray, or into RGB images for display.
+ * Empty chunks (dropped frames) repeat the frame before them, as players do.
+ */
+public class AviReader {
+
+    private static final int BI_RGB = 0;
+    private static final int AVI_INDEX_OF_INDEXES = 0;
+    private static final int AVI_INDEX_OF_CHUNKS = 1;
+
+    //Gray weights, as in NativeImgProcessing
+    private static final float[] RED_TO_GRAY = new float[256];
+    private static final float[] GREEN_TO_GRAY = new float[256];
+    private static final float[] BLUE_TO_GRAY = new float[256];
+
+    static {
+        for (int i = 0; i < 256; i++) {
+            RED_TO_GRAY[i] = (float) (0.299 * i);
+            GREEN_TO_GRAY[i] = (float) (0.587 * i);
+            BLUE_TO_GRAY[i] = (float) (0.114 * i);
+        }
+    }
+
+    private final RandomAccessFile file;
+    private final int width;
+    private final int height;
+    private final int bitCount;
+    private final boolean isJpeg;
+    private final boolean isGray;
+    private final boolean isBottomUp;
+    private final int scale;
+    private final int rate;
+    private final long[] frameOffsets;
+    private final int[] frameSizes;
+
+    //RGB and gray of the palette entries (8-bit DIB frames), null for gray frames
+    private int[] palette = null;
+    private int[] paletteGray = null;
+    private byte[] chunk = new byte[0];
+    private ImageReader jpegReader = null;
+    private BufferedImage jpegImage = null;
+
+    //Layout of the pixels of the frame decoded last
+    private byte[] data;
+    private int dataOffset;
+    private int lineStride;
+    private int pixelStride;
+    private int[] dataPalette;
+
+    private AviReader(RandomAccessFile file, Header header) {
+        this.file = file;
+        width = header.width;
+        height = Math.abs(header.height);
+        bitCount = header.bitCount;
+        isJpeg = header.isJpeg;
+        isGray = header.isGray;
+        // DIB lines go upwards unless the height is negative
+        isBottomUp = header.height > 0 && isJpeg == false && isGray == false;
+        scale = header.scale;
+        rate = header.rate;
+        frameOffsets = Arrays.copyOf(header.offsets, header.frameCount);
+        frameSizes = Arrays.copyOf(header.sizes, header.frameCount);
+        if (bitCount == 8 && isJpeg == false && isGray == false) {
+            palette = header.palette;
+            paletteGray = new int[palette.length];
+            for (int i = 0; i < palette.length; i++) {
+                int rgb = palette[i];
+                paletteGray[i] = toGray((rgb >> 16) & 0xff, (rgb >> 8) & 0xff, rgb & 0xff);
+            }
+        }
+    }
+
+    /**
+     * Opens an AVI video
+     *
+     * @param aviFile the video
+     * @return the reader; null when the file is not an AVI or its video is
+     * in a codec not decoded here
+     * @throws IOException when the file cannot be read or is broken
+     */
+    public static AviReader open(File aviFile) throws IOException {
+        RandomAccessFile file = new RandomAccessFile(aviFile, "r");
+        AviReader reader = null;
+        try {
+            Header header = readHeader(file);
+            if (header != null && header.isSupported() == true) {
+                reader = new AviReader(file, header);
+            }
+        } finally {
+            if (reader == null) {
+                file.close();
+            }
+        }
+        return reader;
+    }
+
+    /**
+     * @return width of the frames
+     */
+    public int getWidth() {
+        return width;
+    }
+
+    /**
+     * @return height of the frames
+     */
+    public int getHeight() {
+        return height;
+    }
+
+    /**
+     * @return number of frames
+     */
+    public int getFrameCount() {
+        return frameOffsets.length;
+    }
+
+    /**
+     * @return duration of the video in seconds
+     */
+    public double getDurationInSec() {
+        return getTimeInSec(frameOffsets.length);
+    }
+
+    /**
+     * @param frame index of a frame
+     * @return time of the frame from the start of the video, in seconds
+     */
+    public double getTimeInSec(int frame) {
+        return (double) frame * scale / rate;
+    }
+
+    /**
+     * Frame shown at a time
+     *
+     * @param timeInNanoSec time from the start of the video
+     * @return index of the frame; getFrameCount() or more past the end
+     */
+    public int getFrameAt(long timeInNanoSec) {
+        long frame;
+        if (timeInNanoSec <= Long.MAX_VALUE / rate) {
+            frame = timeInNanoSec * rate / (scale * 1000000000L);
+        } else {
+            frame = (long) (timeInNanoSec / 1e9 * rate / scale);
+        }
+        return (int) Math.min(Integer.MAX_VALUE, frame);
+    }
+
+    /**
+     * Reads a frame in gray, the way NativeImgProcessing.convert_Image_To_GrayRaster
+     * makes it out of the image of the frame
+     *
+     * @param frame index of the frame, starts from 0
+     * @param reuse raster to write the frame into when it is compact and of
+     * the size of the frame, otherwise a new raster is made; may be null
+     * @return the raster holding the frame; null when there is no such frame
+     * @throws IOException when the frame cannot be read
+     */
+    public synchronized GrayRaster readGray(int frame, GrayRaster reuse) throws IOException {
+        if (decode(frame) == false) {
+            return null;
+        }
+        GrayRaster raster = reuse;
+        if (raster == null || raster.isCompact() == false
+                || raster.width != width || raster.height != height) {
+            raster = new GrayRaster(width, height);
+        }
+        byte[] outPixels = raster.pixels;
+        if (data == null) {
+            Arrays.fill(outPixels, (byte) 0);
+            return raster;
+        }
+
+        int[] gray = dataPalette != null ? paletteGray : null;
+        for (int y = 0; y < height; y++) {
+            int index = dataOffset + (isBottomUp ? height - 1 - y : y) * lineStride;
+            int row = y * width;
+            if (pixelStride == 1 && gray == null) {
+                System.arraycopy(data, index, outPixels, row, width);
+                continue;
+            }
+            for (int x = 0; x < width; x++) {
+                if (pixelStride == 1) {
+                    outPixels[row + x] = (byte) gray[data[index] & 0xff];
+                } else {
+                    outPixels[row + x] = (byte) toGray(data[index + 2] & 0xff,
+                            data[index + 1] & 0xff, data[index] & 0xff);
+                }
+                index += pixelStride;
+            }
+        }
+        return raster;
+    }
+
+    /**
+     * Reads a frame in RGB
+     *
+     * @param frame index of the frame, starts from 0
+     * @return the image of the frame; null when there is no such frame
+     * @throws IOException when the frame cannot be read
+     */
+    public synchronized BufferedImage readImage(int frame) throws IOException {
+        if (decode(frame) == false) {
+            return null;
+        }
+        BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        if (data == null) {
+            return image;
+        }
+        int[] outPixels = ((DataBufferInt) image.getRaster().getDataBuffer()).getData();
+        for (int y = 0; y < height; y++) {
+            int index = dataOffset + (isBottomUp ? height - 1 - y : y) * lineStride;
+            int row = y * width;
+            for (int x = 0; x < width; x++) {
+                if (pixelStride == 1) {
+                    int value = data[index] & 0xff;
+                    outPixels[row + x] = dataPalette != null ? dataPalette[value]
+                            : (value << 16) | (value << 8) | value;
+                } else {
+                    outPixels[row + x] = ((data[index + 2] & 0xff) << 16)
+                            | ((data[index + 1] & 0xff) << 8) | (data[index] & 0xff);
+                }
+                index += pixelStride;
+            }
+        }
+        return image;
+    }
+
+    /**
+     * Releases the file; no frame can be read afterwards
+     */
+    public synchronized void close() {
+        if (jpegReader != null) {
+            jpegReader.dispose();
+            jpegReader = null;
+        }
+        try {
+            file.close();
+        } catch (IOException ioe) {
+            ioe.printStackTrace();
+        }
+    }
+
+    /**
+     * Gray value of a color, as NativeImgProcessing.RGBToGray gives it
+     */
+    private static int toGray(int r, int g, int b) {
+        return (int) Math.rint(RED_TO_GRAY[r] + GREEN_TO_GRAY[g] + BLUE_TO_GRAY[b]);
+    }
+
+    /**
+     * Reads and decodes a frame, setting the layout of its pixels (data is
+     * left null for a frame with no chunk before it, which is black)
+     *
+     * @return false when there is no such frame
+     */
+    private boolean decode(int frame) throws IOException {
+        if (frame < 0 || frame >= frameOffsets.length) {
+            return false;
+        }
+        int size = frameSizes[frame];
+        data = null;
+        if (size == 0) {
+            return true;
+        }
+        if (chunk.length < size) {
+            chunk = new byte[size];
+        }
+        file.seek(frameOffsets[frame]);
+        file.readFully(chunk, 0, size);
+
+        if (isJpeg == true) {
+            decodeJpeg(size);
+            return true;
+        }
+        // DIB lines are padded to 4 bytes, gray lines are not
+        lineStride = isGray ? width : ((width * bitCount + 31) / 32) * 4;
+        pixelStride = bitCount / 8;
+        if ((long) lineStride * height > size) {
+            throw new IOException("Frame " + frame + " is too short: " + size + " bytes");
+        }
+        data = chunk;
+        dataOffset = 0;
+        dataPalette = palette;
+        return true;
+    }
+
+    /**
+     * Decodes a JPEG frame with ImageIO, into the image of the frame before
+     * when it has the same layout
+     */
+    private void decodeJpeg(int size) throws IOException {
+        byte[] jpeg = withHuffmanTables(chunk, size);
+        if (jpegReader == null) {
+            Iterator<ImageReader> readers = ImageIO.getImageReadersByFormatName("jpeg");
+            if (readers.hasNext() == false) {
+                throw new IOException("No JPEG decoder");
+            }
+            jpegReader = readers.next();
+        }
+        ImageInputStream input = ImageIO.createImageInputStream(
+                new ByteArrayInputStream(jpeg, 0, jpeg == chunk ? size : jpeg.length));
+        try {
+            jpegReader.setInput(input, true, true);
+            ImageReadParam param = jpegReader.getDefaultReadParam();
+            if (jpegImage != null && jpegImage.getWidth() == jpegReader.getWidth(0)
+                    && jpegImage.getHeight() == jpegReader.getHeight(0)
+                    && jpegImage.getType() == jpegReader.getImageTypes(0).next().getBufferedImageType()) {
+                param.setDestination(jpegImage);
+            }
+            jpegImage = jpegReader.read(0, param);
+        } finally {
+            input.close();
+        }
+        if (jpegImage.getWidth() != width || jpegImage.getHeight() != height) {
+            throw new IOException("JPEG frame of " + jpegImage.getWidth() + "x"
+                    + jpegImage.getHeight() + " in a video of " + width + "x" + height);
+        }
+
+        if (jpegImage.getType() != BufferedImage.TYPE_BYTE_GRAY
+                && jpegImage.getType() != BufferedImage.TYPE_3BYTE_BGR) {
+            BufferedImage bgr = new BufferedImage(width, height, BufferedImage.TYPE_3BYTE_BGR);
+            Graphics2D graphics = bgr.createGraphics();
+            graphics.drawImage(jpegImage, 0, 0, null);
+            graphics.dispose();
+            jpegImage = bgr;
+        }
+        SampleModel sampleModel = jpegImage.getSampleModel();
+        data = ((DataBufferByte) jpegImage.getRaster().getDataBuffer()).getData();
+        dataOffset = jpegImage.getRaster().getDataBuffer().getOffset();
+        lineStride = ((PixelInterleavedSampleModel) sampleModel).getScanlineStride();
+        pixelStride = ((PixelInterleavedSampleModel) sampleModel).getPixelStride();
+        dataPalette = null;
+    }
+
+    /**
+     * Motion JPEG frames often leave out the Huffman tables, which are then
+     * the standard ones; those are put in when missing
+     *
+     * @return the frame as it is, or a copy holding the tables
+     */
+    private static byte[] withHuffmanTables(byte[] jpeg, int size) {
+        int position = 2;
+        while (position + 4 <= size && (jpeg[position] & 0xff) == 0xff) {
+            int marker = jpeg[position + 1] & 0xff;
+            if (marker == 0xc4) {
+                return jpeg;
+            }
+            if (marker == 0xda) {
+                break;
+            }
+            position += 2 + (((jpeg[position + 2] & 0xff) << 8) | (jpeg[position + 3] & 0xff));
+        }
+
+        JPEGHuffmanTable[] tables = {JPEGHuffmanTable.StdDCLuminance,
+            JPEGHuffmanTable.StdDCChrominance, JPEGHuffmanTable.StdACLuminance,
+            JPEGHuffmanTable.StdACChrominance};
+        int[] classAndIds = {0x00, 0x01, 0x10, 0x11};
+        int length = 2;
+        for (JPEGHuffmanTable table : tables) {
+            length += 1 + 16 + table.getValues().length;
+        }
+        ByteBuffer buffer = ByteBuffer.allocate(size + 2 + length);
+        buffer.put(jpeg, 0, 2);
+        buffer.put((byte) 0xff).put((byte) 0xc4).putShort((short) length);
+        for (int i = 0; i < tables.length; i++) {
+            buffer.put((byte) classAndIds[i]);
+            for (short count : tables[i].getLengths()) {
+                buffer.put((byte) count);
+            }
+            for (short value : tables[i].getValues()) {
+                buffer.put((byte) value);
+            }
+        }
+        buffer.put(jpeg, 2, size - 2);
+        return buffer.array();
+    }
+
+    /**
+     * Reads the headers and the index of the video stream
+     *
+     * @return the header; null when the file is not an AVI with video
+     */
+    private static Header readHeader(RandomAccessFile file) throws IOException {
+        long fileLength = file.length();
+        if (fileLength < 12) {
+            return null;
+        }
+        ByteBuffer riff = read(file, 0, 12);
+        if (riff.getInt(0) != fourcc("RIFF") || riff.getInt(8) != fourcc("AVI ")) {
+            return null;
+        }
+
+        Header header = new Header();
+        long moviStart = -1;
+        long moviEnd = -1;
+        long position = 12;
+        while (position + 8 <= fileLength) {
+            ByteBuffer chunkHeader = read(file, position, (int) Math.min(12, fileLength - position));
+            int id = chunkHeader.getInt(0);
+            long size = chunkHeader.getInt(4) & 0xffffffffL;
+            long end = Math.min(fileLength, position + 8 + size + (size & 1));
+            int listType = id == fourcc("LIST") && end - position >= 12 ? chunkHeader.getInt(8) : 0;
+            if (listType == fourcc("hdrl")) {
+                readHeaderList(file, position + 12, end, header);
+            } else if (listType == fourcc("movi")) {
+                moviStart = position + 8;
+                moviEnd = end;
+            } else if (id == fourcc("idx1") && header.streamIndex >= 0 && header.superIndex == null) {
+                readOldIndex(file, position + 8, (int) Math.min(size, end - position - 8),
+                        moviStart, header);
+            }
+            position = end;
+        }
+        if (header.streamIndex < 0) {
+            return null;
+        }
+
+        if (header.superIndex != null) {
+            header.frameCount = 0;
+            ByteBuffer superIndex = header.superIndex;
+            for (int i = 0; i < header.superIndexEntries; i++) {
+                long offset = superIndex.getLong(24 + i * 16);
+                readStandardIndex(file, offset, header);
+            }
+        } else if (header.frameCount == 0 && moviStart >= 0) {
+            scanMovi(file, moviStart + 4, moviEnd, header);
+        }
+
+        //Empty chunks repeat the frame before them
+        for (int i = 1; i < header.frameCount; i++) {
+            if (header.sizes[i] == 0) {
+                header.offsets[i] = header.offsets[i - 1];
+                header.sizes[i] = header.sizes[i - 1];
+            }
+        }
+        return header;
+    }
+
+    /**
+     * Reads avih-strl of the 'hdrl' list, keeping the first video stream
+     */
+    private static void readHeaderList(RandomAccessFile file, long position, long end,
+            Header header) throws IOException {
+        int streamCount = 0;
+        while (position + 12 <= end) {
+            ByteBuffer chunkHeader = read(file, position, 12);
+            long size = chunkHeader.getInt(4) & 0xffffffffL;
+            long next = position + 8 + size + (size & 1);
+            if (chunkHeader.getInt(0) == fourcc("LIST") && chunkHeader.getInt(8) == fourcc("strl")) {
+                if (header.streamIndex < 0) {
+                    readStreamList(file, position + 12, Math.min(next, end), streamCount, header);
+                }
+                streamCount++;
+            }
+            position = next;
+        }
+    }
+
+    /**
+     * Reads strh-strf-indx of a stream, when it is a video stream
+     */
+    private static void readStreamList(RandomAccessFile file, long position, long end,
+            int streamCount, Header header) throws IOException {
+        boolean isVideo = false;
+        while (position + 8 <= end) {
+            ByteBuffer chunkHeader = read(file, position, 8);
+            int id = chunkHeader.getInt(0);
+            int size = (int) Math.min(chunkHeader.getInt(4) & 0xffffffffL, end - position - 8);
+            if (id == fourcc("strh") && size >= 36) {
+                ByteBuffer strh = read(file, position + 8, size);
+                if (strh.getInt(0) != fourcc("vids")) {
+                    return;
+                }
+                isVideo = true;
+                header.scale = strh.getInt(20);
+                header.rate = strh.getInt(24);
+                header.streamIndex = streamCount;
+            } else if (id == fourcc("strf") && isVideo == true && size >= 40) {
+                ByteBuffer strf = read(file, position + 8, size);
+                int headerSize = strf.getInt(0);
+                header.width = strf.getInt(4);
+                header.height = strf.getInt(8);
+                header.bitCount = strf.getShort(14);
+                header.compression = strf.getInt(16);
+                int colorCount = strf.getInt(32);
+                if (colorCount <= 0 || colorCount > 256) {
+                    colorCount = 256;
+                }
+                header.palette = new int[256];
+                for (int i = 0; i < colorCount && headerSize + i * 4 + 4 <= size; i++) {
+                    header.palette[i] = strf.getInt(headerSize + i * 4) & 0xffffff;
+                }
+            } else if (id == fourcc("indx") && isVideo == true && size >= 24) {
+                ByteBuffer indx = read(file, position + 8, size);
+                if (indx.getShort(0) == 4 && indx.get(3) == AVI_INDEX_OF_INDEXES) {
+                    header.superIndex = indx;
+                    header.superIndexEntries = Math.min(indx.getInt(4), (size - 24) / 16);
+                }
+            }
+            position += 8 + size + (size & 1);
+        }
+    }
+
+    /**
+     * Reads the 'idx1' index; its offsets are from the 'movi' fourcc, or
+     * from the start of the file in some writers
+     */
+    private static void readOldIndex(RandomAccessFile file, long position, int size,
+            long moviStart, Header header) throws IOException {
+        ByteBuffer index = read(file, position, size);
+        long base = -1;
+        for (int i = 0; i + 16 <= size; i += 16) {
+            if (header.isVideoChunk(index.getInt(i)) == false) {
+                continue;
+            }
+            long offset = index.getInt(i + 8) & 0xffffffffL;
+            int chunkSize = index.getInt(i + 12);
+            if (base < 0) {
+                boolean isFromMovi = moviStart >= 0 && moviStart + offset + 4 <= file.length()
+                        && read(file, moviStart + offset, 4).getInt(0) == index.getInt(i);
+                base = isFromMovi ? moviStart : 0;
+            }
+            header.add(base + offset + 8, chunkSize);
+        }
+    }
+
+    /**
+     * Reads an OpenDML standard index ('ix##' chunk), whose offsets are
+     * those of the data of the chunks
+     */
+    private static void readStandardIndex(RandomAccessFile file, long position, Header header)
+            throws IOException {
+        ByteBuffer chunkHeader = read(file, position, 32);
+        int size = chunkHeader.getInt(4);
+        if (chunkHeader.getShort(8) != 2 || chunkHeader.get(11) != AVI_INDEX_OF_CHUNKS) {
+            throw new IOException("Unknown OpenDML index at " + position);
+        }
+        int entries = Math.min(chunkHeader.getInt(12), (size - 24) / 8);
+        long baseOffset = chunkHeader.getLong(20);
+        ByteBuffer index = read(file, position + 32, entries * 8);
+        for (int i = 0; i < entries; i++) {
+            long offset = index.getInt(i * 8) & 0xffffffffL;
+            header.add(baseOffset + offset, index.getInt(i * 8 + 4) & 0x7fffffff);
+        }
+    }
+
+    /**
+     * Walks over the chunks of the 'movi' list when the file has no index
+     */
+    private static void scanMovi(RandomAccessFile file, long position, long end, Header header)
+            throws IOException {
+        while (position + 8 <= end) {
+            ByteBuffer chunkHeader = read(file, position, 8);
+            int id = chunkHeader.getInt(0);
+            long size = chunkHeader.getInt(4) & 0xffffffffL;
+            if (id == fourcc("LIST")) {
+                // 'rec ' lists hold chunks of their own
+                position += 12;
+                continue;
+            }
+            if (header.isVideoChunk(id) == true) {
+                header.add(position + 8, (int) Math.min(size, end - position - 8));
+            }
+            position += 8 + size + (size & 1);
+        }
+    }
+
+    /**
+     * Reads bytes of the file, little-endian
+     */
+    private static ByteBuffer read(RandomAccessFile file, long position, int size)
+            throws IOException {
+        byte[] bytes = new byte[size];
+        file.seek(position);
+        file.readFully(bytes);
+        return ByteBuffer.wrap(bytes).order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    /**
+     * Four-character code as read little-endian
+     */
+    private static int fourcc(String code) {
+        return code.charAt(0) | (code.charAt(1) << 8) | (code.charAt(2) << 16) | (code.charAt(3) << 24);
+    }
+
+    /**
+     * What the headers and the index say about the video stream
+     */
+    private static class Header {
+
+        private int streamIndex = -1;
+        private int scale;
+        private int rate;
+        private int width;
+        private int height;
+        private int bitCount;
+        private int compression;
+        private int[] palette;
+        private boolean isJpeg;
+        private boolean isGray;
+        private ByteBuffer superIndex = null;
+        private int superIndexEntries;
+        private int frameCount = 0;
+        private long[] offsets = new long[1024];
+        private int[] sizes = new int[1024];
+
+        /**
+         * Whether the stream can be read here; sets the codec flags
+         */
+        private boolean isSupported() {
+            if (scale <= 0 || rate <= 0 || width <= 0 || height == 0 || frameCount == 0) {
+                return false;
+            }
+            String codec = "";
+            for (int shift = 0; shift < 32; shift += 8) {
+                codec += (char) ((compression >>> shift) & 0xff);
+            }
+            codec = codec.toUpperCase();
+            isJpeg = codec.equals("MJPG");
+            isGray = codec.equals("Y800") || codec.equals("Y8  ") || codec.equals("GREY");
+            if (isJpeg == true) {
+                return true;
+            }
+            if (isGray == true) {
+                return bitCount == 8;
+            }
+            boolean isDib = compression == BI_RGB || codec.equals("DIB ") || codec.equals("RGB ")
+                    || codec.equals("RAW ");
+            return isDib == true && (bitCount == 8 || bitCount == 24 || bitCount == 32);
+        }
+
+        /**
+         * Whether a chunk id is that of a frame of the video stream
+         * ('##db' or '##dc')
+         */
+        private boolean isVideoChunk(int id) {
+            int digits = ('0' + streamIndex / 10) | (('0' + streamIndex % 10) << 8);
+            int type = id >>> 16;
+            return (id & 0xffff) == digits && (type == ('d' | ('b' << 8)) || type == ('d' | ('c' << 8)));
+        }
+
+        private void add(long offset, int size) {
+            if (frameCount == offsets.length) {
+                offsets = Arrays.copyOf(offsets, frameCount * 2);
+                sizes = Arrays.copyOf(sizes, frameCount * 2);
+            }
+            offsets[frameCount] = offset;
+            sizes[frameCount] = size;
+            frameCount++;
+        }
+    }
+}
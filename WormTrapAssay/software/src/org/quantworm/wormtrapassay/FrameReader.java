@@ -3,6 +3,7 @@
  */
 package org.quantworm.wormtrapassay;
 
+import java.io.File;
 import java.io.IOException;
 import java.awt.image.BufferedImage;
 import javax.media.Buffer;
@@ -23,7 +24,9 @@ import javax.media.format.VideoFormat;
 import javax.media.util.BufferToImage;
 
 /**
- * Reads a video for the purpose of taking a frame image out of it
+ * Reads a video for the purpose of taking a frame image out of it.
+ * AVI videos in a codec that AviReader decodes are read by it, without JMF;
+ * other videos go through a JMF player.
  */
 public class FrameReader implements ControllerListener {
 
@@ -36,8 +39,24 @@ public class FrameReader implements ControllerListener {
     private FrameGrabbingControl frameGrabbingControl = null;
     private double videoDurationInSec;
     private long videoFrameCount;
+    private AviReader aviReader = null;
+    private int currentFrame = 0;
 
     public FrameReader(String filename) {
+        File file = new File(filename.startsWith("file://") ? filename.substring("file://".length()) : filename);
+        if (file.isFile() == true) {
+            try {
+                aviReader = AviReader.open(file);
+            } catch (IOException ioe) {
+                ioe.printStackTrace();
+            }
+        }
+        if (aviReader != null) {
+            videoDurationInSec = aviReader.getDurationInSec();
+            videoFrameCount = aviReader.getFrameCount();
+            return;
+        }
+
         MediaLocator mediaLocator = new MediaLocator(filename);
         Manager.setHint(Manager.PLUGIN_PLAYER, true);
 
@@ -115,9 +134,15 @@ public class FrameReader implements ControllerListener {
      * @return the current video time in sec
      */
     public double getCurrentVideoTimeInSec() {
+        if (aviReader != null) {
+            return aviReader.getTimeInSec(currentFrame);
+        }
         return player.getMediaTime().getSeconds();
     }
 
+    /**
+     * @return the JMF player; null when the video is read by AviReader
+     */
     public Player getPlayer() {
         return player;
     }
@@ -129,6 +154,9 @@ public class FrameReader implements ControllerListener {
      * @return
      */
     public BufferedImage grabImage_At_TimeInNanoSec(long seekTimeInNanoSec) {
+        if (aviReader != null) {
+            return readAviImage(aviReader.getFrameAt(seekTimeInNanoSec));
+        }
 
         frameGrabbingControl
                 = (FrameGrabbingControl) player.getControl(
@@ -168,6 +196,9 @@ public class FrameReader implements ControllerListener {
      * @return
      */
     public BufferedImage grabImage_At_Frame(int frame) {
+        if (aviReader != null) {
+            return readAviImage(frame);
+        }
         if (failedInitialization) {
             return null;
         }
@@ -197,6 +228,38 @@ public class FrameReader implements ControllerListener {
         return (BufferedImage) bufferToImage.createImage(buffer);
     }
 
+    /**
+     * Releases the player, or the AVI reader
+     */
+    public void close() {
+        if (aviReader != null) {
+            aviReader.close();
+        }
+        if (player != null) {
+            player.stop();
+            player.close();
+        }
+    }
+
+    /**
+     * Reads a frame with the AVI reader
+     *
+     * @param frame index of the frame
+     * @return the image of the frame; null when it cannot be read
+     */
+    private BufferedImage readAviImage(int frame) {
+        BufferedImage image = null;
+        try {
+            image = aviReader.readImage(frame);
+        } catch (IOException ioe) {
+            ioe.printStackTrace();
+        }
+        if (image != null) {
+            currentFrame = frame;
+        }
+        return image;
+    }
+
     boolean waitForState(int state) {
         synchronized (waitSync) {
             try {
@@ -38,7 +38,16 @@ public class MaskCreator {
      */
     public String createMask() {
 
-        short[][] maskGrayArray = find_Circles();
+        short[][] maskGrayArray;
+        try {
+            maskGrayArray = find_Circles();
+        } finally {
+            //The video is no longer needed
+            if (frameReader != null) {
+                frameReader.close();
+            }
+            frameReader = null;
+        }
         if (maskGrayArray == null) {
             return "Correct template image not found in the video file";
         }
@@ -858,6 +858,9 @@ public class VideoAnalyzer {
     public void cleanup() {
         this.frameImageDisplayer.setVisible(false);
         video = null;
+        if (frameReader != null) {
+            frameReader.close();
+        }
         frameReader = null;
         imgProc = null;
         graphics.dispose();